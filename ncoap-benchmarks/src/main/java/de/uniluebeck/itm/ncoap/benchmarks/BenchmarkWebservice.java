@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * A {@link de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice} that immediately answers
+ * every {@link de.uniluebeck.itm.ncoap.message.CoapRequest} with its (constant) binary status, i.e. the costs of the
+ * webservice itself are negligible compared to the costs of the framework.
+ *
+ * @author Oliver Kleine
+ */
+public class BenchmarkWebservice extends NotObservableWebservice<byte[]> {
+
+    private static final byte[] ETAG = new byte[]{0x01, 0x02, 0x03, 0x04};
+
+    /**
+     * @param path the path of the URI of this {@link BenchmarkWebservice}
+     * @param status the (constant) status of this {@link BenchmarkWebservice}
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} of the
+     *                 {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}
+     */
+    public BenchmarkWebservice(String path, byte[] status, ScheduledExecutorService executor){
+        super(path, status, 0, executor);
+    }
+
+
+    @Override
+    public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                   InetSocketAddress remoteEndpoint) throws Exception {
+
+        CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(), MessageCode.Name.CONTENT_205);
+        coapResponse.setContent(getSerializedResourceStatus(ContentFormat.APP_OCTET_STREAM),
+                ContentFormat.APP_OCTET_STREAM);
+
+        responseFuture.set(coapResponse);
+    }
+
+
+    @Override
+    public byte[] getSerializedResourceStatus(long contentFormat) {
+        return getStatus();
+    }
+
+
+    @Override
+    public byte[] getEtag(long contentFormat) {
+        return ETAG;
+    }
+
+
+    @Override
+    public void updateEtag(byte[] resourceStatus) {
+        //nothing to do (the status is constant)
+    }
+
+
+    @Override
+    public void shutdown() {
+        //nothing to do
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder;
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.HeaderDecodingException;
+import de.uniluebeck.itm.ncoap.communication.codec.OptionCodecException;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks for {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder} and
+ * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder} over typical message shapes, i.e.
+ * a GET request with several Uri-Path and Uri-Query options, an update notification and a request with 1 KB of
+ * payload. The messages are encoded and decoded without a surrounding
+ * {@link org.jboss.netty.channel.ChannelPipeline}.
+ *
+ * @author Oliver Kleine
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    /**
+     * The shapes of the messages to be encoded and decoded
+     */
+    public static enum Shape {
+        /**
+         * A confirmable GET request with Uri-Host, 3 Uri-Path, 2 Uri-Query and an Accept option
+         */
+        GET_WITH_QUERY,
+
+        /**
+         * A confirmable update notification with Observe, ETag, Max-Age and a small plain text payload
+         */
+        NOTIFICATION,
+
+        /**
+         * A confirmable POST request with 1 KB of binary payload
+         */
+        PAYLOAD_1KB
+    }
+
+    @Param
+    public Shape shape;
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("127.0.0.1", 5683);
+
+    private ExposedEncoder encoder;
+    private ExposedDecoder decoder;
+    private ExposedDecoder zeroCopyDecoder;
+
+    private CoapMessage coapMessage;
+    private byte[] encodedMessage;
+
+
+    @Setup
+    public void setup() throws Exception {
+        this.encoder = new ExposedEncoder();
+        this.decoder = new ExposedDecoder(false);
+        this.zeroCopyDecoder = new ExposedDecoder(true);
+
+        this.coapMessage = createCoapMessage(this.shape);
+
+        ChannelBuffer buffer = this.encoder.encode(this.coapMessage);
+        this.encodedMessage = new byte[buffer.readableBytes()];
+        buffer.readBytes(this.encodedMessage);
+    }
+
+
+    @Benchmark
+    public ChannelBuffer encode() throws Exception {
+        return this.encoder.encode(this.coapMessage);
+    }
+
+
+    //The decoder may modify the given buffer, so every decoding starts with a fresh copy of the encoded message
+    //(just like Netty provides a fresh buffer for every received datagram)
+    @Benchmark
+    public CoapMessage decode() throws Exception {
+        return this.decoder.decode(REMOTE_ENDPOINT, ChannelBuffers.copiedBuffer(this.encodedMessage));
+    }
+
+
+    @Benchmark
+    public CoapMessage decodeZeroCopy() throws Exception {
+        return this.zeroCopyDecoder.decode(REMOTE_ENDPOINT, ChannelBuffers.copiedBuffer(this.encodedMessage));
+    }
+
+
+    static CoapMessage createCoapMessage(Shape shape) throws Exception {
+        CoapMessage coapMessage;
+
+        switch(shape){
+            case GET_WITH_QUERY: {
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                        new URI("coap://example.org/sensors/temperature/living-room?unit=celsius&precision=2"));
+                coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+                coapMessage = coapRequest;
+                break;
+            }
+
+            case NOTIFICATION: {
+                CoapResponse coapResponse = new CoapResponse(MessageType.Name.CON, MessageCode.Name.CONTENT_205);
+                coapResponse.setObserve(4711);
+                coapResponse.setEtag(new byte[]{0x12, 0x34, 0x56, 0x78});
+                coapResponse.setMaxAge(120);
+                coapResponse.setContent("The temperature is 21.5 degrees celsius.".getBytes(CoapMessage.CHARSET),
+                        ContentFormat.TEXT_PLAIN_UTF8);
+                coapMessage = coapResponse;
+                break;
+            }
+
+            case PAYLOAD_1KB: {
+                CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.POST,
+                        new URI("coap://example.org/firmware/image"));
+                byte[] content = new byte[1024];
+                new Random(0).nextBytes(content);
+                coapRequest.setContent(content, ContentFormat.APP_OCTET_STREAM);
+                coapMessage = coapRequest;
+                break;
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+        }
+
+        coapMessage.setMessageID(12345);
+        coapMessage.setToken(new Token(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+
+        return coapMessage;
+    }
+
+
+    /**
+     * Makes {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder#encode(CoapMessage)} accessible
+     */
+    static class ExposedEncoder extends CoapMessageEncoder {
+
+        @Override
+        public ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
+            return super.encode(coapMessage);
+        }
+    }
+
+
+    /**
+     * Makes {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder#decode(InetSocketAddress,
+     * ChannelBuffer)} accessible
+     */
+    static class ExposedDecoder extends CoapMessageDecoder {
+
+        ExposedDecoder(boolean zeroCopy){
+            super(zeroCopy);
+        }
+
+        @Override
+        public CoapMessage decode(InetSocketAddress remoteEndpoint, ChannelBuffer buffer)
+                throws HeaderDecodingException, OptionCodecException {
+            return super.decode(remoteEndpoint, buffer);
+        }
+    }
+}
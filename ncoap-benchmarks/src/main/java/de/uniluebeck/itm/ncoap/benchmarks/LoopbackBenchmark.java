@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end benchmark of a request/response exchange between a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} and a
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} over the loopback interface, i.e. each
+ * operation is a confirmable GET request answered with a piggy-backed response. This covers the complete client
+ * and server pipelines including token and message ID allocation, reliability and dispatching.
+ *
+ * Every iteration uses a new {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} (with a new
+ * local port) to not run out of message IDs within {@link de.uniluebeck.itm.ncoap.communication.reliability
+ * .MessageIDFactory#EXCHANGE_LIFETIME}.
+ *
+ * @author Oliver Kleine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    /**
+     * The number of seconds to wait for a response before an operation fails
+     */
+    public static final int RESPONSE_TIMEOUT = 10;
+
+    @Param({"16", "1024"})
+    public int payloadSize;
+
+    private CoapServerApplication server;
+    private InetSocketAddress serverSocket;
+    private URI serviceUri;
+
+    private CoapClientApplication client;
+
+
+    @Setup(Level.Trial)
+    public void setupTrial() throws Exception {
+        this.server = new CoapServerApplication(0);
+        this.server.registerService(new BenchmarkWebservice("/benchmark", new byte[this.payloadSize],
+                this.server.getExecutor()));
+
+        this.serverSocket = new InetSocketAddress("127.0.0.1", this.server.getPort());
+        this.serviceUri = new URI("coap://127.0.0.1:" + this.server.getPort() + "/benchmark");
+    }
+
+
+    @Setup(Level.Iteration)
+    public void setupIteration(){
+        this.client = new CoapClientApplication("Benchmark Client");
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration(){
+        this.client.shutdown();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial(){
+        this.server.shutdown();
+    }
+
+
+    @Benchmark
+    public CoapResponse requestResponse() throws Exception {
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, this.serviceUri);
+
+        ResponseFuture responseFuture = new ResponseFuture();
+        this.client.sendCoapRequest(coapRequest, responseFuture, this.serverSocket);
+
+        return responseFuture.future.get(RESPONSE_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+
+    /**
+     * Completes a {@link com.google.common.util.concurrent.SettableFuture} with the first response or fails it
+     * if the exchange could not be completed.
+     */
+    private static class ResponseFuture extends ClientCallback {
+
+        private final SettableFuture<CoapResponse> future = SettableFuture.create();
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            this.future.set(coapResponse);
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            this.future.setException(new IllegalStateException("Transmission timeout!"));
+        }
+
+        @Override
+        public void processReset() {
+            this.future.setException(new IllegalStateException("Reset!"));
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            this.future.setException(new IllegalStateException(description));
+        }
+    }
+}
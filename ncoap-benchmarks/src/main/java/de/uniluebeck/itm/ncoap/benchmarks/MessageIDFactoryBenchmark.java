@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory;
+import org.jboss.netty.util.HashedWheelTimer;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark for {@link de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory#getNextMessageID(
+ * InetSocketAddress)} with several threads allocating message IDs concurrently.
+ *
+ * Since a message ID is not released before {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds the allocations
+ * are spread over {@link #NUMBER_OF_REMOTE_ENDPOINTS} remote endpoints and every iteration uses a new factory. That
+ * makes {@link MessageIDFactory#MODULUS} times {@link #NUMBER_OF_REMOTE_ENDPOINTS} message IDs available per
+ * iteration, i.e. the benchmark does not measure the exhaustion of message IDs.
+ *
+ * @author Oliver Kleine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class MessageIDFactoryBenchmark {
+
+    /**
+     * The number of remote endpoints (4096) the message IDs are allocated for
+     */
+    public static final int NUMBER_OF_REMOTE_ENDPOINTS = 4096;
+
+    private HashedWheelTimer timer;
+    private MessageIDFactory messageIDFactory;
+    private InetSocketAddress[] remoteEndpoints;
+
+
+    @Setup(Level.Trial)
+    public void setupTrial(){
+        this.timer = new HashedWheelTimer();
+
+        this.remoteEndpoints = new InetSocketAddress[NUMBER_OF_REMOTE_ENDPOINTS];
+        for(int i = 0; i < NUMBER_OF_REMOTE_ENDPOINTS; i++){
+            this.remoteEndpoints[i] = new InetSocketAddress("127.0.0.1", 10000 + i);
+        }
+    }
+
+
+    @Setup(Level.Iteration)
+    public void setupIteration(){
+        this.messageIDFactory = new MessageIDFactory(this.timer);
+    }
+
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration(){
+        this.messageIDFactory.shutdown();
+    }
+
+
+    @TearDown(Level.Trial)
+    public void tearDownTrial(){
+        this.timer.stop();
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState{
+
+        private int index;
+
+        @Setup
+        public void setup(){
+            this.index = (int) (Thread.currentThread().getId() % NUMBER_OF_REMOTE_ENDPOINTS);
+        }
+
+        private int nextIndex(){
+            this.index = (this.index + 1) % NUMBER_OF_REMOTE_ENDPOINTS;
+            return this.index;
+        }
+    }
+
+
+    @Benchmark
+    public int getNextMessageID(ThreadState threadState){
+        return this.messageIDFactory.getNextMessageID(this.remoteEndpoints[threadState.nextIndex()]);
+    }
+}
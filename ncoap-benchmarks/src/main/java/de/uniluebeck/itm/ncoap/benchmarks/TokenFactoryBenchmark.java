@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.benchmarks;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmark for {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory} under contention,
+ * i.e. several threads concurrently get a {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}
+ * and pass it back afterwards (as the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client
+ * .ClientCallbackManager} does for every completed exchange). The threads either share a single remote endpoint
+ * or are spread over several remote endpoints.
+ *
+ * @author Oliver Kleine
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TokenFactoryBenchmark {
+
+    @Param({"1", "16"})
+    public int numberOfRemoteEndpoints;
+
+    private TokenFactory tokenFactory;
+    private InetSocketAddress[] remoteEndpoints;
+    private AtomicInteger threadCounter;
+
+
+    @Setup
+    public void setup(){
+        this.tokenFactory = new TokenFactory(8);
+        this.threadCounter = new AtomicInteger(0);
+
+        this.remoteEndpoints = new InetSocketAddress[this.numberOfRemoteEndpoints];
+        for(int i = 0; i < this.numberOfRemoteEndpoints; i++){
+            this.remoteEndpoints[i] = new InetSocketAddress("127.0.0.1", 10000 + i);
+        }
+    }
+
+
+    @State(Scope.Thread)
+    public static class ThreadState{
+
+        private InetSocketAddress remoteEndpoint;
+
+        @Setup
+        public void setup(TokenFactoryBenchmark benchmark){
+            int index = benchmark.threadCounter.getAndIncrement() % benchmark.numberOfRemoteEndpoints;
+            this.remoteEndpoint = benchmark.remoteEndpoints[index];
+        }
+    }
+
+
+    @Benchmark
+    public boolean getAndPassBackToken(ThreadState threadState){
+        Token token = this.tokenFactory.getNextToken(threadState.remoteEndpoint);
+        return token != null && this.tokenFactory.passBackToken(threadState.remoteEndpoint, token);
+    }
+}
@@ -66,6 +66,12 @@ public abstract class CoapChannelPipelineFactory implements ChannelPipelineFacto
      */
     public static String OUTBOUND_RELIABILITY_HANDLER = "OutboundReliabilityHandler";
 
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler} or
+     * {@link de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler} instance of a CoAP application
+     */
+    public static final String BLOCKWISE_HANDLER = "BWH";
+
     private Map<String, ChannelHandler> handler;
 
     protected CoapChannelPipelineFactory(){
@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.handler.execution.ChannelEventRunnable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+
+/**
+ * A {@link RemoteEndpointOrderedExecutor} executes tasks on an underlying {@link Executor} such that tasks
+ * related to the same remote endpoint are executed one after another in the order of submission while tasks
+ * related to different remote endpoints are executed in parallel. Thus, state that is only accessed by tasks
+ * related to a single remote endpoint does not need to be guarded by locks.
+ *
+ * When used with an {@link org.jboss.netty.handler.execution.ExecutionHandler}, tasks are related to the remote
+ * address of the {@link MessageEvent} they process. Tasks not related to any remote endpoint are passed to the
+ * underlying {@link Executor} immediately.
+ *
+ * @author Oliver Kleine
+ */
+public class RemoteEndpointOrderedExecutor implements Executor {
+
+    /**
+     * The maximum number of tasks (16) related to the same remote endpoint to be executed before the thread is
+     * handed back to the underlying {@link Executor} (to avoid starvation of other remote endpoints).
+     */
+    public static final int MAX_TASKS_PER_RUN = 16;
+
+    private static Logger log = LoggerFactory.getLogger(RemoteEndpointOrderedExecutor.class.getName());
+
+    private final Executor executor;
+    private final ConcurrentMap<InetSocketAddress, TaskQueue> taskQueues;
+
+
+    /**
+     * Creates a new instance of {@link RemoteEndpointOrderedExecutor}
+     *
+     * @param executor the underlying {@link Executor} to actually execute the tasks
+     */
+    public RemoteEndpointOrderedExecutor(Executor executor){
+        this.executor = executor;
+        this.taskQueues = new ConcurrentHashMap<>();
+    }
+
+
+    /**
+     * Executes the given task after all tasks previously submitted for the same remote endpoint are finished. If the
+     * given task is a {@link ChannelEventRunnable} processing a {@link MessageEvent}, the remote address of that
+     * event is considered the related remote endpoint. All other tasks are executed without ordering constraints.
+     *
+     * @param task the task to be executed
+     */
+    @Override
+    public void execute(Runnable task) {
+        if(task instanceof ChannelEventRunnable){
+            ChannelEvent event = ((ChannelEventRunnable) task).getEvent();
+
+            if(event instanceof MessageEvent){
+                SocketAddress remoteAddress = ((MessageEvent) event).getRemoteAddress();
+
+                if(remoteAddress instanceof InetSocketAddress){
+                    execute((InetSocketAddress) remoteAddress, task);
+                    return;
+                }
+            }
+        }
+
+        this.executor.execute(task);
+    }
+
+
+    /**
+     * Executes the given task after all tasks previously submitted for the given remote endpoint are finished.
+     *
+     * @param remoteEndpoint the remote endpoint the given task is related to
+     * @param task the task to be executed
+     */
+    public void execute(InetSocketAddress remoteEndpoint, Runnable task){
+        while(true){
+            TaskQueue taskQueue = this.taskQueues.get(remoteEndpoint);
+
+            if(taskQueue == null){
+                TaskQueue newTaskQueue = new TaskQueue(remoteEndpoint);
+                taskQueue = this.taskQueues.putIfAbsent(remoteEndpoint, newTaskQueue);
+
+                if(taskQueue == null)
+                    taskQueue = newTaskQueue;
+            }
+
+            //a queue is retired when it ran empty, i.e. it was (or is about to be) removed from the map
+            if(taskQueue.add(task))
+                return;
+        }
+    }
+
+
+    private class TaskQueue implements Runnable {
+
+        private final InetSocketAddress remoteEndpoint;
+        private final Queue<Runnable> tasks;
+        private boolean scheduled;
+        private boolean retired;
+
+        private TaskQueue(InetSocketAddress remoteEndpoint){
+            this.remoteEndpoint = remoteEndpoint;
+            this.tasks = new ArrayDeque<>();
+        }
+
+
+        private boolean add(Runnable task){
+            synchronized(this){
+                if(this.retired)
+                    return false;
+
+                this.tasks.add(task);
+
+                if(this.scheduled)
+                    return true;
+
+                this.scheduled = true;
+            }
+
+            executor.execute(this);
+            return true;
+        }
+
+
+        @Override
+        public void run() {
+            for(int i = 0; i < MAX_TASKS_PER_RUN; i++){
+                Runnable task;
+
+                synchronized(this){
+                    task = this.tasks.poll();
+
+                    if(task == null){
+                        this.scheduled = false;
+                        this.retired = true;
+                        taskQueues.remove(this.remoteEndpoint, this);
+                        return;
+                    }
+                }
+
+                try{
+                    task.run();
+                }
+                catch(Exception ex){
+                    log.error("Exception while executing task (remote endpoint: {})!", this.remoteEndpoint, ex);
+                }
+            }
+
+            //give other remote endpoints a chance
+            executor.execute(this);
+        }
+    }
+}
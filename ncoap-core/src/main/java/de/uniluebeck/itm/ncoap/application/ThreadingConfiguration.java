@@ -0,0 +1,189 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A {@link ThreadingConfiguration} defines the threads used by a
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} or a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}. There are three separate pools:
+ *
+ * <ul>
+ *     <li>the I/O workers reading from and writing to the socket,</li>
+ *     <li>the protocol threads decoding inbound messages, processing the reliability and dispatching layers and
+ *     executing the reliability timeouts (retransmissions, empty ACKs, message ID retirements) and</li>
+ *     <li>the application threads processing inbound requests in
+ *     {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s, resp. inbound responses in
+ *     {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s.</li>
+ * </ul>
+ *
+ * Thus, a slow {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice} does neither delay socket
+ * reads nor retransmissions. Optionally, the protocol threads process inbound messages ordered per remote endpoint
+ * (see {@link RemoteEndpointOrderedExecutor}).
+ *
+ * <b>Note:</b> A datagram channel is always served by a single I/O worker, i.e. more I/O workers are only useful
+ * for applications with multiple sockets.
+ *
+ * @author Oliver Kleine
+ */
+public class ThreadingConfiguration {
+
+    private final int ioThreads;
+    private final int protocolThreads;
+    private final int applicationThreads;
+    private final boolean orderedPerRemoteEndpoint;
+
+    /**
+     * Creates a new instance of {@link ThreadingConfiguration}
+     *
+     * @param ioThreads the number of I/O workers
+     * @param protocolThreads the number of threads to process the protocol layers and timeouts
+     * @param applicationThreads the number of threads to process inbound requests, resp. responses
+     * @param orderedPerRemoteEndpoint <code>true</code> if inbound messages from the same remote endpoint are to
+     *                                 be processed one after another by the protocol threads and <code>false</code>
+     *                                 otherwise
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given numbers is smaller than 1
+     */
+    public ThreadingConfiguration(int ioThreads, int protocolThreads, int applicationThreads,
+                                  boolean orderedPerRemoteEndpoint) throws IllegalArgumentException {
+
+        if(ioThreads < 1 || protocolThreads < 1 || applicationThreads < 1)
+            throw new IllegalArgumentException("The number of threads per pool must be at least 1.");
+
+        this.ioThreads = ioThreads;
+        this.protocolThreads = protocolThreads;
+        this.applicationThreads = applicationThreads;
+        this.orderedPerRemoteEndpoint = orderedPerRemoteEndpoint;
+    }
+
+    /**
+     * Returns a {@link ThreadingConfiguration} with a single I/O worker, as many protocol threads as there are
+     * processors (at least 2) and twice as many application threads (at least 4). Inbound messages are not
+     * ordered per remote endpoint.
+     *
+     * @return a {@link ThreadingConfiguration} with default values
+     */
+    public static ThreadingConfiguration getDefault(){
+        int processors = Runtime.getRuntime().availableProcessors();
+        return new ThreadingConfiguration(1, Math.max(processors, 2), Math.max(processors * 2, 4), false);
+    }
+
+    /**
+     * Returns the number of I/O workers
+     * @return the number of I/O workers
+     */
+    public int getIoThreads() {
+        return this.ioThreads;
+    }
+
+    /**
+     * Returns the number of threads to process the protocol layers and timeouts
+     * @return the number of threads to process the protocol layers and timeouts
+     */
+    public int getProtocolThreads() {
+        return this.protocolThreads;
+    }
+
+    /**
+     * Returns the number of threads to process inbound requests, resp. responses
+     * @return the number of threads to process inbound requests, resp. responses
+     */
+    public int getApplicationThreads() {
+        return this.applicationThreads;
+    }
+
+    /**
+     * Returns <code>true</code> if inbound messages from the same remote endpoint are processed one after another
+     * and <code>false</code> otherwise
+     *
+     * @return <code>true</code> if inbound messages from the same remote endpoint are processed one after another
+     * and <code>false</code> otherwise
+     */
+    public boolean isOrderedPerRemoteEndpoint() {
+        return this.orderedPerRemoteEndpoint;
+    }
+
+    /**
+     * Creates the {@link ExecutorService} to provide the I/O workers
+     *
+     * @param name the name of the application (used as prefix of the thread names)
+     *
+     * @return the {@link ExecutorService} to provide the I/O workers
+     */
+    public ExecutorService createIoExecutor(String name){
+        return Executors.newCachedThreadPool(createThreadFactory(name + " I/O Thread#%d"));
+    }
+
+    /**
+     * Creates the {@link ScheduledThreadPoolExecutor} to process the protocol layers and timeouts
+     *
+     * @param name the name of the application (used as prefix of the thread names)
+     *
+     * @return the {@link ScheduledThreadPoolExecutor} to process the protocol layers and timeouts
+     */
+    public ScheduledThreadPoolExecutor createProtocolExecutor(String name){
+        return createScheduledExecutor(this.protocolThreads, name + " Protocol Thread#%d");
+    }
+
+    /**
+     * Creates the {@link ScheduledThreadPoolExecutor} to process inbound requests, resp. responses
+     *
+     * @param name the name of the application (used as prefix of the thread names)
+     *
+     * @return the {@link ScheduledThreadPoolExecutor} to process inbound requests, resp. responses
+     */
+    public ScheduledThreadPoolExecutor createApplicationExecutor(String name){
+        return createScheduledExecutor(this.applicationThreads, name + " Application Thread#%d");
+    }
+
+
+    private static ScheduledThreadPoolExecutor createScheduledExecutor(int threads, String nameFormat){
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads,
+                createThreadFactory(nameFormat));
+
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+
+    private static ThreadFactory createThreadFactory(String nameFormat){
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+    }
+
+
+    @Override
+    public String toString(){
+        return "[I/O threads: " + this.ioThreads + ", protocol threads: " + this.protocolThreads +
+                ", application threads: " + this.applicationThreads + ", ordered per remote endpoint: " +
+                this.orderedPerRemoteEndpoint + "]";
+    }
+}
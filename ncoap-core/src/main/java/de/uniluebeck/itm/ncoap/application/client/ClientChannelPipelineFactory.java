@@ -26,15 +26,25 @@
 package de.uniluebeck.itm.ncoap.application.client;
 
 import de.uniluebeck.itm.ncoap.application.CoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor;
+import de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler;
+import de.uniluebeck.itm.ncoap.communication.caching.ClientCachingHandler;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCache;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallbackManager;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler;
 import de.uniluebeck.itm.ncoap.communication.observing.ClientObservationHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.ScheduledExecutorTimer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.DatagramChannel;
 import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.util.Timer;
+
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
 
@@ -58,25 +68,122 @@ public class ClientChannelPipelineFactory extends CoapChannelPipelineFactory {
      */
     public static String CLIENT_CALLBACK_MANAGER = "CCM";
 
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler}
+     * instance of a CoAP client
+     */
+    public static String CONGESTION_CONTROL_HANDLER = "CCH";
+
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler}
+     * instance of a CoAP client
+     */
+    public static String CIRCUIT_BREAKER_HANDLER = "CBH";
+
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.caching.ClientCachingHandler}
+     * instance of a CoAP client
+     */
+    public static String CLIENT_CACHING_HANDLER = "CAH";
+
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory} that processes the protocol layers with the
+     * given protocol executor and invokes the
+     * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s with the given application
+     * executor. The callbacks are always invoked in the order of reception per remote endpoint.
+     *
+     * @param protocolExecutor the {@link ScheduledExecutorService} to process inbound messages, i.e. decoding,
+     *                         reliability and dispatching
+     * @param applicationExecutor the {@link Executor} to invoke the
+     *                            {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule retransmissions and message ID retirements
+     * @param tokenFactory The {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory} to be used
+     *                     for generating {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s for
+     *                     outbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
+     * @param configuration the {@link ClientConfiguration} of the client
+     * @param congestionControlHandler the
+     *                                 {@link de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler}
+     *                                 to limit the outbound requests per remote endpoint (shared by all sockets of a
+     *                                 client) or <code>null</code> for no congestion control at all
+     * @param circuitBreakerHandler the
+     *                              {@link de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler} to fail
+     *                              requests to unreachable remote endpoints immediately (shared by all sockets of a
+     *                              client) or <code>null</code> for no circuit breaker at all
+     * @param responseCache the {@link de.uniluebeck.itm.ncoap.communication.caching.ResponseCache} to answer
+     *                      GET requests from (shared by all sockets of a client) or <code>null</code> for no
+     *                      caching at all
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService protocolExecutor, Executor applicationExecutor,
+                                        Timer timer, TokenFactory tokenFactory, ClientConfiguration configuration,
+                                        CongestionControlHandler congestionControlHandler,
+                                        CircuitBreakerHandler circuitBreakerHandler, ResponseCache responseCache){
+
+        Executor inboundExecutor = configuration.getThreadingConfiguration().isOrderedPerRemoteEndpoint() ?
+                new RemoteEndpointOrderedExecutor(protocolExecutor) : protocolExecutor;
+
+        addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(inboundExecutor));
+
+        addChannelHandler(ENCODER, new CoapMessageEncoder());
+        addChannelHandler(DECODER, new CoapMessageDecoder(true));
+
+        addChannelHandler(OUTBOUND_RELIABILITY_HANDLER, new OutboundReliabilityHandler(timer,
+                configuration.getRetransmissionPolicy()));
+
+        if(congestionControlHandler != null){
+            addChannelHandler(CONGESTION_CONTROL_HANDLER, congestionControlHandler);
+        }
+
+        if(circuitBreakerHandler != null){
+            addChannelHandler(CIRCUIT_BREAKER_HANDLER, circuitBreakerHandler);
+        }
+
+        addChannelHandler(BLOCKWISE_HANDLER, new ClientBlockwiseHandler());
+        addChannelHandler(CLIENT_OBSERVATION_HANDLER, new ClientObservationHandler());
+
+        if(responseCache != null){
+            addChannelHandler(CLIENT_CACHING_HANDLER, new ClientCachingHandler(responseCache));
+        }
+
+        addChannelHandler(CLIENT_CALLBACK_MANAGER, new ClientCallbackManager(protocolExecutor, tokenFactory,
+                new RemoteEndpointOrderedExecutor(applicationExecutor)));
+    }
+
     /**
      * Creates a new instance of {@link ClientChannelPipelineFactory}.
      *
      * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
      *
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule retransmissions and message ID retirements
+     *
      * @param tokenFactory The {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory} to be used
      *                     for generating {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s for
      *                     outbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
      */
-    public ClientChannelPipelineFactory(ScheduledExecutorService executor, TokenFactory tokenFactory){
+    public ClientChannelPipelineFactory(ScheduledExecutorService executor, Timer timer, TokenFactory tokenFactory){
 
         addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(executor));
 
         addChannelHandler(ENCODER, new CoapMessageEncoder());
-        addChannelHandler(DECODER, new CoapMessageDecoder());
+        addChannelHandler(DECODER, new CoapMessageDecoder(true));
 
-        addChannelHandler(OUTBOUND_RELIABILITY_HANDLER, new OutboundReliabilityHandler(executor));
+        addChannelHandler(OUTBOUND_RELIABILITY_HANDLER, new OutboundReliabilityHandler(timer));
+        addChannelHandler(BLOCKWISE_HANDLER, new ClientBlockwiseHandler());
         addChannelHandler(CLIENT_OBSERVATION_HANDLER, new ClientObservationHandler());
         addChannelHandler(CLIENT_CALLBACK_MANAGER, new ClientCallbackManager(executor, tokenFactory));
     }
 
+    /**
+     * Creates a new instance of {@link ClientChannelPipelineFactory} that uses the given
+     * {@link ScheduledExecutorService} to schedule all reliability related tasks, too.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     *
+     * @param tokenFactory The {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory} to be used
+     *                     for generating {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s for
+     *                     outbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
+     */
+    public ClientChannelPipelineFactory(ScheduledExecutorService executor, TokenFactory tokenFactory){
+        this(executor, new ScheduledExecutorTimer(executor), tokenFactory);
+    }
+
 }
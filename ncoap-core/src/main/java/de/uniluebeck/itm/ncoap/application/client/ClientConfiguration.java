@@ -0,0 +1,236 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCacheConfiguration;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy;
+
+/**
+ * A {@link ClientConfiguration} bundles the settings of a {@link CoapClientApplication}. Instances are created
+ * with a {@link Builder}, e.g.
+ *
+ * <pre>
+ * ClientConfiguration configuration = new ClientConfiguration.Builder()
+ *         .setThreadingConfiguration(new ThreadingConfiguration(1, 4, 8, true))
+ *         .setMaxTokenLength(4)
+ *         .build();
+ * </pre>
+ *
+ * Congestion control, circuit breaker and response cache are disabled unless configured. Without a socket pool, a client uses a
+ * single socket.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientConfiguration {
+
+    private final ThreadingConfiguration threadingConfiguration;
+    private final int maxTokenLength;
+    private final RetransmissionPolicy retransmissionPolicy;
+    private final CongestionControlConfiguration congestionControlConfiguration;
+    private final CircuitBreakerConfiguration circuitBreakerConfiguration;
+    private final SocketPoolConfiguration socketPoolConfiguration;
+    private final ResponseCacheConfiguration responseCacheConfiguration;
+
+    private ClientConfiguration(Builder builder){
+        this.threadingConfiguration = builder.threadingConfiguration;
+        this.maxTokenLength = builder.maxTokenLength;
+        this.retransmissionPolicy = builder.retransmissionPolicy;
+        this.congestionControlConfiguration = builder.congestionControlConfiguration;
+        this.circuitBreakerConfiguration = builder.circuitBreakerConfiguration;
+        this.socketPoolConfiguration = builder.socketPoolConfiguration;
+        this.responseCacheConfiguration = builder.responseCacheConfiguration;
+    }
+
+    /**
+     * Returns a {@link ClientConfiguration} with the default {@link ThreadingConfiguration}, tokens of up to 8
+     * bytes, the {@link RetransmissionPolicy} according to RFC 7252 and a single socket.
+     *
+     * @return a {@link ClientConfiguration} with default values
+     */
+    public static ClientConfiguration getDefault(){
+        return new Builder().build();
+    }
+
+    /**
+     * Returns the {@link ThreadingConfiguration} to define the I/O, protocol and application threads
+     * @return the {@link ThreadingConfiguration} to define the I/O, protocol and application threads
+     */
+    public ThreadingConfiguration getThreadingConfiguration() {
+        return this.threadingConfiguration;
+    }
+
+    /**
+     * Returns the maximum length of the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s
+     * @return the maximum length of the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s
+     */
+    public int getMaxTokenLength() {
+        return this.maxTokenLength;
+    }
+
+    /**
+     * Returns the {@link RetransmissionPolicy} to calculate the delays between retransmissions
+     * @return the {@link RetransmissionPolicy} to calculate the delays between retransmissions
+     */
+    public RetransmissionPolicy getRetransmissionPolicy() {
+        return this.retransmissionPolicy;
+    }
+
+    /**
+     * Returns the {@link CongestionControlConfiguration} or <code>null</code> for no congestion control
+     * @return the {@link CongestionControlConfiguration} or <code>null</code> for no congestion control
+     */
+    public CongestionControlConfiguration getCongestionControlConfiguration() {
+        return this.congestionControlConfiguration;
+    }
+
+    /**
+     * Returns the {@link CircuitBreakerConfiguration} or <code>null</code> for no circuit breaker
+     * @return the {@link CircuitBreakerConfiguration} or <code>null</code> for no circuit breaker
+     */
+    public CircuitBreakerConfiguration getCircuitBreakerConfiguration() {
+        return this.circuitBreakerConfiguration;
+    }
+
+    /**
+     * Returns the {@link SocketPoolConfiguration} or <code>null</code> for a single socket
+     * @return the {@link SocketPoolConfiguration} or <code>null</code> for a single socket
+     */
+    public SocketPoolConfiguration getSocketPoolConfiguration() {
+        return this.socketPoolConfiguration;
+    }
+
+    /**
+     * Returns the {@link ResponseCacheConfiguration} or <code>null</code> for no response cache
+     * @return the {@link ResponseCacheConfiguration} or <code>null</code> for no response cache
+     */
+    public ResponseCacheConfiguration getResponseCacheConfiguration() {
+        return this.responseCacheConfiguration;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[threading: " + this.threadingConfiguration + ", max token length: " + this.maxTokenLength +
+                ", retransmission policy: " + this.retransmissionPolicy + ", congestion control: " +
+                this.congestionControlConfiguration + ", circuit breaker: " + this.circuitBreakerConfiguration +
+                ", socket pool: " + this.socketPoolConfiguration + ", response cache: " +
+                this.responseCacheConfiguration + "]";
+    }
+
+
+    /**
+     * Builder for {@link ClientConfiguration}s. All settings are optional.
+     */
+    public static class Builder {
+
+        private ThreadingConfiguration threadingConfiguration = ThreadingConfiguration.getDefault();
+        private int maxTokenLength = 8;
+        private RetransmissionPolicy retransmissionPolicy = RetransmissionPolicy.getDefault();
+        private CongestionControlConfiguration congestionControlConfiguration;
+        private CircuitBreakerConfiguration circuitBreakerConfiguration;
+        private SocketPoolConfiguration socketPoolConfiguration;
+        private ResponseCacheConfiguration responseCacheConfiguration;
+
+        /**
+         * Sets the {@link ThreadingConfiguration} (default: {@link ThreadingConfiguration#getDefault()})
+         */
+        public Builder setThreadingConfiguration(ThreadingConfiguration threadingConfiguration){
+            if(threadingConfiguration == null)
+                throw new IllegalArgumentException("Threading configuration must not be null.");
+
+            this.threadingConfiguration = threadingConfiguration;
+            return this;
+        }
+
+        /**
+         * Sets the maximum token length between <code>0</code> and <code>8</code> (default: <code>8</code>). This
+         * limits the number of parallel message exchanges with one server (see
+         * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory}).
+         */
+        public Builder setMaxTokenLength(int maxTokenLength){
+            if(maxTokenLength < 0 || maxTokenLength > 8)
+                throw new IllegalArgumentException("Token length must be between 0 and 8 (both inclusive)");
+
+            this.maxTokenLength = maxTokenLength;
+            return this;
+        }
+
+        /**
+         * Sets the {@link RetransmissionPolicy} (default: {@link RetransmissionPolicy#getDefault()}), e.g.
+         * {@link de.uniluebeck.itm.ncoap.communication.reliability.AdaptiveRetransmissionPolicy} to adapt the
+         * retransmission timeout to the round trip time per remote endpoint
+         */
+        public Builder setRetransmissionPolicy(RetransmissionPolicy retransmissionPolicy){
+            if(retransmissionPolicy == null)
+                throw new IllegalArgumentException("Retransmission policy must not be null.");
+
+            this.retransmissionPolicy = retransmissionPolicy;
+            return this;
+        }
+
+        /**
+         * Sets the {@link CongestionControlConfiguration} (default: <code>null</code>, i.e. no congestion control)
+         */
+        public Builder setCongestionControlConfiguration(CongestionControlConfiguration configuration){
+            this.congestionControlConfiguration = configuration;
+            return this;
+        }
+
+        /**
+         * Sets the {@link CircuitBreakerConfiguration} (default: <code>null</code>, i.e. no circuit breaker)
+         */
+        public Builder setCircuitBreakerConfiguration(CircuitBreakerConfiguration configuration){
+            this.circuitBreakerConfiguration = configuration;
+            return this;
+        }
+
+        /**
+         * Sets the {@link SocketPoolConfiguration} (default: <code>null</code>, i.e. a single socket)
+         */
+        public Builder setSocketPoolConfiguration(SocketPoolConfiguration configuration){
+            this.socketPoolConfiguration = configuration;
+            return this;
+        }
+
+        /**
+         * Sets the {@link ResponseCacheConfiguration} (default: <code>null</code>, i.e. no response cache)
+         */
+        public Builder setResponseCacheConfiguration(ResponseCacheConfiguration configuration){
+            this.responseCacheConfiguration = configuration;
+            return this;
+        }
+
+        /**
+         * Returns a new {@link ClientConfiguration} with the settings of this {@link Builder}
+         * @return a new {@link ClientConfiguration} with the settings of this {@link Builder}
+         */
+        public ClientConfiguration build(){
+            return new ClientConfiguration(this);
+        }
+    }
+}
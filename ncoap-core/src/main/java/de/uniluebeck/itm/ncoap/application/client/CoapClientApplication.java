@@ -25,10 +25,23 @@
 
 package de.uniluebeck.itm.ncoap.application.client;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor;
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCacheConfiguration;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.BulkClientCallback;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallbackManager;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.OutboundMessageWrapper;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ResponseFuture;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.HashedWheelReliabilityTimer;
 import de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler;
 import de.uniluebeck.itm.ncoap.message.*;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
@@ -37,12 +50,16 @@ import org.jboss.netty.channel.socket.DatagramChannel;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.Collection;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An instance of {@link CoapClientApplication} is the entry point to send {@link CoapMessage}s to a (remote)
@@ -62,38 +79,32 @@ public class CoapClientApplication {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private ScheduledThreadPoolExecutor exeutor;
-    private DatagramChannel channel;
+    private ScheduledExecutorService protocolExecutor;
+    private ScheduledExecutorService applicationExecutor;
+    private RemoteEndpointOrderedExecutor outboundExecutor;
+    private Timer timer;
+    private DatagramChannel[] channels;
+    private SocketPoolConfiguration.SelectionPolicy selectionPolicy;
+    private AtomicInteger nextChannel;
+    private ResponseCache responseCache;
+    private CongestionControlHandler congestionControlHandler;
+    private CircuitBreakerHandler circuitBreakerHandler;
 
     private String name;
 
     /**
      * Creates a new instance of {@link CoapClientApplication}.
-     * 
+     *
      * @param name the name of the application (used for logging purposes)
      * @param port the port, this {@link CoapClientApplication} should be bound to (use <code>0</code> for
-     *             arbitrary port)
-     * @param numberOfThreads the number of threads to be used for I/O operations. The minimum number is 4, i.e. even
-     *                        if the given number is smaller then 4, the application will use 4 threads.
-     *                        
-     * @param maxTokenLength the maximum length of
-     *                       {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s to be created by
-     *                       the {@link TokenFactory}. The minimum length is <code>0</code>, the maximum length
-     *                       (and default value) is <code>8</code>. This can be used to limit the amount of parallel
-     *                       message exchanges with one server (see {@link TokenFactory} for details).
+     *             arbitrary port). With a {@link SocketPoolConfiguration} only the first socket is bound to
+     *             this port, all others to arbitrary ports.
+     * @param configuration the {@link ClientConfiguration} to be used
      */
-    public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength){
+    public CoapClientApplication(String name, int port, ClientConfiguration configuration){
 
         this.name = name;
 
-        if(maxTokenLength < 0 || maxTokenLength > 8)
-            throw new IllegalArgumentException("Token length must be between 0 and 8 (both inclusive)");
-
-        int threads = Math.max(numberOfThreads, 4);
-
-        ThreadFactory threadFactory =
-                new ThreadFactoryBuilder().setNameFormat(name + " I/O worker #%d").build();
-
         ThreadRenamingRunnable.setThreadNameDeterminer(new ThreadNameDeterminer() {
             @Override
             public String determineThreadName(String currentThreadName, String proposedThreadName) throws Exception {
@@ -101,33 +112,98 @@ public class CoapClientApplication {
             }
         });
 
-        this.exeutor = new ScheduledThreadPoolExecutor(threads, threadFactory);
-        this.exeutor.setRemoveOnCancelPolicy(true);
-
-        TokenFactory tokenFactory = new TokenFactory(maxTokenLength);
-
-        //Create factories for channel and pipeline
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(exeutor, threads/2);
-        ClientChannelPipelineFactory clientChannelPipelineFactory =
-                new ClientChannelPipelineFactory(exeutor, tokenFactory);
-
-        //Create and configure bootstrap
-        ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
-        bootstrap.setPipelineFactory(clientChannelPipelineFactory);
-        bootstrap.setOption("receiveBufferSizePredictor",
-                new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
-
-        //Create datagram channel
-        this.channel = (DatagramChannel) bootstrap.bind(new InetSocketAddress(port));
-
-        //set the outbound reliability handler with its channel handler context
-        ChannelPipeline pipeline = this.channel.getPipeline();
-        String handlerName = ClientChannelPipelineFactory.OUTBOUND_RELIABILITY_HANDLER;
-        ChannelHandlerContext ctx = pipeline.getContext(handlerName);
-        ((OutboundReliabilityHandler) pipeline.get(handlerName)).setChannelHandlerContext(ctx);
-
+        log.info("Client configuration: {}", configuration);
+
+        ThreadingConfiguration threadingConfiguration = configuration.getThreadingConfiguration();
+        this.protocolExecutor = threadingConfiguration.createProtocolExecutor(name);
+        this.applicationExecutor = threadingConfiguration.createApplicationExecutor(name);
+
+        //Outbound messages to the same remote endpoint keep their order if inbound messages do so
+        this.outboundExecutor = threadingConfiguration.isOrderedPerRemoteEndpoint() ?
+                new RemoteEndpointOrderedExecutor(this.protocolExecutor) : null;
+
+        //Create timer for retransmissions and message ID retirements
+        ThreadFactory timerThreadFactory = new ThreadFactoryBuilder().setNameFormat(name + " timer").build();
+        this.timer = new HashedWheelReliabilityTimer(timerThreadFactory, this.protocolExecutor);
+
+        TokenFactory tokenFactory = new TokenFactory(configuration.getMaxTokenLength());
+
+        //Responses cached via one socket may answer requests via any other socket
+        ResponseCacheConfiguration responseCacheConfiguration = configuration.getResponseCacheConfiguration();
+        this.responseCache = responseCacheConfiguration == null ? null :
+                new ResponseCache(responseCacheConfiguration);
+
+        //The limits and circuits apply per remote endpoint, regardless of the socket
+        CongestionControlConfiguration congestionControlConfiguration =
+                configuration.getCongestionControlConfiguration();
+        this.congestionControlHandler = congestionControlConfiguration == null ? null :
+                new CongestionControlHandler(congestionControlConfiguration, this.timer,
+                        configuration.getRetransmissionPolicy());
+
+        CircuitBreakerConfiguration circuitBreakerConfiguration = configuration.getCircuitBreakerConfiguration();
+        this.circuitBreakerHandler = circuitBreakerConfiguration == null ? null :
+                new CircuitBreakerHandler(circuitBreakerConfiguration, this.timer);
+
+        //Create factory for channels (shared by all sockets)
+        ChannelFactory channelFactory = new NioDatagramChannelFactory(threadingConfiguration.createIoExecutor(name),
+                threadingConfiguration.getIoThreads());
+
+        SocketPoolConfiguration socketPoolConfiguration = configuration.getSocketPoolConfiguration();
+        int numberOfSockets = socketPoolConfiguration == null ? 1 : socketPoolConfiguration.getNumberOfSockets();
+        this.selectionPolicy = socketPoolConfiguration == null ?
+                SocketPoolConfiguration.SelectionPolicy.ROUND_ROBIN : socketPoolConfiguration.getSelectionPolicy();
+        this.nextChannel = new AtomicInteger(0);
+        this.channels = new DatagramChannel[numberOfSockets];
+
+        for(int i = 0; i < numberOfSockets; i++){
+            //Each socket needs its own handlers, i.e. message IDs, open requests and callbacks (except for the
+            //congestion control, circuit breaker and response cache)
+            ClientChannelPipelineFactory clientChannelPipelineFactory = new ClientChannelPipelineFactory(
+                    this.protocolExecutor, this.applicationExecutor, this.timer, tokenFactory, configuration,
+                    this.congestionControlHandler, this.circuitBreakerHandler, this.responseCache);
+
+            //Create and configure bootstrap
+            ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
+            bootstrap.setPipelineFactory(clientChannelPipelineFactory);
+            bootstrap.setOption("receiveBufferSizePredictor",
+                    new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
+
+            //Create datagram channel (only the first one is bound to the given port)
+            this.channels[i] = (DatagramChannel) bootstrap.bind(new InetSocketAddress(i == 0 ? port : 0));
+
+            //set the outbound reliability handler with its channel handler context
+            ChannelPipeline pipeline = this.channels[i].getPipeline();
+            String handlerName = ClientChannelPipelineFactory.OUTBOUND_RELIABILITY_HANDLER;
+            ChannelHandlerContext ctx = pipeline.getContext(handlerName);
+            ((OutboundReliabilityHandler) pipeline.get(handlerName)).setChannelHandlerContext(ctx);
+
+            log.info("New client channel created for address {}", this.channels[i].getLocalAddress());
+        }
+    }
 
-        log.info("New client channel created for address {}", this.channel.getLocalAddress());
+    /**
+     * Creates a new instance of {@link CoapClientApplication}.
+     * 
+     * @param name the name of the application (used for logging purposes)
+     * @param port the port, this {@link CoapClientApplication} should be bound to (use <code>0</code> for
+     *             arbitrary port)
+     * @param numberOfThreads the number of threads to be used for the protocol layers and for the
+     *                        {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s
+     *                        (each). The minimum number is 4, i.e. even if the given number is smaller then 4, the
+     *                        application will use 4 threads.
+     *                        
+     * @param maxTokenLength the maximum length of
+     *                       {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s to be created by
+     *                       the {@link TokenFactory}. The minimum length is <code>0</code>, the maximum length
+     *                       (and default value) is <code>8</code>. This can be used to limit the amount of parallel
+     *                       message exchanges with one server (see {@link TokenFactory} for details).
+     */
+    public CoapClientApplication(String name, int port, int numberOfThreads, int maxTokenLength){
+        this(name, port, new ClientConfiguration.Builder()
+                .setThreadingConfiguration(new ThreadingConfiguration(1, Math.max(numberOfThreads, 4),
+                        Math.max(numberOfThreads, 4), false))
+                .setMaxTokenLength(maxTokenLength)
+                .build());
     }
 
     /**
@@ -211,13 +287,14 @@ public class CoapClientApplication {
     public void sendCoapRequest(final CoapRequest coapRequest, final ClientCallback clientCallback,
                                 final InetSocketAddress remoteEndpoint){
 
-        exeutor.submit(new Runnable() {
+        execute(remoteEndpoint, new Runnable() {
 
             @Override
             public void run() {
                 OutboundMessageWrapper message = new OutboundMessageWrapper(coapRequest, clientCallback);
 
-                ChannelFuture future = Channels.write(channel, message, remoteEndpoint);
+                ChannelFuture future = Channels.write(selectChannel(remoteEndpoint, coapRequest), message,
+                        remoteEndpoint);
                 future.addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture future) throws Exception {
@@ -234,6 +311,111 @@ public class CoapClientApplication {
     }
 
 
+    /**
+     * Sends a {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to the given remote endpoint, i.e. CoAP server or
+     * proxy, and returns a {@link com.google.common.util.concurrent.ListenableFuture} for the
+     * {@link de.uniluebeck.itm.ncoap.message.CoapResponse} (see
+     * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ResponseFuture} for details).
+     *
+     * Unlike {@link #sendCoapRequest(CoapRequest, ClientCallback, InetSocketAddress)} the request is written with the
+     * calling thread, i.e. without any hand-over to the protocol executor. Thus, requests sent by different threads
+     * are not necessarily sent in the order of invocation. Cancelling the returned future stops retransmissions of
+     * the request and passes its {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} back.
+     *
+     * @param coapRequest the {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteEndpoint the desired recipient of the given {@link de.uniluebeck.itm.ncoap.message.CoapRequest}
+     * @param deadline the time to wait for the {@link de.uniluebeck.itm.ncoap.message.CoapResponse} before the
+     *                 returned future fails with a {@link java.util.concurrent.TimeoutException} and the request is
+     *                 cancelled or <code>0</code> for no deadline
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the given deadline
+     *
+     * @return a {@link com.google.common.util.concurrent.ListenableFuture} for the
+     * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteEndpoint,
+                                                          long deadline, TimeUnit unit){
+
+        DatagramChannel channel = selectChannel(remoteEndpoint, coapRequest);
+        ResponseFuture responseFuture = new ResponseFuture(channel, remoteEndpoint, coapRequest);
+
+        if(deadline > 0){
+            responseFuture.setDeadline(this.timer, deadline, unit);
+        }
+
+        OutboundMessageWrapper message = new OutboundMessageWrapper(coapRequest, responseFuture.getClientCallback());
+        Channels.write(channel, message, remoteEndpoint).addListener(responseFuture);
+
+        return responseFuture;
+    }
+
+    /**
+     * Sends a {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to the given remote endpoint without deadline
+     * (see {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)} for details).
+     *
+     * @param coapRequest the {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to be sent
+     * @param remoteEndpoint the desired recipient of the given {@link de.uniluebeck.itm.ncoap.message.CoapRequest}
+     *
+     * @return a {@link com.google.common.util.concurrent.ListenableFuture} for the
+     * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}
+     */
+    public ListenableFuture<CoapResponse> sendCoapRequest(CoapRequest coapRequest, InetSocketAddress remoteEndpoint){
+        return sendCoapRequest(coapRequest, remoteEndpoint, 0, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Sends a copy of the given {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to each of the given remote
+     * endpoints and invokes the given
+     * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.BulkClientCallback} for each result.
+     *
+     * The copies are created from a {@link de.uniluebeck.itm.ncoap.message.CoapRequestTemplate}, i.e. the options of
+     * the given request are encoded only once and the copies share its content, i.e. only header and token are
+     * encoded per remote endpoint. As the options are sent to all remote endpoints as they are, the given request
+     * should not contain
+     * {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#URI_HOST} or
+     * {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#URI_PORT} unless all remote endpoints expect
+     * the same values.
+     *
+     * The copies are written with the calling thread (see
+     * {@link #sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)}), i.e. they are only delayed by the
+     * congestion control (if any).
+     *
+     * @param coapRequest the {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to be sent to all remote endpoints
+     * @param remoteEndpoints the desired recipients of the given {@link de.uniluebeck.itm.ncoap.message.CoapRequest}
+     * @param bulkCallback the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.BulkClientCallback} to
+     *                     process the responses and failures
+     *
+     * @throws java.lang.IllegalArgumentException if the options of the given
+     * {@link de.uniluebeck.itm.ncoap.message.CoapRequest} could not be encoded
+     */
+    public void sendCoapRequests(CoapRequest coapRequest, Collection<InetSocketAddress> remoteEndpoints,
+                                 BulkClientCallback bulkCallback) throws IllegalArgumentException {
+
+        CoapRequestTemplate template = new CoapRequestTemplate(coapRequest);
+
+        for(InetSocketAddress remoteEndpoint : remoteEndpoints){
+            CoapRequest copy = template.createCoapRequest();
+            final ClientCallback clientCallback = bulkCallback.createClientCallback(remoteEndpoint);
+
+            OutboundMessageWrapper message = new OutboundMessageWrapper(copy, clientCallback);
+            ChannelFuture future = Channels.write(selectChannel(remoteEndpoint), message, remoteEndpoint);
+            future.addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if(!future.isSuccess()){
+                        Throwable cause = future.getCause();
+                        clientCallback.processMiscellaneousError(cause == null ? "Could not send request." :
+                                cause.getMessage());
+                    }
+                }
+            });
+        }
+
+        log.debug("Dispatched request to {} remote endpoints.", remoteEndpoints.size());
+        bulkCallback.dispatchingFinished();
+    }
+
+
     /**
      * Sends a CoAP PING, i.e. a {@link de.uniluebeck.itm.ncoap.message.CoapMessage} with
      * {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON} and
@@ -256,7 +438,7 @@ public class CoapClientApplication {
      */
     public void sendCoapPing(final ClientCallback clientCallback, final InetSocketAddress remoteEndpoint){
 
-        exeutor.submit(new Runnable() {
+        execute(remoteEndpoint, new Runnable() {
 
             @Override
             public void run() {
@@ -264,7 +446,7 @@ public class CoapClientApplication {
                 final CoapMessage coapPing = CoapMessage.createPing(CoapMessage.UNDEFINED_MESSAGE_ID);
                 OutboundMessageWrapper wrapper = new OutboundMessageWrapper(coapPing, clientCallback);
 
-                ChannelFuture future = Channels.write(channel, wrapper, remoteEndpoint);
+                ChannelFuture future = Channels.write(selectChannel(remoteEndpoint), wrapper, remoteEndpoint);
                 future.addListener(new ChannelFutureListener() {
                     @Override
                     public void operationComplete(ChannelFuture future) throws Exception {
@@ -282,35 +464,144 @@ public class CoapClientApplication {
     }
 
 
+    private DatagramChannel selectChannel(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        //the request to stop an observation is to be sent over the socket the observation was started with, i.e.
+        //from the same local port and to the callback manager that knows the token
+        if(this.channels.length > 1 && coapRequest.getObserve() == 1){
+            String handlerName = ClientChannelPipelineFactory.CLIENT_CALLBACK_MANAGER;
+
+            for(DatagramChannel channel : this.channels){
+                if(((ClientCallbackManager) channel.getPipeline().get(handlerName))
+                        .isExchangeOngoing(remoteEndpoint, coapRequest.getToken())){
+                    return channel;
+                }
+            }
+        }
+
+        return selectChannel(remoteEndpoint);
+    }
+
+
+    private DatagramChannel selectChannel(InetSocketAddress remoteEndpoint){
+        if(this.channels.length == 1)
+            return this.channels[0];
+
+        if(this.selectionPolicy == SocketPoolConfiguration.SelectionPolicy.ROUND_ROBIN){
+            int index = (this.nextChannel.getAndIncrement() & Integer.MAX_VALUE) % this.channels.length;
+            return this.channels[index];
+        }
+
+        DatagramChannel result = null;
+        int minAllocated = Integer.MAX_VALUE;
+        String handlerName = ClientChannelPipelineFactory.OUTBOUND_RELIABILITY_HANDLER;
+
+        for(DatagramChannel channel : this.channels){
+            int allocated = ((OutboundReliabilityHandler) channel.getPipeline().get(handlerName))
+                    .getAllocatedMessageIDs(remoteEndpoint);
+
+            if(allocated < minAllocated){
+                minAllocated = allocated;
+                result = channel;
+            }
+        }
+
+        return result;
+    }
+
+
+    private void execute(InetSocketAddress remoteEndpoint, Runnable task){
+        if(this.outboundExecutor == null)
+            this.protocolExecutor.execute(task);
+        else
+            this.outboundExecutor.execute(remoteEndpoint, task);
+    }
+
+
     /**
-     * Returns the local port number the {@link org.jboss.netty.channel.socket.DatagramChannel} of this
+     * Returns the local port number the (first) {@link org.jboss.netty.channel.socket.DatagramChannel} of this
      * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} is bound to.
      *
-     * @return the local port number the {@link org.jboss.netty.channel.socket.DatagramChannel} of this
+     * @return the local port number the (first) {@link org.jboss.netty.channel.socket.DatagramChannel} of this
      * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} is bound to.
      */
     public int getPort() {
-        return this.channel.getLocalAddress().getPort();
+        return this.channels[0].getLocalAddress().getPort();
+    }
+
+    /**
+     * Returns the local port numbers of all {@link org.jboss.netty.channel.socket.DatagramChannel}s of this
+     * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} (see {@link SocketPoolConfiguration}).
+     *
+     * @return the local port numbers of all {@link org.jboss.netty.channel.socket.DatagramChannel}s of this
+     * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}
+     */
+    public int[] getPorts() {
+        int[] ports = new int[this.channels.length];
+        for(int i = 0; i < this.channels.length; i++){
+            ports[i] = this.channels[i].getLocalAddress().getPort();
+        }
+        return ports;
     }
 
     /**
      * Shuts this {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} down by closing its
-     * {@link org.jboss.netty.channel.socket.DatagramChannel} which includes to unbind
-     * this {@link org.jboss.netty.channel.socket.DatagramChannel} from the listening port and by this means free the
-     * port.
+     * {@link org.jboss.netty.channel.socket.DatagramChannel}s which includes to unbind
+     * these {@link org.jboss.netty.channel.socket.DatagramChannel}s from the listening ports and by this means free
+     * the ports.
      */
     public final void shutdown(){
         log.warn("Start to shutdown " + this.getName() + " (Port : " + this.getPort() + ")");
 
-        this.channel.close().awaitUninterruptibly().addListener(new ChannelFutureListener() {
-            @Override
-            public void operationComplete(ChannelFuture future) throws Exception {
-                log.warn("Channel closed ({}).", CoapClientApplication.this.getName());
-                channel.getFactory().releaseExternalResources();
-                log.warn("External resources released ({}).", CoapClientApplication.this.getName());
-                log.warn("Shutdown of " + CoapClientApplication.this.name + " completed.");
-            }
-        });
+        for(DatagramChannel channel : this.channels){
+            channel.close().awaitUninterruptibly();
+        }
+
+        log.warn("Channel(s) closed ({}).", this.getName());
+        this.timer.stop();
+        this.channels[0].getFactory().releaseExternalResources();
+        this.protocolExecutor.shutdown();
+        this.applicationExecutor.shutdown();
+        log.warn("External resources released ({}).", this.getName());
+        log.warn("Shutdown of " + this.name + " completed.");
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler} (shared by all
+     * sockets) of this {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or
+     * <code>null</code> if there is no congestion control.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler} of this
+     * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or <code>null</code> if there is no
+     * congestion control.
+     */
+    public CongestionControlHandler getCongestionControlHandler(){
+        return this.congestionControlHandler;
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler} (shared by all
+     * sockets) of this {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or
+     * <code>null</code> if there is no circuit breaker.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler} of this
+     * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or <code>null</code> if there is no
+     * circuit breaker.
+     */
+    public CircuitBreakerHandler getCircuitBreakerHandler(){
+        return this.circuitBreakerHandler;
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.caching.ResponseCache} (shared by all sockets) of
+     * this {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}, e.g. to retrieve the hit
+     * ratio, or <code>null</code> if there is no response cache.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.caching.ResponseCache} of this
+     * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} or <code>null</code> if there is no
+     * response cache.
+     */
+    public ResponseCache getResponseCache(){
+        return this.responseCache;
     }
 
     /**
@@ -0,0 +1,312 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.client;
+
+import de.uniluebeck.itm.ncoap.communication.caching.CacheKey;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An {@link ObservationMultiplexer} lets many local subscribers (i.e.
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s) share one observation of the
+ * same resource (see {@link de.uniluebeck.itm.ncoap.communication.caching.CacheKey}), i.e.
+ *
+ * <ul>
+ *     <li>the first subscriber starts the observation on the server (with its request),</li>
+ *     <li>later subscribers attach locally and immediately receive (a copy of) the latest update notification,</li>
+ *     <li>every update notification is delivered to all subscribers and</li>
+ *     <li>the observation on the server is cancelled (with the next update notification) only when the last
+ *     subscriber left, either by {@link Subscription#cancel()} or by returning <code>false</code> on
+ *     {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback#continueObservation()}.</li>
+ * </ul>
+ *
+ * If the observation is ended by the server or by an error, all subscribers are notified and the next
+ * subscription starts a new observation.
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationMultiplexer {
+
+    private static Logger log = LoggerFactory.getLogger(ObservationMultiplexer.class.getName());
+
+    private final CoapClientApplication client;
+    private final ConcurrentHashMap<CacheKey, MultiplexedObservation> observations;
+
+    /**
+     * Creates a new instance of {@link ObservationMultiplexer}
+     *
+     * @param client the {@link CoapClientApplication} to start the observations with
+     */
+    public ObservationMultiplexer(CoapClientApplication client){
+        this.client = client;
+        this.observations = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Subscribes the given {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} to the
+     * resource the given {@link de.uniluebeck.itm.ncoap.message.CoapRequest} refers to. The request is only sent if
+     * there is no observation of that resource yet.
+     *
+     * @param coapRequest the {@link de.uniluebeck.itm.ncoap.message.CoapRequest} to start the observation (with
+     *                    {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#OBSERVE} set to
+     *                    <code>0</code>)
+     * @param remoteEndpoint the remote endpoint hosting the resource to be observed
+     * @param clientCallback the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} to
+     *                       receive the update notifications
+     *
+     * @return the {@link Subscription} to leave the observation
+     *
+     * @throws java.lang.IllegalArgumentException if the given request does not start an observation
+     */
+    public Subscription subscribe(CoapRequest coapRequest, InetSocketAddress remoteEndpoint,
+                                  ClientCallback clientCallback) throws IllegalArgumentException {
+
+        if(coapRequest.getMessageCodeName() != MessageCode.Name.GET || coapRequest.getObserve() != 0)
+            throw new IllegalArgumentException("Request does not start an observation: " + coapRequest);
+
+        CacheKey cacheKey = CacheKey.create(remoteEndpoint, coapRequest);
+        Subscriber subscriber = new Subscriber(clientCallback);
+
+        while(true){
+            MultiplexedObservation observation = this.observations.get(cacheKey);
+
+            if(observation == null){
+                observation = new MultiplexedObservation(cacheKey);
+                observation.attach(subscriber);
+
+                if(this.observations.putIfAbsent(cacheKey, observation) == null){
+                    log.info("Start observation (remote endpoint: {}).", remoteEndpoint);
+                    this.client.sendCoapRequest(coapRequest, observation, remoteEndpoint);
+                    return new Subscription(observation, subscriber);
+                }
+            }
+
+            else if(observation.attach(subscriber)){
+                log.debug("Attached subscriber to running observation (remote endpoint: {}).", remoteEndpoint);
+                observation.deliverLatest(subscriber);
+                return new Subscription(observation, subscriber);
+            }
+
+            //the observation ended but was not yet removed
+            else{
+                this.observations.remove(cacheKey, observation);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of observations (on servers) shared by the subscribers
+     * @return the number of observations (on servers) shared by the subscribers
+     */
+    public int getNumberOfObservations(){
+        return this.observations.size();
+    }
+
+
+    /**
+     * A {@link Subscription} represents a subscriber of an observation shared by an {@link ObservationMultiplexer}.
+     */
+    public static class Subscription {
+
+        private final MultiplexedObservation observation;
+        private final Subscriber subscriber;
+
+        private Subscription(MultiplexedObservation observation, Subscriber subscriber){
+            this.observation = observation;
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Detaches the subscriber from the shared observation, i.e. it does not receive any further update
+         * notifications. If this was the last subscriber, the observation on the server is cancelled with the
+         * next update notification.
+         */
+        public void cancel(){
+            this.observation.detach(this.subscriber);
+        }
+    }
+
+
+    private class MultiplexedObservation extends ClientCallback {
+
+        private final CacheKey cacheKey;
+        private final List<Subscriber> subscribers;
+
+        private CoapResponse latestNotification;
+        private long sequenceNumber;
+        private boolean ended;
+
+        private MultiplexedObservation(CacheKey cacheKey){
+            this.cacheKey = cacheKey;
+            this.subscribers = new ArrayList<>();
+        }
+
+        private synchronized boolean attach(Subscriber subscriber){
+            return !this.ended && this.subscribers.add(subscriber);
+        }
+
+        private synchronized void detach(Subscriber subscriber){
+            this.subscribers.remove(subscriber);
+        }
+
+        private void deliverLatest(Subscriber subscriber){
+            CoapResponse notification;
+            long sequenceNumber;
+
+            synchronized (this){
+                notification = this.latestNotification == null ? null : this.latestNotification.copy();
+                sequenceNumber = this.sequenceNumber;
+            }
+
+            //the first notification was not yet received, i.e. will be delivered to all subscribers
+            if(notification != null){
+                subscriber.deliver(sequenceNumber, notification);
+            }
+        }
+
+        //the subscribers to be notified or null if the observation already ended
+        private synchronized List<Subscriber> end(){
+            if(this.ended)
+                return null;
+
+            this.ended = true;
+            observations.remove(this.cacheKey, this);
+            return new ArrayList<>(this.subscribers);
+        }
+
+        @Override
+        public synchronized boolean continueObservation() {
+            if(this.subscribers.isEmpty() && !this.ended){
+                log.info("Last subscriber left, cancel observation (remote endpoint: {}).",
+                        this.cacheKey.getRemoteEndpoint());
+                this.ended = true;
+                observations.remove(this.cacheKey, this);
+            }
+
+            return !this.ended;
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            boolean notification = coapResponse.isUpdateNotification() &&
+                    !MessageCode.isErrorMessage(coapResponse.getMessageCode());
+
+            List<Subscriber> receivers;
+            long sequenceNumber;
+
+            if(notification){
+                synchronized (this){
+                    //a private copy (with materialized options), i.e. later copies never modify the response
+                    this.latestNotification = coapResponse.copy();
+                    this.sequenceNumber += 1;
+                    sequenceNumber = this.sequenceNumber;
+                    receivers = new ArrayList<>(this.subscribers);
+                }
+            }
+            else{
+                receivers = end();
+                if(receivers == null)
+                    return;
+
+                synchronized (this){
+                    this.sequenceNumber += 1;
+                    sequenceNumber = this.sequenceNumber;
+                }
+            }
+
+            for(Subscriber subscriber : receivers){
+                //same order as with a single observer, i.e. the callback decides before processing
+                if(notification && !subscriber.getClientCallback().continueObservation()){
+                    detach(subscriber);
+                }
+
+                subscriber.deliver(sequenceNumber, coapResponse.copy());
+            }
+        }
+
+        @Override
+        public void processReset() {
+            List<Subscriber> receivers = end();
+            if(receivers != null){
+                for(Subscriber subscriber : receivers){
+                    subscriber.getClientCallback().processReset();
+                }
+            }
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            List<Subscriber> receivers = end();
+            if(receivers != null){
+                for(Subscriber subscriber : receivers){
+                    subscriber.getClientCallback().processTransmissionTimeout();
+                }
+            }
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            List<Subscriber> receivers = end();
+            if(receivers != null){
+                for(Subscriber subscriber : receivers){
+                    subscriber.getClientCallback().processMiscellaneousError(description);
+                }
+            }
+        }
+    }
+
+
+    private static class Subscriber {
+
+        private final ClientCallback clientCallback;
+
+        //the latest delivered response, i.e. older ones are not delivered afterwards
+        private long sequenceNumber;
+
+        private Subscriber(ClientCallback clientCallback){
+            this.clientCallback = clientCallback;
+        }
+
+        private ClientCallback getClientCallback(){
+            return this.clientCallback;
+        }
+
+        private synchronized void deliver(long sequenceNumber, CoapResponse coapResponse){
+            if(sequenceNumber > this.sequenceNumber){
+                this.sequenceNumber = sequenceNumber;
+                this.clientCallback.processCoapResponse(coapResponse);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.application.client;
+
+/**
+ * A {@link SocketPoolConfiguration} defines the number of local sockets (i.e. UDP ports) a
+ * {@link CoapClientApplication} is bound to and how outbound messages are spread across these sockets.
+ *
+ * Each socket has its own {@link org.jboss.netty.channel.ChannelPipeline}, i.e. its own message IDs, open
+ * requests, observations and callbacks. Since the message IDs are unique per local and remote socket, each
+ * additional socket raises the number of messages per remote endpoint within
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory#EXCHANGE_LIFETIME} by
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory#MODULUS}. The
+ * {@link SelectionPolicy} applies to new message exchanges only, i.e. a request to cancel an observation is sent
+ * over the socket the observation was started with.
+ *
+ * <b>Note:</b> Congestion control, circuit breaker and response cache are shared by all sockets, i.e. the number
+ * of outstanding requests per remote endpoint is limited to NSTART regardless of the socket.
+ *
+ * @author Oliver Kleine
+ */
+public class SocketPoolConfiguration {
+
+    /**
+     * The policies to select the socket to send a new message over
+     */
+    public static enum SelectionPolicy {
+        /**
+         * Select the sockets one after another
+         */
+        ROUND_ROBIN,
+
+        /**
+         * Select the socket with the lowest number of message IDs currently allocated for the remote endpoint
+         */
+        LEAST_ALLOCATED_MESSAGE_IDS
+    }
+
+    private final int numberOfSockets;
+    private final SelectionPolicy selectionPolicy;
+
+    /**
+     * Creates a new instance of {@link SocketPoolConfiguration}
+     *
+     * @param numberOfSockets the number of local sockets to bind (at least <code>1</code>)
+     * @param selectionPolicy the {@link SelectionPolicy} to select the socket to send a new message over
+     *
+     * @throws java.lang.IllegalArgumentException if the given number of sockets is smaller than <code>1</code>
+     */
+    public SocketPoolConfiguration(int numberOfSockets, SelectionPolicy selectionPolicy)
+            throws IllegalArgumentException {
+
+        if(numberOfSockets < 1)
+            throw new IllegalArgumentException("Number of sockets must be at least 1.");
+
+        if(selectionPolicy == null)
+            throw new IllegalArgumentException("Selection policy must not be null.");
+
+        this.numberOfSockets = numberOfSockets;
+        this.selectionPolicy = selectionPolicy;
+    }
+
+    /**
+     * Returns a {@link SocketPoolConfiguration} with 4 sockets selected by
+     * {@link SelectionPolicy#LEAST_ALLOCATED_MESSAGE_IDS}.
+     *
+     * @return a {@link SocketPoolConfiguration} with default values
+     */
+    public static SocketPoolConfiguration getDefault(){
+        return new SocketPoolConfiguration(4, SelectionPolicy.LEAST_ALLOCATED_MESSAGE_IDS);
+    }
+
+    /**
+     * Returns the number of local sockets to bind
+     * @return the number of local sockets to bind
+     */
+    public int getNumberOfSockets() {
+        return this.numberOfSockets;
+    }
+
+    /**
+     * Returns the {@link SelectionPolicy} to select the socket to send a new message over
+     * @return the {@link SelectionPolicy} to select the socket to send a new message over
+     */
+    public SelectionPolicy getSelectionPolicy() {
+        return this.selectionPolicy;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[sockets: " + this.numberOfSockets + ", selection policy: " + this.selectionPolicy + "]";
+    }
+}
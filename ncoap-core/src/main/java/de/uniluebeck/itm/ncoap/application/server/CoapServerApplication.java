@@ -26,9 +26,13 @@
 package de.uniluebeck.itm.ncoap.application.server;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor;
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
 import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler;
 import de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler;
 import de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager;
+import de.uniluebeck.itm.ncoap.communication.reliability.HashedWheelReliabilityTimer;
 import de.uniluebeck.itm.ncoap.communication.reliability.InboundReliabilityHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler;
 import org.jboss.netty.bootstrap.ConnectionlessBootstrap;
@@ -37,12 +41,13 @@ import org.jboss.netty.channel.socket.DatagramChannel;
 import org.jboss.netty.channel.socket.nio.NioDatagramChannelFactory;
 import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.ThreadRenamingRunnable;
+import org.jboss.netty.util.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 
 
@@ -60,11 +65,15 @@ public class CoapServerApplication{
 
     public static final int DEFAULT_COAP_SERVER_PORT = 5683;
 
+    public static final int RECEIVE_BUFFER_SIZE = 65536;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private WebserviceManager webserviceManager;
     private DatagramChannel channel;
-    private ScheduledExecutorService executor;
+    private ScheduledExecutorService protocolExecutor;
+    private ScheduledExecutorService applicationExecutor;
+    private Timer timer;
 
     /**
      * Creates a new instance of {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}
@@ -72,10 +81,10 @@ public class CoapServerApplication{
      * @param webServiceNotFoundHandler to handle inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
      *                                  targeting unknown services
      * @param localSocket the IP address and port number for the server to listen at
+     * @param configuration the {@link ServerConfiguration} to be used
      */
-    public CoapServerApplication(NotFoundHandler webServiceNotFoundHandler, InetSocketAddress localSocket){
-
-        ThreadFactory threadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Server I/O Thread#%d").build();
+    public CoapServerApplication(NotFoundHandler webServiceNotFoundHandler, InetSocketAddress localSocket,
+                                 ServerConfiguration configuration){
 
         ThreadRenamingRunnable.setThreadNameDeterminer(new ThreadNameDeterminer() {
             @Override
@@ -84,22 +93,30 @@ public class CoapServerApplication{
             }
         });
 
-        int numberOfThreads = Math.max(Runtime.getRuntime().availableProcessors() * 2, 4);
-        log.info("No. of I/O Threads: {}", numberOfThreads);
+        log.info("Server configuration: {}", configuration);
+
+        ThreadingConfiguration threadingConfiguration = configuration.getThreadingConfiguration();
+        this.protocolExecutor = threadingConfiguration.createProtocolExecutor("CoAP Server");
+        this.applicationExecutor = threadingConfiguration.createApplicationExecutor("CoAP Server");
 
-        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(numberOfThreads, threadFactory);
-        executor.setRemoveOnCancelPolicy(true);
-        this.executor = executor;
+        //Create timer for retransmissions, empty acknowledgements and message ID retirements
+        ThreadFactory timerThreadFactory = new ThreadFactoryBuilder().setNameFormat("CoAP Server Timer").build();
+        this.timer = new HashedWheelReliabilityTimer(timerThreadFactory, this.protocolExecutor);
+
+        Executor inboundExecutor = threadingConfiguration.isOrderedPerRemoteEndpoint() ?
+                new RemoteEndpointOrderedExecutor(this.protocolExecutor) : this.protocolExecutor;
 
         //Create bootstrap
-        ChannelFactory channelFactory = new NioDatagramChannelFactory(this.executor, numberOfThreads/2);
+        ChannelFactory channelFactory = new NioDatagramChannelFactory(
+                threadingConfiguration.createIoExecutor("CoAP Server"), threadingConfiguration.getIoThreads());
         ConnectionlessBootstrap bootstrap = new ConnectionlessBootstrap(channelFactory);
 
-        ServerChannelPipelineFactory pipelineFactory =
-                new ServerChannelPipelineFactory(this.executor, webServiceNotFoundHandler);
+        ServerChannelPipelineFactory pipelineFactory = new ServerChannelPipelineFactory(inboundExecutor,
+                this.applicationExecutor, this.timer, webServiceNotFoundHandler, configuration);
 
 
         bootstrap.setPipelineFactory(pipelineFactory);
+        bootstrap.setOption("receiveBufferSizePredictor", new FixedReceiveBufferSizePredictor(RECEIVE_BUFFER_SIZE));
 
         this.channel = (DatagramChannel) bootstrap.bind(localSocket);
         log.debug("Bound to local address: {}", this.channel.getLocalAddress());
@@ -132,6 +149,18 @@ public class CoapServerApplication{
         );
     }
 
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} with
+     * {@link ServerConfiguration#getDefault()}.
+     *
+     * @param webServiceNotFoundHandler to handle inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
+     *                                  targeting unknown services
+     * @param localSocket the IP address and port number for the server to listen at
+     */
+    public CoapServerApplication(NotFoundHandler webServiceNotFoundHandler, InetSocketAddress localSocket){
+        this(webServiceNotFoundHandler, localSocket, ServerConfiguration.getDefault());
+    }
+
     public CoapServerApplication(InetSocketAddress localSocketAddress){
         this(NotFoundHandler.getDefault(), localSocketAddress);
     }
@@ -210,17 +239,48 @@ public class CoapServerApplication{
 
     /**
      * Returns the {@link java.util.concurrent.ScheduledExecutorService} which is used by this
-     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} to handle tasks, e.g. write and
-     * receive messages. The returned {@link java.util.concurrent.ScheduledExecutorService} may also be used by
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} to invoke the registered
+     * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s. The returned
+     * {@link java.util.concurrent.ScheduledExecutorService} may also be used by
      * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s to handle inbound
-     * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
+     * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s or status updates. It is separate from the threads
+     * processing I/O and the protocol layers (see
+     * {@link de.uniluebeck.itm.ncoap.application.ThreadingConfiguration}).
      *
      * @return the {@link java.util.concurrent.ScheduledExecutorService} which is used by this
-     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} to handle tasks, e.g. write and
-     * receive messages.
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} to invoke the registered
+     * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s.
      */
     public ScheduledExecutorService getExecutor(){
-        return this.executor;
+        return this.applicationExecutor;
+    }
+
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager} of this
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}, e.g. to retrieve the number of
+     * stale requests.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager} of this
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}
+     */
+    public WebserviceManager getWebserviceManager(){
+        return this.webserviceManager;
+    }
+
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler} of this
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}, e.g. to retrieve the number of
+     * shed requests, or <code>null</code> if there is no admission control.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler} of this
+     * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication} or <code>null</code> if there is no
+     * admission control.
+     */
+    public AdmissionControlHandler getAdmissionControlHandler(){
+        return (AdmissionControlHandler) this.channel.getPipeline()
+                .get(ServerChannelPipelineFactory.ADMISSION_CONTROL_HANDLER);
     }
 
 
@@ -242,7 +302,10 @@ public class CoapServerApplication{
             public void operationComplete(ChannelFuture future) throws Exception {
                 log.warn("Server channel closed. Release external resources...");
 
+                timer.stop();
                 channel.getFactory().releaseExternalResources();
+                protocolExecutor.shutdown();
+                applicationExecutor.shutdown();
             }
         });
 
@@ -26,16 +26,24 @@
 package de.uniluebeck.itm.ncoap.application.server;
 
 import de.uniluebeck.itm.ncoap.application.CoapChannelPipelineFactory;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler;
+import de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder;
 import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
 import de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler;
 import de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager;
 import de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler;
 import de.uniluebeck.itm.ncoap.communication.reliability.InboundReliabilityHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.ResponseReplayHandler;
+import de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy;
+import de.uniluebeck.itm.ncoap.communication.reliability.ScheduledExecutorTimer;
 import org.jboss.netty.channel.ChannelPipeline;
 import org.jboss.netty.channel.socket.DatagramChannel;
 import org.jboss.netty.handler.execution.ExecutionHandler;
+import org.jboss.netty.util.Timer;
 
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -52,6 +60,20 @@ public class ServerChannelPipelineFactory extends CoapChannelPipelineFactory {
     public static final String INBOUND_RELIABILITY_HANDLER = "IRH";
 
 
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler}
+     * instance of a CoAP server
+     */
+    public static final String ADMISSION_CONTROL_HANDLER = "ACH";
+
+
+    /**
+     * The name of the {@link de.uniluebeck.itm.ncoap.communication.reliability.ResponseReplayHandler}
+     * instance of a CoAP server
+     */
+    public static final String RESPONSE_REPLAY_HANDLER = "RRH";
+
+
     /**
      * The name of the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager}
      * instance of a CoAP server
@@ -62,21 +84,69 @@ public class ServerChannelPipelineFactory extends CoapChannelPipelineFactory {
     /**
      * Creates a new instance of {@link de.uniluebeck.itm.ncoap.application.server.ServerChannelPipelineFactory}.
      *
-     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param protocolExecutor the {@link Executor} to process inbound messages, i.e. decoding, reliability and
+     *                         dispatching
+     * @param applicationExecutor the {@link ScheduledExecutorService} to process inbound
+     *                            {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s, i.e. to invoke the
+     *                            {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule retransmissions, empty acknowledgements and
+     *              message ID retirements
      * @param notFoundHandler the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler}
      *                        to handle inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s targeting
      *                        unknown {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s.
+     * @param configuration the {@link ServerConfiguration} of the server
      */
-    public ServerChannelPipelineFactory(ScheduledExecutorService executor, NotFoundHandler notFoundHandler){
+    public ServerChannelPipelineFactory(Executor protocolExecutor, ScheduledExecutorService applicationExecutor,
+                                        Timer timer, NotFoundHandler notFoundHandler,
+                                        ServerConfiguration configuration){
 
-        addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(executor));
+        //executed by the I/O thread, i.e. before inbound requests are queued for the protocol threads
+        AdmissionControlConfiguration admissionControlConfiguration =
+                configuration.getAdmissionControlConfiguration();
+        if(admissionControlConfiguration != null){
+            addChannelHandler(ADMISSION_CONTROL_HANDLER, new AdmissionControlHandler(admissionControlConfiguration));
+        }
+
+        addChannelHandler(EXECUTION_HANDLER, new ExecutionHandler(protocolExecutor));
+        addChannelHandler(RESPONSE_REPLAY_HANDLER, new ResponseReplayHandler());
 
         addChannelHandler(ENCODER, new CoapMessageEncoder());
-        addChannelHandler(DECODER, new CoapMessageDecoder());
+        addChannelHandler(DECODER, new CoapMessageDecoder(true));
+
+        addChannelHandler(OUTBOUND_RELIABILITY_HANDLER, new OutboundReliabilityHandler(timer,
+                configuration.getRetransmissionPolicy()));
+        addChannelHandler(INBOUND_RELIABILITY_HANDLER, new InboundReliabilityHandler(timer));
+        addChannelHandler(BLOCKWISE_HANDLER, new ServerBlockwiseHandler());
+
+        addChannelHandler(WEBSERVICE_MANAGER, new WebserviceManager(notFoundHandler, applicationExecutor));
+    }
 
-        addChannelHandler(OUTBOUND_RELIABILITY_HANDLER, new OutboundReliabilityHandler(executor));
-        addChannelHandler(INBOUND_RELIABILITY_HANDLER, new InboundReliabilityHandler(executor));
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.application.server.ServerChannelPipelineFactory}
+     * that uses the given {@link ScheduledExecutorService} to process both, inbound messages and requests.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule retransmissions, empty acknowledgements and
+     *              message ID retirements
+     * @param notFoundHandler the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler}
+     *                        to handle inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s targeting
+     *                        unknown {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s.
+     */
+    public ServerChannelPipelineFactory(ScheduledExecutorService executor, Timer timer,
+                                        NotFoundHandler notFoundHandler){
+        this(executor, executor, timer, notFoundHandler, ServerConfiguration.getDefault());
+    }
 
-        addChannelHandler(WEBSERVICE_MANAGER, new WebserviceManager(notFoundHandler, executor));
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.application.server.ServerChannelPipelineFactory}
+     * that uses the given {@link ScheduledExecutorService} to schedule all reliability related tasks, too.
+     *
+     * @param executor The {@link ScheduledExecutorService} to provide the thread(s) for I/O operations
+     * @param notFoundHandler the {@link de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler}
+     *                        to handle inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s targeting
+     *                        unknown {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice}s.
+     */
+    public ServerChannelPipelineFactory(ScheduledExecutorService executor, NotFoundHandler notFoundHandler){
+        this(executor, new ScheduledExecutorTimer(executor), notFoundHandler);
     }
 }
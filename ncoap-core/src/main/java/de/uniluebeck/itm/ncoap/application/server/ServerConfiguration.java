@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server;
+
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy;
+
+/**
+ * A {@link ServerConfiguration} bundles the settings of a {@link CoapServerApplication}. Instances are created
+ * with a {@link Builder}, e.g.
+ *
+ * <pre>
+ * ServerConfiguration configuration = new ServerConfiguration.Builder()
+ *         .setThreadingConfiguration(new ThreadingConfiguration(1, 4, 8, true))
+ *         .setAdmissionControlConfiguration(AdmissionControlConfiguration.getDefault())
+ *         .build();
+ * </pre>
+ *
+ * Admission control is disabled unless configured.
+ *
+ * @author Oliver Kleine
+ */
+public class ServerConfiguration {
+
+    private final ThreadingConfiguration threadingConfiguration;
+    private final AdmissionControlConfiguration admissionControlConfiguration;
+    private final RetransmissionPolicy retransmissionPolicy;
+
+    private ServerConfiguration(Builder builder){
+        this.threadingConfiguration = builder.threadingConfiguration;
+        this.admissionControlConfiguration = builder.admissionControlConfiguration;
+        this.retransmissionPolicy = builder.retransmissionPolicy;
+    }
+
+    /**
+     * Returns a {@link ServerConfiguration} with the default {@link ThreadingConfiguration}, the
+     * {@link RetransmissionPolicy} according to RFC 7252 and without admission control.
+     *
+     * @return a {@link ServerConfiguration} with default values
+     */
+    public static ServerConfiguration getDefault(){
+        return new Builder().build();
+    }
+
+    /**
+     * Returns the {@link ThreadingConfiguration} to define the I/O, protocol and application threads
+     * @return the {@link ThreadingConfiguration} to define the I/O, protocol and application threads
+     */
+    public ThreadingConfiguration getThreadingConfiguration() {
+        return this.threadingConfiguration;
+    }
+
+    /**
+     * Returns the {@link AdmissionControlConfiguration} or <code>null</code> for no admission control
+     * @return the {@link AdmissionControlConfiguration} or <code>null</code> for no admission control
+     */
+    public AdmissionControlConfiguration getAdmissionControlConfiguration() {
+        return this.admissionControlConfiguration;
+    }
+
+    /**
+     * Returns the {@link RetransmissionPolicy} to calculate the delays between retransmissions
+     * @return the {@link RetransmissionPolicy} to calculate the delays between retransmissions
+     */
+    public RetransmissionPolicy getRetransmissionPolicy() {
+        return this.retransmissionPolicy;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[threading: " + this.threadingConfiguration + ", admission control: " +
+                this.admissionControlConfiguration + ", retransmission policy: " + this.retransmissionPolicy + "]";
+    }
+
+
+    /**
+     * Builder for {@link ServerConfiguration}s. All settings are optional.
+     */
+    public static class Builder {
+
+        private ThreadingConfiguration threadingConfiguration = ThreadingConfiguration.getDefault();
+        private AdmissionControlConfiguration admissionControlConfiguration;
+        private RetransmissionPolicy retransmissionPolicy = RetransmissionPolicy.getDefault();
+
+        /**
+         * Sets the {@link ThreadingConfiguration} (default: {@link ThreadingConfiguration#getDefault()})
+         */
+        public Builder setThreadingConfiguration(ThreadingConfiguration threadingConfiguration){
+            if(threadingConfiguration == null)
+                throw new IllegalArgumentException("Threading configuration must not be null.");
+
+            this.threadingConfiguration = threadingConfiguration;
+            return this;
+        }
+
+        /**
+         * Sets the {@link AdmissionControlConfiguration} (default: <code>null</code>, i.e. no admission control)
+         */
+        public Builder setAdmissionControlConfiguration(AdmissionControlConfiguration configuration){
+            this.admissionControlConfiguration = configuration;
+            return this;
+        }
+
+        /**
+         * Sets the {@link RetransmissionPolicy} (default: {@link RetransmissionPolicy#getDefault()}) to calculate
+         * the delays between retransmissions of outbound messages, e.g. update notifications
+         */
+        public Builder setRetransmissionPolicy(RetransmissionPolicy retransmissionPolicy){
+            if(retransmissionPolicy == null)
+                throw new IllegalArgumentException("Retransmission policy must not be null.");
+
+            this.retransmissionPolicy = retransmissionPolicy;
+            return this;
+        }
+
+        /**
+         * Returns a new {@link ServerConfiguration} with the settings of this {@link Builder}
+         * @return a new {@link ServerConfiguration} with the settings of this {@link Builder}
+         */
+        public ServerConfiguration build(){
+            return new ServerConfiguration(this);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server.webservice;
+
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.OptionCodecException;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * A {@link NotificationTemplate} contains the parts of update notifications that are equal for all observers of an
+ * {@link ObservableWebservice} with the same content format, i.e. the serialized resource status and the encoded
+ * options (except for {@link OptionValue.Name#OBSERVE}). An instance is created once per content format and status
+ * update. Update notifications created from a template share its content and its
+ * {@link de.uniluebeck.itm.ncoap.message.PreEncodedOptions}, i.e. only header, token and the observe option are
+ * encoded per observer. If the options could not be pre-encoded, the update notifications are encoded completely
+ * per observer.
+ *
+ * @author Oliver Kleine
+ */
+class NotificationTemplate {
+
+    private static Logger log = LoggerFactory.getLogger(NotificationTemplate.class.getName());
+
+    private final byte[] etag;
+    private final CoapResponse content;
+    private final CoapResponse valid;
+
+
+    /**
+     * Creates a new instance of {@link NotificationTemplate}
+     *
+     * @param wrappedStatus the {@link WrappedResourceStatus} to create the template for
+     */
+    NotificationTemplate(WrappedResourceStatus wrappedStatus){
+        this.etag = wrappedStatus.getEtag();
+
+        this.content = new CoapResponse(MessageType.Name.NON, MessageCode.Name.CONTENT_205);
+        this.content.setEtag(this.etag);
+        this.content.setContent(ChannelBuffers.wrappedBuffer(wrappedStatus.getContent()),
+                wrappedStatus.getContentFormat());
+        preEncodeOptions(this.content);
+
+        this.valid = new CoapResponse(MessageType.Name.NON, MessageCode.Name.VALID_203);
+        this.valid.setEtag(this.etag);
+        preEncodeOptions(this.valid);
+    }
+
+
+    private static void preEncodeOptions(CoapResponse prototype){
+        try{
+            prototype.setPreEncodedOptions(CoapMessageEncoder.preEncodeOptions(prototype));
+        }
+        catch(OptionCodecException ex){
+            log.warn("Could not pre-encode options of update notifications (code: {})!",
+                    prototype.getMessageCodeName(), ex);
+        }
+    }
+
+
+    /**
+     * Creates a new update notification for the given {@link Observation}. The message code is
+     * {@link MessageCode.Name#VALID_203} if the observer is known to have the actual status (see
+     * {@link Observation#getEtags()}) and {@link MessageCode.Name#CONTENT_205} otherwise.
+     *
+     * @param observation the {@link Observation} to create the update notification for
+     * @param messageType the {@link MessageType.Name} of the update notification
+     *
+     * @return a new update notification for the given {@link Observation}
+     */
+    CoapResponse createUpdateNotification(Observation observation, MessageType.Name messageType){
+        CoapResponse prototype = isValid(observation) ? this.valid : this.content;
+
+        CoapResponse updateNotification = prototype.copy();
+        updateNotification.setMessageType(messageType.getNumber());
+        updateNotification.setToken(observation.getToken());
+        updateNotification.setMessageID(observation.getMessageID());
+
+        //must be set after all other options as any other option discards pre-encoded options
+        if(prototype.getPreEncodedOptions() != null){
+            updateNotification.setPreEncodedOptions(prototype.getPreEncodedOptions());
+        }
+        updateNotification.setObserve(observation.getNextSequenceNo());
+
+        return updateNotification;
+    }
+
+
+    private boolean isValid(Observation observation){
+        for(byte[] etag : observation.getEtags()){
+            if(Arrays.equals(etag, this.etag))
+                return true;
+        }
+        return false;
+    }
+}
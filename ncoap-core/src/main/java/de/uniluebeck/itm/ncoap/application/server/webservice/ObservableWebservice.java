@@ -25,7 +25,6 @@
 
 package de.uniluebeck.itm.ncoap.application.server.webservice;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.LinkedHashMultimap;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.communication.dispatching.server.WebserviceManager;
@@ -47,6 +46,7 @@ import org.slf4j.LoggerFactory;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
@@ -57,18 +57,33 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 * Example: Assume, you want to realize a not observable service representing a temperature with limited accuracy
 * (integer values). Then, your service class should extend {@link NotObservableWebservice <Integer>}.
 *
+* Update notifications are sent as a fan-out, i.e. the new status is serialized and the options of the
+* update notification are encoded only once per content format. The observers are notified in partitions of at
+* least {@link #MIN_PARTITION_SIZE} observers running in parallel on the {@link ScheduledExecutorService}
+* without holding any lock while writing the update notifications. A fan-out is aborted if the status changes
+* again before it is finished.
+*
+* Running observations are kept in a concurrent map and their state (see {@link Observation}) is updated atomically
+* per observation, i.e. processing acknowledgements or resets of one observer does not contend with update
+* notifications to others.
+*
 * @author Oliver Kleine, Stefan Hüske
 */
 public abstract class ObservableWebservice<T> implements Webservice<T> {
 
     private static Logger log = LoggerFactory.getLogger(ObservableWebservice.class.getName());
 
+    /**
+     * The minimum number of observers to be notified by a single thread after a status update (256)
+     */
+    public static final int MIN_PARTITION_SIZE = 256;
+
     private WebserviceManager webserviceManager;
     private String uriPath;
     private LinkedHashMultimap<String, LinkAttribute> linkAttributes;
 
-    private HashBasedTable<InetSocketAddress, Token, Observation> observations;
-    private ReentrantReadWriteLock observationsLock;
+    private ConcurrentMap<ObservationKey, Observation> observations;
+    private volatile boolean shutdown;
 
     private T status;
     private long statusExpiryDate;
@@ -76,6 +91,7 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
 
     private ScheduledExecutorService executor;
     private Future notifyAllObserversFuture;
+    private AtomicLong notificationRound;
 
 
     /**
@@ -102,8 +118,8 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
         this.uriPath = uriPath;
         this.linkAttributes = LinkedHashMultimap.create();
         this.statusLock = new ReentrantReadWriteLock();
-        this.observations = HashBasedTable.create();
-        this.observationsLock = new ReentrantReadWriteLock();
+        this.observations = new ConcurrentHashMap<>();
+        this.notificationRound = new AtomicLong();
         this.executor = executor;
         setResourceStatus(initialStatus, lifetime);
     }
@@ -117,29 +133,31 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
      * @param contentFormat the number representing the format of the update notifications payload
      */
     public void addObservation(InetSocketAddress remoteEndpoint, Token token, long contentFormat){
-        try{
-            this.observationsLock.writeLock().lock();
-            Observation observation = new Observation(remoteEndpoint, token, contentFormat);
-            NotifySingleObserverTask heartbeatTask = new NotifySingleObserverTask(observation, true);
-            observation.setHeartbeatFuture(this.executor.schedule(heartbeatTask, 24, TimeUnit.HOURS));
-            this.observations.put(remoteEndpoint, token, observation);
-            log.info("Added new observation (remote endpoint: {}, token: {}, content format: {})",
-                    new Object[]{remoteEndpoint, token, contentFormat});
+        if(this.shutdown){
+            log.warn("Service \"{}\" was shut down. No new observations accepted!", this.uriPath);
+            return;
         }
-        finally{
-            this.observationsLock.writeLock().unlock();
+
+        Observation observation = new Observation(remoteEndpoint, token, contentFormat);
+        Observation previous = this.observations.put(new ObservationKey(remoteEndpoint, token), observation);
+        if(previous != null){
+            cancelHeartbeat(previous);
         }
+
+        scheduleHeartbeat(observation);
+        log.info("Added new observation (remote endpoint: {}, token: {}, content format: {})",
+                new Object[]{remoteEndpoint, token, contentFormat});
     }
 
 
     public boolean removeObservation(InetSocketAddress remoteEndpoint, Token token){
-        try{
-            this.observationsLock.writeLock().lock();
-            return this.observations.remove(remoteEndpoint, token) != null;
-        }
-        finally{
-            this.observationsLock.writeLock().unlock();
+        Observation observation = this.observations.remove(new ObservationKey(remoteEndpoint, token));
+        if(observation == null){
+            return false;
         }
+
+        cancelHeartbeat(observation);
+        return true;
     }
 
     @Override
@@ -227,8 +245,9 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
                     log.debug("New status of {} successfully set (expires in {} seconds).",
                             ObservableWebservice.this.uriPath, lifetime);
 
+                    long round = ObservableWebservice.this.notificationRound.incrementAndGet();
                     ObservableWebservice.this.notifyAllObserversFuture =
-                            ObservableWebservice.this.executor.submit(new NotifyAllObserversTask());
+                            ObservableWebservice.this.executor.submit(new NotifyAllObserversTask(round));
                 }
                 catch(Exception ex){
                     log.error("Exception while setting new resource status for \"{}\"!",
@@ -263,98 +282,46 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
 
 
     private void handleMessageIDAssignedEvent(InetSocketAddress remoteEndpoint, Token token, int messageID){
-
-        try{
-            this.observationsLock.readLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                return;
-            }
-        }
-        finally {
-            this.observationsLock.readLock().unlock();
+        Observation observation = this.observations.get(new ObservationKey(remoteEndpoint, token));
+        if(observation == null){
+            return;
         }
 
-        try{
-            this.observationsLock.writeLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                return;
-            }
-
-            Observation observation = this.observations.get(remoteEndpoint, token);
-            observation.setMessageID(messageID);
-            log.info("Observation of \"{}\" (remote endpoint: {}, token: {}) can now be canceled with RST and message " +
-                    "ID {}", new Object[]{this.uriPath, remoteEndpoint, token, messageID});
-        }
-        finally {
-            this.observationsLock.writeLock().unlock();
-        }
+        observation.setMessageID(messageID);
+        log.info("Observation of \"{}\" (remote endpoint: {}, token: {}) can now be canceled with RST and message " +
+                "ID {}", new Object[]{this.uriPath, remoteEndpoint, token, messageID});
     }
 
 
     private void handleEmptyAckReceived(InetSocketAddress remoteEndpoint, Token token, int messageID){
-
-        try{
-            this.observationsLock.readLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                return;
-            }
-        }
-        finally {
-            this.observationsLock.readLock().unlock();
-        }
-
-        try{
-            this.observationsLock.writeLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                return;
-            }
-
-            Observation observation = this.observations.get(remoteEndpoint, token);
-            if(observation.getMessageID() == messageID){
-                observation.setMessageID(CoapMessage.UNDEFINED_MESSAGE_ID);
-            }
-        }
-        finally {
-            this.observationsLock.writeLock().unlock();
+        Observation observation = this.observations.get(new ObservationKey(remoteEndpoint, token));
+        if(observation != null){
+            observation.resetMessageID(messageID);
         }
     }
 
 
     private void handleResetReceived(InetSocketAddress remoteEndpoint, Token token, int messageID){
-        try{
-            this.observationsLock.readLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                log.debug("No observation of \"{}\" found to be cancelled with RST (remote endpoint: {}, token: {})",
-                        new Object[]{this.uriPath, remoteEndpoint, token});
-                return;
-            }
-        }
-        finally {
-            this.observationsLock.readLock().unlock();
-        }
+        ObservationKey key = new ObservationKey(remoteEndpoint, token);
+        Observation observation = this.observations.get(key);
 
-        try{
-            this.observationsLock.writeLock().lock();
-            Observation observation = this.observations.get(remoteEndpoint, token);
-            if(observation == null){
-                log.debug("No observation of \"{}\" found to be cancelled with RST (remote endpoint: {}, token: {})",
-                        new Object[]{this.uriPath, remoteEndpoint, token});
-            }
+        if(observation == null){
+            log.debug("No observation of \"{}\" found to be cancelled with RST (remote endpoint: {}, token: {})",
+                    new Object[]{this.uriPath, remoteEndpoint, token});
+        }
 
-            else if(observation.getMessageID() == messageID){
-                this.observations.remove(remoteEndpoint, token);
+        else if(observation.getMessageID() == messageID){
+            if(this.observations.remove(key, observation)){
+                cancelHeartbeat(observation);
                 log.info("Stopped observation of \"{}\" (remote endpoint: {}, token: {}) due to RST.",
                         new Object[]{this.uriPath, remoteEndpoint, token});
             }
-
-            else{
-                log.warn("Could not cancel observation (remote endpoint: {}, token: {}) with RST due to wrong message" +
-                        "ID (expected: {}, actual: {})", new Object[]{remoteEndpoint, token, observation.getMessageID(),
-                        messageID});
-            }
         }
-        finally {
-            this.observationsLock.writeLock().unlock();
+
+        else{
+            log.warn("Could not cancel observation (remote endpoint: {}, token: {}) with RST due to wrong message" +
+                    "ID (expected: {}, actual: {})", new Object[]{remoteEndpoint, token, observation.getMessageID(),
+                    messageID});
         }
     }
 
@@ -507,11 +474,16 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
     @Override
     public void shutdown(){
         log.warn("Shutdown service \"{}\"!", this.uriPath);
-        try{
-            this.observationsLock.writeLock().lock();
-            String message = "Webservice \"" + this.uriPath + "\" no longer available!";
 
-            for(Observation observation : this.observations.values()){
+        //avoid new registrations
+        this.shutdown = true;
+
+        String message = "Webservice \"" + this.uriPath + "\" no longer available!";
+
+        for(ObservationKey key : this.observations.keySet()){
+            Observation observation = this.observations.remove(key);
+            if(observation != null){
+                cancelHeartbeat(observation);
                 final InetSocketAddress remoteEndpoint = observation.getRemoteEndpoint();
                 final Token token = observation.getToken();
 
@@ -537,136 +509,229 @@ public abstract class ObservableWebservice<T> implements Webservice<T> {
                 });
             }
         }
-        finally {
-            //Do NOT unlock the "write lock" to avoid new registrations!
-            log.warn("Keep WRITE LOCK for service \"{}\" to avoid new registrations for observation!", this.uriPath);
-        }
     }
 
-    private class NotifySingleObserverTask implements Runnable {
 
-        private Observation observation;
-        private WrappedResourceStatus wrappedStatus;
-        private MessageType.Name messageType;
+    private void sendUpdateNotification(Observation observation, NotificationTemplate template){
+        InetSocketAddress remoteEndpoint = observation.getRemoteEndpoint();
+        Token token = observation.getToken();
 
+        boolean confirmable = this.isUpdateNotificationConfirmable(remoteEndpoint, token);
+        MessageType.Name messageType = confirmable ? MessageType.Name.CON : MessageType.Name.NON;
 
-        private NotifySingleObserverTask(Observation observation, boolean confirmable) {
-            this(observation, getWrappedResourceStatus(observation.getContentFormat()));
-            this.messageType = confirmable ? MessageType.Name.CON : MessageType.Name.NON;
-        }
+        sendUpdateNotification(observation, template, messageType);
+    }
 
 
-        private NotifySingleObserverTask(Observation observation, WrappedResourceStatus wrappedStatus){
-            this.observation = observation;
-            this.wrappedStatus = wrappedStatus;
-            boolean confirmable = ObservableWebservice.this.isUpdateNotificationConfirmable(
-                    observation.getRemoteEndpoint(), observation.getToken());
-            this.messageType = confirmable ? MessageType.Name.CON : MessageType.Name.NON;
-        }
+    private void sendUpdateNotification(Observation observation, NotificationTemplate template,
+                                        MessageType.Name messageType){
 
+        InetSocketAddress remoteEndpoint = observation.getRemoteEndpoint();
+        Token token = observation.getToken();
 
-        @Override
-        public void run(){
-            InetSocketAddress remoteEndpoint = this.observation.getRemoteEndpoint();
-            Token token = this.observation.getToken();
-            int messageID = this.observation.getMessageID();
+        try{
+            if(template == null){
+                MessageCode.Name messageCode = MessageCode.Name.BAD_REQUEST_400;
+                CoapResponse updateNotification = new CoapResponse(messageType, messageCode);
 
-            try{
-                ObservableWebservice.this.observationsLock.writeLock().lock();
+                updateNotification.setToken(token);
+                updateNotification.setMessageID(observation.getMessageID());
 
-                if(wrappedStatus == null){
-                    MessageCode.Name messageCode = MessageCode.Name.BAD_REQUEST_400;
-                    CoapResponse updateNotification = new CoapResponse(messageType, messageCode);
+                String message = "Format (" + observation.getContentFormat() + ") is not anymore supported!";
+                updateNotification.setContent(message.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
 
-                    updateNotification.setToken(token);
-                    updateNotification.setMessageID(messageID);
+                Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
 
-                    String message = "Format (" + observation.getContentFormat() + ") is not anymore supported!";
-                    updateNotification.setContent(message.getBytes(CoapMessage.CHARSET),
-                            ContentFormat.TEXT_PLAIN_UTF8);
+                removeObservation(remoteEndpoint, token);
+            }
 
-                    Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
+            else{
+                CoapResponse updateNotification = template.createUpdateNotification(observation, messageType);
+                Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
 
-                    removeObservation(remoteEndpoint, token);
+                if(messageType == MessageType.Name.CON){
+                    scheduleHeartbeat(observation);
                 }
+            }
+        }
+        catch(Exception ex){
+            MessageCode.Name messageCode = MessageCode.Name.INTERNAL_SERVER_ERROR_500;
+            CoapResponse updateNotification = CoapResponse.createErrorResponse(messageType, messageCode, ex);
+            log.error("Exception while processing notification task!", ex);
+            Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
 
-                else{
-                    MessageCode.Name messageCode = observation.getEtags().contains(wrappedStatus.getEtag()) ?
-                            MessageCode.Name.VALID_203 : MessageCode.Name.CONTENT_205;
+            removeObservation(remoteEndpoint, token);
+        }
+    }
 
-                    CoapResponse updateNotification = new CoapResponse(messageType, messageCode);
 
-                    updateNotification.setToken(token);
-                    updateNotification.setMessageID(messageID);
-                    updateNotification.setEtag(wrappedStatus.getEtag());
+    private void scheduleHeartbeat(Observation observation){
+        ScheduledFuture heartbeatFuture = this.executor.schedule(new HeartbeatTask(observation), 24, TimeUnit.HOURS);
+        ScheduledFuture previousHeartbeatFuture = observation.getAndSetHeartbeatFuture(heartbeatFuture);
 
-                    if(messageCode == MessageCode.Name.CONTENT_205){
-                        updateNotification.setContent(wrappedStatus.getContent(), wrappedStatus.getContentFormat());
-                    }
+        if(previousHeartbeatFuture != null && previousHeartbeatFuture.cancel(false)){
+            log.debug("Cancelled heartbeat notification (remote endpoint: {}, token: {})",
+                    observation.getRemoteEndpoint(), observation.getToken());
+        }
 
-                    updateNotification.setObserve();
+        log.debug("Scheduled new heartbeat (remote endpoint: {}, token: {})",
+                observation.getRemoteEndpoint(), observation.getToken());
+    }
 
-                    Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
 
-                    if(messageType == MessageType.Name.CON){
-                        if(observation.getHeartbeatFuture().cancel(false)){
-                            log.info("Cancelled heartbeat notification (remote endpoint: {}, token: {})",
-                                    remoteEndpoint, token);
-                        }
-                        NotifySingleObserverTask heartbeat = new NotifySingleObserverTask(observation, true);
-                        ScheduledFuture heartbeatFuture = ObservableWebservice.this.executor.schedule(heartbeat,
-                                24, TimeUnit.HOURS);
-                        observation.setHeartbeatFuture(heartbeatFuture);
-                        log.info("Scheduled new heartbeat (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                    }
-                }
+    private void cancelHeartbeat(Observation observation){
+        ScheduledFuture heartbeatFuture = observation.getAndSetHeartbeatFuture(null);
+        if(heartbeatFuture != null){
+            heartbeatFuture.cancel(false);
+        }
+    }
+
+
+    private NotificationTemplate createNotificationTemplate(long contentFormat){
+        WrappedResourceStatus wrappedStatus = getWrappedResourceStatus(contentFormat);
+        return wrappedStatus == null ? null : new NotificationTemplate(wrappedStatus);
+    }
 
+
+    private class HeartbeatTask implements Runnable {
+
+        private Observation observation;
+
+        private HeartbeatTask(Observation observation) {
+            this.observation = observation;
+        }
+
+        @Override
+        public void run(){
+            ObservationKey key = new ObservationKey(observation.getRemoteEndpoint(), observation.getToken());
+            if(ObservableWebservice.this.observations.get(key) != this.observation){
+                return;
             }
-            catch(Exception ex){
-                MessageCode.Name messageCode = MessageCode.Name.INTERNAL_SERVER_ERROR_500;
-                CoapResponse updateNotification = CoapResponse.createErrorResponse(messageType, messageCode, ex);
-                log.error("Exception while processing notification task!", ex);
-                Channels.write(getWebserviceManager().getChannel(), updateNotification, remoteEndpoint);
 
-                removeObservation(remoteEndpoint, token);
+            NotificationTemplate template;
+            try{
+                template = createNotificationTemplate(this.observation.getContentFormat());
             }
-            finally{
-                ObservableWebservice.this.observationsLock.writeLock().unlock();
+            catch(Exception ex){
+                log.error("Could not create heartbeat notification!", ex);
+                return;
             }
+
+            sendUpdateNotification(this.observation, template, MessageType.Name.CON);
         }
     }
 
 
-    private class NotifyAllObserversTask implements Runnable{
+    private class NotifyObserversPartitionTask implements Runnable {
+
+        private long round;
+        private List<Observation> observations;
+        private Map<Long, NotificationTemplate> templates;
+
+        private NotifyObserversPartitionTask(long round, List<Observation> observations,
+                                             Map<Long, NotificationTemplate> templates){
+            this.round = round;
+            this.observations = observations;
+            this.templates = templates;
+        }
 
         @Override
-        public void run() {
+        public void run(){
+            for(Observation observation : this.observations){
+                if(this.round != ObservableWebservice.this.notificationRound.get()){
+                    log.debug("Aborted outdated notification of \"{}\" observers.", getUriPath());
+                    return;
+                }
 
-            List<NotifySingleObserverTask> notificationTasks = new ArrayList<>();
+                long contentFormat = observation.getContentFormat();
+                if(this.templates.containsKey(contentFormat)){
+                    sendUpdateNotification(observation, this.templates.get(contentFormat));
+                }
+            }
+        }
+    }
 
-            try{
-                ObservableWebservice.this.observationsLock.readLock().lock();
 
-                Map<Long, WrappedResourceStatus> serializedStates = new HashMap<>();
+    private class NotifyAllObserversTask implements Runnable{
 
-                for (Observation observation : ObservableWebservice.this.observations.values()) {
-                    long contentFormat = observation.getContentFormat();
+        private long round;
 
-                    if (!serializedStates.containsKey(contentFormat)) {
-                        serializedStates.put(contentFormat, getWrappedResourceStatus(contentFormat));
-                    }
+        private NotifyAllObserversTask(long round){
+            this.round = round;
+        }
 
-                    WrappedResourceStatus wrappedStatus = serializedStates.get(contentFormat);
-                    notificationTasks.add(new NotifySingleObserverTask(observation, wrappedStatus));
-                }
+        @Override
+        public void run() {
+
+            List<Observation> observations = new ArrayList<>(ObservableWebservice.this.observations.values());
+
+            if(observations.isEmpty())
+                return;
+
+            //Serialize status and encode options once per content format
+            Set<Long> contentFormats = new HashSet<>();
+            for(Observation observation : observations){
+                contentFormats.add(observation.getContentFormat());
             }
-            finally {
-                ObservableWebservice.this.observationsLock.readLock().unlock();
+
+            //observers of content formats without template (due to an exception) are skipped but not cancelled
+            Map<Long, NotificationTemplate> templates = new HashMap<>();
+            for(long contentFormat : contentFormats){
+                try{
+                    templates.put(contentFormat, createNotificationTemplate(contentFormat));
+                }
+                catch(Exception ex){
+                    log.error("Could not create update notification template (content format: {})!",
+                            contentFormat, ex);
+                }
             }
 
-            for(NotifySingleObserverTask notificationTask : notificationTasks){
-                notificationTask.run();
+            //Partition observers and notify the last partition within this thread
+            int partitions = Math.min(Runtime.getRuntime().availableProcessors(),
+                    (observations.size() + MIN_PARTITION_SIZE - 1) / MIN_PARTITION_SIZE);
+            partitions = Math.max(1, partitions);
+            int partitionSize = (observations.size() + partitions - 1) / partitions;
+
+            log.debug("Notify {} observers of \"{}\" in {} partition(s).",
+                    new Object[]{observations.size(), getUriPath(), partitions});
+
+            for(int i = 0; i < partitions; i++){
+                List<Observation> partition = observations.subList(Math.min(observations.size(), i * partitionSize),
+                        Math.min(observations.size(), (i + 1) * partitionSize));
+
+                NotifyObserversPartitionTask task = new NotifyObserversPartitionTask(this.round, partition, templates);
+
+                if(i < partitions - 1)
+                    ObservableWebservice.this.executor.submit(task);
+                else
+                    task.run();
             }
         }
     }
+
+
+    private static class ObservationKey {
+
+        private final InetSocketAddress remoteEndpoint;
+        private final Token token;
+
+        private ObservationKey(InetSocketAddress remoteEndpoint, Token token){
+            this.remoteEndpoint = remoteEndpoint;
+            this.token = token;
+        }
+
+        @Override
+        public int hashCode(){
+            return 31 * this.remoteEndpoint.hashCode() + this.token.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof ObservationKey))
+                return false;
+
+            ObservationKey other = (ObservationKey) object;
+            return this.remoteEndpoint.equals(other.remoteEndpoint) && this.token.equals(other.token);
+        }
+    }
 }
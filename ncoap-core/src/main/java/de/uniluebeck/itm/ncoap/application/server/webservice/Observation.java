@@ -25,35 +25,50 @@
 package de.uniluebeck.itm.ncoap.application.server.webservice;
 
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.observing.ResourceStatusAge;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 
 import java.net.InetSocketAddress;
-import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Created by olli on 06.10.14.
+ * An {@link Observation} contains the state of a running observation of an {@link ObservableWebservice}. All
+ * mutable state, i.e. the message ID of the latest confirmable update notification, the scheduled heartbeat, the
+ * ETAGs and the sequence number of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#OBSERVE}
+ * option, is updated atomically per observation, i.e. without any lock shared with other observations.
+ *
+ * @author Oliver Kleine
  */
 public class Observation {
 
-    private InetSocketAddress remoteEndpoint;
-    private ScheduledFuture heartbeatFuture;
-    private Token token;
-    private long contentFormat;
-    private int messageID;
-    private Set<byte[]> etags;
+    private static final long THRESHOLD = ResourceStatusAge.MODULUS / 2;
+
+    private final InetSocketAddress remoteEndpoint;
+    private final Token token;
+    private final long contentFormat;
+
+    private final AtomicInteger messageID;
+    private final AtomicReference<ScheduledFuture> heartbeatFuture;
+    private final AtomicLong sequenceNo;
+    private final Set<byte[]> etags;
 
     public Observation(InetSocketAddress remoteEndpoint, Token token, long contentFormat) {
-        this(remoteEndpoint, token, contentFormat, new HashSet<byte[]>(0));
+        this(remoteEndpoint, token, contentFormat, new CopyOnWriteArraySet<byte[]>());
     }
 
     public Observation(InetSocketAddress remoteEndpoint, Token token, long contentFormat, Set<byte[]> etags){
         this.remoteEndpoint = remoteEndpoint;
         this.token = token;
         this.contentFormat = contentFormat;
-        this.messageID = CoapMessage.UNDEFINED_MESSAGE_ID;
-        this.etags = etags;
+        this.messageID = new AtomicInteger(CoapMessage.UNDEFINED_MESSAGE_ID);
+        this.heartbeatFuture = new AtomicReference<>();
+        this.sequenceNo = new AtomicLong(System.currentTimeMillis() % ResourceStatusAge.MODULUS);
+        this.etags = etags instanceof CopyOnWriteArraySet ? etags : new CopyOnWriteArraySet<>(etags);
     }
 
     public long getContentFormat() {
@@ -66,7 +81,22 @@ public class Observation {
      * @param messageID the message ID to be used for the next update notification
      */
     public void setMessageID(int messageID){
-        this.messageID = messageID;
+        this.messageID.set(messageID);
+    }
+
+
+    /**
+     * Resets the message ID to be used for the next update notification to
+     * {@link de.uniluebeck.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if and only if the actual value
+     * equals the given message ID, e.g. when the confirmable update notification with that message ID was
+     * acknowledged.
+     *
+     * @param messageID the message ID that is expected to be the actual value
+     *
+     * @return <code>true</code> if the message ID was reset and <code>false</code> otherwise
+     */
+    public boolean resetMessageID(int messageID){
+        return this.messageID.compareAndSet(messageID, CoapMessage.UNDEFINED_MESSAGE_ID);
     }
 
 
@@ -78,13 +108,41 @@ public class Observation {
      * @return the message ID to be used for the next update notification
      */
     public int getMessageID() {
-        return this.messageID;
+        return this.messageID.get();
+    }
+
+
+    /**
+     * Returns the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#OBSERVE} option for
+     * the next update notification. The returned values are strictly increasing in the sense of RFC 7641, i.e.
+     * modulo 2^24. The value follows the system clock (in milliseconds) unless that would not be newer than the
+     * previously returned value.
+     *
+     * @return the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#OBSERVE} option for
+     * the next update notification
+     */
+    public long getNextSequenceNo(){
+        while(true){
+            long previous = this.sequenceNo.get();
+            long next = System.currentTimeMillis() % ResourceStatusAge.MODULUS;
+
+            long distance = (next - previous + ResourceStatusAge.MODULUS) % ResourceStatusAge.MODULUS;
+            if(distance == 0 || distance >= THRESHOLD){
+                next = (previous + 1) % ResourceStatusAge.MODULUS;
+            }
+
+            if(this.sequenceNo.compareAndSet(previous, next)){
+                return next;
+            }
+        }
     }
 
+
     /**
      * Returns the set of ETAGs which are supposed to cause an update notification with code
      * {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#VALID_203}
-     * instead of {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#CONTENT_205}.
+     * instead of {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#CONTENT_205}. The returned set is safe
+     * for concurrent use.
      *
      * @return the set of ETAGs which are supposed to cause an update notification with code
      * {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#VALID_203}
@@ -103,10 +161,21 @@ public class Observation {
     }
 
     public ScheduledFuture getHeartbeatFuture() {
-        return heartbeatFuture;
+        return this.heartbeatFuture.get();
     }
 
     public void setHeartbeatFuture(ScheduledFuture heartbeatFuture) {
-        this.heartbeatFuture = heartbeatFuture;
+        this.heartbeatFuture.set(heartbeatFuture);
+    }
+
+    /**
+     * Atomically sets the given {@link ScheduledFuture} as heartbeat and returns the previous one.
+     *
+     * @param heartbeatFuture the {@link ScheduledFuture} of the new heartbeat
+     *
+     * @return the {@link ScheduledFuture} of the previous heartbeat (or <code>null</code> if there was none)
+     */
+    public ScheduledFuture getAndSetHeartbeatFuture(ScheduledFuture heartbeatFuture) {
+        return this.heartbeatFuture.getAndSet(heartbeatFuture);
     }
 }
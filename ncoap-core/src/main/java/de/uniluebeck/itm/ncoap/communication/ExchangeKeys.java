@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The {@link de.uniluebeck.itm.ncoap.communication.ExchangeKeys} provide the keys to identify message exchanges by
+ * remote endpoint and message ID or by remote endpoint and
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}, e.g. in caches of handlers dealing with
+ * encoded messages, as well as the method to read the token from an encoded message without decoding it.
+ *
+ * Unlike the {@link de.uniluebeck.itm.ncoap.communication.ExchangeStore} the keys are regular objects, i.e. they can
+ * be used with any {@link java.util.Map} or {@link com.google.common.cache.Cache}.
+ *
+ * @author Oliver Kleine
+ */
+public final class ExchangeKeys {
+
+    private ExchangeKeys(){
+        //not to be instantiated
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the given encoded message
+     * (starting at the reader index of the given buffer) without changing the reader index or <code>null</code> if
+     * the message is malformed, i.e. the token length is greater than 8 or the message is too short.
+     *
+     * @param buffer the {@link org.jboss.netty.buffer.ChannelBuffer} containing the encoded message
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the given encoded
+     * message or <code>null</code> if the message is malformed
+     */
+    public static Token getToken(ChannelBuffer buffer){
+        int index = buffer.readerIndex();
+        int tokenLength = buffer.getUnsignedByte(index) & 0x0F;
+
+        if(tokenLength > 8 || buffer.readableBytes() < 4 + tokenLength)
+            return null;
+
+        byte[] token = new byte[tokenLength];
+        buffer.getBytes(index + 4, token);
+        return new Token(token);
+    }
+
+
+    /**
+     * Key to identify a message exchange by remote endpoint and message ID
+     */
+    public static final class MessageIDKey{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final int messageID;
+
+        /**
+         * Creates a new instance of {@link MessageIDKey}
+         *
+         * @param remoteEndpoint the remote endpoint of the message exchange
+         * @param messageID the message ID of the message exchange
+         */
+        public MessageIDKey(InetSocketAddress remoteEndpoint, int messageID){
+            this.remoteEndpoint = remoteEndpoint;
+            this.messageID = messageID;
+        }
+
+        /**
+         * Returns the remote endpoint of the message exchange
+         * @return the remote endpoint of the message exchange
+         */
+        public InetSocketAddress getRemoteEndpoint() {
+            return this.remoteEndpoint;
+        }
+
+        /**
+         * Returns the message ID of the message exchange
+         * @return the message ID of the message exchange
+         */
+        public int getMessageID() {
+            return this.messageID;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof MessageIDKey))
+                return false;
+
+            MessageIDKey other = (MessageIDKey) object;
+            return this.messageID == other.messageID && this.remoteEndpoint.equals(other.remoteEndpoint);
+        }
+
+        @Override
+        public int hashCode(){
+            return this.remoteEndpoint.hashCode() * 31 + this.messageID;
+        }
+    }
+
+
+    /**
+     * Key to identify a message exchange by remote endpoint and
+     * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}
+     */
+    public static final class TokenKey{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final Token token;
+
+        /**
+         * Creates a new instance of {@link TokenKey}
+         *
+         * @param remoteEndpoint the remote endpoint of the message exchange
+         * @param token the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the message
+         *              exchange
+         */
+        public TokenKey(InetSocketAddress remoteEndpoint, Token token){
+            this.remoteEndpoint = remoteEndpoint;
+            this.token = token;
+        }
+
+        /**
+         * Returns the remote endpoint of the message exchange
+         * @return the remote endpoint of the message exchange
+         */
+        public InetSocketAddress getRemoteEndpoint() {
+            return this.remoteEndpoint;
+        }
+
+        /**
+         * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the message exchange
+         * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the message exchange
+         */
+        public Token getToken() {
+            return this.token;
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof TokenKey))
+                return false;
+
+            TokenKey other = (TokenKey) object;
+            return this.token.equals(other.token) && this.remoteEndpoint.equals(other.remoteEndpoint);
+        }
+
+        @Override
+        public int hashCode(){
+            return this.remoteEndpoint.hashCode() * 31 + this.token.hashCode();
+        }
+    }
+}
@@ -0,0 +1,564 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * An {@link de.uniluebeck.itm.ncoap.communication.ExchangeStore} is a concurrent two-level map to store the state of
+ * ongoing message exchanges per remote endpoint. The first level is the remote endpoint, the second level is
+ * either a message ID or a {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}.
+ *
+ * On the second level, message IDs and {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}s
+ * are packed into a <code>long</code>. As tokens consisting of a different number of bytes are different even if
+ * their bytes represent the same number (see {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}),
+ * there is a separate key space per token length and another one for message IDs. Each key space is a hash table
+ * with primitive keys, i.e. lookups do not allocate, guarded by its own monitor.
+ *
+ * None of the operations requires a global lock. The state of a remote endpoint is kept while there are no
+ * exchanges with that remote endpoint (to be reused by the next exchange) and removed lazily if it was not used for
+ * {@link #IDLE_EXPIRY_SECONDS}.
+ *
+ * @param <V> the type of the values to be stored per exchange
+ *
+ * @author Oliver Kleine
+ */
+public class ExchangeStore<V> {
+
+    private static final int MESSAGE_ID_SPACE = 9;
+    private static final int NUMBER_OF_SPACES = 10;
+
+    private static final int CLOSED = -1;
+
+    /**
+     * The number of seconds the state of a remote endpoint without exchanges is kept (60)
+     */
+    public static final int IDLE_EXPIRY_SECONDS = 60;
+
+    private static final long IDLE_EXPIRY = TimeUnit.SECONDS.toNanos(IDLE_EXPIRY_SECONDS);
+
+    //idle remote endpoints are removed every time this number of remote endpoints was added
+    private static final int PURGE_INTERVAL = 64;
+
+    private final ConcurrentHashMap<InetSocketAddress, EndpointExchanges<V>> exchanges;
+    private final AtomicInteger addedEndpoints;
+
+    /**
+     * Creates a new (empty) instance of {@link de.uniluebeck.itm.ncoap.communication.ExchangeStore}
+     */
+    public ExchangeStore(){
+        this.exchanges = new ConcurrentHashMap<>();
+        this.addedEndpoints = new AtomicInteger(0);
+    }
+
+
+    /**
+     * Returns the value for the given remote endpoint and message ID or <code>null</code> if there is no such value
+     *
+     * @param remoteEndpoint the remote endpoint of the exchange
+     * @param messageID the message ID of the exchange
+     *
+     * @return the value for the given remote endpoint and message ID or <code>null</code> if there is no such value
+     */
+    public V get(InetSocketAddress remoteEndpoint, int messageID){
+        return get(remoteEndpoint, MESSAGE_ID_SPACE, messageID);
+    }
+
+    /**
+     * Returns the value for the given remote endpoint and {@link Token} or <code>null</code> if there is no such value
+     *
+     * @param remoteEndpoint the remote endpoint of the exchange
+     * @param token the {@link Token} of the exchange
+     *
+     * @return the value for the given remote endpoint and {@link Token} or <code>null</code> if there is no such value
+     */
+    public V get(InetSocketAddress remoteEndpoint, Token token){
+        return get(remoteEndpoint, token.getLength(), token.getValue());
+    }
+
+
+    public boolean contains(InetSocketAddress remoteEndpoint, int messageID){
+        return get(remoteEndpoint, messageID) != null;
+    }
+
+
+    public boolean contains(InetSocketAddress remoteEndpoint, Token token){
+        return get(remoteEndpoint, token) != null;
+    }
+
+    /**
+     * Stores the given value for the given remote endpoint and message ID
+     *
+     * @return the value previously stored for the given remote endpoint and message ID or <code>null</code> if
+     * there was no such value
+     */
+    public V put(InetSocketAddress remoteEndpoint, int messageID, V value){
+        return put(remoteEndpoint, MESSAGE_ID_SPACE, messageID, value, false);
+    }
+
+    /**
+     * Stores the given value for the given remote endpoint and {@link Token}
+     *
+     * @return the value previously stored for the given remote endpoint and {@link Token} or <code>null</code> if
+     * there was no such value
+     */
+    public V put(InetSocketAddress remoteEndpoint, Token token, V value){
+        return put(remoteEndpoint, token.getLength(), token.getValue(), value, false);
+    }
+
+    /**
+     * Stores the given value for the given remote endpoint and message ID if there is no value yet
+     *
+     * @return the value already stored for the given remote endpoint and message ID or <code>null</code> if
+     * the given value was stored
+     */
+    public V putIfAbsent(InetSocketAddress remoteEndpoint, int messageID, V value){
+        return put(remoteEndpoint, MESSAGE_ID_SPACE, messageID, value, true);
+    }
+
+    /**
+     * Stores the given value for the given remote endpoint and {@link Token} if there is no value yet
+     *
+     * @return the value already stored for the given remote endpoint and {@link Token} or <code>null</code> if
+     * the given value was stored
+     */
+    public V putIfAbsent(InetSocketAddress remoteEndpoint, Token token, V value){
+        return put(remoteEndpoint, token.getLength(), token.getValue(), value, true);
+    }
+
+    /**
+     * Replaces the value for the given remote endpoint and message ID only if it is the given expected value
+     *
+     * @return <code>true</code> if the value was replaced or <code>false</code> otherwise
+     */
+    public boolean replace(InetSocketAddress remoteEndpoint, int messageID, V expected, V value){
+        return replace(remoteEndpoint, MESSAGE_ID_SPACE, messageID, expected, value);
+    }
+
+    /**
+     * Replaces the value for the given remote endpoint and {@link Token} only if it is the given expected value
+     *
+     * @return <code>true</code> if the value was replaced or <code>false</code> otherwise
+     */
+    public boolean replace(InetSocketAddress remoteEndpoint, Token token, V expected, V value){
+        return replace(remoteEndpoint, token.getLength(), token.getValue(), expected, value);
+    }
+
+    /**
+     * Removes the value for the given remote endpoint and message ID
+     *
+     * @return the removed value or <code>null</code> if there was no such value
+     */
+    public V remove(InetSocketAddress remoteEndpoint, int messageID){
+        return remove(remoteEndpoint, MESSAGE_ID_SPACE, messageID);
+    }
+
+    /**
+     * Removes the value for the given remote endpoint and {@link Token}
+     *
+     * @return the removed value or <code>null</code> if there was no such value
+     */
+    public V remove(InetSocketAddress remoteEndpoint, Token token){
+        return remove(remoteEndpoint, token.getLength(), token.getValue());
+    }
+
+    /**
+     * Removes the value for the given remote endpoint and message ID only if it is the given value
+     *
+     * @return <code>true</code> if the value was removed or <code>false</code> otherwise
+     */
+    public boolean remove(InetSocketAddress remoteEndpoint, int messageID, V value){
+        return remove(remoteEndpoint, MESSAGE_ID_SPACE, messageID, value);
+    }
+
+    /**
+     * Removes the value for the given remote endpoint and {@link Token} only if it is the given value
+     *
+     * @return <code>true</code> if the value was removed or <code>false</code> otherwise
+     */
+    public boolean remove(InetSocketAddress remoteEndpoint, Token token, V value){
+        return remove(remoteEndpoint, token.getLength(), token.getValue(), value);
+    }
+
+    /**
+     * Returns the remote endpoints with at least one stored exchange. This method iterates over all remote endpoints
+     * and is thus not intended to be called frequently.
+     *
+     * @return the remote endpoints with at least one stored exchange
+     */
+    public Set<InetSocketAddress> getRemoteEndpoints(){
+        Set<InetSocketAddress> result = new HashSet<>();
+        for(Map.Entry<InetSocketAddress, EndpointExchanges<V>> entry : this.exchanges.entrySet()){
+            if(entry.getValue().size.get() > 0){
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of stored exchanges. This method iterates over all remote endpoints and is thus not
+     * intended to be called frequently.
+     *
+     * @return the number of stored exchanges
+     */
+    public int size(){
+        int result = 0;
+        for(EndpointExchanges<V> endpointExchanges : this.exchanges.values()){
+            result += Math.max(endpointExchanges.size.get(), 0);
+        }
+        return result;
+    }
+
+
+    public boolean isEmpty(){
+        for(EndpointExchanges<V> endpointExchanges : this.exchanges.values()){
+            if(endpointExchanges.size.get() > 0){
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public void clear(){
+        this.exchanges.clear();
+    }
+
+
+    private V get(InetSocketAddress remoteEndpoint, int space, long key){
+        EndpointExchanges<V> endpointExchanges = this.exchanges.get(remoteEndpoint);
+        if(endpointExchanges == null){
+            return null;
+        }
+
+        LongMap<V> values = endpointExchanges.spaces.get(space);
+        if(values == null){
+            return null;
+        }
+
+        synchronized (values){
+            return values.get(key);
+        }
+    }
+
+
+    private V put(InetSocketAddress remoteEndpoint, int space, long key, V value, boolean onlyIfAbsent){
+        EndpointExchanges<V> endpointExchanges = reserve(remoteEndpoint);
+        LongMap<V> values = endpointExchanges.getSpace(space);
+
+        V previous;
+        synchronized (values){
+            previous = values.put(key, value, onlyIfAbsent);
+        }
+
+        //the reservation was not needed as the number of values did not change
+        if(previous != null){
+            release(endpointExchanges);
+        }
+
+        return previous;
+    }
+
+
+    private boolean replace(InetSocketAddress remoteEndpoint, int space, long key, V expected, V value){
+        EndpointExchanges<V> endpointExchanges = this.exchanges.get(remoteEndpoint);
+        if(endpointExchanges == null){
+            return false;
+        }
+
+        LongMap<V> values = endpointExchanges.spaces.get(space);
+        if(values == null){
+            return false;
+        }
+
+        synchronized (values){
+            return values.replace(key, expected, value);
+        }
+    }
+
+
+    private V remove(InetSocketAddress remoteEndpoint, int space, long key){
+        EndpointExchanges<V> endpointExchanges = this.exchanges.get(remoteEndpoint);
+        if(endpointExchanges == null){
+            return null;
+        }
+
+        LongMap<V> values = endpointExchanges.spaces.get(space);
+        if(values == null){
+            return null;
+        }
+
+        V removed;
+        synchronized (values){
+            removed = values.remove(key, null);
+        }
+
+        if(removed != null){
+            release(endpointExchanges);
+        }
+
+        return removed;
+    }
+
+
+    private boolean remove(InetSocketAddress remoteEndpoint, int space, long key, V value){
+        EndpointExchanges<V> endpointExchanges = this.exchanges.get(remoteEndpoint);
+        if(endpointExchanges == null){
+            return false;
+        }
+
+        LongMap<V> values = endpointExchanges.spaces.get(space);
+        if(values == null){
+            return false;
+        }
+
+        V removed;
+        synchronized (values){
+            removed = values.remove(key, value);
+        }
+
+        if(removed != null){
+            release(endpointExchanges);
+            return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Returns the (possibly new) exchanges of the given remote endpoint with increased size, i.e. the returned
+     * instance is not removed before {@link #release(EndpointExchanges)} was called.
+     */
+    private EndpointExchanges<V> reserve(InetSocketAddress remoteEndpoint){
+        while(true){
+            EndpointExchanges<V> endpointExchanges = this.exchanges.get(remoteEndpoint);
+
+            if(endpointExchanges == null){
+                EndpointExchanges<V> newExchanges = new EndpointExchanges<>();
+                endpointExchanges = this.exchanges.putIfAbsent(remoteEndpoint, newExchanges);
+                if(endpointExchanges == null){
+                    endpointExchanges = newExchanges;
+
+                    if(this.addedEndpoints.incrementAndGet() % PURGE_INTERVAL == 0){
+                        purgeIdleEndpoints();
+                    }
+                }
+            }
+
+            int size = endpointExchanges.size.get();
+            if(size == CLOSED){
+                this.exchanges.remove(remoteEndpoint, endpointExchanges);
+            }
+            else if(endpointExchanges.size.compareAndSet(size, size + 1)){
+                return endpointExchanges;
+            }
+        }
+    }
+
+
+    private void release(EndpointExchanges<V> endpointExchanges){
+        if(endpointExchanges.size.decrementAndGet() == 0){
+            endpointExchanges.idleSince = System.nanoTime();
+        }
+    }
+
+
+    private void purgeIdleEndpoints(){
+        long now = System.nanoTime();
+
+        for(Map.Entry<InetSocketAddress, EndpointExchanges<V>> entry : this.exchanges.entrySet()){
+            EndpointExchanges<V> endpointExchanges = entry.getValue();
+
+            //closed instances are not used anymore, i.e. a concurrent reservation creates a new one
+            if(now - endpointExchanges.idleSince > IDLE_EXPIRY && endpointExchanges.size.compareAndSet(0, CLOSED)){
+                this.exchanges.remove(entry.getKey(), endpointExchanges);
+            }
+        }
+    }
+
+
+    private static class EndpointExchanges<V>{
+
+        private final AtomicInteger size;
+        private final AtomicReferenceArray<LongMap<V>> spaces;
+        private volatile long idleSince;
+
+        private EndpointExchanges(){
+            this.size = new AtomicInteger(0);
+            this.spaces = new AtomicReferenceArray<>(NUMBER_OF_SPACES);
+            this.idleSince = System.nanoTime();
+        }
+
+        private LongMap<V> getSpace(int space){
+            LongMap<V> values = this.spaces.get(space);
+
+            if(values == null){
+                this.spaces.compareAndSet(space, null, new LongMap<V>());
+                values = this.spaces.get(space);
+            }
+
+            return values;
+        }
+    }
+
+
+    /**
+     * A hash table with primitive <code>long</code> keys (open addressing with linear probing and backward shift
+     * deletion). Instances are not thread-safe, i.e. all access must be synchronized on the instance.
+     */
+    private static class LongMap<V>{
+
+        private static final int INITIAL_CAPACITY = 8;
+
+        private long[] keys;
+        private Object[] values;
+        private int size;
+
+        private LongMap(){
+            this.keys = new long[INITIAL_CAPACITY];
+            this.values = new Object[INITIAL_CAPACITY];
+        }
+
+        private int index(long key){
+            long hash = key * 0x9E3779B97F4A7C15L;
+            return (int) (hash ^ (hash >>> 32)) & (this.values.length - 1);
+        }
+
+        //returns the index of the given key or -1 if there is no such key
+        private int find(long key){
+            int mask = this.values.length - 1;
+            for(int i = index(key); this.values[i] != null; i = (i + 1) & mask){
+                if(this.keys[i] == key){
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private V get(long key){
+            int i = find(key);
+            return i < 0 ? null : (V) this.values[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        private V put(long key, V value, boolean onlyIfAbsent){
+            int mask = this.values.length - 1;
+            int i = index(key);
+
+            for(; this.values[i] != null; i = (i + 1) & mask){
+                if(this.keys[i] == key){
+                    V previous = (V) this.values[i];
+                    if(!onlyIfAbsent){
+                        this.values[i] = value;
+                    }
+                    return previous;
+                }
+            }
+
+            this.keys[i] = key;
+            this.values[i] = value;
+
+            //keep the load factor below 0.75
+            if(++this.size * 4 > this.values.length * 3){
+                resize(this.values.length * 2);
+            }
+
+            return null;
+        }
+
+        private boolean replace(long key, V expected, V value){
+            int i = find(key);
+            if(i < 0 || !expected.equals(this.values[i])){
+                return false;
+            }
+
+            this.values[i] = value;
+            return true;
+        }
+
+        //removes the value of the given key (only if it equals the expected value unless that is null)
+        @SuppressWarnings("unchecked")
+        private V remove(long key, V expected){
+            int i = find(key);
+            if(i < 0 || (expected != null && !expected.equals(this.values[i]))){
+                return null;
+            }
+
+            V removed = (V) this.values[i];
+            int mask = this.values.length - 1;
+
+            //move subsequent entries of the same probe sequence into the gap
+            int gap = i;
+            for(int j = (gap + 1) & mask; this.values[j] != null; j = (j + 1) & mask){
+                int home = index(this.keys[j]);
+                boolean between = gap <= j ? (gap < home && home <= j) : (gap < home || home <= j);
+
+                if(!between){
+                    this.keys[gap] = this.keys[j];
+                    this.values[gap] = this.values[j];
+                    gap = j;
+                }
+            }
+
+            this.keys[gap] = 0;
+            this.values[gap] = null;
+            this.size--;
+
+            return removed;
+        }
+
+        private void resize(int capacity){
+            long[] oldKeys = this.keys;
+            Object[] oldValues = this.values;
+
+            this.keys = new long[capacity];
+            this.values = new Object[capacity];
+
+            int mask = capacity - 1;
+            for(int j = 0; j < oldValues.length; j++){
+                if(oldValues[j] != null){
+                    int i = index(oldKeys[j]);
+                    while(this.values[i] != null){
+                        i = (i + 1) & mask;
+                    }
+                    this.keys[i] = oldKeys[j];
+                    this.values[i] = oldValues[j];
+                }
+            }
+        }
+    }
+}
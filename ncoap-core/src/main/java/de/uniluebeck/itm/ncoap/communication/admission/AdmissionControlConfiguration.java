@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+/**
+ * An {@link AdmissionControlConfiguration} defines the limits enforced by an {@link AdmissionControlHandler}, i.e.
+ *
+ * <ul>
+ *     <li>the global budget of inbound requests (and their bytes) being processed at the same time and</li>
+ *     <li>the token bucket per remote endpoint, i.e. the sustained rate and the burst of inbound requests (and
+ *     their bytes) a single remote endpoint is allowed to send.</li>
+ * </ul>
+ *
+ * Confirmable requests exceeding these limits are answered with
+ * {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#SERVICE_UNAVAILABLE_503} and a Max-Age option containing
+ * the back-off time. Non-confirmable requests exceeding these limits are silently dropped.
+ *
+ * <b>Note:</b> Admission control is disabled unless a {@link AdmissionControlConfiguration} is explicitly set in
+ * the {@link de.uniluebeck.itm.ncoap.application.server.ServerConfiguration} of a server.
+ *
+ * @author Oliver Kleine
+ */
+public class AdmissionControlConfiguration {
+
+    private final int maxQueuedRequests;
+    private final long maxQueuedBytes;
+    private final int requestsPerSecond;
+    private final int requestBurst;
+    private final long bytesPerSecond;
+    private final long byteBurst;
+    private final long backOffSeconds;
+
+    /**
+     * Creates a new instance of {@link AdmissionControlConfiguration}
+     *
+     * @param maxQueuedRequests the maximum number of inbound requests being processed at the same time
+     * @param maxQueuedBytes the maximum number of bytes of inbound requests being processed at the same time
+     * @param requestsPerSecond the sustained number of requests per second allowed per remote endpoint
+     * @param requestBurst the maximum number of requests a remote endpoint may send in a burst
+     * @param bytesPerSecond the sustained number of bytes per second allowed per remote endpoint
+     * @param byteBurst the maximum number of bytes a remote endpoint may send in a burst
+     * @param backOffSeconds the value of the Max-Age option of a
+     *                       {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#SERVICE_UNAVAILABLE_503}, i.e.
+     *                       the number of seconds the remote endpoint is asked to wait before retrying
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is smaller than 1 or the burst is
+     * smaller than the respective sustained rate
+     */
+    public AdmissionControlConfiguration(int maxQueuedRequests, long maxQueuedBytes, int requestsPerSecond,
+                                         int requestBurst, long bytesPerSecond, long byteBurst,
+                                         long backOffSeconds) throws IllegalArgumentException {
+
+        if(maxQueuedRequests < 1 || maxQueuedBytes < 1 || requestsPerSecond < 1 || bytesPerSecond < 1 ||
+                backOffSeconds < 1)
+            throw new IllegalArgumentException("All limits of admission control must be at least 1.");
+
+        if(requestBurst < requestsPerSecond || byteBurst < bytesPerSecond)
+            throw new IllegalArgumentException("The burst must not be smaller than the sustained rate.");
+
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.requestsPerSecond = requestsPerSecond;
+        this.requestBurst = requestBurst;
+        this.bytesPerSecond = bytesPerSecond;
+        this.byteBurst = byteBurst;
+        this.backOffSeconds = backOffSeconds;
+    }
+
+    /**
+     * Returns an {@link AdmissionControlConfiguration} allowing 4096 requests (resp. 4 MB) to be processed at the
+     * same time and 500 requests (resp. 512 kB) per second and remote endpoint with bursts of 1000 requests (resp.
+     * 1 MB). The back-off time is 5 seconds.
+     *
+     * @return an {@link AdmissionControlConfiguration} with default values
+     */
+    public static AdmissionControlConfiguration getDefault(){
+        return new AdmissionControlConfiguration(4096, 4 * 1024 * 1024, 500, 1000, 512 * 1024, 1024 * 1024, 5);
+    }
+
+    /**
+     * Returns the maximum number of inbound requests being processed at the same time
+     * @return the maximum number of inbound requests being processed at the same time
+     */
+    public int getMaxQueuedRequests() {
+        return this.maxQueuedRequests;
+    }
+
+    /**
+     * Returns the maximum number of bytes of inbound requests being processed at the same time
+     * @return the maximum number of bytes of inbound requests being processed at the same time
+     */
+    public long getMaxQueuedBytes() {
+        return this.maxQueuedBytes;
+    }
+
+    /**
+     * Returns the sustained number of requests per second allowed per remote endpoint
+     * @return the sustained number of requests per second allowed per remote endpoint
+     */
+    public int getRequestsPerSecond() {
+        return this.requestsPerSecond;
+    }
+
+    /**
+     * Returns the maximum number of requests a remote endpoint may send in a burst
+     * @return the maximum number of requests a remote endpoint may send in a burst
+     */
+    public int getRequestBurst() {
+        return this.requestBurst;
+    }
+
+    /**
+     * Returns the sustained number of bytes per second allowed per remote endpoint
+     * @return the sustained number of bytes per second allowed per remote endpoint
+     */
+    public long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * Returns the maximum number of bytes a remote endpoint may send in a burst
+     * @return the maximum number of bytes a remote endpoint may send in a burst
+     */
+    public long getByteBurst() {
+        return this.byteBurst;
+    }
+
+    /**
+     * Returns the number of seconds a remote endpoint is asked to wait before retrying a rejected request
+     * @return the number of seconds a remote endpoint is asked to wait before retrying a rejected request
+     */
+    public long getBackOffSeconds() {
+        return this.backOffSeconds;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[max. queued requests: " + this.maxQueuedRequests + ", max. queued bytes: " + this.maxQueuedBytes +
+                ", requests per second: " + this.requestsPerSecond + " (burst: " + this.requestBurst + ")" +
+                ", bytes per second: " + this.bytesPerSecond + " (burst: " + this.byteBurst + ")" +
+                ", back-off: " + this.backOffSeconds + " seconds]";
+    }
+}
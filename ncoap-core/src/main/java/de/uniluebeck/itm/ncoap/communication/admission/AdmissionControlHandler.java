@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.admission;
+
+import com.google.common.cache.*;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys.MessageIDKey;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys.TokenKey;
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.OptionCodecException;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link AdmissionControlHandler} is the first handler of the pipeline of
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}s, i.e. it is executed by the I/O thread
+ * before any inbound message is queued in the {@link org.jboss.netty.handler.execution.ExecutionHandler}. Apart
+ * from the header and the token, inbound messages are not decoded at all.
+ *
+ * Every inbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest} must be admitted by both, the global budget of
+ * requests (and bytes) being processed at the same time and the token bucket of the remote endpoint that sent the
+ * request (see {@link AdmissionControlConfiguration}). Every request with a new message ID is charged, no matter
+ * which token it carries. Only duplicates (i.e. requests with the same message ID as an admitted request from the
+ * same remote endpoint within {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds) are passed without charge.
+ *
+ * The budget of an admitted request is released as soon as the response is sent to the remote endpoint (or after
+ * {@link #MAX_QUEUEING_TIME} seconds without response). Piggy-backed responses are related to the request by the
+ * message ID, separate responses by the token of the latest admitted request with that token.
+ *
+ * Confirmable requests that are not admitted are answered with a piggy-backed
+ * {@link MessageCode.Name#SERVICE_UNAVAILABLE_503} containing the back-off time as Max-Age option. This response is
+ * assembled from pre-encoded options, i.e. without involving the
+ * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder}. Non-confirmable requests that are not
+ * admitted are silently dropped. Messages other than requests (e.g. ACKs or RSTs) are always admitted.
+ *
+ * @author Oliver Kleine
+ */
+public class AdmissionControlHandler extends SimpleChannelHandler {
+
+    /**
+     * The number of seconds (30) after which the budget of an admitted request without response is released
+     */
+    public static final int MAX_QUEUEING_TIME = 30;
+
+    /**
+     * The number of seconds (60) after which the token bucket of an idle remote endpoint is discarded
+     */
+    public static final int MAX_IDLE_TIME = 60;
+
+    /**
+     * The maximum number of message IDs (65536) of admitted requests that are kept to recognize duplicates
+     */
+    public static final int MAX_RECENT_REQUESTS = 65536;
+
+    private static Logger log = LoggerFactory.getLogger(AdmissionControlHandler.class.getName());
+
+    private final AdmissionControlConfiguration configuration;
+
+    //encoded options of the 5.03 response, i.e. the Max-Age option with the back-off time
+    private final ChannelBuffer encodedOptions;
+
+    //remote endpoint and message ID of admitted requests mapped to the number of bytes of the request
+    private final Cache<MessageIDKey, Integer> admittedRequests;
+
+    //remote endpoint and message ID of recently admitted requests to recognize duplicates
+    private final Cache<MessageIDKey, Boolean> recentRequests;
+
+    //remote endpoint and token of admitted requests mapped to the message ID of the latest request with that token
+    private final Cache<TokenKey, MessageIDKey> admittedTokens;
+    private final LoadingCache<InetSocketAddress, TokenBucket> tokenBuckets;
+
+    private final AtomicInteger queuedRequests;
+    private final AtomicLong queuedBytes;
+
+    private final AtomicLong rejectedRequests;
+    private final AtomicLong droppedRequests;
+
+
+    /**
+     * Creates a new instance of {@link AdmissionControlHandler}
+     *
+     * @param configuration the {@link AdmissionControlConfiguration} defining the limits to be enforced
+     */
+    public AdmissionControlHandler(final AdmissionControlConfiguration configuration){
+        this.configuration = configuration;
+        this.encodedOptions = encodeOptions(configuration.getBackOffSeconds());
+
+        this.queuedRequests = new AtomicInteger(0);
+        this.queuedBytes = new AtomicLong(0);
+        this.rejectedRequests = new AtomicLong(0);
+        this.droppedRequests = new AtomicLong(0);
+
+        this.admittedRequests = CacheBuilder.newBuilder()
+                .expireAfterWrite(MAX_QUEUEING_TIME, TimeUnit.SECONDS)
+                .removalListener(new RemovalListener<MessageIDKey, Integer>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<MessageIDKey, Integer> notification) {
+                        queuedRequests.decrementAndGet();
+                        queuedBytes.addAndGet(-notification.getValue());
+
+                        if(notification.getCause() == RemovalCause.EXPIRED){
+                            log.warn("Released budget of request without response (remote endpoint: {}).",
+                                    notification.getKey().getRemoteEndpoint());
+                        }
+                    }
+                })
+                .build();
+
+        this.recentRequests = CacheBuilder.newBuilder()
+                .maximumSize(MAX_RECENT_REQUESTS)
+                .expireAfterWrite(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+
+        this.admittedTokens = CacheBuilder.newBuilder()
+                .expireAfterWrite(MAX_QUEUEING_TIME, TimeUnit.SECONDS)
+                .build();
+
+        this.tokenBuckets = CacheBuilder.newBuilder()
+                .expireAfterAccess(MAX_IDLE_TIME, TimeUnit.SECONDS)
+                .build(new CacheLoader<InetSocketAddress, TokenBucket>() {
+                    @Override
+                    public TokenBucket load(InetSocketAddress remoteEndpoint) throws Exception {
+                        return new TokenBucket(configuration);
+                    }
+                });
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof ChannelBuffer)){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        ChannelBuffer buffer = (ChannelBuffer) me.getMessage();
+        if(buffer.readableBytes() < 4 || !MessageCode.isRequest(buffer.getUnsignedByte(buffer.readerIndex() + 1))){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        //malformed tokens are up to the decoder
+        Token token = ExchangeKeys.getToken(buffer);
+        if(token == null){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        MessageIDKey messageIDKey = new MessageIDKey(remoteEndpoint, buffer.getUnsignedShort(buffer.readerIndex() + 2));
+
+        //duplicates of admitted requests are up to the response replay handler
+        if(this.recentRequests.getIfPresent(messageIDKey) != null){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        int bytes = buffer.readableBytes();
+        if(!this.tokenBuckets.getUnchecked(remoteEndpoint).tryConsume(bytes)){
+            log.warn("Token bucket of remote endpoint {} exhausted!", remoteEndpoint);
+            shed(ctx, buffer, remoteEndpoint);
+            return;
+        }
+
+        if(!acquireBudget(bytes)){
+            //release the budget of requests without response and retry
+            this.admittedRequests.cleanUp();
+
+            if(!acquireBudget(bytes)){
+                log.warn("Global budget exhausted ({} requests, {} bytes)!", queuedRequests.get(), queuedBytes.get());
+                shed(ctx, buffer, remoteEndpoint);
+                return;
+            }
+        }
+
+        if(this.recentRequests.asMap().putIfAbsent(messageIDKey, Boolean.TRUE) != null){
+            //a concurrent duplicate was admitted first
+            releaseBudget(bytes);
+        }
+        else{
+            this.admittedRequests.put(messageIDKey, bytes);
+            this.admittedTokens.put(new TokenKey(remoteEndpoint, token), messageIDKey);
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof ChannelBuffer){
+            ChannelBuffer buffer = (ChannelBuffer) me.getMessage();
+
+            if(buffer.readableBytes() >= 4 && MessageCode.isResponse(buffer.getUnsignedByte(buffer.readerIndex() + 1))){
+                releaseRequest((InetSocketAddress) me.getRemoteAddress(), buffer);
+            }
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
+    private void releaseRequest(InetSocketAddress remoteEndpoint, ChannelBuffer response){
+        int index = response.readerIndex();
+        int messageType = (response.getUnsignedByte(index) >>> 4) & 0x03;
+
+        //piggy-backed responses have the message ID of the request
+        if(messageType == MessageType.Name.ACK.getNumber()){
+            MessageIDKey messageIDKey = new MessageIDKey(remoteEndpoint, response.getUnsignedShort(index + 2));
+            if(this.admittedRequests.getIfPresent(messageIDKey) != null){
+                this.admittedRequests.invalidate(messageIDKey);
+                return;
+            }
+        }
+
+        Token token = ExchangeKeys.getToken(response);
+        if(token == null)
+            return;
+
+        TokenKey tokenKey = new TokenKey(remoteEndpoint, token);
+        MessageIDKey messageIDKey = this.admittedTokens.getIfPresent(tokenKey);
+        if(messageIDKey != null){
+            this.admittedTokens.asMap().remove(tokenKey, messageIDKey);
+            this.admittedRequests.invalidate(messageIDKey);
+        }
+    }
+
+
+    private boolean acquireBudget(int bytes){
+        //both are to be acquired before checking as both are released if any limit is exceeded
+        int requests = this.queuedRequests.incrementAndGet();
+        long queuedBytes = this.queuedBytes.addAndGet(bytes);
+
+        if(requests > this.configuration.getMaxQueuedRequests() || queuedBytes > this.configuration.getMaxQueuedBytes()){
+
+            releaseBudget(bytes);
+            return false;
+        }
+
+        return true;
+    }
+
+
+    private void releaseBudget(int bytes){
+        this.queuedRequests.decrementAndGet();
+        this.queuedBytes.addAndGet(-bytes);
+    }
+
+
+    private void shed(ChannelHandlerContext ctx, ChannelBuffer request, InetSocketAddress remoteEndpoint){
+        int index = request.readerIndex();
+        int messageType = (request.getUnsignedByte(index) >>> 4) & 0x03;
+
+        if(messageType != MessageType.Name.CON.getNumber()){
+            this.droppedRequests.incrementAndGet();
+            return;
+        }
+
+        this.rejectedRequests.incrementAndGet();
+
+        int tokenLength = request.getUnsignedByte(index) & 0x0F;
+        ChannelBuffer response = ChannelBuffers.buffer(4 + tokenLength + this.encodedOptions.readableBytes());
+
+        response.writeByte(((CoapMessage.PROTOCOL_VERSION & 0x03) << 6) |
+                (MessageType.Name.ACK.getNumber() << 4) | tokenLength);
+        response.writeByte(MessageCode.Name.SERVICE_UNAVAILABLE_503.getNumber());
+        response.writeShort(request.getUnsignedShort(index + 2));
+        response.writeBytes(request, index + 4, tokenLength);
+        response.writeBytes(this.encodedOptions, this.encodedOptions.readerIndex(),
+                this.encodedOptions.readableBytes());
+
+        Channels.write(ctx, Channels.future(ctx.getChannel()), response, remoteEndpoint);
+    }
+
+
+    /**
+     * Returns the number of admitted requests without response
+     * @return the number of admitted requests without response
+     */
+    public int getQueuedRequests(){
+        return this.queuedRequests.get();
+    }
+
+    /**
+     * Returns the number of bytes of admitted requests without response
+     * @return the number of bytes of admitted requests without response
+     */
+    public long getQueuedBytes(){
+        return this.queuedBytes.get();
+    }
+
+    /**
+     * Returns the number of confirmable requests that were answered with
+     * {@link MessageCode.Name#SERVICE_UNAVAILABLE_503}
+     *
+     * @return the number of confirmable requests that were answered with
+     * {@link MessageCode.Name#SERVICE_UNAVAILABLE_503}
+     */
+    public long getRejectedRequests(){
+        return this.rejectedRequests.get();
+    }
+
+    /**
+     * Returns the number of non-confirmable requests that were silently dropped
+     * @return the number of non-confirmable requests that were silently dropped
+     */
+    public long getDroppedRequests(){
+        return this.droppedRequests.get();
+    }
+
+    /**
+     * Returns the total number of requests that were not admitted, i.e. the sum of
+     * {@link #getRejectedRequests()} and {@link #getDroppedRequests()}
+     *
+     * @return the total number of requests that were not admitted
+     */
+    public long getShedRequests(){
+        return this.rejectedRequests.get() + this.droppedRequests.get();
+    }
+
+
+    private static ChannelBuffer encodeOptions(long backOffSeconds){
+        CoapResponse template = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.SERVICE_UNAVAILABLE_503);
+
+        //the default value is not to be set explicitly
+        if(backOffSeconds != OptionValue.MAX_AGE_DEFAULT){
+            template.setMaxAge(backOffSeconds);
+        }
+
+        try{
+            return CoapMessageEncoder.encodeOptions(template);
+        }
+        catch (OptionCodecException e) {
+            throw new IllegalArgumentException("Could not encode back-off time: " + backOffSeconds, e);
+        }
+    }
+
+
+    private static class TokenBucket{
+
+        private final double requestsPerNano;
+        private final double bytesPerNano;
+        private final int requestBurst;
+        private final long byteBurst;
+
+        private double requests;
+        private double bytes;
+        private long lastRefill;
+
+        private TokenBucket(AdmissionControlConfiguration configuration){
+            this.requestsPerNano = configuration.getRequestsPerSecond() / 1e9;
+            this.bytesPerNano = configuration.getBytesPerSecond() / 1e9;
+            this.requestBurst = configuration.getRequestBurst();
+            this.byteBurst = configuration.getByteBurst();
+
+            this.requests = this.requestBurst;
+            this.bytes = this.byteBurst;
+            this.lastRefill = System.nanoTime();
+        }
+
+        private synchronized boolean tryConsume(int requestBytes){
+            long now = System.nanoTime();
+            long elapsed = now - this.lastRefill;
+            this.lastRefill = now;
+
+            this.requests = Math.min(this.requestBurst, this.requests + elapsed * this.requestsPerNano);
+            this.bytes = Math.min(this.byteBurst, this.bytes + elapsed * this.bytesPerNano);
+
+            if(this.requests < 1 || this.bytes < requestBytes)
+                return false;
+
+            this.requests -= 1;
+            this.bytes -= requestBytes;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.events.MessageTransferEvent;
+import de.uniluebeck.itm.ncoap.communication.events.MiscellaneousErrorEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.ObservationCancelledEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.BlockOption;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>The {@link de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler} transparently deals with
+ * blockwise transfers (RFC 7959) on the client side, i.e. the
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s are only invoked with complete
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}s.</p>
+ *
+ * <p>Outbound requests with payloads exceeding the block size are sent in blocks
+ * ({@link OptionValue.Name#BLOCK_1}). If the server asks for smaller blocks, the remaining payload is sent in
+ * blocks of that size. Inbound responses sent in blocks ({@link OptionValue.Name#BLOCK_2}) are completed by
+ * requesting the subsequent blocks (with the same token) and reassembled into a
+ * {@link org.jboss.netty.buffer.CompositeChannelBuffer} that wraps the payloads of the received blocks, i.e.
+ * without copying.</p>
+ *
+ * @author Oliver Kleine
+ */
+public class ClientBlockwiseHandler extends SimpleChannelHandler {
+
+    /**
+     * The maximum number of payload bytes (1 MB) of a response to be received in blocks
+     */
+    public static final int MAX_RESPONSE_ENTITY_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of restarts (3) of a blockwise response transfer due to a changed representation
+     */
+    public static final int MAX_RESTARTS = 3;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final int maxSzx;
+    private final ExchangeStore<BlockwiseTransfer> transfers;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler}
+     *
+     * @param maxSzx the size exponent of the largest blocks to be sent or received (see
+     *               {@link de.uniluebeck.itm.ncoap.message.options.BlockOption} for details). If smaller than
+     *               {@link de.uniluebeck.itm.ncoap.message.options.BlockOption#MAX_SZX}, this size is proposed to
+     *               servers with every GET request.
+     */
+    public ClientBlockwiseHandler(int maxSzx){
+        if(maxSzx < 0 || maxSzx > BlockOption.MAX_SZX)
+            throw new IllegalArgumentException("Block size exponent must be between 0 and " + BlockOption.MAX_SZX);
+
+        this.maxSzx = maxSzx;
+        this.transfers = new ExchangeStore<>();
+    }
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.blockwise.ClientBlockwiseHandler}
+     * with blocks of up to 1024 bytes.
+     */
+    public ClientBlockwiseHandler(){
+        this(BlockOption.MAX_SZX);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(me.getMessage() instanceof CoapRequest){
+            handleOutboundCoapRequest(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof ObservationCancelledEvent){
+            ObservationCancelledEvent event = (ObservationCancelledEvent) me.getMessage();
+            this.transfers.remove(event.getRemoteEndpoint(), event.getToken());
+        }
+
+        else if(me.getMessage() instanceof RequestCancelledEvent){
+            RequestCancelledEvent event = (RequestCancelledEvent) me.getMessage();
+            this.transfers.remove(event.getRemoteEndpoint(), event.getToken());
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
+    private void handleOutboundCoapRequest(ChannelHandlerContext ctx, MessageEvent me){
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        BlockwiseTransfer transfer = new BlockwiseTransfer(coapRequest, this.maxSzx);
+        this.transfers.put(remoteEndpoint, coapRequest.getToken(), transfer);
+
+        if(transfer.isBlock1Pending()){
+            CoapRequest firstBlock = transfer.createNextBlock1Request(this.maxSzx);
+            log.debug("Send first block of request payload (remote endpoint: {}, block: {})", remoteEndpoint,
+                    firstBlock.getBlock1());
+            Channels.write(ctx, me.getFuture(), firstBlock, remoteEndpoint);
+            return;
+        }
+
+        //propose a smaller block size for the response
+        if(this.maxSzx < BlockOption.MAX_SZX && coapRequest.getMessageCodeName() == MessageCode.Name.GET &&
+                coapRequest.getBlock2() == null){
+            coapRequest.setBlock2(new BlockOption(0, false, this.maxSzx));
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(me.getMessage() instanceof CoapResponse){
+            handleInboundCoapResponse(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof MessageTransferEvent){
+            MessageTransferEvent event = (MessageTransferEvent) me.getMessage();
+            if(event.stopsMessageExchange()){
+                this.transfers.remove(event.getRemoteEndpoint(), event.getToken());
+            }
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void handleInboundCoapResponse(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        Token token = coapResponse.getToken();
+
+        BlockwiseTransfer transfer = this.transfers.get(remoteEndpoint, token);
+
+        //unknown token, i.e. let the client callback manager send a RST
+        if(transfer == null){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        BlockOption block1 = coapResponse.getBlock1();
+        if(block1 != null){
+            if(coapResponse.getMessageCodeName() == MessageCode.Name.CONTINUE_231){
+                handleContinue(ctx, coapResponse, remoteEndpoint, transfer, block1);
+                return;
+            }
+            coapResponse.removeOptions(OptionValue.Name.BLOCK_1);
+        }
+
+        BlockOption block2 = coapResponse.getBlock2();
+        if(block2 != null && (block2.isMore() || block2.getNumber() > 0)){
+            handleBlock2(ctx, coapResponse, remoteEndpoint, transfer, block2);
+            return;
+        }
+
+        if(block2 != null){
+            coapResponse.removeOptions(OptionValue.Name.BLOCK_2);
+            coapResponse.removeOptions(OptionValue.Name.SIZE_2);
+        }
+
+        if(!coapResponse.isUpdateNotification()){
+            this.transfers.remove(remoteEndpoint, token, transfer);
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void handleContinue(ChannelHandlerContext ctx, CoapResponse coapResponse,
+                                InetSocketAddress remoteEndpoint, BlockwiseTransfer transfer, BlockOption block1){
+
+        confirm(ctx, coapResponse, remoteEndpoint);
+
+        CoapRequest nextBlock;
+        synchronized(transfer){
+            nextBlock = transfer.isBlock1Pending() ? transfer.createNextBlock1Request(block1.getSzx()) : null;
+        }
+
+        if(nextBlock == null){
+            handleError(ctx, remoteEndpoint, coapResponse, transfer, "Server requested more blocks than available.");
+        }
+        else{
+            log.debug("Send next block of request payload (remote endpoint: {}, block: {})", remoteEndpoint,
+                    nextBlock.getBlock1());
+            writeCoapRequest(ctx, remoteEndpoint, nextBlock, transfer);
+        }
+    }
+
+
+    private void handleBlock2(ChannelHandlerContext ctx, CoapResponse coapResponse,
+                              InetSocketAddress remoteEndpoint, BlockwiseTransfer transfer, BlockOption block2){
+
+        CoapRequest nextRequest = null;
+        CoapResponse completeResponse = null;
+        String error = null;
+
+        synchronized(transfer){
+            if(block2.getNumber() == 0){
+                transfer.startBlock2Assembly(coapResponse);
+            }
+
+            else if(!transfer.appendBlock2(coapResponse, block2)){
+                //the representation changed or a block got lost, i.e. start again with the first block
+                if(transfer.restartBlock2Assembly()){
+                    log.warn("Restart blockwise response transfer (remote endpoint: {}, token: {})", remoteEndpoint,
+                            coapResponse.getToken());
+                    nextRequest = transfer.createBlock2Request(new BlockOption(0, false, block2.getSzx()));
+                }
+                else{
+                    error = "Representation changed during blockwise transfer (restarted " + MAX_RESTARTS +
+                            " times).";
+                }
+            }
+
+            if(nextRequest == null && error == null){
+                if(transfer.getBlock2Length() > MAX_RESPONSE_ENTITY_SIZE){
+                    error = "Maximum response payload size exceeded.";
+                }
+                else if(block2.isMore()){
+                    long offset = transfer.getBlock2Length();
+                    long number = offset / block2.getSize();
+                    nextRequest = transfer.createBlock2Request(new BlockOption(number, false, block2.getSzx()));
+                }
+                else{
+                    completeResponse = transfer.completeBlock2Assembly(coapResponse);
+                }
+            }
+        }
+
+        if(error != null){
+            handleError(ctx, remoteEndpoint, coapResponse, transfer, error);
+        }
+
+        else if(nextRequest != null){
+            confirm(ctx, coapResponse, remoteEndpoint);
+            log.debug("Request next block of response payload (remote endpoint: {}, block: {})", remoteEndpoint,
+                    nextRequest.getBlock2());
+            writeCoapRequest(ctx, remoteEndpoint, nextRequest, transfer);
+        }
+
+        else{
+            if(!completeResponse.isUpdateNotification()){
+                this.transfers.remove(remoteEndpoint, completeResponse.getToken(), transfer);
+            }
+
+            log.debug("Reassembled response payload of {} bytes (remote endpoint: {})",
+                    completeResponse.getContent().readableBytes(), remoteEndpoint);
+            Channels.fireMessageReceived(ctx, completeResponse, remoteEndpoint);
+        }
+    }
+
+
+    private void confirm(ChannelHandlerContext ctx, CoapResponse coapResponse, InetSocketAddress remoteEndpoint){
+        if(coapResponse.getMessageTypeName() == MessageType.Name.CON){
+            CoapMessage emptyACK = CoapMessage.createEmptyAcknowledgement(coapResponse.getMessageID());
+            Channels.write(ctx, Channels.future(ctx.getChannel()), emptyACK, remoteEndpoint);
+        }
+    }
+
+
+    private void writeCoapRequest(final ChannelHandlerContext ctx, final InetSocketAddress remoteEndpoint,
+                                  final CoapRequest coapRequest, final BlockwiseTransfer transfer){
+
+        ChannelFuture future = Channels.future(ctx.getChannel());
+        future.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(!future.isSuccess()){
+                    log.error("Could not write block of blockwise transfer!", future.getCause());
+                    handleError(ctx, remoteEndpoint, coapRequest, transfer, "Could not write block: " +
+                            future.getCause());
+                }
+            }
+        });
+
+        Channels.write(ctx, future, coapRequest, remoteEndpoint);
+    }
+
+
+    private void handleError(ChannelHandlerContext ctx, InetSocketAddress remoteEndpoint, CoapMessage coapMessage,
+                             BlockwiseTransfer transfer, String description){
+
+        Token token = coapMessage.getToken();
+        if(this.transfers.remove(remoteEndpoint, token, transfer)){
+            log.error("Blockwise transfer failed (remote endpoint: {}, token: {}): {}",
+                    new Object[]{remoteEndpoint, token, description});
+
+            MiscellaneousErrorEvent event = new MiscellaneousErrorEvent(remoteEndpoint, coapMessage.getMessageID(),
+                    token, description);
+            Channels.fireMessageReceived(ctx, event);
+        }
+    }
+
+
+    private static class BlockwiseTransfer{
+
+        private final CoapRequest coapRequest;
+
+        //request payload to be sent in blocks
+        private int block1Szx;
+        private int block1Offset;
+
+        //response payload received in blocks
+        private CoapResponse block2Template;
+        private List<ChannelBuffer> block2Contents;
+        private int block2Length;
+        private int restarts;
+
+        private BlockwiseTransfer(CoapRequest coapRequest, int maxSzx){
+            this.coapRequest = coapRequest;
+            this.block1Szx = maxSzx;
+
+            if(coapRequest.getContent().readableBytes() <= (1 << (maxSzx + 4))){
+                this.block1Offset = coapRequest.getContent().readableBytes();
+            }
+        }
+
+        public boolean isBlock1Pending(){
+            return this.block1Offset < this.coapRequest.getContent().readableBytes();
+        }
+
+        public CoapRequest createNextBlock1Request(int szx){
+            //the block size may only be reduced during an ongoing transfer
+            this.block1Szx = Math.min(szx, this.block1Szx);
+
+            ChannelBuffer content = this.coapRequest.getContent();
+            int length = content.readableBytes();
+            int size = 1 << (this.block1Szx + 4);
+            int blockLength = Math.min(size, length - this.block1Offset);
+
+            CoapRequest block = new CoapRequest(coapRequest.getMessageType(), coapRequest.getMessageCode());
+            block.setToken(coapRequest.getToken());
+
+            for(Map.Entry<Integer, OptionValue> option : coapRequest.getAllOptions().entries()){
+                int optionNumber = option.getKey();
+                if(optionNumber != OptionValue.Name.BLOCK_1 && optionNumber != OptionValue.Name.SIZE_1){
+                    block.addOption(optionNumber, option.getValue());
+                }
+            }
+
+            block.setBlock1(new BlockOption(this.block1Offset / size, this.block1Offset + blockLength < length,
+                    this.block1Szx));
+
+            if(this.block1Offset == 0){
+                block.setSize1(length);
+            }
+
+            block.setContent(content.slice(content.readerIndex() + this.block1Offset, blockLength));
+            this.block1Offset += blockLength;
+
+            return block;
+        }
+
+        public CoapRequest createBlock2Request(BlockOption block2){
+            CoapRequest block = new CoapRequest(coapRequest.getMessageType(), MessageCode.Name.GET.getNumber());
+            block.setToken(coapRequest.getToken());
+
+            for(Map.Entry<Integer, OptionValue> option : coapRequest.getAllOptions().entries()){
+                switch(option.getKey()){
+                    case OptionValue.Name.URI_HOST:
+                    case OptionValue.Name.URI_PORT:
+                    case OptionValue.Name.URI_PATH:
+                    case OptionValue.Name.URI_QUERY:
+                    case OptionValue.Name.PROXY_URI:
+                    case OptionValue.Name.PROXY_SCHEME:
+                    case OptionValue.Name.ACCEPT:
+                        block.addOption(option.getKey(), option.getValue());
+                }
+            }
+
+            block.setBlock2(block2);
+            return block;
+        }
+
+        public void startBlock2Assembly(CoapResponse coapResponse){
+            this.block2Template = coapResponse;
+            this.block2Contents = new ArrayList<>();
+            this.block2Contents.add(coapResponse.getContent());
+            this.block2Length = coapResponse.getContent().readableBytes();
+        }
+
+        public boolean appendBlock2(CoapResponse coapResponse, BlockOption block2){
+            if(this.block2Template == null || block2.getOffset() != this.block2Length ||
+                    !Arrays.equals(this.block2Template.getEtag(), coapResponse.getEtag())){
+                return false;
+            }
+
+            this.block2Contents.add(coapResponse.getContent());
+            this.block2Length += coapResponse.getContent().readableBytes();
+            return true;
+        }
+
+        public boolean restartBlock2Assembly(){
+            this.block2Template = null;
+            this.block2Contents = null;
+            this.block2Length = 0;
+            return ++this.restarts <= MAX_RESTARTS;
+        }
+
+        public int getBlock2Length(){
+            return this.block2Length;
+        }
+
+        public CoapResponse completeBlock2Assembly(CoapResponse lastBlock){
+            CoapResponse coapResponse = this.block2Template;
+            coapResponse.removeOptions(OptionValue.Name.BLOCK_2);
+            coapResponse.removeOptions(OptionValue.Name.SIZE_2);
+            coapResponse.setContent(ChannelBuffers.wrappedBuffer(
+                    this.block2Contents.toArray(new ChannelBuffer[this.block2Contents.size()])));
+
+            //the last block is the one to be confirmed (if necessary)
+            coapResponse.setMessageType(lastBlock.getMessageType());
+            coapResponse.setMessageID(lastBlock.getMessageID());
+
+            this.block2Template = null;
+            this.block2Contents = null;
+            this.block2Length = 0;
+            this.restarts = 0;
+
+            return coapResponse;
+        }
+    }
+}
@@ -0,0 +1,494 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.blockwise;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
+import de.uniluebeck.itm.ncoap.communication.events.MessageTransferEvent;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.BlockOption;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>The {@link de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler} transparently deals with
+ * blockwise transfers (RFC 7959) on the server side, i.e. the
+ * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice} instances never see blocks but complete
+ * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s and always provide complete
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}s.</p>
+ *
+ * <p>Inbound request payloads sent in blocks ({@link OptionValue.Name#BLOCK_1}) are reassembled into a
+ * {@link org.jboss.netty.buffer.CompositeChannelBuffer} that wraps the payloads of the received blocks, i.e.
+ * without copying. Outbound responses with payloads exceeding the negotiated block size are split into blocks
+ * ({@link OptionValue.Name#BLOCK_2}). The complete response is kept in a cache for a while, so that requests
+ * for subsequent blocks are answered from that cache and do not cause the resource to be serialized again.</p>
+ *
+ * @author Oliver Kleine
+ */
+public class ServerBlockwiseHandler extends SimpleChannelHandler {
+
+    /**
+     * The maximum number of payload bytes (16 MB) of the cached representations for subsequent blocks
+     */
+    public static final int BLOCK_CACHE_CAPACITY = 16 * 1024 * 1024;
+
+    /**
+     * The maximum number of payload bytes (1 MB) of a request to be received in blocks
+     */
+    public static final int MAX_REQUEST_ENTITY_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of request payloads to be reassembled concurrently (1024)
+     */
+    public static final int MAX_CONCURRENT_ASSEMBLIES = 1024;
+
+    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final int maxSzx;
+
+    //remote endpoint and token of inbound requests mapped to the information required to process the response
+    private final ExchangeStore<BlockwiseExchange> exchanges;
+
+    private final Cache<ResourceKey, CachedRepresentation> representations;
+    private final Cache<ResourceKey, RequestAssembly> assemblies;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler}
+     *
+     * @param maxSzx the size exponent of the largest blocks to be sent or received (see
+     *               {@link de.uniluebeck.itm.ncoap.message.options.BlockOption} for details). Smaller sizes
+     *               requested by clients are used as is.
+     */
+    public ServerBlockwiseHandler(int maxSzx){
+        if(maxSzx < 0 || maxSzx > BlockOption.MAX_SZX)
+            throw new IllegalArgumentException("Block size exponent must be between 0 and " + BlockOption.MAX_SZX);
+
+        this.maxSzx = maxSzx;
+        this.exchanges = new ExchangeStore<>();
+
+        this.representations = CacheBuilder.newBuilder()
+                .maximumWeight(BLOCK_CACHE_CAPACITY)
+                .weigher(new Weigher<ResourceKey, CachedRepresentation>() {
+                    @Override
+                    public int weigh(ResourceKey key, CachedRepresentation representation) {
+                        return representation.getLength();
+                    }
+                })
+                .expireAfterWrite(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+
+        this.assemblies = CacheBuilder.newBuilder()
+                .maximumSize(MAX_CONCURRENT_ASSEMBLIES)
+                .expireAfterAccess(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.blockwise.ServerBlockwiseHandler}
+     * with blocks of up to 1024 bytes.
+     */
+    public ServerBlockwiseHandler(){
+        this(BlockOption.MAX_SZX);
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(me.getMessage() instanceof CoapRequest){
+            handleInboundCoapRequest(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof MessageTransferEvent){
+            MessageTransferEvent event = (MessageTransferEvent) me.getMessage();
+            if(event.stopsMessageExchange()){
+                this.exchanges.remove(event.getRemoteEndpoint(), event.getToken());
+            }
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void handleInboundCoapRequest(ChannelHandlerContext ctx, MessageEvent me){
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        ResourceKey resourceKey = new ResourceKey(remoteEndpoint, coapRequest);
+
+        BlockOption block1 = coapRequest.getBlock1();
+        BlockOption block2 = coapRequest.getBlock2();
+
+        if(block1 != null){
+            block1 = handleBlock1(ctx, coapRequest, remoteEndpoint, resourceKey, block1);
+
+            //the request is not yet complete (or erroneous)
+            if(block1 == null){
+                return;
+            }
+        }
+
+        if(block2 != null){
+            //subsequent blocks are served from the cache if possible
+            if(block1 == null && block2.getNumber() > 0 &&
+                    writeCachedBlock(ctx, coapRequest, remoteEndpoint, resourceKey, block2)){
+                return;
+            }
+
+            coapRequest.removeOptions(OptionValue.Name.BLOCK_2);
+        }
+
+        this.exchanges.put(remoteEndpoint, coapRequest.getToken(), new BlockwiseExchange(resourceKey, block1, block2));
+        ctx.sendUpstream(me);
+    }
+
+
+    private BlockOption handleBlock1(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                     InetSocketAddress remoteEndpoint, ResourceKey resourceKey, BlockOption block1){
+
+        int szx = Math.min(block1.getSzx(), this.maxSzx);
+
+        RequestAssembly assembly;
+        if(block1.getNumber() == 0){
+            assembly = new RequestAssembly();
+            this.assemblies.put(resourceKey, assembly);
+        }
+        else{
+            assembly = this.assemblies.getIfPresent(resourceKey);
+        }
+
+        if(assembly == null || !assembly.append(block1.getOffset(), coapRequest.getContent())){
+            this.assemblies.invalidate(resourceKey);
+            log.warn("Missing block(s) of request payload (remote endpoint: {}, block: {})", remoteEndpoint, block1);
+            writeErrorResponse(ctx, coapRequest, remoteEndpoint, MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408,
+                    "Missing block(s) before block no. " + block1.getNumber());
+            return null;
+        }
+
+        if(assembly.getLength() > MAX_REQUEST_ENTITY_SIZE){
+            this.assemblies.invalidate(resourceKey);
+            CoapResponse coapResponse = CoapResponse.createErrorResponse(coapRequest.getMessageTypeName(),
+                    MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413, "Maximum request payload size exceeded.");
+            coapResponse.setSize1(MAX_REQUEST_ENTITY_SIZE);
+            writeCoapResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+            return null;
+        }
+
+        if(block1.isMore()){
+            CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageType(),
+                    MessageCode.Name.CONTINUE_231.getNumber());
+            coapResponse.setBlock1(new BlockOption(block1.getNumber(), true, szx));
+            writeCoapResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+            return null;
+        }
+
+        //this was the last block, i.e. the request is complete
+        this.assemblies.invalidate(resourceKey);
+        coapRequest.removeOptions(OptionValue.Name.BLOCK_1);
+        coapRequest.removeOptions(OptionValue.Name.SIZE_1);
+        coapRequest.setContent(assembly.getContent());
+
+        log.debug("Reassembled request payload of {} bytes (remote endpoint: {})", assembly.getLength(),
+                remoteEndpoint);
+
+        return new BlockOption(block1.getNumber(), false, szx);
+    }
+
+
+    private boolean writeCachedBlock(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                     InetSocketAddress remoteEndpoint, ResourceKey resourceKey, BlockOption block2){
+
+        CachedRepresentation representation = this.representations.getIfPresent(resourceKey);
+
+        if(representation == null){
+            return false;
+        }
+
+        if(!representation.isFresh()){
+            this.representations.invalidate(resourceKey);
+            return false;
+        }
+
+        int szx = Math.min(block2.getSzx(), this.maxSzx);
+        CoapResponse coapResponse = createBlock(representation.getCoapResponse(), block2.getOffset(), szx, false);
+
+        if(coapResponse == null){
+            writeErrorResponse(ctx, coapRequest, remoteEndpoint, MessageCode.Name.BAD_REQUEST_400,
+                    "Block no. " + block2.getNumber() + " is out of range.");
+        }
+        else{
+            coapResponse.setMessageType(coapRequest.getMessageType());
+            log.debug("Serve block from cache (remote endpoint: {}, block: {})", remoteEndpoint,
+                    coapResponse.getBlock2());
+            writeCoapResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+        }
+
+        return true;
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception{
+        if(me.getMessage() instanceof CoapResponse){
+            handleOutboundCoapResponse(ctx, me);
+        }
+        else{
+            ctx.sendDownstream(me);
+        }
+    }
+
+
+    private void handleOutboundCoapResponse(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        //the exchange is kept for observations as update notifications may need to be split, too
+        BlockwiseExchange exchange;
+        if(coapResponse.isUpdateNotification()){
+            exchange = this.exchanges.get(remoteEndpoint, coapResponse.getToken());
+        }
+        else{
+            exchange = this.exchanges.remove(remoteEndpoint, coapResponse.getToken());
+        }
+
+        if(exchange == null){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(exchange.getBlock1() != null && !coapResponse.isUpdateNotification()){
+            try{
+                coapResponse.setBlock1(exchange.getBlock1());
+            }
+            catch(IllegalArgumentException e){
+                log.debug("Could not set BLOCK1 option in response: {}", e.getMessage());
+            }
+        }
+
+        BlockOption block2 = exchange.getBlock2();
+        int szx = block2 == null ? this.maxSzx : Math.min(block2.getSzx(), this.maxSzx);
+        long offset = block2 == null || coapResponse.isUpdateNotification() ? 0 : block2.getOffset();
+
+        if(offset == 0 && coapResponse.getContent().readableBytes() <= (1 << (szx + 4))){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapResponse block;
+        try{
+            block = createBlock(coapResponse, offset, szx, true);
+        }
+        catch(IllegalArgumentException e){
+            log.warn("Could not split response into blocks: {}", e.getMessage());
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(block == null){
+            block = CoapResponse.createErrorResponse(coapResponse.getMessageTypeName(),
+                    MessageCode.Name.BAD_REQUEST_400, "Block no. " + block2.getNumber() + " is out of range.");
+        }
+        else{
+            this.representations.put(exchange.getResourceKey(), new CachedRepresentation(coapResponse));
+        }
+
+        block.setMessageID(coapResponse.getMessageID());
+        block.setToken(coapResponse.getToken());
+
+        log.debug("Send block (remote endpoint: {}, block: {})", remoteEndpoint, block.getBlock2());
+        Channels.write(ctx, me.getFuture(), block, remoteEndpoint);
+    }
+
+
+    private static CoapResponse createBlock(CoapResponse coapResponse, long offset, int szx, boolean observe)
+            throws IllegalArgumentException{
+
+        ChannelBuffer content = coapResponse.getContent();
+        int length = content.readableBytes();
+
+        if(offset > 0 && offset >= length){
+            return null;
+        }
+
+        int size = 1 << (szx + 4);
+        int blockLength = (int) Math.min(size, length - offset);
+        boolean more = offset + blockLength < length;
+
+        CoapResponse block = new CoapResponse(coapResponse.getMessageType(), coapResponse.getMessageCode());
+
+        for(Map.Entry<Integer, OptionValue> option : coapResponse.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+            if(optionNumber == OptionValue.Name.BLOCK_2 || optionNumber == OptionValue.Name.SIZE_2 ||
+                    (!observe && optionNumber == OptionValue.Name.OBSERVE)){
+                continue;
+            }
+            block.addOption(optionNumber, option.getValue());
+        }
+
+        block.setBlock2(new BlockOption(offset / size, more, szx));
+        if(offset == 0){
+            block.setSize2(length);
+        }
+
+        block.setContent(content.slice(content.readerIndex() + (int) offset, blockLength));
+        return block;
+    }
+
+
+    private void writeErrorResponse(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                    InetSocketAddress remoteEndpoint, MessageCode.Name messageCode, String message){
+
+        CoapResponse coapResponse = CoapResponse.createErrorResponse(coapRequest.getMessageTypeName(), messageCode,
+                message);
+        writeCoapResponse(ctx, coapRequest, remoteEndpoint, coapResponse);
+    }
+
+
+    private void writeCoapResponse(ChannelHandlerContext ctx, CoapRequest coapRequest,
+                                   InetSocketAddress remoteEndpoint, CoapResponse coapResponse){
+
+        coapResponse.setMessageID(coapRequest.getMessageID());
+        coapResponse.setToken(coapRequest.getToken());
+        Channels.write(ctx, Channels.future(ctx.getChannel()), coapResponse, remoteEndpoint);
+    }
+
+
+    private static class BlockwiseExchange{
+
+        private final ResourceKey resourceKey;
+        private final BlockOption block1;
+        private final BlockOption block2;
+
+        private BlockwiseExchange(ResourceKey resourceKey, BlockOption block1, BlockOption block2){
+            this.resourceKey = resourceKey;
+            this.block1 = block1;
+            this.block2 = block2;
+        }
+
+        public ResourceKey getResourceKey(){
+            return resourceKey;
+        }
+
+        public BlockOption getBlock1(){
+            return block1;
+        }
+
+        public BlockOption getBlock2(){
+            return block2;
+        }
+    }
+
+
+    private static class ResourceKey{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final String resource;
+
+        private ResourceKey(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+            this.remoteEndpoint = remoteEndpoint;
+            this.resource = coapRequest.getUriPath() + "?" + coapRequest.getUriQuery();
+        }
+
+        @Override
+        public boolean equals(Object object){
+            if(!(object instanceof ResourceKey))
+                return false;
+
+            ResourceKey other = (ResourceKey) object;
+            return this.remoteEndpoint.equals(other.remoteEndpoint) && this.resource.equals(other.resource);
+        }
+
+        @Override
+        public int hashCode(){
+            return 31 * remoteEndpoint.hashCode() + resource.hashCode();
+        }
+    }
+
+
+    private static class CachedRepresentation{
+
+        private final CoapResponse coapResponse;
+        private final long expiry;
+
+        private CachedRepresentation(CoapResponse coapResponse){
+            this.coapResponse = coapResponse;
+            this.expiry = System.nanoTime() + TimeUnit.SECONDS.toNanos(coapResponse.getMaxAge());
+        }
+
+        public CoapResponse getCoapResponse(){
+            return coapResponse;
+        }
+
+        public int getLength(){
+            return coapResponse.getContent().readableBytes();
+        }
+
+        public boolean isFresh(){
+            return System.nanoTime() - expiry < 0;
+        }
+    }
+
+
+    private static class RequestAssembly{
+
+        private final List<ChannelBuffer> blocks = new ArrayList<>();
+        private int length;
+
+        public synchronized boolean append(long offset, ChannelBuffer content){
+            if(offset != this.length){
+                return false;
+            }
+
+            if(content.readable()){
+                this.blocks.add(content);
+                this.length += content.readableBytes();
+            }
+
+            return true;
+        }
+
+        public synchronized int getLength(){
+            return this.length;
+        }
+
+        public synchronized ChannelBuffer getContent(){
+            return ChannelBuffers.wrappedBuffer(this.blocks.toArray(new ChannelBuffer[this.blocks.size()]));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A {@link CacheKey} identifies the resource a {@link de.uniluebeck.itm.ncoap.message.CoapRequest} refers to, i.e.
+ * the remote endpoint and the cache-key options of the request (see {@link OptionValue#isCacheKey(int)}) except
+ * the ETag (which is used for validation). Two requests with equal {@link CacheKey}s can be answered with the same
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}.
+ *
+ * Each {@link CacheKey} refers to a resource key (see {@link #createResourceKey(InetSocketAddress, CoapRequest)}),
+ * i.e. the remote endpoint and the Uri-Path and Uri-Query options only. Requests other than GET invalidate all
+ * cached responses with the same resource key.
+ *
+ * @author Oliver Kleine
+ */
+public final class CacheKey {
+
+    private final InetSocketAddress remoteEndpoint;
+    private final byte[] options;
+    private final int hashCode;
+
+    //null if this is a resource key itself
+    private final CacheKey resourceKey;
+
+    private CacheKey(InetSocketAddress remoteEndpoint, byte[] options, CacheKey resourceKey){
+        this.remoteEndpoint = remoteEndpoint;
+        this.options = options;
+        this.hashCode = 31 * remoteEndpoint.hashCode() + Arrays.hashCode(options);
+        this.resourceKey = resourceKey;
+    }
+
+    /**
+     * Creates the {@link CacheKey} for the given {@link CoapRequest} to the given remote endpoint
+     *
+     * @param remoteEndpoint the remote endpoint the {@link CoapRequest} is sent to
+     * @param coapRequest the {@link CoapRequest} to create the {@link CacheKey} for
+     *
+     * @return the {@link CacheKey} for the given {@link CoapRequest} to the given remote endpoint
+     */
+    public static CacheKey create(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        return new CacheKey(remoteEndpoint, encodeOptions(coapRequest, false),
+                createResourceKey(remoteEndpoint, coapRequest));
+    }
+
+    /**
+     * Creates the resource key for the given {@link CoapRequest} to the given remote endpoint, i.e. a
+     * {@link CacheKey} that considers the Uri-Path and Uri-Query options only. Requests with different methods or
+     * other options (e.g. Accept or Content-Format) for the same resource lead to equal resource keys.
+     *
+     * @param remoteEndpoint the remote endpoint the {@link CoapRequest} is sent to
+     * @param coapRequest the {@link CoapRequest} to create the resource key for
+     *
+     * @return the resource key for the given {@link CoapRequest} to the given remote endpoint
+     */
+    public static CacheKey createResourceKey(InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        return new CacheKey(remoteEndpoint, encodeOptions(coapRequest, true), null);
+    }
+
+
+    private static byte[] encodeOptions(CoapRequest coapRequest, boolean resourceOnly){
+        int length = 0;
+        for(Map.Entry<Integer, OptionValue> option : coapRequest.getAllOptions().entries()){
+            if(isKeyOption(option.getKey(), resourceOnly)){
+                length += 4 + option.getValue().getValue().length;
+            }
+        }
+
+        //options are ordered by their numbers, i.e. equal requests lead to equal keys
+        byte[] options = new byte[length];
+        int index = 0;
+        for(Map.Entry<Integer, OptionValue> option : coapRequest.getAllOptions().entries()){
+            if(isKeyOption(option.getKey(), resourceOnly)){
+                byte[] value = option.getValue().getValue();
+                options[index++] = (byte) (option.getKey() >>> 8);
+                options[index++] = (byte) (option.getKey() & 0xFF);
+                options[index++] = (byte) (value.length >>> 8);
+                options[index++] = (byte) (value.length & 0xFF);
+                System.arraycopy(value, 0, options, index, value.length);
+                index += value.length;
+            }
+        }
+
+        return options;
+    }
+
+
+    private static boolean isKeyOption(int optionNumber, boolean resourceOnly){
+        if(resourceOnly)
+            return optionNumber == OptionValue.Name.URI_PATH || optionNumber == OptionValue.Name.URI_QUERY;
+        else
+            return isCacheKey(optionNumber);
+    }
+
+    /**
+     * Returns <code>true</code> if the given {@link CoapRequest} may be answered with the response to another
+     * request with the same {@link CacheKey}, i.e. if it is a GET request that neither starts or stops an
+     * observation nor asks for a single block nor contains ETags set by the application, and <code>false</code>
+     * otherwise.
+     *
+     * @param coapRequest the {@link CoapRequest} to be checked
+     *
+     * @return <code>true</code> if the given {@link CoapRequest} may be answered with the response to another
+     * request with the same {@link CacheKey} and <code>false</code> otherwise
+     */
+    public static boolean isCacheable(CoapRequest coapRequest){
+        return coapRequest.getMessageCodeName() == MessageCode.Name.GET &&
+                !coapRequest.getAllOptions().containsKey(OptionValue.Name.OBSERVE) &&
+                !coapRequest.getAllOptions().containsKey(OptionValue.Name.BLOCK_2) &&
+                !coapRequest.getAllOptions().containsKey(OptionValue.Name.BLOCK_1) &&
+                !coapRequest.getAllOptions().containsKey(OptionValue.Name.ETAG);
+    }
+
+
+    private static boolean isCacheKey(int optionNumber){
+        //the ETag is used for validation, i.e. responses to requests with different ETags are the same
+        return OptionValue.isCacheKey(optionNumber) && optionNumber != OptionValue.Name.ETAG;
+    }
+
+    /**
+     * Returns the remote endpoint of this {@link CacheKey}
+     * @return the remote endpoint of this {@link CacheKey}
+     */
+    public InetSocketAddress getRemoteEndpoint() {
+        return this.remoteEndpoint;
+    }
+
+
+    CacheKey getResourceKey(){
+        return this.resourceKey == null ? this : this.resourceKey;
+    }
+
+
+    int getSize(){
+        return ResponseCache.ENTRY_OVERHEAD + this.options.length;
+    }
+
+
+    @Override
+    public int hashCode(){
+        return this.hashCode;
+    }
+
+
+    @Override
+    public boolean equals(Object object){
+        if(!(object instanceof CacheKey))
+            return false;
+
+        CacheKey other = (CacheKey) object;
+        return this.hashCode == other.hashCode && this.remoteEndpoint.equals(other.remoteEndpoint) &&
+                Arrays.equals(this.options, other.options);
+    }
+}
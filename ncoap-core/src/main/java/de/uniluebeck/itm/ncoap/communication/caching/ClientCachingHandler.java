@@ -0,0 +1,264 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCache.CachedResponse;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.events.MessageTransferEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.channel.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * The {@link ClientCachingHandler} answers outbound GET requests from a {@link ResponseCache} (shared by all
+ * sockets of a {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}) if possible, i.e.
+ *
+ * <ul>
+ *     <li>if there is a fresh response (see {@link CoapResponse#getMaxAge()}), the request is not sent at all but
+ *     a copy of the cached response (with the remaining freshness as Max-Age) is sent upstream.</li>
+ *     <li>if there is a stale response with an ETag, the request is sent with that ETag. If the server
+ *     confirms the ETag with {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#VALID_203}, the cached
+ *     response is fresh again (with the Max-Age of the {@link MessageCode.Name#VALID_203} response) and a copy of
+ *     it is sent upstream instead of the {@link MessageCode.Name#VALID_203} response.</li>
+ *     <li>otherwise the request is sent and a {@link MessageCode.Name#CONTENT_205} response is cached if it is
+ *     either fresh or has an ETag.</li>
+ * </ul>
+ *
+ * Requests for observations or (single) blocks and requests with ETags set by the application are not answered from
+ * the cache. Any other request than GET invalidates all cached responses for the same remote endpoint, Uri-Path
+ * and Uri-Query.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientCachingHandler extends SimpleChannelHandler {
+
+    private static Logger log = LoggerFactory.getLogger(ClientCachingHandler.class.getName());
+
+    private final ResponseCache responseCache;
+
+    //requests sent to the server that are answered from (or into) the cache
+    private final ExchangeStore<CacheLookup> lookups;
+
+    /**
+     * Creates a new instance of {@link ClientCachingHandler}
+     *
+     * @param responseCache the {@link ResponseCache} to answer requests from
+     */
+    public ClientCachingHandler(ResponseCache responseCache){
+        this.responseCache = responseCache;
+        this.lookups = new ExchangeStore<>();
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof CoapRequest){
+            handleOutboundCoapRequest(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof RequestCancelledEvent){
+            RequestCancelledEvent event = (RequestCancelledEvent) me.getMessage();
+            removeLookup(event.getRemoteEndpoint(), event.getToken());
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
+    private void handleOutboundCoapRequest(ChannelHandlerContext ctx, MessageEvent me){
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+        final InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        if(coapRequest.getMessageCodeName() != MessageCode.Name.GET){
+            this.responseCache.invalidateResource(CacheKey.createResourceKey(remoteEndpoint, coapRequest));
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(!CacheKey.isCacheable(coapRequest)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CacheKey cacheKey = CacheKey.create(remoteEndpoint, coapRequest);
+        CachedResponse cachedResponse = this.responseCache.get(cacheKey);
+        final Token token = coapRequest.getToken();
+
+        if(cachedResponse != null && cachedResponse.isFresh()){
+            this.responseCache.recordHit();
+            log.debug("Answer request from cache (remote endpoint: {}, token: {}).", remoteEndpoint, token);
+
+            CoapResponse coapResponse = cachedResponse.createCoapResponse(MessageType.Name.ACK.getNumber(),
+                    CoapMessage.UNDEFINED_MESSAGE_ID, token);
+            Channels.fireMessageReceived(ctx, coapResponse, remoteEndpoint);
+            me.getFuture().setSuccess();
+            return;
+        }
+
+        //stale responses without ETag are useless
+        if(cachedResponse != null && cachedResponse.getEtag() == null){
+            this.responseCache.invalidate(cacheKey);
+            cachedResponse = null;
+        }
+
+        if(cachedResponse != null){
+            log.debug("Validate cached response (remote endpoint: {}, token: {}).", remoteEndpoint, token);
+            coapRequest.setEtags(cachedResponse.getEtag());
+        }
+        else{
+            this.responseCache.recordMiss();
+        }
+
+        final CacheLookup lookup = new CacheLookup(coapRequest, cacheKey, cachedResponse);
+        this.lookups.put(remoteEndpoint, token, lookup);
+
+        me.getFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(!future.isSuccess() && lookups.remove(remoteEndpoint, token, lookup)){
+                    lookup.restoreCoapRequest();
+                }
+            }
+        });
+
+        ctx.sendDownstream(me);
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof CoapResponse){
+            handleInboundCoapResponse(ctx, me);
+            return;
+        }
+
+        if(me.getMessage() instanceof MessageTransferEvent){
+            MessageTransferEvent event = (MessageTransferEvent) me.getMessage();
+            if(event.stopsMessageExchange()){
+                removeLookup(event.getRemoteEndpoint(), event.getToken());
+            }
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void handleInboundCoapResponse(ChannelHandlerContext ctx, MessageEvent me){
+        CoapResponse coapResponse = (CoapResponse) me.getMessage();
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        CacheLookup lookup = removeLookup(remoteEndpoint, coapResponse.getToken());
+        if(lookup == null){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        CachedResponse cachedResponse = lookup.getCachedResponse();
+
+        if(cachedResponse != null && coapResponse.getMessageCodeName() == MessageCode.Name.VALID_203 &&
+                (coapResponse.getEtag() == null || Arrays.equals(coapResponse.getEtag(), cachedResponse.getEtag()))){
+
+            this.responseCache.recordValidation();
+            log.debug("Cached response validated (remote endpoint: {}, max-age: {}).", remoteEndpoint,
+                    coapResponse.getMaxAge());
+
+            cachedResponse = cachedResponse.refresh(coapResponse.getMaxAge());
+            this.responseCache.put(lookup.getCacheKey(), cachedResponse);
+
+            //the application receives the cached content as if the server had sent it
+            CoapResponse validatedResponse = cachedResponse.createCoapResponse(coapResponse.getMessageType(),
+                    coapResponse.getMessageID(), coapResponse.getToken());
+            validatedResponse.setReceptionTime(coapResponse.getReceptionTime());
+            Channels.fireMessageReceived(ctx, validatedResponse, remoteEndpoint);
+            return;
+        }
+
+        if(cachedResponse != null){
+            this.responseCache.recordMiss();
+        }
+
+        if(coapResponse.getMessageCodeName() == MessageCode.Name.CONTENT_205 &&
+                !coapResponse.isUpdateNotification() &&
+                (coapResponse.getMaxAge() > 0 || coapResponse.getEtag() != null)){
+
+            this.responseCache.put(lookup.getCacheKey(), ResponseCache.createCachedResponse(coapResponse));
+        }
+        else{
+            this.responseCache.invalidate(lookup.getCacheKey());
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private CacheLookup removeLookup(InetSocketAddress remoteEndpoint, Token token){
+        CacheLookup lookup = this.lookups.remove(remoteEndpoint, token);
+        if(lookup != null){
+            lookup.restoreCoapRequest();
+        }
+        return lookup;
+    }
+
+
+    private static class CacheLookup {
+
+        private final CoapRequest coapRequest;
+        private final CacheKey cacheKey;
+        private final CachedResponse cachedResponse;
+
+        private CacheLookup(CoapRequest coapRequest, CacheKey cacheKey, CachedResponse cachedResponse){
+            this.coapRequest = coapRequest;
+            this.cacheKey = cacheKey;
+            this.cachedResponse = cachedResponse;
+        }
+
+        private CacheKey getCacheKey() {
+            return this.cacheKey;
+        }
+
+        private CachedResponse getCachedResponse() {
+            return this.cachedResponse;
+        }
+
+        //the application may re-use the request, i.e. it must not keep the ETag set for validation
+        private void restoreCoapRequest(){
+            if(this.cachedResponse != null){
+                this.coapRequest.removeOptions(OptionValue.Name.ETAG);
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link ResponseCache} stores {@link de.uniluebeck.itm.ncoap.message.CoapResponse}s to GET requests per remote
+ * endpoint and cache-key options of the request (see {@link CacheKey}). Cached responses are
+ * fresh for the number of seconds given by their Max-Age option. Stale responses are kept as long as they contain
+ * an ETag, i.e. can be validated. If the size of all cached responses exceeds the maximum defined by the
+ * {@link ResponseCacheConfiguration}, (approximately) the least recently used responses are evicted. Responses
+ * are additionally indexed by their resource key (see {@link CacheKey#createResourceKey(
+ * java.net.InetSocketAddress, de.uniluebeck.itm.ncoap.message.CoapRequest)}) to invalidate all representations of
+ * a resource at once.
+ *
+ * A {@link ResponseCache} is shared by the {@link ClientCachingHandler}s of all sockets of a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} and counts the requests answered
+ * from the cache, i.e.
+ *
+ * <ul>
+ *     <li>hits, i.e. requests answered with a fresh response without any network I/O,</li>
+ *     <li>validations, i.e. requests answered with a stale response after the server confirmed its ETag with
+ *     {@link de.uniluebeck.itm.ncoap.message.MessageCode.Name#VALID_203} and</li>
+ *     <li>misses, i.e. all other requests the cache was asked for.</li>
+ * </ul>
+ *
+ * @author Oliver Kleine
+ */
+public class ResponseCache {
+
+    //the approximate size of the fields of a cache entry besides the (encoded) options and the content
+    static final int ENTRY_OVERHEAD = 64;
+
+    private final Cache<CacheKey, CachedResponse> responses;
+
+    //resource keys mapped to the keys of all cached responses (guarded by itself)
+    private final SetMultimap<CacheKey, CacheKey> keysByResource;
+
+    private final AtomicLong hits;
+    private final AtomicLong validations;
+    private final AtomicLong misses;
+
+    /**
+     * Creates a new (empty) instance of {@link ResponseCache}
+     *
+     * @param configuration the {@link ResponseCacheConfiguration} defining the capacity of this cache
+     */
+    public ResponseCache(ResponseCacheConfiguration configuration){
+        this.responses = CacheBuilder.newBuilder()
+                .maximumWeight(configuration.getMaxSize())
+                .weigher(new Weigher<CacheKey, CachedResponse>() {
+                    @Override
+                    public int weigh(CacheKey cacheKey, CachedResponse cachedResponse) {
+                        return cacheKey.getSize() + cachedResponse.getSize();
+                    }
+                })
+                .removalListener(new RemovalListener<CacheKey, CachedResponse>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<CacheKey, CachedResponse> notification) {
+                        if(notification.getCause() != RemovalCause.REPLACED){
+                            removeFromIndex(notification.getKey());
+                        }
+                    }
+                })
+                .build();
+
+        this.keysByResource = HashMultimap.create();
+
+        this.hits = new AtomicLong(0);
+        this.validations = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+
+    CachedResponse get(CacheKey cacheKey){
+        return this.responses.getIfPresent(cacheKey);
+    }
+
+
+    void put(CacheKey cacheKey, CachedResponse cachedResponse){
+        synchronized(this.keysByResource){
+            this.responses.put(cacheKey, cachedResponse);
+            this.keysByResource.put(cacheKey.getResourceKey(), cacheKey);
+        }
+    }
+
+
+    void invalidate(CacheKey cacheKey){
+        this.responses.invalidate(cacheKey);
+    }
+
+
+    void invalidateResource(CacheKey resourceKey){
+        List<CacheKey> cacheKeys;
+        synchronized(this.keysByResource){
+            cacheKeys = new ArrayList<>(this.keysByResource.get(resourceKey));
+        }
+        this.responses.invalidateAll(cacheKeys);
+    }
+
+
+    private void removeFromIndex(CacheKey cacheKey){
+        synchronized(this.keysByResource){
+            //the key might have been cached again in the meantime
+            if(this.responses.getIfPresent(cacheKey) == null){
+                this.keysByResource.remove(cacheKey.getResourceKey(), cacheKey);
+            }
+        }
+    }
+
+
+    void recordHit(){
+        this.hits.incrementAndGet();
+    }
+
+
+    void recordValidation(){
+        this.validations.incrementAndGet();
+    }
+
+
+    void recordMiss(){
+        this.misses.incrementAndGet();
+    }
+
+    /**
+     * Returns the number of requests answered with a fresh response without any network I/O
+     * @return the number of requests answered with a fresh response without any network I/O
+     */
+    public long getHits(){
+        return this.hits.get();
+    }
+
+    /**
+     * Returns the number of requests answered with a stale response after the server confirmed its ETag
+     * @return the number of requests answered with a stale response after the server confirmed its ETag
+     */
+    public long getValidations(){
+        return this.validations.get();
+    }
+
+    /**
+     * Returns the number of requests that could not be answered from the cache
+     * @return the number of requests that could not be answered from the cache
+     */
+    public long getMisses(){
+        return this.misses.get();
+    }
+
+    /**
+     * Returns the ratio of requests answered with a fresh response (without any network I/O) to all requests the
+     * cache was asked for or <code>0</code> if there were no such requests yet
+     *
+     * @return the ratio of requests answered with a fresh response to all requests the cache was asked for
+     */
+    public double getHitRatio(){
+        long requests = this.hits.get() + this.validations.get() + this.misses.get();
+        return requests == 0 ? 0 : (double) this.hits.get() / requests;
+    }
+
+    /**
+     * Returns the ratio of requests answered with a validated stale response to all requests the cache was asked
+     * for or <code>0</code> if there were no such requests yet
+     *
+     * @return the ratio of requests answered with a validated stale response to all requests the cache was asked for
+     */
+    public double getValidationRatio(){
+        long requests = this.hits.get() + this.validations.get() + this.misses.get();
+        return requests == 0 ? 0 : (double) this.validations.get() / requests;
+    }
+
+    /**
+     * Returns the number of cached responses (including stale ones)
+     * @return the number of cached responses (including stale ones)
+     */
+    public long size(){
+        return this.responses.size();
+    }
+
+    /**
+     * Removes all cached responses (but keeps the counters)
+     */
+    public void clear(){
+        this.responses.invalidateAll();
+    }
+
+
+    @Override
+    public String toString(){
+        return "[responses: " + size() + ", hits: " + getHits() + ", validations: " + getValidations() +
+                ", misses: " + getMisses() + "]";
+    }
+
+
+    static CachedResponse createCachedResponse(CoapResponse coapResponse){
+        //the cached copy must neither share the content nor the options with the given response
+        CoapResponse copy = new CoapResponse(coapResponse.getMessageType(), coapResponse.getMessageCode());
+        int size = ENTRY_OVERHEAD;
+
+        for(Map.Entry<Integer, OptionValue> option : coapResponse.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+            if(optionNumber != OptionValue.Name.MAX_AGE && optionNumber != OptionValue.Name.BLOCK_2 &&
+                    optionNumber != OptionValue.Name.BLOCK_1){
+                copy.addOption(optionNumber, option.getValue());
+                size += 4 + option.getValue().getValue().length;
+            }
+        }
+
+        copy.setContent(ChannelBuffers.copiedBuffer(coapResponse.getContent()));
+        size += copy.getContent().readableBytes();
+
+        long expiry = System.nanoTime() + TimeUnit.SECONDS.toNanos(coapResponse.getMaxAge());
+        return new CachedResponse(copy, coapResponse.getEtag(), expiry, size);
+    }
+
+
+    static final class CachedResponse {
+
+        private final CoapResponse coapResponse;
+        private final byte[] etag;
+        private final long expiry;
+        private final int size;
+
+        private CachedResponse(CoapResponse coapResponse, byte[] etag, long expiry, int size){
+            this.coapResponse = coapResponse;
+            this.etag = etag;
+            this.expiry = expiry;
+            this.size = size;
+        }
+
+        boolean isFresh(){
+            return this.expiry - System.nanoTime() > 0;
+        }
+
+        byte[] getEtag(){
+            return this.etag;
+        }
+
+        private int getSize(){
+            return this.size;
+        }
+
+        //returns a copy that is fresh for the given number of seconds (after the server confirmed the ETag)
+        CachedResponse refresh(long maxAge){
+            long expiry = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxAge);
+            return new CachedResponse(this.coapResponse, this.etag, expiry, this.size);
+        }
+
+        //returns a new response with the given header fields and the remaining freshness as Max-Age
+        CoapResponse createCoapResponse(int messageType, int messageID, Token token){
+            CoapResponse result = new CoapResponse(messageType, this.coapResponse.getMessageCode());
+
+            for(Map.Entry<Integer, OptionValue> option : this.coapResponse.getAllOptions().entries()){
+                result.addOption(option.getKey(), option.getValue());
+            }
+
+            long maxAge = Math.max(0, TimeUnit.NANOSECONDS.toSeconds(this.expiry - System.nanoTime()));
+            if(maxAge != OptionValue.MAX_AGE_DEFAULT){
+                result.setMaxAge(maxAge);
+            }
+
+            if(messageID != CoapMessage.UNDEFINED_MESSAGE_ID){
+                result.setMessageID(messageID);
+            }
+
+            result.setToken(token);
+            result.setContent(this.coapResponse.getContent().duplicate());
+
+            return result;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.caching;
+
+/**
+ * A {@link ResponseCacheConfiguration} defines the capacity of a {@link ResponseCache}, i.e. the maximum number of
+ * bytes of all cached {@link de.uniluebeck.itm.ncoap.message.CoapResponse}s (content and options). If a new
+ * response exceeds the capacity, the least recently used responses are evicted.
+ *
+ * @author Oliver Kleine
+ */
+public class ResponseCacheConfiguration {
+
+    private final long maxSize;
+
+    /**
+     * Creates a new instance of {@link ResponseCacheConfiguration}
+     *
+     * @param maxSize the maximum number of bytes of all cached responses
+     *
+     * @throws java.lang.IllegalArgumentException if the given size is less than 1
+     */
+    public ResponseCacheConfiguration(long maxSize) throws IllegalArgumentException {
+        if(maxSize < 1)
+            throw new IllegalArgumentException("Maximum cache size must be at least 1 byte.");
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a {@link ResponseCacheConfiguration} with a capacity of 1 MB
+     *
+     * @return a {@link ResponseCacheConfiguration} with default values
+     */
+    public static ResponseCacheConfiguration getDefault(){
+        return new ResponseCacheConfiguration(1024 * 1024);
+    }
+
+    /**
+     * Returns the maximum number of bytes of all cached responses
+     * @return the maximum number of bytes of all cached responses
+     */
+    public long getMaxSize() {
+        return this.maxSize;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[max. size: " + this.maxSize + " bytes]";
+    }
+}
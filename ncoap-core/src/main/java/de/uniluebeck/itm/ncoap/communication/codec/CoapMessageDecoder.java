@@ -28,6 +28,7 @@ import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.message.*;
 import de.uniluebeck.itm.ncoap.message.options.*;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -58,12 +59,42 @@ import java.net.InetSocketAddress;
  *     </li>
  * </ul>
  *
+ * A {@link CoapMessageDecoder} created with zero-copy mode enabled does not copy option values and payload out of
+ * the inbound {@link ChannelBuffer}. The options are just indexed (see
+ * {@link CoapMessage#addOption(int, ChannelBuffer, int, int)}) and the payload is a slice of the inbound buffer.
+ * The {@link de.uniluebeck.itm.ncoap.message.options.OptionValue} instances are created not before they are
+ * requested, while frequently used fields like URI path, observe or content format are read from the index directly.
+ * This requires the inbound {@link ChannelBuffer} not to be reused by the underlying transport which is the case
+ * for the datagram channels of Netty.
+ *
  * @author Oliver Kleine
  */
 public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
+    private final boolean zeroCopy;
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder} that copies option values and payload of inbound messages.
+     * Invocation of this constructor has the same effect as {@link #CoapMessageDecoder(boolean)} with parameter
+     * <code>false</code>.
+     */
+    public CoapMessageDecoder(){
+        this(false);
+    }
+
+    /**
+     * Creates a new instance of {@link CoapMessageDecoder}.
+     *
+     * @param zeroCopy <code>true</code> if the decoded {@link CoapMessage}s are supposed to refer to the inbound
+     *                 {@link ChannelBuffer} instead of copies of option values and payload, <code>false</code>
+     *                 otherwise.
+     */
+    public CoapMessageDecoder(boolean zeroCopy){
+        this.zeroCopy = zeroCopy;
+    }
+
 
     @Override
     public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
@@ -111,8 +142,10 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
         int messageID =   (encodedHeader)        & 0xFFFF;
 
 
-        log.debug("Decoded Header: (T) {}, (TKL) {}, (C) {}, (ID) {}",
-                new Object[]{messageType, tokenLength, messageCode, messageID});
+        if(log.isDebugEnabled()){
+            log.debug("Decoded Header: (T) {}, (TKL) {}, (C) {}, (ID) {}",
+                    new Object[]{messageType, tokenLength, messageCode, messageID});
+        }
 
         //Check whether the protocol version is supported (=1)
         if(version != CoapMessage.PROTOCOL_VERSION){
@@ -172,11 +205,15 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
         coapMessage.setMessageID(messageID);
         coapMessage.setToken(new Token(token));
+        coapMessage.setReceptionTime(System.currentTimeMillis());
 
         //Decode and set the options
         if(buffer.readableBytes() > 0){
             try {
-                setOptions(coapMessage, buffer);
+                if(zeroCopy)
+                    indexOptions(coapMessage, buffer, remoteEndpoint);
+                else
+                    setOptions(coapMessage, buffer);
             }
             catch (OptionCodecException e) {
                 e.setMessageID(messageID);
@@ -191,10 +228,17 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
 
         //The remaining bytes (if any) are the messages payload. If there is no payload, reader and writer index are
         //at the same position (buf.readableBytes() == 0).
-        buffer.discardReadBytes();
+        ChannelBuffer content;
+        if(zeroCopy){
+            content = buffer.readableBytes() > 0 ? buffer.slice() : ChannelBuffers.EMPTY_BUFFER;
+        }
+        else{
+            buffer.discardReadBytes();
+            content = buffer;
+        }
 
         try {
-            coapMessage.setContent(buffer);
+            coapMessage.setContent(content);
         }
         catch (IllegalArgumentException e) {
             log.warn("Message code {} does not allow content. Ignore {} bytes.", coapMessage.getMessageCode(),
@@ -207,6 +251,76 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
     }
 
 
+    private void indexOptions(CoapMessage coapMessage, ChannelBuffer buffer, InetSocketAddress remoteEndpoint)
+            throws HeaderDecodingException, OptionCodecException {
+
+        int previousOptionNumber = 0;
+
+        while(buffer.readable()){
+            int firstByte = buffer.readUnsignedByte();
+
+            //payload marker
+            if(firstByte == 0xFF)
+                return;
+
+            int optionDelta = readExtendedValue(buffer, firstByte >>> 4, coapMessage, remoteEndpoint);
+            int optionLength = readExtendedValue(buffer, firstByte & 0x0F, coapMessage, remoteEndpoint);
+
+            if(buffer.readableBytes() < optionLength){
+                String message = "Option length is " + optionLength + " but only " + buffer.readableBytes() +
+                        " bytes left!";
+                throw new HeaderDecodingException(coapMessage.getMessageID(), remoteEndpoint, message);
+            }
+
+            int actualOptionNumber = previousOptionNumber + optionDelta;
+
+            try{
+                coapMessage.addOption(actualOptionNumber, buffer, buffer.readerIndex(), optionLength);
+            }
+
+            //failed option creation leads to an illegal argument exception
+            catch(IllegalArgumentException e){
+
+                //Malformed options in responses are silently ignored...
+                if(MessageCode.isResponse(coapMessage.getMessageCode()))
+                    log.warn("Silently ignore malformed option no. {} in inbound response.", actualOptionNumber);
+
+                //Critical malformed options in requests cause an exception
+                else if(OptionValue.isCritical(actualOptionNumber))
+                    throw new OptionCodecException(actualOptionNumber);
+
+                //Not critical malformed options in requests are silently ignored...
+                else
+                    log.warn("Silently ignore elective option no. {} in inbound request.", actualOptionNumber);
+            }
+
+            buffer.skipBytes(optionLength);
+            previousOptionNumber = actualOptionNumber;
+        }
+    }
+
+
+    private static int readExtendedValue(ChannelBuffer buffer, int value, CoapMessage coapMessage,
+                                         InetSocketAddress remoteEndpoint) throws HeaderDecodingException {
+
+        int length = value == 13 ? 1 : (value == 14 ? 2 : (value == 15 ? -1 : 0));
+
+        if(length == -1 || buffer.readableBytes() < length){
+            String message = "Malformed option (delta or length) in message with ID " + coapMessage.getMessageID();
+            throw new HeaderDecodingException(coapMessage.getMessageID(), remoteEndpoint, message);
+        }
+
+        if(value == 13)
+            return 13 + buffer.readUnsignedByte();
+
+        else if(value == 14)
+            return 269 + buffer.readUnsignedShort();
+
+        else
+            return value;
+    }
+
+
     private void setOptions(CoapMessage coapMessage, ChannelBuffer buffer) throws OptionCodecException {
 
         //Decode the options
@@ -225,8 +339,6 @@ public class CoapMessageDecoder extends SimpleChannelUpstreamHandler {
             else if(optionDelta == 14)
                 optionDelta = 269 + ((buffer.readByte() & 0xFF) << 8) + (buffer.readByte() & 0xFF);
 
-            else
-
             if(optionLength == 13){
                 optionLength += buffer.readByte() & 0xFF;
             }
@@ -71,13 +71,12 @@
 
 package de.uniluebeck.itm.ncoap.communication.codec;
 
-import com.google.common.primitives.Ints;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.communication.events.MiscellaneousErrorEvent;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.PreEncodedOptions;
 import de.uniluebeck.itm.ncoap.message.options.OptionValue;
-import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
@@ -85,6 +84,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.Map;
 
 
 /**
@@ -92,6 +92,12 @@ import java.net.InetSocketAddress;
  * an exception thrown during the encoding process, an internal message is sent upstream, i.e. in the direction of
  * the application.
  *
+ * The encoded size of a message is computed before encoding, i.e. header, token and options are written into a
+ * single buffer of sufficient capacity which is taken from a per-thread pool and recycled once the write operation
+ * is done. The payload is not copied but wrapped together with that buffer. If a message carries {@link PreEncodedOptions} (see {@link #preEncodeOptions(CoapMessage)})
+ * these are copied into the encoded message instead of encoding the options one by one, i.e. only the variable
+ * options (e.g. {@link OptionValue.Name#OBSERVE}) and the first option per segment are encoded individually.
+ *
  * @author Oliver Kleine
  */
 public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
@@ -106,8 +112,7 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
      */
     public static final int MAX_OPTION_LENGTH = 65804;
 
-
-    private Logger log = LoggerFactory.getLogger(this.getClass().getName());
+    private static Logger log = LoggerFactory.getLogger(CoapMessageEncoder.class.getName());
 
 
     @Override
@@ -122,7 +127,7 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
         CoapMessage coapMessage = (CoapMessage) ((MessageEvent) evt).getMessage();
 
         try{
-            Channels.write(ctx, evt.getFuture(), encode(coapMessage), remoteEndpoint);
+            Channels.write(ctx, evt.getFuture(), encode(coapMessage, evt.getFuture()), remoteEndpoint);
         }
         catch(Exception ex){
             evt.getFuture().setFailure(ex);
@@ -133,43 +138,66 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
 
 
     protected ChannelBuffer encode(CoapMessage coapMessage) throws OptionCodecException {
-        log.info("CoapMessage to be encoded: {}", coapMessage);
-
+        return encode(coapMessage, null);
+    }
 
-        //Start encoding
-        ChannelBuffer encodedMessage = ChannelBuffers.dynamicBuffer(0);
 
-        //Encode HEADER and TOKEN
-        encodeHeader(encodedMessage, coapMessage);
-        log.debug("Encoded length of message (after HEADER + TOKEN): {}", encodedMessage.readableBytes());
+    /**
+     * Encodes the given {@link CoapMessage}. If the given {@link ChannelFuture} is not <code>null</code>, the returned
+     * {@link ChannelBuffer} (unless it is an empty message) is a pooled buffer that is reused as soon as the given
+     * {@link ChannelFuture} is done. Otherwise the returned {@link ChannelBuffer} is exclusively
+     * owned by the caller.
+     */
+    private ChannelBuffer encode(CoapMessage coapMessage, ChannelFuture future) throws OptionCodecException {
+        if(log.isDebugEnabled()){
+            log.debug("CoapMessage to be encoded: {}", coapMessage);
+        }
 
-        if(coapMessage.getMessageCodeName() == MessageCode.Name.EMPTY){
-            encodedMessage = ChannelBuffers.wrappedBuffer(Ints.toByteArray(encodedMessage.getInt(0) & 0xF0FFFFFF));
-            return encodedMessage;
+        if(coapMessage.getMessageCode() == MessageCode.Name.EMPTY.getNumber()){
+            return encodeEmptyMessage(coapMessage.getMessageType(), coapMessage.getMessageID());
         }
 
+        //Compute the encoded size of header, token, options and (if there is any payload) the payload marker
+        byte[] token = coapMessage.getToken().getBytes();
+        ChannelBuffer content = coapMessage.getContent();
 
-        if(coapMessage.getAllOptions().size() == 0 && coapMessage.getContent().readableBytes() == 0)
-            return encodedMessage;
+        int encodedLength = 4 + token.length + getEncodedOptionsLength(coapMessage);
+        if(content.readableBytes() > 0)
+            encodedLength += 1;
 
+        ChannelBuffer encodedMessage = future == null ? ChannelBuffers.buffer(encodedLength) :
+                EncodingBufferPool.getInstance().acquire(encodedLength, future);
 
-        encodeOptions(encodedMessage, coapMessage);
+        //Encode HEADER and TOKEN
+        encodeHeader(encodedMessage, coapMessage);
 
-        log.debug("Encoded length of message (after OPTIONS): {}", encodedMessage.readableBytes());
+        //Encode OPTIONS
+        encodeOptions(encodedMessage, coapMessage);
 
-        if(coapMessage.getContent().readableBytes() > 0){
+        if(content.readableBytes() > 0){
             //Add END-OF-OPTIONS marker only if there is payload
             encodedMessage.writeByte(255);
 
-            //Add CONTENT
-            encodedMessage = ChannelBuffers.wrappedBuffer(encodedMessage, coapMessage.getContent());
-            log.debug("Encoded length of message (after CONTENT): {}", encodedMessage.readableBytes());
+            //Add CONTENT (without copying)
+            encodedMessage = ChannelBuffers.wrappedBuffer(encodedMessage, content);
         }
 
+        log.debug("Encoded length of message: {}", encodedMessage.readableBytes());
+
         return encodedMessage;
     }
 
 
+    private static ChannelBuffer encodeEmptyMessage(int messageType, int messageID){
+        //Version, type and message ID (token length and message code are 0)
+        ChannelBuffer emptyMessage = ChannelBuffers.buffer(4);
+        emptyMessage.writeInt(((CoapMessage.PROTOCOL_VERSION & 0x03) << 30) | ((messageType & 0x03) << 28)
+                | (messageID & 0xFFFF));
+
+        return emptyMessage;
+    }
+
+
     protected void encodeHeader(ChannelBuffer buffer, CoapMessage coapMessage){
 
         byte[] token = coapMessage.getToken().getBytes();
@@ -197,119 +225,290 @@ public class CoapMessageEncoder extends SimpleChannelDownstreamHandler {
     }
 
 
-    protected void encodeOptions(ChannelBuffer buffer, CoapMessage coapMessage) throws OptionCodecException {
+    /**
+     * Encodes all options of the given {@link CoapMessage} except for {@link OptionValue.Name#OBSERVE}. The
+     * returned {@link PreEncodedOptions} can be set on any {@link CoapMessage} containing the same options (except
+     * for {@link OptionValue.Name#OBSERVE}) via {@link CoapMessage#setPreEncodedOptions(PreEncodedOptions)} to avoid
+     * encoding these options over and over again, e.g. for update notifications to many observers.
+     *
+     * @param coapMessage the {@link CoapMessage} to encode the options of
+     *
+     * @return the {@link PreEncodedOptions} of the given {@link CoapMessage}
+     *
+     * @throws OptionCodecException if an option could not be encoded
+     */
+    public static PreEncodedOptions preEncodeOptions(CoapMessage coapMessage) throws OptionCodecException {
+        return preEncodeOptions(coapMessage, OptionValue.Name.OBSERVE);
+    }
 
-        //Encode options one after the other and append buf option to the buf
-        int previousOptionNumber = 0;
 
-        for(int optionNumber : coapMessage.getAllOptions().keySet()){
-            for(OptionValue optionValue : coapMessage.getOptions(optionNumber)){
-                encodeOption(buffer, optionNumber, optionValue, previousOptionNumber);
-                previousOptionNumber = optionNumber;
+    /**
+     * Encodes all options of the given {@link CoapMessage} except for the options with the given numbers, i.e. the
+     * values of these options are taken from the message to be encoded (see
+     * {@link #preEncodeOptions(CoapMessage)}).
+     *
+     * @param coapMessage the {@link CoapMessage} to encode the options of
+     * @param variableOptionNumbers the numbers of the options that are not to be pre-encoded (in ascending order)
+     *
+     * @return the {@link PreEncodedOptions} of the given {@link CoapMessage}
+     *
+     * @throws OptionCodecException if an option could not be encoded
+     */
+    public static PreEncodedOptions preEncodeOptions(CoapMessage coapMessage, int... variableOptionNumbers)
+            throws OptionCodecException {
+
+        int segments = variableOptionNumbers.length + 1;
+        int[] firstOptionNumbers = new int[segments];
+        byte[][] firstOptionValues = new byte[segments][];
+        ChannelBuffer[] remainders = new ChannelBuffer[segments];
+        int[] lastOptionNumbers = new int[segments];
+
+        for(int i = 0; i < segments; i++){
+            remainders[i] = ChannelBuffers.dynamicBuffer(64);
+        }
+
+        int segment = 0;
+        for(Map.Entry<Integer, OptionValue> option : coapMessage.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+
+            //find the segment of the current option (variable options are skipped)
+            while(segment < variableOptionNumbers.length && optionNumber > variableOptionNumbers[segment]){
+                segment++;
             }
+            if(segment < variableOptionNumbers.length && optionNumber == variableOptionNumbers[segment]){
+                continue;
+            }
+
+            byte[] value = option.getValue().getValue();
+
+            if(firstOptionNumbers[segment] == 0){
+                checkOption(optionNumber, value.length, 0);
+                firstOptionNumbers[segment] = optionNumber;
+                firstOptionValues[segment] = value;
+            }
+            else{
+                encodeOption(remainders[segment], optionNumber, value, lastOptionNumbers[segment]);
+            }
+
+            lastOptionNumbers[segment] = optionNumber;
         }
+
+        return new PreEncodedOptions(variableOptionNumbers.clone(), firstOptionNumbers, firstOptionValues, remainders,
+                lastOptionNumbers);
     }
 
 
-    protected void encodeOption(ChannelBuffer buffer, int optionNumber, OptionValue optionValue, int prevNumber)
-            throws OptionCodecException {
+    /**
+     * Encodes all options of the given {@link CoapMessage}, e.g. to assemble messages without involving the
+     * {@link CoapMessageEncoder}. Pre-encoded options of the given {@link CoapMessage} are ignored.
+     *
+     * @param coapMessage the {@link CoapMessage} to encode the options of
+     *
+     * @return a {@link ChannelBuffer} containing the encoded options of the given {@link CoapMessage}
+     *
+     * @throws OptionCodecException if an option could not be encoded
+     */
+    public static ChannelBuffer encodeOptions(CoapMessage coapMessage) throws OptionCodecException {
+        ChannelBuffer buffer = ChannelBuffers.dynamicBuffer(64);
+        int previousOptionNumber = 0;
 
-        //The previous option number must be smaller or equal to the actual one
-        if(prevNumber > optionNumber){
-            log.error("Previous option no. ({}) must not be larger then current option no ({})",
-                    prevNumber, optionNumber);
+        for(Map.Entry<Integer, OptionValue> option : coapMessage.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+            encodeOption(buffer, optionNumber, option.getValue().getValue(), previousOptionNumber);
+            previousOptionNumber = optionNumber;
+        }
 
-            throw new OptionCodecException(optionNumber);
+        return buffer;
+    }
+
+
+    private int getEncodedOptionsLength(CoapMessage coapMessage) throws OptionCodecException {
+        PreEncodedOptions preEncodedOptions = coapMessage.getPreEncodedOptions();
+        if(preEncodedOptions != null){
+            return getEncodedOptionsLength(preEncodedOptions, coapMessage);
         }
 
+        int result = 0;
+        int previousOptionNumber = 0;
 
-        int optionDelta = optionNumber - prevNumber;
-        int optionLength = optionValue.getValue().length;
+        for(Map.Entry<Integer, OptionValue> option : coapMessage.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+            int optionLength = option.getValue().getValue().length;
 
-        if(optionLength > MAX_OPTION_LENGTH){
-            log.error("Option no. {} exceeds maximum option length (actual: {}, max: {}).",
-                    new Object[]{optionNumber, optionLength, MAX_OPTION_LENGTH});
+            checkOption(optionNumber, optionLength, previousOptionNumber);
 
-            throw new OptionCodecException(optionNumber);
+            result += 1 + getExtensionLength(optionNumber - previousOptionNumber) + getExtensionLength(optionLength)
+                    + optionLength;
+
+            previousOptionNumber = optionNumber;
         }
 
+        return result;
+    }
 
-        if(optionDelta > MAX_OPTION_DELTA){
-            log.error("Option delta exceeds maximum option delta (actual: {}, max: {})", optionDelta, MAX_OPTION_DELTA);
-            throw new OptionCodecException(optionNumber);
+
+    protected void encodeOptions(ChannelBuffer buffer, CoapMessage coapMessage) throws OptionCodecException {
+
+        PreEncodedOptions preEncodedOptions = coapMessage.getPreEncodedOptions();
+        if(preEncodedOptions != null){
+            encodeOptions(buffer, preEncodedOptions, coapMessage);
+            return;
         }
 
+        //Encode options one after the other and append buf option to the buf
+        int previousOptionNumber = 0;
 
-        //option delta < 13
-        if(optionDelta < 13){
+        for(Map.Entry<Integer, OptionValue> option : coapMessage.getAllOptions().entries()){
+            int optionNumber = option.getKey();
+            encodeOption(buffer, optionNumber, option.getValue().getValue(), previousOptionNumber);
+            previousOptionNumber = optionNumber;
+        }
+    }
 
-            if(optionLength < 13){
-                buffer.writeByte(((optionDelta & 0xFF) << 4) | (optionLength & 0xFF));
-            }
 
-            else if (optionLength < 269){
-                buffer.writeByte(((optionDelta << 4) & 0xFF) | (13 & 0xFF));
-                buffer.writeByte((optionLength - 13) & 0xFF);
+    private static int getEncodedOptionsLength(PreEncodedOptions preEncodedOptions, CoapMessage coapMessage)
+            throws OptionCodecException {
+
+        int result = preEncodedOptions.getRemaindersLength();
+        int previousOptionNumber = 0;
+
+        for(int i = 0; i < preEncodedOptions.getNumberOfSegments(); i++){
+            int firstOptionNumber = preEncodedOptions.getFirstOptionNumber(i);
+            if(firstOptionNumber > 0){
+                int optionLength = preEncodedOptions.getFirstOptionValue(i).length;
+                result += 1 + getExtensionLength(firstOptionNumber - previousOptionNumber)
+                        + getExtensionLength(optionLength) + optionLength;
+                previousOptionNumber = preEncodedOptions.getLastOptionNumber(i);
             }
 
-            else{
-                buffer.writeByte(((optionDelta << 4) & 0xFF) | (14 & 0xFF));
-                buffer.writeByte(((optionLength - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionLength - 269) & 0xFF);
+            if(i < preEncodedOptions.getNumberOfSegments() - 1){
+                int optionNumber = preEncodedOptions.getVariableOptionNumber(i);
+                for(OptionValue optionValue : coapMessage.getOptions(optionNumber)){
+                    int optionLength = optionValue.getValue().length;
+                    checkOption(optionNumber, optionLength, previousOptionNumber);
+
+                    result += 1 + getExtensionLength(optionNumber - previousOptionNumber)
+                            + getExtensionLength(optionLength) + optionLength;
+                    previousOptionNumber = optionNumber;
+                }
             }
         }
 
-        //13 <= option delta < 269
-        else if(optionDelta < 269){
+        return result;
+    }
 
-            if(optionLength < 13){
-                buffer.writeByte(((13 & 0xFF) << 4) | (optionLength & 0xFF));
-                buffer.writeByte((optionDelta - 13) & 0xFF);
-            }
 
-            else if (optionLength < 269){
-                buffer.writeByte(((13 & 0xFF) << 4) | (13 & 0xFF));
-                buffer.writeByte((optionDelta - 13) & 0xFF);
-                buffer.writeByte((optionLength - 13) & 0xFF);
+    private static void encodeOptions(ChannelBuffer buffer, PreEncodedOptions preEncodedOptions,
+                                      CoapMessage coapMessage) throws OptionCodecException {
+
+        int previousOptionNumber = 0;
+
+        for(int i = 0; i < preEncodedOptions.getNumberOfSegments(); i++){
+            int firstOptionNumber = preEncodedOptions.getFirstOptionNumber(i);
+            if(firstOptionNumber > 0){
+                encodeOption(buffer, firstOptionNumber, preEncodedOptions.getFirstOptionValue(i),
+                        previousOptionNumber);
+
+                ChannelBuffer remainder = preEncodedOptions.getRemainder(i);
+                buffer.writeBytes(remainder, remainder.readerIndex(), remainder.readableBytes());
+                previousOptionNumber = preEncodedOptions.getLastOptionNumber(i);
             }
 
-            else{
-                buffer.writeByte((13 & 0xFF) << 4 | (14 & 0xFF));
-                buffer.writeByte((optionDelta - 13) & 0xFF);
-                buffer.writeByte(((optionLength - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionLength - 269) & 0xFF);
+            if(i < preEncodedOptions.getNumberOfSegments() - 1){
+                int optionNumber = preEncodedOptions.getVariableOptionNumber(i);
+                for(OptionValue optionValue : coapMessage.getOptions(optionNumber)){
+                    encodeOption(buffer, optionNumber, optionValue.getValue(), previousOptionNumber);
+                    previousOptionNumber = optionNumber;
+                }
             }
         }
+    }
 
-        //269 <= option delta < 65805
-        else{
 
-            if(optionLength < 13){
-                buffer.writeByte(((14 & 0xFF) << 4) | (optionLength & 0xFF));
-                buffer.writeByte(((optionDelta - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionDelta - 269) & 0xFF);
-            }
+    protected void encodeOption(ChannelBuffer buffer, int optionNumber, OptionValue optionValue, int prevNumber)
+            throws OptionCodecException {
 
-            else if (optionLength < 269){
-                buffer.writeByte(((14 & 0xFF) << 4) | (13 & 0xFF));
-                buffer.writeByte(((optionDelta - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionDelta - 269) & 0xFF);
-                buffer.writeByte((optionLength - 13) & 0xFF);
-            }
+        encodeOption(buffer, optionNumber, optionValue.getValue(), prevNumber);
+    }
 
-            else{
-                buffer.writeByte(((14 & 0xFF) << 4) | (14 & 0xFF));
-                buffer.writeByte(((optionDelta - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionDelta - 269) & 0xFF);
-                buffer.writeByte(((optionLength - 269) & 0xFF00) >>> 8);
-                buffer.writeByte((optionLength - 269) & 0xFF);
-            }
-        }
+
+    private static void encodeOption(ChannelBuffer buffer, int optionNumber, byte[] value, int prevNumber)
+            throws OptionCodecException {
+
+        checkOption(optionNumber, value.length, prevNumber);
+
+        int optionDelta = optionNumber - prevNumber;
+        int optionLength = value.length;
+
+        //first byte, i.e. 4 bits delta and 4 bits length (or the markers for the extended values)
+        buffer.writeByte((getNibble(optionDelta) << 4) | getNibble(optionLength));
+
+        //extended delta and extended length (if any)
+        writeExtension(buffer, optionDelta);
+        writeExtension(buffer, optionLength);
 
         //Write option value
-        buffer.writeBytes(optionValue.getValue());
-        log.debug("Encoded option no {} with value {}", optionNumber, optionValue.getDecodedValue());
-        log.debug("Encoded message length is now: {}", buffer.readableBytes());
+        buffer.writeBytes(value);
+
+        if(log.isDebugEnabled()){
+            log.debug("Encoded option no {} with length {}", optionNumber, optionLength);
+        }
+    }
+
+
+    private static void checkOption(int optionNumber, int optionLength, int prevNumber) throws OptionCodecException {
+
+        //The previous option number must be smaller or equal to the actual one
+        if(prevNumber > optionNumber){
+            log.error("Previous option no. ({}) must not be larger then current option no ({})",
+                    prevNumber, optionNumber);
+
+            throw new OptionCodecException(optionNumber);
+        }
+
+        if(optionLength > MAX_OPTION_LENGTH){
+            log.error("Option no. {} exceeds maximum option length (actual: {}, max: {}).",
+                    new Object[]{optionNumber, optionLength, MAX_OPTION_LENGTH});
+
+            throw new OptionCodecException(optionNumber);
+        }
+
+        int optionDelta = optionNumber - prevNumber;
+        if(optionDelta > MAX_OPTION_DELTA){
+            log.error("Option delta exceeds maximum option delta (actual: {}, max: {})", optionDelta, MAX_OPTION_DELTA);
+            throw new OptionCodecException(optionNumber);
+        }
+    }
+
+
+    //returns the 4-bit value for the first byte of an option, i.e. the value itself (< 13) or 13 or 14
+    private static int getNibble(int value){
+        if(value < 13)
+            return value;
+        else if(value < 269)
+            return 13;
+        else
+            return 14;
+    }
+
+
+    //returns the number of additional bytes for option delta or option length
+    private static int getExtensionLength(int value){
+        if(value < 13)
+            return 0;
+        else if(value < 269)
+            return 1;
+        else
+            return 2;
+    }
+
+
+    private static void writeExtension(ChannelBuffer buffer, int value){
+        if(value >= 269)
+            buffer.writeShort(value - 269);
+
+        else if(value >= 13)
+            buffer.writeByte(value - 13);
     }
 
 
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+
+/**
+ * An {@link EncodingBufferPool} provides the {@link ChannelBuffer}s for encoded messages. There is one pool per
+ * thread, i.e. the pool is never accessed concurrently. A pooled {@link ChannelBuffer} is handed out again as soon
+ * as the {@link ChannelFuture} of the write operation it was used for is done. This is safe since Netty copies the
+ * content of heap buffers into its own send buffers when actually writing.
+ *
+ * Consequently, {@link ChannelBuffer}s obtained from an {@link EncodingBufferPool} must not be retained after the
+ * write operation is done. Handlers that need the encoded message afterwards must copy it.
+ *
+ * @author Oliver Kleine
+ */
+final class EncodingBufferPool {
+
+    /**
+     * The number of pooled buffers per thread (16)
+     */
+    static final int POOL_SIZE = 16;
+
+    /**
+     * The capacity of the pooled buffers (1280), i.e. larger messages are encoded into buffers that are not pooled
+     */
+    static final int BUFFER_CAPACITY = 1280;
+
+    private static final ThreadLocal<EncodingBufferPool> pools = new ThreadLocal<EncodingBufferPool>(){
+        @Override
+        protected EncodingBufferPool initialValue() {
+            return new EncodingBufferPool();
+        }
+    };
+
+    private final ChannelBuffer[] buffers;
+    private final ChannelFuture[] futures;
+
+    private EncodingBufferPool(){
+        this.buffers = new ChannelBuffer[POOL_SIZE];
+        this.futures = new ChannelFuture[POOL_SIZE];
+    }
+
+    /**
+     * Returns the {@link EncodingBufferPool} of the current thread
+     * @return the {@link EncodingBufferPool} of the current thread
+     */
+    static EncodingBufferPool getInstance(){
+        return pools.get();
+    }
+
+    /**
+     * Returns an empty {@link ChannelBuffer} with at least the given capacity. The returned buffer is not handed out
+     * again before the given {@link ChannelFuture} is done.
+     *
+     * @param capacity the required capacity
+     * @param future the {@link ChannelFuture} of the write operation the buffer is used for
+     *
+     * @return an empty {@link ChannelBuffer} with at least the given capacity
+     */
+    ChannelBuffer acquire(int capacity, ChannelFuture future){
+        if(capacity > BUFFER_CAPACITY)
+            return ChannelBuffers.buffer(capacity);
+
+        for(int i = 0; i < POOL_SIZE; i++){
+            if(futures[i] == null || futures[i].isDone()){
+                if(buffers[i] == null)
+                    buffers[i] = ChannelBuffers.buffer(BUFFER_CAPACITY);
+
+                futures[i] = future;
+                buffers[i].clear();
+                return buffers[i];
+            }
+        }
+
+        //all pooled buffers are in use
+        return ChannelBuffers.buffer(capacity);
+    }
+}
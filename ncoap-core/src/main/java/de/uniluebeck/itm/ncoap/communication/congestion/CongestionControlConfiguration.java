@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.congestion;
+
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+
+import java.util.Comparator;
+
+/**
+ * A {@link CongestionControlConfiguration} defines the limits enforced by a {@link CongestionControlHandler} per
+ * remote endpoint, i.e.
+ *
+ * <ul>
+ *     <li>the maximum number of outstanding confirmable requests (NSTART),</li>
+ *     <li>the maximum number of requests waiting for one of these NSTART slots,</li>
+ *     <li>the order in which waiting requests are released (FIFO or priority) and</li>
+ *     <li>the maximum average data rate (PROBING_RATE) of non-confirmable requests to a remote endpoint that does
+ *     not respond.</li>
+ * </ul>
+ *
+ * @author Oliver Kleine
+ */
+public class CongestionControlConfiguration {
+
+    /**
+     * The default number (1) of outstanding confirmable requests per remote endpoint (see RFC 7252, section 4.7)
+     */
+    public static final int DEFAULT_NSTART = 1;
+
+    /**
+     * The default number of bytes per second (1) to be sent to a remote endpoint that does not respond (see
+     * RFC 7252, section 4.7)
+     */
+    public static final long DEFAULT_PROBING_RATE = 1;
+
+    private final int nstart;
+    private final int maxQueuedRequests;
+    private final long probingRate;
+    private final Comparator<CoapRequest> priority;
+
+    /**
+     * Creates a new instance of {@link CongestionControlConfiguration}
+     *
+     * @param nstart the maximum number of outstanding confirmable requests per remote endpoint
+     * @param maxQueuedRequests the maximum number of requests per remote endpoint waiting to be sent
+     * @param probingRate the maximum average number of bytes per second to be sent to a remote endpoint that does
+     *                    not respond
+     * @param priority the {@link java.util.Comparator} to order the waiting requests (smaller first) or
+     *                 <code>null</code> to release waiting requests in the order they were sent by the application
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given numbers is smaller than 1
+     */
+    public CongestionControlConfiguration(int nstart, int maxQueuedRequests, long probingRate,
+                                          Comparator<CoapRequest> priority) throws IllegalArgumentException {
+
+        if(nstart < 1 || maxQueuedRequests < 1 || probingRate < 1)
+            throw new IllegalArgumentException("All limits of congestion control must be at least 1.");
+
+        this.nstart = nstart;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.probingRate = probingRate;
+        this.priority = priority;
+    }
+
+    /**
+     * Creates a new instance of {@link CongestionControlConfiguration} that releases waiting requests in the order
+     * they were sent by the application (FIFO).
+     *
+     * @param nstart the maximum number of outstanding confirmable requests per remote endpoint
+     * @param maxQueuedRequests the maximum number of requests per remote endpoint waiting to be sent
+     * @param probingRate the maximum average number of bytes per second to be sent to a remote endpoint that does
+     *                    not respond
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given numbers is smaller than 1
+     */
+    public CongestionControlConfiguration(int nstart, int maxQueuedRequests, long probingRate)
+            throws IllegalArgumentException {
+        this(nstart, maxQueuedRequests, probingRate, null);
+    }
+
+    /**
+     * Returns a {@link CongestionControlConfiguration} according to RFC 7252, i.e. with {@link #DEFAULT_NSTART}
+     * and {@link #DEFAULT_PROBING_RATE}, that queues up to 1000 requests per remote endpoint in FIFO order.
+     *
+     * @return a {@link CongestionControlConfiguration} with default values
+     */
+    public static CongestionControlConfiguration getDefault(){
+        return new CongestionControlConfiguration(DEFAULT_NSTART, 1000, DEFAULT_PROBING_RATE);
+    }
+
+    /**
+     * Returns the maximum number of outstanding confirmable requests per remote endpoint
+     * @return the maximum number of outstanding confirmable requests per remote endpoint
+     */
+    public int getNStart() {
+        return this.nstart;
+    }
+
+    /**
+     * Returns the maximum number of requests per remote endpoint waiting to be sent
+     * @return the maximum number of requests per remote endpoint waiting to be sent
+     */
+    public int getMaxQueuedRequests() {
+        return this.maxQueuedRequests;
+    }
+
+    /**
+     * Returns the maximum average number of bytes per second to be sent to a remote endpoint that does not respond
+     * @return the maximum average number of bytes per second to be sent to a remote endpoint that does not respond
+     */
+    public long getProbingRate() {
+        return this.probingRate;
+    }
+
+    /**
+     * Returns the {@link java.util.Comparator} to order the waiting requests or <code>null</code> if waiting
+     * requests are released in FIFO order
+     *
+     * @return the {@link java.util.Comparator} to order the waiting requests or <code>null</code> if waiting
+     * requests are released in FIFO order
+     */
+    public Comparator<CoapRequest> getPriority() {
+        return this.priority;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[NSTART: " + this.nstart + ", max. queued requests: " + this.maxQueuedRequests +
+                ", probing rate: " + this.probingRate + " bytes per second" +
+                ", order: " + (this.priority == null ? "FIFO" : "priority") + "]";
+    }
+}
@@ -0,0 +1,639 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.congestion;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.events.EmptyAckReceivedEvent;
+import de.uniluebeck.itm.ncoap.communication.events.MiscellaneousErrorEvent;
+import de.uniluebeck.itm.ncoap.communication.events.ResetReceivedEvent;
+import de.uniluebeck.itm.ncoap.communication.events.TransmissionTimeoutEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link CongestionControlHandler} is located right above the
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler} in the pipeline of
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}s and limits the outbound
+ * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s per remote endpoint (see
+ * {@link CongestionControlConfiguration}), i.e.
+ *
+ * <ul>
+ *     <li>
+ *         There are at most NSTART outstanding confirmable requests per remote endpoint. A confirmable request is
+ *         outstanding until it was acknowledged (either empty or with piggy-backed response), resetted or answered,
+ *         or until the remote endpoint failed to acknowledge it within MAX_TRANSMIT_WAIT (see
+ *         {@link de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy#getMaxTransmitWait(
+ *         java.net.InetSocketAddress)}). Further confirmable requests wait (in FIFO or priority order) and are sent
+ *         as soon as an outstanding request is released.
+ *     </li>
+ *     <li>
+ *         Non-confirmable requests to a remote endpoint that did not send any message since the last
+ *         non-confirmable request are paced to the probing rate, i.e. they wait (in FIFO order) until the average
+ *         data rate since the first unanswered request is not exceeded anymore.
+ *     </li>
+ * </ul>
+ *
+ * Requests that can not be queued because there are already too many requests waiting for the same remote endpoint
+ * are not sent at all. Instead, a {@link de.uniluebeck.itm.ncoap.communication.events.MiscellaneousErrorEvent} is
+ * sent upstream. Messages other than requests (e.g. CoAP pings, ACKs or RSTs) are never delayed.
+ *
+ * One instance is shared by the pipelines of all sockets of a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}, i.e. the limits apply per remote
+ * endpoint regardless of the socket a request is sent over. Queued requests are sent over the socket they were
+ * written to.
+ *
+ * @author Oliver Kleine
+ */
+@ChannelHandler.Sharable
+public class CongestionControlHandler extends SimpleChannelHandler {
+
+    private static Logger log = LoggerFactory.getLogger(CongestionControlHandler.class.getName());
+    private static final TimeUnit MILLIS = TimeUnit.MILLISECONDS;
+
+    private final CongestionControlConfiguration configuration;
+    private final RetransmissionPolicy retransmissionPolicy;
+    private final Timer timer;
+
+    private final ConcurrentHashMap<InetSocketAddress, RemoteEndpointState> states;
+
+    private final AtomicLong sequenceNumber;
+    private final AtomicLong delayedRequests;
+    private final AtomicLong rejectedRequests;
+
+
+    /**
+     * Creates a new instance of {@link CongestionControlHandler}
+     *
+     * @param configuration the {@link CongestionControlConfiguration} defining the limits to be enforced
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the release of requests
+     * @param retransmissionPolicy the
+     *                             {@link de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy} of
+     *                             the {@link de.uniluebeck.itm.ncoap.communication.reliability
+     *                             .OutboundReliabilityHandler} to determine the time to give up waiting for an
+     *                             acknowledgement
+     */
+    public CongestionControlHandler(CongestionControlConfiguration configuration, Timer timer,
+                                    RetransmissionPolicy retransmissionPolicy){
+        this.configuration = configuration;
+        this.retransmissionPolicy = retransmissionPolicy;
+        this.timer = timer;
+
+        this.states = new ConcurrentHashMap<>();
+
+        this.sequenceNumber = new AtomicLong(0);
+        this.delayedRequests = new AtomicLong(0);
+        this.rejectedRequests = new AtomicLong(0);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof RequestCancelledEvent){
+            handleRequestCancelledEvent((RequestCancelledEvent) me.getMessage());
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        if(!(me.getMessage() instanceof CoapRequest) ||
+                ((CoapRequest) me.getMessage()).getMessageID() != CoapMessage.UNDEFINED_MESSAGE_ID){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapRequest coapRequest = (CoapRequest) me.getMessage();
+
+        if(coapRequest.getMessageTypeName() == MessageType.Name.CON){
+            handleConfirmableRequest(ctx, me, coapRequest);
+        }
+        else{
+            handleNonConfirmableRequest(ctx, me, coapRequest);
+        }
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        if(me.getMessage() instanceof CoapResponse){
+            release(remoteEndpoint, ((CoapResponse) me.getMessage()).getToken(), true);
+        }
+
+        else if(me.getMessage() instanceof EmptyAckReceivedEvent){
+            EmptyAckReceivedEvent event = (EmptyAckReceivedEvent) me.getMessage();
+            release(event.getRemoteEndpoint(), event.getToken(), true);
+        }
+
+        else if(me.getMessage() instanceof ResetReceivedEvent){
+            ResetReceivedEvent event = (ResetReceivedEvent) me.getMessage();
+            release(event.getRemoteEndpoint(), event.getToken(), true);
+        }
+
+        else if(me.getMessage() instanceof TransmissionTimeoutEvent){
+            TransmissionTimeoutEvent event = (TransmissionTimeoutEvent) me.getMessage();
+            release(event.getRemoteEndpoint(), event.getToken(), false);
+        }
+
+        else if(me.getMessage() instanceof MiscellaneousErrorEvent){
+            MiscellaneousErrorEvent event = (MiscellaneousErrorEvent) me.getMessage();
+            release(event.getRemoteEndpoint(), event.getToken(), false);
+        }
+
+        else if(me.getMessage() instanceof CoapMessage){
+            release(remoteEndpoint, null, true);
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void handleRequestCancelledEvent(RequestCancelledEvent event){
+        InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
+        RemoteEndpointState state = this.states.get(remoteEndpoint);
+        if(state == null)
+            return;
+
+        QueuedRequest queuedRequest = null;
+
+        synchronized(state){
+            if(!state.discarded){
+                queuedRequest = removeQueuedRequest(state.waiting, event.getToken());
+                if(queuedRequest == null){
+                    queuedRequest = removeQueuedRequest(state.paced, event.getToken());
+                }
+            }
+        }
+
+        if(queuedRequest != null){
+            log.debug("Removed cancelled request from queue (remote endpoint: {}).", remoteEndpoint);
+            queuedRequest.messageEvent.getFuture().setFailure(new CancellationException("Request cancelled."));
+        }
+
+        //free the NSTART slot if the request was outstanding
+        release(remoteEndpoint, event.getToken(), false);
+    }
+
+
+    //must be called while holding the lock on the state the given queue belongs to
+    private static QueuedRequest removeQueuedRequest(Queue<QueuedRequest> queue, Token token){
+        Iterator<QueuedRequest> iterator = queue.iterator();
+        while(iterator.hasNext()){
+            QueuedRequest queuedRequest = iterator.next();
+            if(queuedRequest.coapRequest.getToken().equals(token)){
+                iterator.remove();
+                return queuedRequest;
+            }
+        }
+
+        return null;
+    }
+
+
+    private void handleConfirmableRequest(ChannelHandlerContext ctx, MessageEvent me, CoapRequest coapRequest){
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        Token token = coapRequest.getToken();
+        boolean send = true;
+
+        while(true){
+            RemoteEndpointState state = getState(remoteEndpoint);
+
+            synchronized(state){
+                if(state.discarded)
+                    continue;
+
+                //requests with the token of an outstanding request (e.g. to cancel an observation) are not limited
+                if(state.outstanding.containsKey(token)){
+                    break;
+                }
+
+                else if(state.outstanding.size() < this.configuration.getNStart() && state.waiting.isEmpty()){
+                    acquire(state, remoteEndpoint, token);
+                    break;
+                }
+
+                else if(state.waiting.size() < this.configuration.getMaxQueuedRequests()){
+                    long sequenceNumber = this.sequenceNumber.incrementAndGet();
+                    state.waiting.add(new QueuedRequest(ctx, me, coapRequest, sequenceNumber));
+                    this.delayedRequests.incrementAndGet();
+                    log.debug("Request queued (remote endpoint: {}, outstanding: {}, waiting: {}).",
+                            new Object[]{remoteEndpoint, state.outstanding.size(), state.waiting.size()});
+                    return;
+                }
+
+                else{
+                    send = false;
+                    break;
+                }
+            }
+        }
+
+        if(send){
+            ctx.sendDownstream(me);
+        }
+        else{
+            reject(ctx, me, coapRequest);
+        }
+    }
+
+
+    private void handleNonConfirmableRequest(ChannelHandlerContext ctx, MessageEvent me, CoapRequest coapRequest){
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        boolean send = true;
+
+        while(true){
+            RemoteEndpointState state = getState(remoteEndpoint);
+
+            synchronized(state){
+                if(state.discarded)
+                    continue;
+
+                long now = System.currentTimeMillis();
+                if(state.paced.isEmpty() && state.getProbingDelay(now) == 0){
+                    state.addUnansweredBytes(getEstimatedSize(coapRequest), now);
+                    break;
+                }
+
+                else if(state.paced.size() < this.configuration.getMaxQueuedRequests()){
+                    long sequenceNumber = this.sequenceNumber.incrementAndGet();
+                    state.paced.add(new QueuedRequest(ctx, me, coapRequest, sequenceNumber));
+                    this.delayedRequests.incrementAndGet();
+                    scheduleProbing(state, remoteEndpoint, now);
+                    return;
+                }
+
+                else{
+                    send = false;
+                    break;
+                }
+            }
+        }
+
+        if(send){
+            ctx.sendDownstream(me);
+        }
+        else{
+            reject(ctx, me, coapRequest);
+        }
+    }
+
+
+    private RemoteEndpointState getState(InetSocketAddress remoteEndpoint){
+        RemoteEndpointState state = this.states.get(remoteEndpoint);
+
+        if(state == null){
+            RemoteEndpointState newState = new RemoteEndpointState(this.configuration.getPriority());
+            state = this.states.putIfAbsent(remoteEndpoint, newState);
+            if(state == null){
+                state = newState;
+            }
+        }
+
+        return state;
+    }
+
+
+    //must be called while holding the lock on the given state
+    private void acquire(RemoteEndpointState state, InetSocketAddress remoteEndpoint, Token token){
+
+        long delay = this.retransmissionPolicy.getMaxTransmitWait(remoteEndpoint);
+        Timeout timeout = this.timer.newTimeout(new ReleaseTask(remoteEndpoint, token), delay, MILLIS);
+        state.outstanding.put(token, timeout);
+    }
+
+
+    private void release(InetSocketAddress remoteEndpoint, Token token, boolean responsive){
+        release(remoteEndpoint, token, null, responsive);
+    }
+
+
+    private void release(InetSocketAddress remoteEndpoint, Token token, Timeout expectedTimeout,
+                         boolean responsive){
+
+        RemoteEndpointState state = this.states.get(remoteEndpoint);
+        if(state == null)
+            return;
+
+        List<QueuedRequest> releasedRequests = new ArrayList<>();
+
+        synchronized(state){
+            if(state.discarded)
+                return;
+
+            if(token != null){
+                Timeout timeout = state.outstanding.get(token);
+
+                //the timeout of an expired request might belong to a new request with the same token
+                if(timeout != null && (expectedTimeout == null || expectedTimeout == timeout)){
+                    state.outstanding.remove(token);
+                    timeout.cancel();
+                }
+            }
+
+            while(state.outstanding.size() < this.configuration.getNStart() && !state.waiting.isEmpty()){
+                QueuedRequest queuedRequest = state.waiting.poll();
+                acquire(state, remoteEndpoint, queuedRequest.coapRequest.getToken());
+                releasedRequests.add(queuedRequest);
+            }
+
+            if(responsive){
+                state.unansweredBytes = 0;
+                releasedRequests.addAll(pollPacedRequests(state));
+                if(!state.paced.isEmpty()){
+                    scheduleProbing(state, remoteEndpoint, System.currentTimeMillis());
+                }
+            }
+
+            discardIfIdle(state, remoteEndpoint);
+        }
+
+        for(QueuedRequest queuedRequest : releasedRequests){
+            log.debug("Release queued request (remote endpoint: {}).", remoteEndpoint);
+            queuedRequest.send();
+        }
+    }
+
+
+    //must be called while holding the lock on the given state
+    private List<QueuedRequest> pollPacedRequests(RemoteEndpointState state){
+        List<QueuedRequest> result = new ArrayList<>();
+
+        long now = System.currentTimeMillis();
+        while(!state.paced.isEmpty() && state.getProbingDelay(now) == 0){
+            QueuedRequest queuedRequest = state.paced.poll();
+            state.addUnansweredBytes(getEstimatedSize(queuedRequest.coapRequest), now);
+            result.add(queuedRequest);
+        }
+
+        return result;
+    }
+
+
+    //must be called while holding the lock on the given state
+    private void scheduleProbing(RemoteEndpointState state, InetSocketAddress remoteEndpoint, long now){
+        if(!state.probingScheduled){
+            long delay = Math.max(state.getProbingDelay(now), 1);
+            this.timer.newTimeout(new ProbingTask(state, remoteEndpoint), delay, MILLIS);
+            state.probingScheduled = true;
+        }
+    }
+
+
+    //must be called while holding the lock on the given state
+    private void discardIfIdle(RemoteEndpointState state, InetSocketAddress remoteEndpoint){
+        if(state.isIdle(System.currentTimeMillis())){
+            this.states.remove(remoteEndpoint, state);
+            state.discarded = true;
+        }
+    }
+
+
+    private void reject(ChannelHandlerContext ctx, MessageEvent me, CoapRequest coapRequest){
+        this.rejectedRequests.incrementAndGet();
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        String description = "Too many requests waiting for remote endpoint " + remoteEndpoint + ".";
+        log.warn(description);
+
+        //the event is to be processed before the failed future removes the callback
+        Channels.fireMessageReceived(ctx, new MiscellaneousErrorEvent(remoteEndpoint,
+                CoapMessage.UNDEFINED_MESSAGE_ID, coapRequest.getToken(), description));
+        me.getFuture().setFailure(new IllegalStateException(description));
+    }
+
+
+    /**
+     * Returns the number of requests that were not sent immediately due to congestion control
+     * @return the number of requests that were not sent immediately due to congestion control
+     */
+    public long getDelayedRequests(){
+        return this.delayedRequests.get();
+    }
+
+    /**
+     * Returns the number of requests that were not sent at all because there were too many requests waiting
+     * @return the number of requests that were not sent at all because there were too many requests waiting
+     */
+    public long getRejectedRequests(){
+        return this.rejectedRequests.get();
+    }
+
+    /**
+     * Returns the number of outstanding confirmable requests to the given remote endpoint
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the number of outstanding confirmable requests to the given remote endpoint
+     */
+    public int getOutstandingRequests(InetSocketAddress remoteEndpoint){
+        RemoteEndpointState state = this.states.get(remoteEndpoint);
+        if(state == null)
+            return 0;
+
+        synchronized(state){
+            return state.outstanding.size();
+        }
+    }
+
+    /**
+     * Returns the number of requests to the given remote endpoint that are waiting to be sent
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the number of requests to the given remote endpoint that are waiting to be sent
+     */
+    public int getWaitingRequests(InetSocketAddress remoteEndpoint){
+        RemoteEndpointState state = this.states.get(remoteEndpoint);
+        if(state == null)
+            return 0;
+
+        synchronized(state){
+            return state.waiting.size() + state.paced.size();
+        }
+    }
+
+
+    //the encoded size without the extended option deltas and lengths
+    private static int getEstimatedSize(CoapRequest coapRequest){
+        int size = 4 + coapRequest.getToken().getBytes().length;
+
+        for(OptionValue optionValue : coapRequest.getAllOptions().values()){
+            size += 1 + optionValue.getValue().length;
+        }
+
+        int contentLength = coapRequest.getContent().readableBytes();
+        return contentLength > 0 ? size + 1 + contentLength : size;
+    }
+
+
+    private class ReleaseTask implements TimerTask{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final Token token;
+
+        private ReleaseTask(InetSocketAddress remoteEndpoint, Token token){
+            this.remoteEndpoint = remoteEndpoint;
+            this.token = token;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            log.warn("Gave up waiting for acknowledgement (remote endpoint: {}, token: {}).", remoteEndpoint, token);
+            release(remoteEndpoint, token, timeout, false);
+        }
+    }
+
+
+    private class ProbingTask implements TimerTask{
+
+        private final RemoteEndpointState state;
+        private final InetSocketAddress remoteEndpoint;
+
+        private ProbingTask(RemoteEndpointState state, InetSocketAddress remoteEndpoint){
+            this.state = state;
+            this.remoteEndpoint = remoteEndpoint;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            List<QueuedRequest> pacedRequests;
+
+            synchronized(state){
+                state.probingScheduled = false;
+                pacedRequests = pollPacedRequests(state);
+
+                if(!state.paced.isEmpty()){
+                    scheduleProbing(state, remoteEndpoint, System.currentTimeMillis());
+                }
+
+                discardIfIdle(state, remoteEndpoint);
+            }
+
+            for(QueuedRequest queuedRequest : pacedRequests){
+                queuedRequest.send();
+            }
+        }
+    }
+
+
+    private class RemoteEndpointState{
+
+        //tokens of outstanding confirmable requests mapped to the timeout to give up waiting
+        private final Map<Token, Timeout> outstanding;
+
+        //confirmable requests waiting for a free NSTART slot
+        private final Queue<QueuedRequest> waiting;
+
+        //non-confirmable requests waiting to not exceed the probing rate
+        private final Queue<QueuedRequest> paced;
+
+        private long unansweredBytes;
+        private long unansweredSince;
+        private boolean probingScheduled;
+        private boolean discarded;
+
+        private RemoteEndpointState(final Comparator<CoapRequest> priority){
+            this.outstanding = new HashMap<>();
+            this.paced = new ArrayDeque<>();
+
+            if(priority == null){
+                this.waiting = new ArrayDeque<>();
+            }
+            else{
+                this.waiting = new PriorityQueue<>(11, new Comparator<QueuedRequest>() {
+                    @Override
+                    public int compare(QueuedRequest request1, QueuedRequest request2) {
+                        int result = priority.compare(request1.coapRequest, request2.coapRequest);
+                        return result != 0 ? result :
+                                Long.compare(request1.sequenceNumber, request2.sequenceNumber);
+                    }
+                });
+            }
+        }
+
+        private long getProbingDelay(long now){
+            if(this.unansweredBytes == 0)
+                return 0;
+
+            long earliest = this.unansweredSince + this.unansweredBytes * 1000 / configuration.getProbingRate();
+            return Math.max(earliest - now, 0);
+        }
+
+        private void addUnansweredBytes(int bytes, long now){
+            if(this.unansweredBytes == 0){
+                this.unansweredSince = now;
+            }
+            this.unansweredBytes += bytes;
+        }
+
+        private boolean isIdle(long now){
+            return this.outstanding.isEmpty() && this.waiting.isEmpty() && this.paced.isEmpty() &&
+                    !this.probingScheduled && getProbingDelay(now) == 0;
+        }
+    }
+
+
+    private static class QueuedRequest{
+
+        //the context of the pipeline (i.e. socket) the request was written to
+        private final ChannelHandlerContext ctx;
+        private final MessageEvent messageEvent;
+        private final CoapRequest coapRequest;
+        private final long sequenceNumber;
+
+        private QueuedRequest(ChannelHandlerContext ctx, MessageEvent messageEvent, CoapRequest coapRequest,
+                              long sequenceNumber){
+            this.ctx = ctx;
+            this.messageEvent = messageEvent;
+            this.coapRequest = coapRequest;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        private void send(){
+            this.ctx.sendDownstream(this.messageEvent);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.dispatching.client;
+
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link BulkClientCallback} is the single callback for a request sent to many remote endpoints at once (see
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication#sendCoapRequests(
+ * de.uniluebeck.itm.ncoap.message.CoapRequest, java.util.Collection, BulkClientCallback)}). For each remote endpoint
+ * either {@link #processCoapResponse(InetSocketAddress, CoapResponse)} or
+ * {@link #processFailure(InetSocketAddress, String)} is invoked exactly once. As soon as all remote endpoints are
+ * done, {@link #processCompletion()} is invoked.
+ *
+ * <b>Note:</b> The methods are invoked concurrently for different remote endpoints, i.e. implementations must be
+ * thread-safe.
+ *
+ * @author Oliver Kleine
+ */
+public abstract class BulkClientCallback {
+
+    //the number of remote endpoints that are not done yet plus one as long as the dispatching is not finished
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    /**
+     * Method invoked by the framework upon reception of the {@link CoapResponse} from the given remote endpoint
+     *
+     * @param remoteEndpoint the remote endpoint the {@link CoapResponse} was received from
+     * @param coapResponse the {@link CoapResponse} received from the given remote endpoint
+     */
+    public abstract void processCoapResponse(InetSocketAddress remoteEndpoint, CoapResponse coapResponse);
+
+    /**
+     * Method invoked by the framework if there will be no {@link CoapResponse} from the given remote endpoint, e.g.
+     * due to a RST, a transmission timeout or because the request could not be sent at all. Override this method to
+     * handle such failures.
+     *
+     * @param remoteEndpoint the remote endpoint that failed
+     * @param description a human readable description of the failure
+     */
+    public void processFailure(InetSocketAddress remoteEndpoint, String description){
+        //to be overridden by extending classes
+    }
+
+    /**
+     * Method invoked by the framework as soon as all remote endpoints are done. Override this method to e.g. start
+     * the next polling round.
+     */
+    public void processCompletion(){
+        //to be overridden by extending classes
+    }
+
+    /**
+     * Returns a new {@link ClientCallback} for the given remote endpoint that forwards the results to this
+     * {@link BulkClientCallback}. Failed write operations are to be reported to the returned {@link ClientCallback}
+     * via {@link ClientCallback#processMiscellaneousError(String)}. This method is invoked by the framework for every
+     * remote endpoint.
+     *
+     * @param remoteEndpoint the remote endpoint to create the {@link ClientCallback} for
+     *
+     * @return a new {@link ClientCallback} for the given remote endpoint
+     */
+    public final ClientCallback createClientCallback(InetSocketAddress remoteEndpoint){
+        this.pending.incrementAndGet();
+        return new EndpointCallback(remoteEndpoint);
+    }
+
+    /**
+     * This method is invoked by the framework as soon as the request was dispatched to all remote endpoints, i.e.
+     * after the last invocation of {@link #createClientCallback(InetSocketAddress)}.
+     */
+    public final void dispatchingFinished(){
+        done();
+    }
+
+
+    private void done(){
+        if(this.pending.decrementAndGet() == 0){
+            processCompletion();
+        }
+    }
+
+
+    private class EndpointCallback extends ClientCallback{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final AtomicBoolean completed;
+
+        private EndpointCallback(InetSocketAddress remoteEndpoint){
+            this.remoteEndpoint = remoteEndpoint;
+            this.completed = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            if(this.completed.compareAndSet(false, true)){
+                BulkClientCallback.this.processCoapResponse(this.remoteEndpoint, coapResponse);
+                done();
+            }
+        }
+
+        @Override
+        public void processReset() {
+            fail("Request was answered with RST.");
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            fail("No response from " + this.remoteEndpoint + ".");
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            fail(description);
+        }
+
+        private void fail(String description){
+            if(this.completed.compareAndSet(false, true)){
+                processFailure(this.remoteEndpoint, description);
+                done();
+            }
+        }
+    }
+}
@@ -24,19 +24,26 @@
  */
 package de.uniluebeck.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
+import de.uniluebeck.itm.ncoap.communication.caching.CacheKey;
 import de.uniluebeck.itm.ncoap.communication.events.AbstractMessageTransferEvent;
 import de.uniluebeck.itm.ncoap.communication.events.MessageTransferEvent;
 import de.uniluebeck.itm.ncoap.communication.events.client.ObservationCancelledEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
 import de.uniluebeck.itm.ncoap.message.*;
 import org.jboss.netty.channel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * <p>The {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallbackManager} is responsible for
@@ -50,6 +57,12 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * the reliability of inbound {@link de.uniluebeck.itm.ncoap.message.CoapResponse}s, i.e. sends RST or ACK
  * messages if necessary.</p>
  *
+ * <p>Concurrent GET requests for the same resource (see
+ * {@link de.uniluebeck.itm.ncoap.communication.caching.CacheKey}) are coalesced, i.e. a request is not sent if an
+ * identical request to the same remote endpoint is still outstanding. Instead, its
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} is attached to the outstanding
+ * request and invoked with (a copy of) the same response and the same events.</p>
+ *
  * @author Oliver Kleine
  */
 public class ClientCallbackManager extends SimpleChannelHandler{
@@ -58,10 +71,14 @@ public class ClientCallbackManager extends SimpleChannelHandler{
 
     private TokenFactory tokenFactory;
 
-    private HashBasedTable<InetSocketAddress, Token, ClientCallback> clientCallbacks;
-    private ReentrantReadWriteLock lock;
+    private ExchangeStore<ClientCallback> clientCallbacks;
+
+    //outstanding GET requests identical requests are attached to (by resource and by token)
+    private Map<CacheKey, CoalescedRequest> coalescedRequests;
+    private ExchangeStore<CoalescedRequest> coalescedRequestsByToken;
 
     private ScheduledExecutorService executor;
+    private RemoteEndpointOrderedExecutor callbackExecutor;
 
     /**
      * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallbackManager}
@@ -74,10 +91,36 @@ public class ClientCallbackManager extends SimpleChannelHandler{
      *                     instances for outbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
      */
     public ClientCallbackManager(ScheduledExecutorService executor, TokenFactory tokenFactory){
-        this.clientCallbacks = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this(executor, tokenFactory, null);
+    }
+
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallbackManager}
+     * that invokes the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s upon
+     * inbound messages and events with the given
+     * {@link de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor}, i.e. in the order of reception
+     * per remote endpoint but not with the thread processing the inbound message.
+     *
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to execute the tasks, e.g. send,
+     *                 receive and process {@link de.uniluebeck.itm.ncoap.message.CoapMessage}s.
+     *
+     * @param tokenFactory the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.TokenFactory} to
+     *                     provide {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}
+     *                     instances for outbound {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s
+     *
+     * @param callbackExecutor the {@link de.uniluebeck.itm.ncoap.application.RemoteEndpointOrderedExecutor} to
+     *                         invoke the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback}s
+     *                         or <code>null</code> to invoke them with the thread processing the inbound message
+     */
+    public ClientCallbackManager(ScheduledExecutorService executor, TokenFactory tokenFactory,
+                                 RemoteEndpointOrderedExecutor callbackExecutor){
+        this.clientCallbacks = new ExchangeStore<>();
+        this.coalescedRequests = new ConcurrentHashMap<>();
+        this.coalescedRequestsByToken = new ExchangeStore<>();
         this.executor = executor;
         this.tokenFactory = tokenFactory;
+        this.callbackExecutor = callbackExecutor;
     }
 
 
@@ -131,6 +174,19 @@ public class ClientCallbackManager extends SimpleChannelHandler{
                 }
 
                 else{
+                    CacheKey cacheKey = null;
+
+                    //attach to an identical outstanding request (if any)
+                    if(coapMessage instanceof CoapRequest && !clientCallback.isObserving() &&
+                            CacheKey.isCacheable((CoapRequest) coapMessage)){
+
+                        cacheKey = CacheKey.create(remoteEndpoint, (CoapRequest) coapMessage);
+                        if(attachToCoalescedRequest(cacheKey, coapMessage, clientCallback)){
+                            me.getFuture().setSuccess();
+                            return;
+                        }
+                    }
+
                     //Prepare CoAP request, the response reception and then send the CoAP request
                     Token token = tokenFactory.getNextToken(remoteEndpoint);
 
@@ -143,6 +199,10 @@ public class ClientCallbackManager extends SimpleChannelHandler{
                     else{
                         coapMessage.setToken(token);
                     }
+
+                    if(cacheKey != null){
+                        addCoalescedRequest(cacheKey, token);
+                    }
                 }
 
                 //Add the response callback to wait for the inbound response
@@ -173,6 +233,30 @@ public class ClientCallbackManager extends SimpleChannelHandler{
             }
         }
 
+        else if(me.getMessage() instanceof RequestCancelledEvent){
+            RequestCancelledEvent event = (RequestCancelledEvent) me.getMessage();
+            InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
+
+            //the exchange is to be continued for the other attached callbacks
+            if(!cancelCoalescedRequest(remoteEndpoint, event.getToken(), event.getClientCallback())){
+                log.debug("Detached cancelled request (remote endpoint: {}, token: {}).", remoteEndpoint,
+                        event.getToken());
+                me.getFuture().setSuccess();
+                return;
+            }
+
+            //the exchange is already completed (and the token possibly re-used), so there is nothing to cancel
+            if(!clientCallbacks.remove(remoteEndpoint, event.getToken(), event.getClientCallback())){
+                log.debug("Nothing to cancel (remote endpoint: {}, token: {}).", remoteEndpoint, event.getToken());
+                me.getFuture().setSuccess();
+                return;
+            }
+
+            log.info("Removed callback of cancelled request (remote endpoint: {}, token: {}).", remoteEndpoint,
+                    event.getToken());
+            tokenFactory.passBackToken(remoteEndpoint, event.getToken());
+        }
+
         ctx.sendDownstream(me);
 
     }
@@ -189,6 +273,16 @@ public class ClientCallbackManager extends SimpleChannelHandler{
                 if(!future.isSuccess()){
                     removeClientCallback(remoteEndpoint, coapMessage.getToken());
                     log.error("Could not write CoAP Request!", future.getCause());
+
+                    final List<ClientCallback> attached = removeCoalescedRequest(remoteEndpoint, coapMessage.getToken());
+                    for(final ClientCallback clientCallback : attached){
+                        invokeCallback(remoteEndpoint, new Runnable() {
+                            @Override
+                            public void run() {
+                                clientCallback.processMiscellaneousError("Could not send request.");
+                            }
+                        });
+                    }
                 }
             }
         });
@@ -199,60 +293,113 @@ public class ClientCallbackManager extends SimpleChannelHandler{
 
     private void addResponseCallback(InetSocketAddress remoteEndpoint, Token token,
                                                   ClientCallback clientCallback){
-        try{
-            this.lock.readLock().lock();
-            if(this.clientCallbacks.contains(remoteEndpoint, token)){
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return;
-            }
+
+        if(this.clientCallbacks.putIfAbsent(remoteEndpoint, token, clientCallback) != null){
+            log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteEndpoint, token);
         }
-        finally {
-            this.lock.readLock().unlock();
+        else{
+            log.debug("Added callback (remote endpoint: {}, token: {})", remoteEndpoint, token);
         }
+    }
 
-        try{
-            this.lock.writeLock().lock();
-            if(this.clientCallbacks.contains(remoteEndpoint, token)){
-                log.error("Tried to use token twice (remote endpoint: {}, token: {})", remoteEndpoint, token);
-            }
-            else{
-                clientCallbacks.put(remoteEndpoint, token, clientCallback);
-                log.debug("Added callback (remote endpoint: {}, token: {})", remoteEndpoint, token);
-            }
+
+    private boolean attachToCoalescedRequest(CacheKey cacheKey, CoapMessage coapMessage,
+                                             ClientCallback clientCallback){
+
+        CoalescedRequest coalescedRequest = this.coalescedRequests.get(cacheKey);
+        if(coalescedRequest == null || !coalescedRequest.attach(clientCallback)){
+            return false;
+        }
+
+        //the request is never sent but may be cancelled, i.e. needs the token of the outstanding request
+        coapMessage.setToken(coalescedRequest.getToken());
+        log.debug("Attached request to outstanding request (remote endpoint: {}, token: {}).",
+                cacheKey.getRemoteEndpoint(), coalescedRequest.getToken());
+        return true;
+    }
+
+
+    private void addCoalescedRequest(CacheKey cacheKey, Token token){
+        CoalescedRequest coalescedRequest = new CoalescedRequest(cacheKey, token);
+
+        //an identical request was added concurrently, i.e. this one is not coalesced with later ones
+        if(this.coalescedRequests.putIfAbsent(cacheKey, coalescedRequest) == null){
+            this.coalescedRequestsByToken.put(cacheKey.getRemoteEndpoint(), token, coalescedRequest);
         }
-        finally {
-            this.lock.writeLock().unlock();
+    }
+
+    //returns the attached callbacks (which are not invoked by the coalesced request afterwards)
+    private List<ClientCallback> removeCoalescedRequest(InetSocketAddress remoteEndpoint, Token token){
+        CoalescedRequest coalescedRequest = this.coalescedRequestsByToken.remove(remoteEndpoint, token);
+        if(coalescedRequest == null){
+            return Collections.emptyList();
         }
+
+        this.coalescedRequests.remove(coalescedRequest.getCacheKey(), coalescedRequest);
+        return coalescedRequest.close();
     }
 
+    //returns true if the exchange is to be cancelled and false if there are other callbacks waiting for the response
+    private boolean cancelCoalescedRequest(InetSocketAddress remoteEndpoint, Token token, ClientCallback clientCallback){
+        CoalescedRequest coalescedRequest = this.coalescedRequestsByToken.get(remoteEndpoint, token);
+        if(coalescedRequest == null){
+            return true;
+        }
 
-    private ClientCallback removeClientCallback(InetSocketAddress remoteEndpoint, Token token){
-        try{
-            this.lock.readLock().lock();
-            if(!this.clientCallbacks.contains(remoteEndpoint, token)){
-                log.warn("No callback found to be removed (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return null;
-            }
+        //an attached request was cancelled
+        if(coalescedRequest.detach(clientCallback)){
+            return false;
         }
-        finally {
-            this.lock.readLock().unlock();
+
+        //the event does not refer to the sent request (e.g. the token was already re-used)
+        if(this.clientCallbacks.get(remoteEndpoint, token) != clientCallback){
+            return true;
         }
 
-        try{
-            this.lock.writeLock().lock();
-            ClientCallback callback = clientCallbacks.remove(remoteEndpoint, token);
-            if(callback == null){
-                log.warn("No callback found to be removed (remote endpoint: {}, token: {})", remoteEndpoint, token);
-            }
-            else{
-                log.info("Removed callback (remote endpoint: {}, token: {}). Remaining: {}",
-                        new Object[]{remoteEndpoint, token, this.clientCallbacks.size()});
-            }
-            return callback;
+        //the sent request was cancelled (its callback is kept as the exchange is continued)
+        if(!coalescedRequest.closeIfEmpty()){
+            return false;
         }
-        finally {
-            this.lock.writeLock().unlock();
+
+        this.coalescedRequestsByToken.remove(remoteEndpoint, token, coalescedRequest);
+        this.coalescedRequests.remove(coalescedRequest.getCacheKey(), coalescedRequest);
+        return true;
+    }
+
+
+    private List<ClientCallback> getCoalescedCallbacks(InetSocketAddress remoteEndpoint, Token token){
+        CoalescedRequest coalescedRequest = this.coalescedRequestsByToken.get(remoteEndpoint, token);
+        return coalescedRequest == null ? Collections.<ClientCallback>emptyList() : coalescedRequest.getAttached();
+    }
+
+
+    /**
+     * Returns <code>true</code> if there is an ongoing message exchange or observation with the given remote
+     * endpoint and {@link Token}, i.e. a {@link ClientCallback} waiting for responses, and <code>false</code>
+     * otherwise.
+     *
+     * @param remoteEndpoint the remote endpoint of the message exchange or observation
+     * @param token the {@link Token} of the message exchange or observation
+     *
+     * @return <code>true</code> if there is an ongoing message exchange or observation with the given remote
+     * endpoint and {@link Token}, and <code>false</code> otherwise.
+     */
+    public boolean isExchangeOngoing(InetSocketAddress remoteEndpoint, Token token){
+        return this.clientCallbacks.contains(remoteEndpoint, token);
+    }
+
+
+    private ClientCallback removeClientCallback(InetSocketAddress remoteEndpoint, Token token){
+        ClientCallback callback = clientCallbacks.remove(remoteEndpoint, token);
+
+        if(callback == null){
+            log.warn("No callback found to be removed (remote endpoint: {}, token: {})", remoteEndpoint, token);
+        }
+        else{
+            log.info("Removed callback (remote endpoint: {}, token: {}).", remoteEndpoint, token);
         }
+
+        return callback;
     }
 
     /**
@@ -303,31 +450,54 @@ public class ClientCallbackManager extends SimpleChannelHandler{
     }
 
 
-    private void handleMessageExchangeEvent(MessageTransferEvent event) {
+    private void handleMessageExchangeEvent(final MessageTransferEvent event) {
        ClientCallback clientCallback;
+       List<ClientCallback> attached;
 
        //find the response processor for the inbound events
-       if(event.stopsMessageExchange())
+       if(event.stopsMessageExchange()){
            clientCallback = clientCallbacks.remove(event.getRemoteEndpoint(), event.getToken());
-       else
+           attached = removeCoalescedRequest(event.getRemoteEndpoint(), event.getToken());
+       }
+       else{
            clientCallback = clientCallbacks.get(event.getRemoteEndpoint(), event.getToken());
+           attached = getCoalescedCallbacks(event.getRemoteEndpoint(), event.getToken());
+       }
+
+       //the callbacks of identical requests attached to the sent one
+       for(final ClientCallback callback : attached){
+           invokeCallback(event.getRemoteEndpoint(), new Runnable() {
+               @Override
+               public void run() {
+                   callback.processMessageExchangeEvent(event);
+               }
+           });
+       }
 
        //process the events
-       if(clientCallback != null)
-           clientCallback.processMessageExchangeEvent(event);
+       if(clientCallback != null){
+           final ClientCallback callback = clientCallback;
+           invokeCallback(event.getRemoteEndpoint(), new Runnable() {
+               @Override
+               public void run() {
+                   callback.processMessageExchangeEvent(event);
+               }
+           });
+       }
        else
            log.warn("No callback found for event: {}!", event);
    }
 
 
-    private void handleCoapResponse(ChannelHandlerContext ctx, CoapResponse coapResponse,
+    private void handleCoapResponse(ChannelHandlerContext ctx, final CoapResponse coapResponse,
                                     InetSocketAddress remoteEndpoint){
 
         log.debug("CoAP response received: {}.", coapResponse);
         Token token = coapResponse.getToken();
+        final ClientCallback clientCallback = clientCallbacks.get(remoteEndpoint, token);
 
         //send RST if the received response could not be related to an open request
-        if(!clientCallbacks.contains(remoteEndpoint, token)){
+        if(clientCallback == null){
             log.warn("No callback found for CoAP response (from {}): {}", remoteEndpoint , coapResponse);
 
             //Send RST message
@@ -343,10 +513,8 @@ public class ClientCallbackManager extends SimpleChannelHandler{
             Channels.write(ctx.getChannel(), emptyACK, remoteEndpoint);
         }
 
-        final ClientCallback clientCallback = clientCallbacks.get(remoteEndpoint, token);
-
         //observation callback found
-        if(clientCallback != null && clientCallback.isObserving()){
+        if(clientCallback.isObserving()){
 
             if(MessageCode.isErrorMessage(coapResponse.getMessageCode()) || !coapResponse.isUpdateNotification()){
                 if(log.isInfoEnabled()){
@@ -358,8 +526,9 @@ public class ClientCallbackManager extends SimpleChannelHandler{
                     }
                 }
 
-                removeClientCallback(remoteEndpoint, token);
-                tokenFactory.passBackToken(remoteEndpoint, token);
+                if(clientCallbacks.remove(remoteEndpoint, token, clientCallback)){
+                    tokenFactory.passBackToken(remoteEndpoint, token);
+                }
             }
 
             //ask the callback if the observation is to be continued
@@ -372,21 +541,45 @@ public class ClientCallbackManager extends SimpleChannelHandler{
             }
         }
 
-        //non-observation callback found
-        else{
-            removeClientCallback(remoteEndpoint, token);
+        //non-observation callback found (and not yet removed by a concurrent duplicate response)
+        else if(clientCallbacks.remove(remoteEndpoint, token, clientCallback)){
+            //the coalesced request must be removed before the token is re-used
+            List<ClientCallback> attached = removeCoalescedRequest(remoteEndpoint, token);
             tokenFactory.passBackToken(remoteEndpoint, token);
-        }
-
 
-        if(clientCallback != null){
-            //Process the CoAP response
-            log.debug("Callback found for token {} from {}.", token, remoteEndpoint);
-            clientCallback.processCoapResponse(coapResponse);
+            for(final ClientCallback callback : attached){
+                //every callback gets its own response, i.e. reading the content does not affect the others
+                final CoapResponse copy = coapResponse.copy();
+                invokeCallback(remoteEndpoint, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.processCoapResponse(copy);
+                    }
+                });
+            }
         }
+
         else{
-            log.warn("No callback found for CoAP response (from {}): {}", remoteEndpoint , coapResponse);
+            log.warn("Callback was already removed (remote endpoint: {}, token: {})", remoteEndpoint, token);
+            return;
         }
+
+        //Process the CoAP response
+        log.debug("Callback found for token {} from {}.", token, remoteEndpoint);
+        invokeCallback(remoteEndpoint, new Runnable() {
+            @Override
+            public void run() {
+                clientCallback.processCoapResponse(coapResponse);
+            }
+        });
+    }
+
+
+    private void invokeCallback(InetSocketAddress remoteEndpoint, Runnable invocation){
+        if(this.callbackExecutor == null)
+            invocation.run();
+        else
+            this.callbackExecutor.execute(remoteEndpoint, invocation);
     }
 
     @Override
@@ -394,4 +587,49 @@ public class ClientCallbackManager extends SimpleChannelHandler{
         log.error("Exception: ", ee.getCause());
     }
 
+
+
+    private static class CoalescedRequest {
+
+        private final CacheKey cacheKey;
+        private final Token token;
+        private final List<ClientCallback> attached;
+        private boolean closed;
+
+        private CoalescedRequest(CacheKey cacheKey, Token token){
+            this.cacheKey = cacheKey;
+            this.token = token;
+            this.attached = new ArrayList<>();
+        }
+
+        private CacheKey getCacheKey(){
+            return this.cacheKey;
+        }
+
+        private Token getToken(){
+            return this.token;
+        }
+
+        private synchronized boolean attach(ClientCallback clientCallback){
+            return !this.closed && this.attached.add(clientCallback);
+        }
+
+        private synchronized boolean detach(ClientCallback clientCallback){
+            return this.attached.remove(clientCallback);
+        }
+
+        private synchronized boolean closeIfEmpty(){
+            this.closed = this.closed || this.attached.isEmpty();
+            return this.closed;
+        }
+
+        private synchronized List<ClientCallback> getAttached(){
+            return new ArrayList<>(this.attached);
+        }
+
+        private synchronized List<ClientCallback> close(){
+            this.closed = true;
+            return new ArrayList<>(this.attached);
+        }
+    }
 }
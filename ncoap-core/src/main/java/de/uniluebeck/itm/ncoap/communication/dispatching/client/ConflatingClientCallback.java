@@ -0,0 +1,244 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.dispatching.client;
+
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A {@link ConflatingClientCallback} is a {@link ClientCallback} for observations that delivers update notifications
+ * on demand and at the speed of the consumer rather than at the rate of the observed resource, i.e.
+ *
+ * <ul>
+ *     <li>update notifications are handed over to the given {@link java.util.concurrent.Executor}, i.e. the
+ *     consumer does not block the I/O thread,</li>
+ *     <li>{@link #processLatestResponse(CoapResponse)} is invoked by one thread at a time and only as long as there
+ *     is demand (see {@link #request(long)}),</li>
+ *     <li>if the consumer is behind, only the newest update notification is kept (i.e. older ones are conflated) and
+ *     </li>
+ *     <li>the response that ends the observation (e.g. an error response) is delivered regardless of the demand.</li>
+ * </ul>
+ *
+ * The observation is continued until {@link #cancel()} is invoked.
+ *
+ * <b>Note:</b> The demand is a capacity in the sense of Reactive Streams, i.e. each invocation of
+ * {@link #processLatestResponse(CoapResponse)} consumes one unit. A demand of {@link Long#MAX_VALUE} is unbounded.
+ *
+ * @author Oliver Kleine
+ */
+public abstract class ConflatingClientCallback extends ClientCallback {
+
+    private static Logger log = LoggerFactory.getLogger(ConflatingClientCallback.class.getName());
+
+    private final Executor executor;
+    private final AtomicLong demand;
+    private final AtomicReference<CoapResponse> latest;
+    private final AtomicReference<CoapResponse> last;
+    private final AtomicInteger workInProgress;
+    private final AtomicLong conflated;
+
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Creates a new instance of {@link ConflatingClientCallback} with unbounded demand, i.e. update notifications
+     * are only conflated while the consumer is still processing the previous one.
+     *
+     * @param executor the {@link java.util.concurrent.Executor} to invoke
+     *                 {@link #processLatestResponse(CoapResponse)}
+     */
+    protected ConflatingClientCallback(Executor executor){
+        this(executor, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a new instance of {@link ConflatingClientCallback}
+     *
+     * @param executor the {@link java.util.concurrent.Executor} to invoke
+     *                 {@link #processLatestResponse(CoapResponse)}
+     * @param initialDemand the number of update notifications to be delivered before the next invocation of
+     *                      {@link #request(long)} is required
+     */
+    protected ConflatingClientCallback(Executor executor, long initialDemand){
+        if(initialDemand < 0)
+            throw new IllegalArgumentException("Demand must not be negative: " + initialDemand);
+
+        this.executor = executor;
+        this.demand = new AtomicLong(initialDemand);
+        this.latest = new AtomicReference<>();
+        this.last = new AtomicReference<>();
+        this.workInProgress = new AtomicInteger(0);
+        this.conflated = new AtomicLong(0);
+    }
+
+    /**
+     * Method invoked by the framework for the newest update notification as long as there is demand and for the
+     * response that ends the observation. The invocations are never concurrent.
+     *
+     * @param coapResponse the newest {@link de.uniluebeck.itm.ncoap.message.CoapResponse}
+     */
+    public abstract void processLatestResponse(CoapResponse coapResponse);
+
+    /**
+     * Adds the given number to the demand, i.e. to the number of update notifications the consumer is willing to
+     * process.
+     *
+     * @param n the number of additional update notifications (must be positive)
+     */
+    public final void request(long n){
+        if(n <= 0)
+            throw new IllegalArgumentException("Demand must be positive: " + n);
+
+        while(true){
+            long current = this.demand.get();
+            long next = current + n;
+
+            //overflow means unbounded demand
+            if(next < 0)
+                next = Long.MAX_VALUE;
+
+            if(current == Long.MAX_VALUE || this.demand.compareAndSet(current, next))
+                break;
+        }
+
+        scheduleDrain();
+    }
+
+    /**
+     * Cancels the observation, i.e. there are no further invocations of
+     * {@link #processLatestResponse(CoapResponse)} and the next update notification is answered with a RST.
+     */
+    public final void cancel(){
+        this.cancelled = true;
+        this.latest.set(null);
+    }
+
+    /**
+     * Returns the number of update notifications that were dropped because a newer one was received before the
+     * consumer was ready
+     *
+     * @return the number of update notifications that were dropped because a newer one was received before the
+     * consumer was ready
+     */
+    public long getNumberOfConflatedResponses(){
+        return this.conflated.get();
+    }
+
+    /**
+     * Returns <code>false</code> as soon as {@link #cancel()} was invoked or <code>true</code> otherwise.
+     *
+     * @return <code>false</code> as soon as {@link #cancel()} was invoked or <code>true</code> otherwise.
+     */
+    @Override
+    public final boolean continueObservation() {
+        return !this.cancelled;
+    }
+
+    /**
+     * Method invoked by the framework (on the I/O thread) for every inbound response. It only keeps the response
+     * and schedules the delivery, i.e. this method never blocks.
+     *
+     * @param coapResponse the {@link de.uniluebeck.itm.ncoap.message.CoapResponse} received
+     */
+    @Override
+    public final void processCoapResponse(CoapResponse coapResponse) {
+        if(this.cancelled)
+            return;
+
+        if(!coapResponse.isUpdateNotification() || MessageCode.isErrorMessage(coapResponse.getMessageCode())){
+            this.last.compareAndSet(null, coapResponse);
+        }
+
+        else if(this.latest.getAndSet(coapResponse) != null){
+            this.conflated.incrementAndGet();
+        }
+
+        scheduleDrain();
+    }
+
+
+    private void scheduleDrain(){
+        if(this.workInProgress.getAndIncrement() == 0){
+            this.executor.execute(this.drain);
+        }
+    }
+
+
+    private void drain(){
+        int missed = 1;
+
+        do{
+            while(!this.cancelled && !this.completed){
+                CoapResponse coapResponse = null;
+
+                if(this.demand.get() > 0){
+                    coapResponse = this.latest.getAndSet(null);
+                }
+
+                if(coapResponse != null){
+                    if(this.demand.get() != Long.MAX_VALUE){
+                        this.demand.decrementAndGet();
+                    }
+                }
+
+                //the response that ended the observation is delivered after the pending notification (if any)
+                else if((coapResponse = this.last.get()) != null){
+                    if(this.latest.getAndSet(null) != null){
+                        this.conflated.incrementAndGet();
+                    }
+                    this.completed = true;
+                }
+
+                else{
+                    break;
+                }
+
+                try{
+                    processLatestResponse(coapResponse);
+                }
+                catch(Exception ex){
+                    log.error("Exception while processing response!", ex);
+                }
+            }
+
+            missed = this.workInProgress.addAndGet(-missed);
+        }
+        while(missed != 0);
+    }
+}
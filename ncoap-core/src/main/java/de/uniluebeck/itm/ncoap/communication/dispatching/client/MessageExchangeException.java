@@ -0,0 +1,62 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.dispatching.client;
+
+import java.net.InetSocketAddress;
+
+/**
+ * A {@link MessageExchangeException} indicates that a {@link de.uniluebeck.itm.ncoap.message.CoapRequest} sent via
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication#sendCoapRequest(
+ * de.uniluebeck.itm.ncoap.message.CoapRequest, java.net.InetSocketAddress)} did not lead to a
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}, e.g. because the remote endpoint answered with a RST or
+ * there was no token or message ID available.
+ *
+ * @author Oliver Kleine
+ */
+public class MessageExchangeException extends Exception{
+
+    private InetSocketAddress remoteEndpoint;
+
+    /**
+     * Creates a new instance of {@link MessageExchangeException}.
+     *
+     * @param remoteEndpoint the remote endpoint the request was sent to
+     * @param message a human readable description of the reason for the failed message exchange
+     */
+    public MessageExchangeException(InetSocketAddress remoteEndpoint, String message){
+        super(message);
+        this.remoteEndpoint = remoteEndpoint;
+    }
+
+    /**
+     * Returns the remote endpoint the request was sent to
+     *
+     * @return the remote endpoint the request was sent to
+     */
+    public InetSocketAddress getRemoteEndpoint() {
+        return remoteEndpoint;
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.dispatching.client;
+
+import com.google.common.util.concurrent.AbstractFuture;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A {@link ResponseFuture} is a {@link com.google.common.util.concurrent.ListenableFuture} for the
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse} to a {@link de.uniluebeck.itm.ncoap.message.CoapRequest}. It
+ * adapts the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} returned by
+ * {@link #getClientCallback()} which is to be sent with the request, i.e.
+ *
+ * <ul>
+ *     <li>the future succeeds with the first {@link de.uniluebeck.itm.ncoap.message.CoapResponse},</li>
+ *     <li>the future fails with a {@link java.util.concurrent.TimeoutException} upon a transmission timeout or if the
+ *     deadline (see {@link #setDeadline(org.jboss.netty.util.Timer, long, java.util.concurrent.TimeUnit)}) expired
+ *     and</li>
+ *     <li>the future fails with a {@link MessageExchangeException} upon a RST or any other error.</li>
+ * </ul>
+ *
+ * If the future is cancelled or the deadline expires, a
+ * {@link de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent} is sent downstream to stop
+ * retransmissions and to pass back the {@link Token} immediately. The message ID remains allocated until it is
+ * retired.
+ *
+ * <b>Note:</b> A {@link ResponseFuture} is not suitable for observations as it completes with the first
+ * {@link de.uniluebeck.itm.ncoap.message.CoapResponse}.
+ *
+ * @author Oliver Kleine
+ */
+public class ResponseFuture extends AbstractFuture<CoapResponse> implements ChannelFutureListener{
+
+    private static Logger log = LoggerFactory.getLogger(ResponseFuture.class.getName());
+
+    private final Channel channel;
+    private final InetSocketAddress remoteEndpoint;
+    private final CoapRequest coapRequest;
+    private final ClientCallback clientCallback;
+
+    private volatile int messageID;
+    private volatile Timeout deadlineTimeout;
+
+    /**
+     * Creates a new instance of {@link ResponseFuture}
+     *
+     * @param channel the {@link org.jboss.netty.channel.Channel} the {@link CoapRequest} is sent over
+     * @param remoteEndpoint the remote endpoint the {@link CoapRequest} is sent to
+     * @param coapRequest the {@link CoapRequest} to wait for the {@link CoapResponse} for
+     */
+    public ResponseFuture(Channel channel, InetSocketAddress remoteEndpoint, CoapRequest coapRequest){
+        this.channel = channel;
+        this.remoteEndpoint = remoteEndpoint;
+        this.coapRequest = coapRequest;
+        this.clientCallback = new ResponseCallback();
+        this.messageID = CoapMessage.UNDEFINED_MESSAGE_ID;
+    }
+
+    /**
+     * Returns the {@link ClientCallback} to be sent with the {@link CoapRequest} to complete this future
+     * @return the {@link ClientCallback} to be sent with the {@link CoapRequest} to complete this future
+     */
+    public ClientCallback getClientCallback(){
+        return this.clientCallback;
+    }
+
+    /**
+     * Lets this future fail with a {@link java.util.concurrent.TimeoutException} and cancels the message exchange if
+     * there was no {@link CoapResponse} within the given delay.
+     *
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the deadline
+     * @param delay the delay until the deadline expires
+     * @param unit the {@link java.util.concurrent.TimeUnit} of the given delay
+     */
+    public void setDeadline(Timer timer, long delay, TimeUnit unit){
+        this.deadlineTimeout = timer.newTimeout(new DeadlineTask(), delay, unit);
+
+        //the future was completed in the meantime
+        if(isDone()){
+            this.deadlineTimeout.cancel();
+        }
+    }
+
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning){
+        if(!super.cancel(mayInterruptIfRunning)){
+            return false;
+        }
+
+        completed();
+        cancelMessageExchange();
+        return true;
+    }
+
+    /**
+     * Lets this future fail if the {@link CoapRequest} could not be written. This method is automatically invoked
+     * by the framework.
+     *
+     * @param future the {@link org.jboss.netty.channel.ChannelFuture} of the write operation
+     */
+    @Override
+    public void operationComplete(ChannelFuture future) throws Exception {
+        if(!future.isSuccess()){
+            Throwable cause = future.getCause();
+            fail(cause != null ? cause : new MessageExchangeException(this.remoteEndpoint, "Could not send request."));
+        }
+    }
+
+
+    private void fail(Throwable cause){
+        if(setException(cause)){
+            completed();
+        }
+    }
+
+
+    private void completed(){
+        Timeout timeout = this.deadlineTimeout;
+        if(timeout != null){
+            timeout.cancel();
+        }
+    }
+
+
+    private void cancelMessageExchange(){
+        log.debug("Cancel request (remote endpoint: {}, token: {})", this.remoteEndpoint, this.coapRequest.getToken());
+        Channels.write(this.channel, new RequestCancelledEvent(this.remoteEndpoint, this.messageID,
+                this.coapRequest.getToken(), this.clientCallback));
+    }
+
+
+    private class ResponseCallback extends ClientCallback{
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            if(set(coapResponse)){
+                completed();
+            }
+        }
+
+        @Override
+        public void processReset() {
+            fail(new MessageExchangeException(remoteEndpoint, "Request was answered with RST."));
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            fail(new TimeoutException("No response from " + remoteEndpoint + "."));
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            fail(new MessageExchangeException(remoteEndpoint, description));
+        }
+
+        @Override
+        public void processMessageIDAssignment(int messageID) {
+            ResponseFuture.this.messageID = messageID;
+        }
+    }
+
+
+    private class DeadlineTask implements TimerTask{
+
+        @Override
+        public void run(Timeout timeout) {
+            if(setException(new TimeoutException("No response from " + remoteEndpoint + " before deadline."))){
+                cancelMessageExchange();
+            }
+        }
+    }
+}
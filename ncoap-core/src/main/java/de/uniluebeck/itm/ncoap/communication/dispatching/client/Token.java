@@ -24,14 +24,10 @@
  */
 package de.uniluebeck.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
 import com.google.common.primitives.UnsignedLongs;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 
-import java.util.Arrays;
-
 /**
  * A {@link Token} is the identifier to relate {@link CoapRequest}s with {@link CoapResponse}s. It consists of a byte
  * array with a size between 0 and 8 (both inclusive). So, {@link Token} basically is a wrapper class for a byte array.
@@ -40,13 +36,20 @@ import java.util.Arrays;
  * array containing a single zero byte (all bits set to 0) is different from a byte array backed by a byte array
  * containing two zero bytes.
  *
+ * Internally, a {@link Token} is represented by the bytes packed into a <code>long</code> (big endian, see
+ * {@link #getValue()}) plus the length (see {@link #getLength()}). Thus, {@link #equals(Object)},
+ * {@link #hashCode()} and {@link #compareTo(Token)} work on primitives and {@link Token}s are cheap to use as keys
+ * of maps. The byte array is only created if needed, e.g. for encoding.
+ *
  * @author Oliver Kleine
  */
 public class Token implements Comparable<Token>{
 
     private final static char[] hexArray = "0123456789ABCDEF".toCharArray();
 
-    private byte[] token;
+    private final long value;
+    private final int length;
+    private volatile byte[] token;
 
     /**
      * Creates a new {@link Token} instance.
@@ -59,15 +62,73 @@ public class Token implements Comparable<Token>{
         if(token.length > 8)
             throw new IllegalArgumentException("Maximum token length is 8 (but given length was " + token.length + ")");
 
+        long value = 0;
+        for(byte b : token){
+            value = (value << 8) | (b & 0xFF);
+        }
+
+        this.value = value;
+        this.length = token.length;
         this.token = token;
     }
 
+    /**
+     * Creates a new {@link Token} instance from its primitive representation, i.e. the lowest <code>length</code>
+     * bytes of the given value (big endian).
+     *
+     * @param value the value containing the bytes of this {@link Token} (big endian)
+     * @param length the number of bytes of this {@link Token}
+     *
+     * @throws java.lang.IllegalArgumentException if the given length is not between 0 and 8 (both inclusive) or
+     * if the given value does not fit into the given number of bytes
+     */
+    public Token(long value, int length){
+        if(length < 0 || length > 8)
+            throw new IllegalArgumentException("Token length must be between 0 and 8 (but given length was "
+                    + length + ")");
+
+        if(length < 8 && (value >>> (8 * length)) != 0)
+            throw new IllegalArgumentException("Value " + Long.toHexString(value) + " does not fit into "
+                    + length + " bytes");
+
+        this.value = value;
+        this.length = length;
+    }
+
     /**
      * Returns the byte array this {@link Token} instance wraps
      * @return the byte array this {@link Token} instance wraps
      */
     public byte[] getBytes(){
-        return this.token;
+        byte[] result = this.token;
+
+        if(result == null){
+            result = new byte[this.length];
+            for(int i = 0; i < this.length; i++){
+                result[i] = (byte) (this.value >>> (8 * (this.length - 1 - i)));
+            }
+            this.token = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the bytes of this {@link Token} packed into a <code>long</code> (big endian), i.e. the last byte of
+     * {@link #getBytes()} is the lowest byte of the returned value
+     *
+     * @return the bytes of this {@link Token} packed into a <code>long</code>
+     */
+    public long getValue(){
+        return this.value;
+    }
+
+    /**
+     * Returns the number of bytes of this {@link Token}
+     * @return the number of bytes of this {@link Token}
+     */
+    public int getLength(){
+        return this.length;
     }
 
 
@@ -77,21 +138,17 @@ public class Token implements Comparable<Token>{
      */
     @Override
     public String toString(){
-        String tmp = bytesToHex(getBytes());
-
-        if(tmp.length() == 0)
+        if(this.length == 0)
             return "<EMPTY>";
         else
-            return "0x" + tmp;
+            return "0x" + toHex(this.value, this.length);
     }
 
 
-    private static String bytesToHex(byte[] bytes) {
-        char[] hexChars = new char[bytes.length * 2];
-        for ( int j = 0; j < bytes.length; j++ ) {
-            int v = bytes[j] & 0xFF;
-            hexChars[j * 2] = hexArray[v >>> 4];
-            hexChars[j * 2 + 1] = hexArray[v & 0x0F];
+    private static String toHex(long value, int length) {
+        char[] hexChars = new char[length * 2];
+        for(int j = 0; j < hexChars.length; j++){
+            hexChars[j] = hexArray[(int) (value >>> (4 * (hexChars.length - 1 - j))) & 0x0F];
         }
         return new String(hexChars);
     }
@@ -102,29 +159,26 @@ public class Token implements Comparable<Token>{
             return false;
 
         Token other = (Token) object;
-        return Arrays.equals(this.getBytes(), other.getBytes());
+        return this.value == other.value && this.length == other.length;
     }
 
 
     @Override
     public int hashCode(){
-        return Arrays.hashCode(token);
+        long hash = this.value * 31 + this.length;
+        return (int) (hash ^ (hash >>> 32));
     }
 
 
     @Override
     public int compareTo(Token other) {
 
-        if(other.equals(this))
-            return 0;
-
-        if(this.getBytes().length < other.getBytes().length)
+        if(this.length < other.length)
             return -1;
 
-        if(this.getBytes().length > other.getBytes().length)
+        if(this.length > other.length)
             return 1;
 
-        return UnsignedLongs.compare(Longs.fromByteArray(Bytes.concat(this.getBytes(), new byte[8])),
-                                     Longs.fromByteArray(Bytes.concat(other.getBytes(), new byte[8])));
+        return UnsignedLongs.compare(this.value, other.value);
     }
 }
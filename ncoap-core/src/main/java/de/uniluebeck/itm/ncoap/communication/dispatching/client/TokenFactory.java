@@ -25,20 +25,15 @@
 
 package de.uniluebeck.itm.ncoap.communication.dispatching.client;
 
-import com.google.common.base.Supplier;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.SortedSetMultimap;
-import com.google.common.primitives.Bytes;
-import com.google.common.primitives.Longs;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.TreeSet;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The TokenFactory generates tokens to match inbound responses with open requests and enable the
@@ -53,15 +48,25 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * This leads to 257 (<code>(2^8) + 1</code>) different tokens for a maximum token length of 1 or 65793 different
  * tokens (<code>(2^16) + (2^8) + 1</code>) for a maximum token length of 2 and so on and so forth...
  *
+ * The tokens for each remote endpoint are derived from a sequence counter, i.e. shorter tokens are used first. The
+ * tokens in use are kept in a concurrent set per remote endpoint, so neither {@link #getNextToken(InetSocketAddress)}
+ * nor {@link #passBackToken(InetSocketAddress, Token)} require any lock.
+ *
  * @author Oliver Kleine
  */
 public class TokenFactory {
 
+    //marks endpoint tokens to be removed, i.e. no more tokens can be allocated
+    private static final int CLOSED = -1;
+
+    //the maximum number of tokens in use to be skipped for a single allocation
+    private static final int MAX_COLLISIONS = 1024;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private int maxTokenLength;
-    private SortedSetMultimap<InetSocketAddress, Token> activeTokens;
-    private ReentrantReadWriteLock lock;
+    private long capacity;
+    private ConcurrentHashMap<InetSocketAddress, EndpointTokens> activeTokens;
 
 
     /**
@@ -76,17 +81,25 @@ public class TokenFactory {
      *                       factory.
      */
     public TokenFactory(int maxTokenLength){
+        if(maxTokenLength < 0 || maxTokenLength > 8)
+            throw new IllegalArgumentException("Token length must be between 0 and 8 (both inclusive)");
+
         this.maxTokenLength = maxTokenLength;
-        this.lock = new ReentrantReadWriteLock();
+        this.activeTokens = new ConcurrentHashMap<>();
 
-        Supplier<TreeSet<Token>> factory = new Supplier<TreeSet<Token>>() {
-            @Override
-            public TreeSet<Token> get() {
-                return new TreeSet<>();
+        //the number of tokens with a length from 1 to the maximum length (or the empty token only)
+        if(maxTokenLength == 0){
+            this.capacity = 1;
+        }
+        else if(maxTokenLength == 8){
+            this.capacity = Long.MAX_VALUE;
+        }
+        else{
+            this.capacity = 0;
+            for(int length = 1; length <= maxTokenLength; length++){
+                this.capacity += 1L << (8 * length);
             }
-        };
-
-        activeTokens = Multimaps.newSortedSetMultimap(new HashMap<InetSocketAddress, Collection<Token>>(), factory);
+        }
     }
 
 
@@ -108,29 +121,26 @@ public class TokenFactory {
      * no {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} available
      */
     public Token getNextToken(InetSocketAddress remoteEndpoint) {
-        try{
-            this.lock.writeLock().lock();
+        EndpointTokens endpointTokens = reserve(remoteEndpoint);
 
-            if(!this.activeTokens.containsKey(remoteEndpoint)){
-                Token nextToken = new Token(new byte[1]);
-                this.activeTokens.put(remoteEndpoint, nextToken);
-                return nextToken;
-            }
-            else{
-                Token nextToken = getSuccessor(this.activeTokens.get(remoteEndpoint).last(), this.maxTokenLength);
-                if(this.activeTokens.containsEntry(remoteEndpoint, nextToken)){
-                    log.warn("No more tokens available for remote endpoint {}.", remoteEndpoint);
-                    return null;
-                }
-                else{
-                    this.activeTokens.put(remoteEndpoint, nextToken);
-                    return nextToken;
-                }
-            }
+        if(endpointTokens == null){
+            log.warn("No more tokens available for remote endpoint {}.", remoteEndpoint);
+            return null;
         }
-        finally {
-            this.lock.writeLock().unlock();
+
+        long attempts = Math.min(this.capacity, MAX_COLLISIONS);
+        for(long attempt = 0; attempt < attempts; attempt++){
+            Token token = toToken(endpointTokens.next.getAndIncrement());
+
+            //the token is still in use since the sequence counter wrapped around
+            if(endpointTokens.tokens.add(token)){
+                return token;
+            }
         }
+
+        log.warn("No more tokens available for remote endpoint {}.", remoteEndpoint);
+        release(remoteEndpoint, endpointTokens);
+        return null;
     }
 
 
@@ -143,61 +153,93 @@ public class TokenFactory {
      * @param remoteEndpoint the {@link InetSocketAddress} of the CoAP server, the {@link Token} was used to
      *                            communicate with
      */
-    public synchronized boolean passBackToken(InetSocketAddress remoteEndpoint, Token token){
-        try{
-            this.lock.readLock().lock();
-            if(!this.activeTokens.containsEntry(remoteEndpoint, token)){
-                log.error("Could not pass pack token (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return false;
-            }
-        }
-        finally {
-            this.lock.readLock().unlock();
+    public boolean passBackToken(InetSocketAddress remoteEndpoint, Token token){
+        EndpointTokens endpointTokens = this.activeTokens.get(remoteEndpoint);
+
+        if(endpointTokens == null || !endpointTokens.tokens.remove(token)){
+            log.error("Could not pass pack token (remote endpoint: {}, token: {})", remoteEndpoint, token);
+            return false;
         }
 
-        try{
-            this.lock.writeLock().lock();
-            if(this.activeTokens.remove(remoteEndpoint, token)){
-                log.info("Passed back token (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return true;
+        release(remoteEndpoint, endpointTokens);
+        log.debug("Passed back token (remote endpoint: {}, token: {})", remoteEndpoint, token);
+        return true;
+    }
+
+
+    //increments the number of tokens in use for the given remote endpoint or returns null if all tokens are in use
+    private EndpointTokens reserve(InetSocketAddress remoteEndpoint){
+        while(true){
+            EndpointTokens endpointTokens = this.activeTokens.get(remoteEndpoint);
+
+            if(endpointTokens == null){
+                EndpointTokens newEndpointTokens = new EndpointTokens();
+                endpointTokens = this.activeTokens.putIfAbsent(remoteEndpoint, newEndpointTokens);
+
+                if(endpointTokens == null){
+                    endpointTokens = newEndpointTokens;
+                }
             }
-            else{
-                log.error("Could not pass pack token (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return false;
+
+            int inUse = endpointTokens.inUse.get();
+
+            //the endpoint tokens are about to be removed
+            if(inUse == CLOSED){
+                this.activeTokens.remove(remoteEndpoint, endpointTokens);
+            }
+
+            else if(inUse >= this.capacity){
+                return null;
+            }
+
+            else if(endpointTokens.inUse.compareAndSet(inUse, inUse + 1)){
+                return endpointTokens;
             }
-        }
-        finally {
-            this.lock.writeLock().unlock();
         }
     }
 
 
-    private static Token getSuccessor(Token token, int maxTokenLength){
+    //decrements the number of tokens in use and removes the endpoint tokens if there are none left
+    private void release(InetSocketAddress remoteEndpoint, EndpointTokens endpointTokens){
+        if(endpointTokens.inUse.decrementAndGet() == 0 && endpointTokens.inUse.compareAndSet(0, CLOSED)){
+            this.activeTokens.remove(remoteEndpoint, endpointTokens);
+        }
+    }
+
 
-        boolean allBitsSet = true;
+    //maps the given sequence number to a token, i.e. the shortest tokens come first
+    private Token toToken(long sequenceNo){
+        if(this.maxTokenLength == 0){
+            return new Token(0, 0);
+        }
 
-        //Check if all bits in the given byte array are set to 1
-        for(byte b : token.getBytes()){
-            if(b != -1){
-                allBitsSet = false;
-                break;
+        long remainder = sequenceNo % this.capacity;
+        for(int length = 1; length < this.maxTokenLength; length++){
+            long tokens = 1L << (8 * length);
+            if(remainder < tokens){
+                return new Token(remainder, length);
             }
+            remainder -= tokens;
         }
 
-        if(allBitsSet){
-            //make e.g. ([00000000], [00000000]) the successor of ([11111111])
-            if(token.getBytes().length < maxTokenLength){
-                return new Token(new byte[token.getBytes().length + 1]);
-            }
+        return new Token(remainder, this.maxTokenLength);
+    }
 
-            //make [00000000] the successor of the byte array with 8 [11111111] bytes
-            else{
-                return new Token(new byte[1]);
-            }
-        }
 
-        long tmp = Longs.fromByteArray(Bytes.concat(new byte[8-token.getBytes().length], token.getBytes())) + 1;
-        byte[] result = Longs.toByteArray(tmp);
-        return new Token(Arrays.copyOfRange(result, 8 - token.getBytes().length, 8));
+    private static class EndpointTokens{
+
+        //the next sequence number to derive a token from
+        private final AtomicLong next;
+
+        //the number of tokens in use including the ones that are currently being allocated
+        private final AtomicInteger inUse;
+
+        private final Set<Token> tokens;
+
+        private EndpointTokens(){
+            this.next = new AtomicLong(0);
+            this.inUse = new AtomicInteger(0);
+            this.tokens = Collections.newSetFromMap(new ConcurrentHashMap<Token, Boolean>());
+        }
     }
 }
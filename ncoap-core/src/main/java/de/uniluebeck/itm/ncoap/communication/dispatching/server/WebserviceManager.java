@@ -25,13 +25,15 @@
 
 package de.uniluebeck.itm.ncoap.communication.dispatching.server;
 
-import com.google.common.collect.HashBasedTable;
 import com.google.common.util.concurrent.SettableFuture;
 import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.Webservice;
 import de.uniluebeck.itm.ncoap.application.server.webservice.WellKnownCoreResource;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.communication.events.MessageTransferEvent;
+import de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent;
+import de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliableMessageTransfer;
 import de.uniluebeck.itm.ncoap.message.*;
 import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
 import de.uniluebeck.itm.ncoap.message.options.OptionValue;
@@ -43,8 +45,9 @@ import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
 * The {@link WebserviceManager} is the topmost {@link ChannelHandler} of the {@link ChannelPipeline} returned
@@ -71,29 +74,58 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 * and sends a {@link CoapResponse} with {@link MessageCode.Name#PRECONDITION_FAILED_412} if the option was set but the
 * addressed {@link Webservice} already exists.
 *
+* Under overload, inbound {@link CoapRequest}s may wait in the queue of the executor for a long time. Thus, right
+* before a {@link Webservice} is invoked, requests older than the maximum request age (see
+* {@link #setMaxRequestAge(MessageType.Name, long)}) are silently dropped without invoking the {@link Webservice}
+* (the client has already given up on them) and a
+* {@link de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent} is sent downstream to release the
+* state of the message exchange. Confirmable requests rejected by the executor are answered with
+* {@link MessageCode.Name#SERVICE_UNAVAILABLE_503}, non-confirmable ones are silently dropped. Furthermore, a request
+* that is still queued absorbs its duplicates (i.e. inbound requests with the same message ID from the same remote
+* endpoint), i.e. the webservice is invoked only once. See {@link #getStaleRequests()} and
+* {@link #getCollapsedRequests()} for the numbers of such requests.
+*
 * @author Oliver Kleine
 */
 public class WebserviceManager extends SimpleChannelUpstreamHandler {
 
+    /**
+     * The default maximum age of inbound requests with {@link MessageType.Name#CON} (93 seconds, i.e.
+     * {@link OutboundReliableMessageTransfer#MAX_TRANSMIT_WAIT_MILLIS}). Afterwards the client has given up.
+     */
+    public static final long DEFAULT_MAX_CON_REQUEST_AGE = OutboundReliableMessageTransfer.MAX_TRANSMIT_WAIT_MILLIS;
+
+    /**
+     * The default maximum age of inbound requests with {@link MessageType.Name#NON} (45 seconds, i.e.
+     * {@link OutboundReliableMessageTransfer#MAX_TRANSMIT_SPAN_MILLIS}).
+     */
+    public static final long DEFAULT_MAX_NON_REQUEST_AGE = OutboundReliableMessageTransfer.MAX_TRANSMIT_SPAN_MILLIS;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     //This map holds all registered webservices (key: URI path, value: Webservice instance)
     private Map<String, Webservice> registeredServices;
 
-    private HashBasedTable<InetSocketAddress, Token, ObservableWebservice> observations;
-    private ReentrantReadWriteLock observationsLock;
+    private ExchangeStore<ObservableWebservice> observations;
 
     private ScheduledExecutorService executor;
     private NotFoundHandler webServiceNotFoundHandler;
     private Channel channel;
     private boolean shutdown;
 
+    //inbound requests waiting to be processed (key: remote endpoint and message ID)
+    private ExchangeStore<CoapRequest> queuedRequests;
+    private volatile long maxConRequestAge;
+    private volatile long maxNonRequestAge;
+    private AtomicLong staleRequests;
+    private AtomicLong collapsedRequests;
+
     /**
      * @param webServiceNotFoundHandler Instance of {@link NotFoundHandler} to deal with inbound {@link CoapRequest}s with
      *                          {@link MessageCode.Name#PUT} if the addresses {@link Webservice} does not exist.
      *
-     * @param executor the {@link ScheduledExecutorService} to process the task to send a {@link CoapResponse}
-     *                        and
+     * @param executor the {@link ScheduledExecutorService} to invoke the {@link Webservice}s and to process the
+     *                 task to send a {@link CoapResponse}
      */
     public WebserviceManager(NotFoundHandler webServiceNotFoundHandler, ScheduledExecutorService executor){
 
@@ -101,8 +133,13 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
         this.executor = executor;
         this.webServiceNotFoundHandler = webServiceNotFoundHandler;
         this.shutdown = false;
-        this.observations = HashBasedTable.create();
-        this.observationsLock = new ReentrantReadWriteLock();
+
+        this.queuedRequests = new ExchangeStore<>();
+        this.maxConRequestAge = DEFAULT_MAX_CON_REQUEST_AGE;
+        this.maxNonRequestAge = DEFAULT_MAX_NON_REQUEST_AGE;
+        this.staleRequests = new AtomicLong(0);
+        this.collapsedRequests = new AtomicLong(0);
+        this.observations = new ExchangeStore<>();
 
         registerService(new WellKnownCoreResource(registeredServices, executor));
     }
@@ -155,41 +192,19 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
         InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
         Token token = event.getToken();
 
-        try{
-            observationsLock.readLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                return;
-            }
-        }
-        finally {
-            observationsLock.readLock().unlock();
-        }
-
         if(event.stopsMessageExchange()){
-            try{
-                observationsLock.writeLock().lock();
-                ObservableWebservice webservice = this.observations.remove(remoteEndpoint, token);
-                if(webservice != null){
-                    log.info("Stopped observation of \"{}\" (remote endpoint: {}, token: {}) due to: {}",
-                            new Object[]{webservice.getUriPath(), remoteEndpoint, token, event});
-                    webservice.handleMessageTransferEvent(event);
-                }
-            }
-            finally {
-                observationsLock.writeLock().unlock();
+            ObservableWebservice webservice = this.observations.remove(remoteEndpoint, token);
+            if(webservice != null){
+                log.info("Stopped observation of \"{}\" (remote endpoint: {}, token: {}) due to: {}",
+                        new Object[]{webservice.getUriPath(), remoteEndpoint, token, event});
+                webservice.handleMessageTransferEvent(event);
             }
         }
 
         else{
-            try{
-                observationsLock.readLock().lock();
-                ObservableWebservice webservice = this.observations.get(remoteEndpoint, token);
-                if(webservice != null){
-                    webservice.handleMessageTransferEvent(event);
-                }
-            }
-            finally {
-                observationsLock.readLock().unlock();
+            ObservableWebservice webservice = this.observations.get(remoteEndpoint, token);
+            if(webservice != null){
+                webservice.handleMessageTransferEvent(event);
             }
         }
     }
@@ -198,6 +213,19 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
     private void handleCoapRequest(final ChannelHandlerContext ctx, final CoapRequest coapRequest,
                                    final InetSocketAddress remoteEndpoint){
 
+        //A duplicate of a queued request refreshes the age of the queued request and is dropped
+        final int messageID = coapRequest.getMessageID();
+        CoapRequest queuedRequest = this.queuedRequests.putIfAbsent(remoteEndpoint, messageID, coapRequest);
+        if(queuedRequest != null){
+            queuedRequest.setReceptionTime(Math.max(queuedRequest.getReceptionTime(),
+                    coapRequest.getReceptionTime()));
+
+            this.collapsedRequests.incrementAndGet();
+            log.info("Collapsed duplicate of queued request (remote endpoint: {}, message ID: {}).",
+                    remoteEndpoint, messageID);
+            return;
+        }
+
         //Create settable future to wait for response
         final SettableFuture<CoapResponse> responseFuture = SettableFuture.create();
 
@@ -254,28 +282,118 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
             }
         }, executor);
 
+        //Invoke the webservice with a thread of the application executor (not to block the protocol threads)
         try{
-            //The requested Webservice does not exist
-            if(webservice == null)
-                webServiceNotFoundHandler.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    queuedRequests.remove(remoteEndpoint, messageID, coapRequest);
+
+                    //Nobody is waiting for the response anymore
+                    if(isStale(coapRequest)){
+                        staleRequests.incrementAndGet();
+                        log.warn("Stale request (remote endpoint: {}, message ID: {}, age: {} ms). Do not process!",
+                                new Object[]{remoteEndpoint, messageID,
+                                        System.currentTimeMillis() - coapRequest.getReceptionTime()});
+
+                        Channels.write(ctx.getChannel(), new RequestDroppedEvent(remoteEndpoint, messageID,
+                                coapRequest.getToken()), remoteEndpoint);
+                        return;
+                    }
+
+                    try{
+                        //The requested Webservice does not exist
+                        if(webservice == null)
+                            webServiceNotFoundHandler.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
 
-            //The IF-NON-MATCH option indicates that the request is only to be processed if the webservice does not
-            //(yet) exist. But it does. So send an error response
-            else if(coapRequest.isIfNonMatchSet())
-                sendPreconditionFailed(coapRequest.getMessageTypeName(), coapRequest.getUriPath(), responseFuture);
+                        //The IF-NON-MATCH option indicates that the request is only to be processed if the webservice
+                        //does not (yet) exist. But it does. So send an error response
+                        else if(coapRequest.isIfNonMatchSet())
+                            sendPreconditionFailed(coapRequest.getMessageTypeName(), coapRequest.getUriPath(),
+                                    responseFuture);
 
-            //The inbound request is to be handled by the addressed service
-            else
-                webservice.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
+                        //The inbound request is to be handled by the addressed service
+                        else
+                            webservice.processCoapRequest(responseFuture, coapRequest, remoteEndpoint);
 
+                    }
+                    catch (Exception e) {
+                        log.error("This should never happen.", e);
+                        responseFuture.setException(e);
+                    }
+                }
+            });
         }
-        catch (Exception e) {
-            log.error("This should never happen.", e);
-            responseFuture.setException(e);
+        catch(RejectedExecutionException ex){
+            queuedRequests.remove(remoteEndpoint, messageID, coapRequest);
+            log.warn("Request rejected by executor (remote endpoint: {}, message ID: {}). Do not process!",
+                    remoteEndpoint, messageID);
+
+            //the response listener is executed by the same executor, i.e. the response is sent directly
+            if(coapRequest.getMessageTypeName() == MessageType.Name.CON){
+                CoapResponse coapResponse = new CoapResponse(MessageType.Name.CON,
+                        MessageCode.Name.SERVICE_UNAVAILABLE_503);
+                coapResponse.setMessageID(messageID);
+                coapResponse.setToken(coapRequest.getToken());
+                sendCoapResponse(ctx, remoteEndpoint, coapResponse);
+            }
         }
     }
 
 
+    private boolean isStale(CoapRequest coapRequest){
+        //requests not received via the network (e.g. in tests) have no age
+        if(coapRequest.getReceptionTime() == 0)
+            return false;
+
+        long maxAge = coapRequest.getMessageTypeName() == MessageType.Name.CON ? maxConRequestAge : maxNonRequestAge;
+        return System.currentTimeMillis() - coapRequest.getReceptionTime() > maxAge;
+    }
+
+
+    /**
+     * Sets the maximum age of inbound {@link CoapRequest}s of the given {@link MessageType.Name}, i.e. the number of
+     * milliseconds between the reception of a request and the invocation of the addressed {@link Webservice}. Older
+     * requests are silently dropped, i.e. the default maximum ages are the times after which the client has given up.
+     *
+     * @param messageType the {@link MessageType.Name} of the requests (either {@link MessageType.Name#CON} or
+     *                    {@link MessageType.Name#NON})
+     * @param maxAge the maximum age in milliseconds
+     *
+     * @throws java.lang.IllegalArgumentException if the given message type is neither
+     * {@link MessageType.Name#CON} nor {@link MessageType.Name#NON}
+     */
+    public void setMaxRequestAge(MessageType.Name messageType, long maxAge) throws IllegalArgumentException {
+        if(messageType == MessageType.Name.CON)
+            this.maxConRequestAge = maxAge;
+
+        else if(messageType == MessageType.Name.NON)
+            this.maxNonRequestAge = maxAge;
+
+        else
+            throw new IllegalArgumentException("Requests are either CON or NON (but not " + messageType + ")!");
+    }
+
+    /**
+     * Returns the number of inbound {@link CoapRequest}s that were not processed because they were too old
+     * @return the number of inbound {@link CoapRequest}s that were not processed because they were too old
+     */
+    public long getStaleRequests(){
+        return this.staleRequests.get();
+    }
+
+    /**
+     * Returns the number of inbound {@link CoapRequest}s that were dropped because they were duplicates of a
+     * queued request
+     *
+     * @return the number of inbound {@link CoapRequest}s that were dropped because they were duplicates of a
+     * queued request
+     */
+    public long getCollapsedRequests(){
+        return this.collapsedRequests.get();
+    }
+
+
     private void sendCoapResponse(final ChannelHandlerContext ctx, final InetSocketAddress remoteAddress,
                                   final CoapResponse coapResponse){
 
@@ -288,15 +406,9 @@ public class WebserviceManager extends SimpleChannelUpstreamHandler {
     private void sendUpdateNotification(ChannelHandlerContext ctx, InetSocketAddress remoteAddress,
                                         CoapResponse updateNotification, ObservableWebservice webservice){
 
-        try{
-            this.observationsLock.writeLock().lock();
-            this.observations.put(remoteAddress, updateNotification.getToken(), webservice);
-            log.info("Added new observation of \"{}\" (remote endpoint: {}, token: {})",
-                    new Object[]{webservice.getUriPath(), remoteAddress, updateNotification.getToken()});
-        }
-        finally{
-            this.observationsLock.writeLock().unlock();
-        }
+        this.observations.put(remoteAddress, updateNotification.getToken(), webservice);
+        log.info("Added new observation of \"{}\" (remote endpoint: {}, token: {})",
+                new Object[]{webservice.getUriPath(), remoteAddress, updateNotification.getToken()});
 
         sendCoapResponse(ctx, remoteAddress, updateNotification);
     }
@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.events;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Instances of {@link de.uniluebeck.itm.ncoap.communication.events.NoMessageIDAvailableEvent} are sent upstream if
+ * a message could not be sent because all message IDs for the remote endpoint are in use, i.e. were assigned
+ * within the last {@link de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory#EXCHANGE_LIFETIME}
+ * seconds.
+ *
+ * @author Oliver Kleine
+ */
+public class NoMessageIDAvailableEvent extends MiscellaneousErrorEvent {
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.events.NoMessageIDAvailableEvent}
+     *
+     * @param remoteEndpoint the remote endpoint no message ID was available for
+     * @param token the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the message that
+     *              could not be sent
+     */
+    public NoMessageIDAvailableEvent(InetSocketAddress remoteEndpoint, Token token) {
+        super(remoteEndpoint, CoapMessage.UNDEFINED_MESSAGE_ID, token,
+                "No message ID available for remote endpoint: " + remoteEndpoint);
+    }
+
+    @Override
+    public String toString(){
+        return "NO MESSAGE ID AVAILABLE (remote endpoint: " + this.getRemoteEndpoint() + ", token: " +
+                this.getToken() + ")";
+    }
+}
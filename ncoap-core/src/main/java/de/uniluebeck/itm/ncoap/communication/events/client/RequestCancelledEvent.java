@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.events.client;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Instances of this class are sent downstream if a client is no longer interested in the response to a request,
+ * e.g. because the request was cancelled or its deadline expired. The handlers drop all state related to the request,
+ * i.e. stop retransmissions, remove the request from queues and pass the
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} back. A response that arrives later on is
+ * answered with a RST.
+ *
+ * The event is only passed downstream if the given
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} is still waiting for the response,
+ * i.e. the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} was not yet passed back and possibly
+ * re-used for another request.
+ *
+ * @author Oliver Kleine
+ */
+public class RequestCancelledEvent {
+
+    private InetSocketAddress remoteEndpoint;
+    private int messageID;
+    private Token token;
+    private ClientCallback clientCallback;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent}
+     *
+     * @param remoteEndpoint the {@link java.net.InetSocketAddress} of the remote endpoint the request was sent to
+     * @param messageID the message ID of the request or
+     *                  {@link de.uniluebeck.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if the request was
+     *                  not yet sent
+     * @param token the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     * @param clientCallback the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} that
+     *                       was given with the request
+     */
+    public RequestCancelledEvent(InetSocketAddress remoteEndpoint, int messageID, Token token,
+                                 ClientCallback clientCallback) {
+        this.remoteEndpoint = remoteEndpoint;
+        this.messageID = messageID;
+        this.token = token;
+        this.clientCallback = clientCallback;
+    }
+
+
+    /**
+     * Returns the {@link java.net.InetSocketAddress} of the remote endpoint the request was sent to
+     * @return the {@link java.net.InetSocketAddress} of the remote endpoint the request was sent to
+     */
+    public InetSocketAddress getRemoteEndpoint() {
+        return remoteEndpoint;
+    }
+
+    /**
+     * Returns the message ID of the request or {@link de.uniluebeck.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID}
+     * if the request was not yet sent
+     * @return the message ID of the request or
+     * {@link de.uniluebeck.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if the request was not yet sent
+     */
+    public int getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} that was given with
+     * the request
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} that was given with
+     * the request
+     */
+    public ClientCallback getClientCallback() {
+        return clientCallback;
+    }
+
+    @Override
+    public String toString(){
+        return "REQUEST CANCELLED (remote endpoint: " + this.getRemoteEndpoint() + ", message ID: " +
+                (this.messageID == CoapMessage.UNDEFINED_MESSAGE_ID ? "<UNDEFINED>" : this.messageID) +
+                ", token: " + this.getToken() + ")";
+    }
+}
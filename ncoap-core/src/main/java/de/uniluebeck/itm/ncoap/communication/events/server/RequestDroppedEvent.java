@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.events.server;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Instances of this class are sent downstream if a server drops an inbound
+ * {@link de.uniluebeck.itm.ncoap.message.CoapRequest} without response, e.g. because the request waited too long
+ * for an application thread. The handlers drop all state related to the request, i.e. stop the scheduled empty
+ * acknowledgement and forget about the pending message exchange. A duplicate that arrives later on is processed
+ * like a new request.
+ *
+ * @author Oliver Kleine
+ */
+public class RequestDroppedEvent {
+
+    private InetSocketAddress remoteEndpoint;
+    private int messageID;
+    private Token token;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent}
+     *
+     * @param remoteEndpoint the {@link java.net.InetSocketAddress} of the remote endpoint that sent the request
+     * @param messageID the message ID of the request
+     * @param token the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     */
+    public RequestDroppedEvent(InetSocketAddress remoteEndpoint, int messageID, Token token) {
+        this.remoteEndpoint = remoteEndpoint;
+        this.messageID = messageID;
+        this.token = token;
+    }
+
+
+    /**
+     * Returns the {@link java.net.InetSocketAddress} of the remote endpoint that sent the request
+     * @return the {@link java.net.InetSocketAddress} of the remote endpoint that sent the request
+     */
+    public InetSocketAddress getRemoteEndpoint() {
+        return remoteEndpoint;
+    }
+
+    /**
+     * Returns the message ID of the request
+     * @return the message ID of the request
+     */
+    public int getMessageID() {
+        return messageID;
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     * @return the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token} of the request
+     */
+    public Token getToken() {
+        return token;
+    }
+
+    @Override
+    public String toString(){
+        return "REQUEST DROPPED (remote endpoint: " + this.getRemoteEndpoint() + ", message ID: " +
+                this.getMessageID() + ", token: " + this.getToken() + ")";
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.health;
+
+/**
+ * A {@link CircuitBreakerConfiguration} defines when a {@link CircuitBreakerHandler} considers a remote endpoint
+ * to be unreachable (i.e. opens the circuit) and how often it probes the remote endpoint afterwards, i.e.
+ *
+ * <ul>
+ *     <li>the number of consecutive failures, i.e. transmission timeouts, messages that could not be sent for
+ *     lack of message IDs or failed writes (e.g. due to ICMP port unreachable), without any message received
+ *     from the remote endpoint in between,</li>
+ *     <li>the maximum rate of requests that were answered with a reset and</li>
+ *     <li>the number of seconds between two probes (CoAP pings) while the circuit is open.</li>
+ * </ul>
+ *
+ * @author Oliver Kleine
+ */
+public class CircuitBreakerConfiguration {
+
+    private final int failureThreshold;
+    private final double maxResetRate;
+    private final long probeIntervalSeconds;
+
+    /**
+     * Creates a new instance of {@link CircuitBreakerConfiguration}
+     *
+     * @param failureThreshold the number of consecutive failures to open the circuit
+     * @param maxResetRate the maximum (smoothed) rate of requests answered with a reset, i.e. a value greater than
+     *                     <code>0</code> and at most <code>1</code> (the latter means that resets never open the
+     *                     circuit)
+     * @param probeIntervalSeconds the number of seconds between two probes while the circuit is open
+     *
+     * @throws java.lang.IllegalArgumentException if any of the given values is out of range
+     */
+    public CircuitBreakerConfiguration(int failureThreshold, double maxResetRate, long probeIntervalSeconds)
+            throws IllegalArgumentException {
+
+        if(failureThreshold < 1 || probeIntervalSeconds < 1)
+            throw new IllegalArgumentException("Failure threshold and probe interval must be at least 1.");
+
+        if(maxResetRate <= 0 || maxResetRate > 1)
+            throw new IllegalArgumentException("Maximum reset rate must be greater than 0 and at most 1.");
+
+        this.failureThreshold = failureThreshold;
+        this.maxResetRate = maxResetRate;
+        this.probeIntervalSeconds = probeIntervalSeconds;
+    }
+
+    /**
+     * Returns a {@link CircuitBreakerConfiguration} that opens the circuit after 4 consecutive failures (e.g. four
+     * confirmable requests without any acknowledgement) or if more than half of the requests are answered with a
+     * reset. While the circuit is open, the remote endpoint is probed every 30 seconds.
+     *
+     * @return a {@link CircuitBreakerConfiguration} with default values
+     */
+    public static CircuitBreakerConfiguration getDefault(){
+        return new CircuitBreakerConfiguration(4, 0.5, 30);
+    }
+
+    /**
+     * Returns the number of consecutive failures to open the circuit
+     * @return the number of consecutive failures to open the circuit
+     */
+    public int getFailureThreshold() {
+        return this.failureThreshold;
+    }
+
+    /**
+     * Returns the maximum (smoothed) rate of requests answered with a reset
+     * @return the maximum (smoothed) rate of requests answered with a reset
+     */
+    public double getMaxResetRate() {
+        return this.maxResetRate;
+    }
+
+    /**
+     * Returns the number of seconds between two probes while the circuit is open
+     * @return the number of seconds between two probes while the circuit is open
+     */
+    public long getProbeIntervalSeconds() {
+        return this.probeIntervalSeconds;
+    }
+
+
+    @Override
+    public String toString(){
+        return "[failure threshold: " + this.failureThreshold + ", max. reset rate: " + this.maxResetRate +
+                ", probe interval: " + this.probeIntervalSeconds + " seconds]";
+    }
+}
@@ -0,0 +1,432 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.health;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.OutboundMessageWrapper;
+import de.uniluebeck.itm.ncoap.communication.events.*;
+import de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@link CircuitBreakerHandler} tracks the health of every remote endpoint a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication} communicates with and opens the circuit
+ * for remote endpoints that are considered unreachable (see {@link CircuitBreakerConfiguration}), i.e. if
+ *
+ * <ul>
+ *     <li>there were too many consecutive failures, i.e. transmission timeouts, messages that could not be sent
+ *     for lack of message IDs or writes failed with an {@link java.io.IOException} (e.g.
+ *     {@link java.net.PortUnreachableException}) without any message received from the remote endpoint in
+ *     between, or</li>
+ *     <li>the smoothed rate of requests answered with a reset exceeds the configured maximum.</li>
+ * </ul>
+ *
+ * While the circuit for a remote endpoint is open, new {@link de.uniluebeck.itm.ncoap.message.CoapRequest}s to
+ * that endpoint are not sent at all. Instead, a {@link de.uniluebeck.itm.ncoap.communication.events
+ * .MiscellaneousErrorEvent} is sent upstream, i.e. the
+ * {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback#processMiscellaneousError(String)}
+ * of the request is invoked immediately. {@link CircuitBreakerConfiguration#getProbeIntervalSeconds()} seconds
+ * after the circuit was opened, a CoAP ping is sent to the remote endpoint (the same way
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication#sendCoapPing(
+ * de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback, java.net.InetSocketAddress)} does). There
+ * is at most one probe per remote endpoint in flight, i.e. the next probe is scheduled when the previous one was
+ * answered or failed. The circuit is closed as soon as any message but a reset of a request is received from the
+ * remote endpoint.
+ *
+ * Resets with an empty token are considered to be responses to CoAP pings. They prove the remote endpoint to be
+ * alive but are not taken into account for the reset rate.
+ *
+ * One instance is shared by the pipelines of all sockets of a
+ * {@link de.uniluebeck.itm.ncoap.application.client.CoapClientApplication}, i.e. the circuit for a remote endpoint
+ * is open for all sockets.
+ *
+ * @author Oliver Kleine
+ */
+@ChannelHandler.Sharable
+public class CircuitBreakerHandler extends SimpleChannelHandler {
+
+    /**
+     * The weight (1/8) of a new outcome in the smoothed reset rate
+     */
+    public static final double RESET_RATE_WEIGHT = 0.125;
+
+    /**
+     * The minimum number of outcomes (8) before the reset rate may open the circuit
+     */
+    public static final int MIN_RESET_RATE_SAMPLES = 8;
+
+    private static Logger log = LoggerFactory.getLogger(CircuitBreakerHandler.class.getName());
+
+    private final CircuitBreakerConfiguration configuration;
+    private final Timer timer;
+
+    private final LoadingCache<InetSocketAddress, EndpointHealth> endpoints;
+
+    private final AtomicLong rejectedRequests;
+
+
+    /**
+     * Creates a new instance of {@link CircuitBreakerHandler}
+     *
+     * @param configuration the {@link CircuitBreakerConfiguration} defining when to open the circuit for a remote
+     *                      endpoint
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the probes
+     */
+    public CircuitBreakerHandler(final CircuitBreakerConfiguration configuration, Timer timer){
+        this.configuration = configuration;
+        this.timer = timer;
+        this.rejectedRequests = new AtomicLong(0);
+
+        this.endpoints = CacheBuilder.newBuilder()
+                .expireAfterAccess(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build(new CacheLoader<InetSocketAddress, EndpointHealth>() {
+                    @Override
+                    public EndpointHealth load(InetSocketAddress remoteEndpoint) throws Exception {
+                        return new EndpointHealth();
+                    }
+                });
+    }
+
+
+    @Override
+    public void writeRequested(final ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof CoapMessage)){
+            ctx.sendDownstream(me);
+            return;
+        }
+
+        CoapMessage coapMessage = (CoapMessage) me.getMessage();
+        final InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+
+        if(coapMessage instanceof CoapRequest && coapMessage.getMessageID() == CoapMessage.UNDEFINED_MESSAGE_ID &&
+                this.endpoints.getUnchecked(remoteEndpoint).isOpen()){
+
+            reject(ctx, me, coapMessage);
+            return;
+        }
+
+        me.getFuture().addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) throws Exception {
+                if(!future.isSuccess() && future.getCause() instanceof IOException){
+                    log.warn("Could not write message to {}: {}", remoteEndpoint, future.getCause().getMessage());
+                    recordFailure(ctx, remoteEndpoint);
+                }
+            }
+        });
+
+        ctx.sendDownstream(me);
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof CoapResponse){
+            recordSuccess(ctx, (InetSocketAddress) me.getRemoteAddress(), false);
+        }
+
+        else if(me.getMessage() instanceof CoapMessage){
+            recordSuccess(ctx, (InetSocketAddress) me.getRemoteAddress(), null);
+        }
+
+        else if(me.getMessage() instanceof EmptyAckReceivedEvent){
+            recordSuccess(ctx, ((EmptyAckReceivedEvent) me.getMessage()).getRemoteEndpoint(), false);
+        }
+
+        else if(me.getMessage() instanceof ResetReceivedEvent){
+            ResetReceivedEvent event = (ResetReceivedEvent) me.getMessage();
+            boolean ping = event.getToken().getBytes().length == 0;
+            recordSuccess(ctx, event.getRemoteEndpoint(), ping ? null : true);
+        }
+
+        else if(me.getMessage() instanceof TransmissionTimeoutEvent){
+            recordFailure(ctx, ((TransmissionTimeoutEvent) me.getMessage()).getRemoteEndpoint());
+        }
+
+        else if(me.getMessage() instanceof NoMessageIDAvailableEvent){
+            recordFailure(ctx, ((NoMessageIDAvailableEvent) me.getMessage()).getRemoteEndpoint());
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    private void recordFailure(ChannelHandlerContext ctx, InetSocketAddress remoteEndpoint){
+        EndpointHealth health = this.endpoints.getUnchecked(remoteEndpoint);
+
+        if(health.addFailure()){
+            log.warn("Circuit opened for remote endpoint {} (consecutive failures).", remoteEndpoint);
+            startProbing(ctx.getChannel(), remoteEndpoint, health);
+        }
+    }
+
+
+    //reset is null if the message was no outcome of a request (e.g. a response to a CoAP ping)
+    private void recordSuccess(ChannelHandlerContext ctx, InetSocketAddress remoteEndpoint, Boolean reset){
+        EndpointHealth health = reset == null ? this.endpoints.getIfPresent(remoteEndpoint) :
+                this.endpoints.getUnchecked(remoteEndpoint);
+
+        if(health == null)
+            return;
+
+        int change = health.addSuccess(reset);
+        if(change > 0){
+            log.warn("Circuit opened for remote endpoint {} (reset rate).", remoteEndpoint);
+            startProbing(ctx.getChannel(), remoteEndpoint, health);
+        }
+        else if(change < 0){
+            log.info("Circuit closed for remote endpoint {}.", remoteEndpoint);
+        }
+    }
+
+
+    //a probe still in flight (from a previous opening of the circuit) schedules the next one on completion
+    private void startProbing(Channel channel, InetSocketAddress remoteEndpoint, EndpointHealth health){
+        if(health.startProbing()){
+            scheduleProbe(channel, remoteEndpoint, health);
+        }
+    }
+
+
+    private void scheduleProbe(Channel channel, InetSocketAddress remoteEndpoint, EndpointHealth health){
+        ProbeTask probeTask = new ProbeTask(channel, remoteEndpoint, health);
+        this.timer.newTimeout(probeTask, this.configuration.getProbeIntervalSeconds(), TimeUnit.SECONDS);
+    }
+
+
+    private void reject(ChannelHandlerContext ctx, MessageEvent me, CoapMessage coapMessage){
+        this.rejectedRequests.incrementAndGet();
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        String description = "Circuit open for remote endpoint " + remoteEndpoint + ".";
+        log.debug(description);
+
+        //the event is to be processed before the failed future removes the callback
+        Channels.fireMessageReceived(ctx, new MiscellaneousErrorEvent(remoteEndpoint,
+                CoapMessage.UNDEFINED_MESSAGE_ID, coapMessage.getToken(), description));
+        me.getFuture().setFailure(new IllegalStateException(description));
+    }
+
+
+    /**
+     * Returns <code>true</code> if the circuit for the given remote endpoint is open, i.e. requests are not sent
+     * to that remote endpoint, and <code>false</code> otherwise
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return <code>true</code> if the circuit for the given remote endpoint is open and <code>false</code>
+     * otherwise
+     */
+    public boolean isOpen(InetSocketAddress remoteEndpoint){
+        EndpointHealth health = this.endpoints.getIfPresent(remoteEndpoint);
+        return health != null && health.isOpen();
+    }
+
+    /**
+     * Returns the number of requests that were not sent because the circuit was open
+     * @return the number of requests that were not sent because the circuit was open
+     */
+    public long getRejectedRequests(){
+        return this.rejectedRequests.get();
+    }
+
+
+    private class ProbeTask implements TimerTask{
+
+        private final Channel channel;
+        private final InetSocketAddress remoteEndpoint;
+        private final EndpointHealth health;
+
+        private ProbeTask(Channel channel, InetSocketAddress remoteEndpoint, EndpointHealth health){
+            this.channel = channel;
+            this.remoteEndpoint = remoteEndpoint;
+            this.health = health;
+        }
+
+        @Override
+        public void run(Timeout timeout) throws Exception {
+            //the circuit was closed in the meantime
+            if(!this.channel.isOpen() || !this.health.continueProbing())
+                return;
+
+            log.info("Probe remote endpoint {} with CoAP ping.", this.remoteEndpoint);
+
+            final ProbeCallback probeCallback = new ProbeCallback(this.channel, this.remoteEndpoint, this.health);
+            CoapMessage coapPing = CoapMessage.createPing(CoapMessage.UNDEFINED_MESSAGE_ID);
+            OutboundMessageWrapper wrapper = new OutboundMessageWrapper(coapPing, probeCallback);
+
+            Channels.write(this.channel, wrapper, this.remoteEndpoint).addListener(new ChannelFutureListener() {
+                @Override
+                public void operationComplete(ChannelFuture future) throws Exception {
+                    if(!future.isSuccess()){
+                        probeCallback.processMiscellaneousError(String.valueOf(future.getCause()));
+                    }
+                }
+            });
+        }
+    }
+
+
+    private class ProbeCallback extends ClientCallback{
+
+        private final Channel channel;
+        private final InetSocketAddress remoteEndpoint;
+        private final EndpointHealth health;
+        private final AtomicBoolean completed;
+
+        private ProbeCallback(Channel channel, InetSocketAddress remoteEndpoint, EndpointHealth health){
+            this.channel = channel;
+            this.remoteEndpoint = remoteEndpoint;
+            this.health = health;
+            this.completed = new AtomicBoolean(false);
+        }
+
+        @Override
+        public void processCoapResponse(CoapResponse coapResponse) {
+            //the circuit is closed upon reception of any message
+            complete();
+        }
+
+        @Override
+        public void processReset() {
+            complete();
+        }
+
+        @Override
+        public void processEmptyAcknowledgement() {
+            complete();
+        }
+
+        @Override
+        public void processTransmissionTimeout() {
+            log.warn("Probe of remote endpoint {} timed out.", this.remoteEndpoint);
+            complete();
+        }
+
+        @Override
+        public void processMiscellaneousError(String description) {
+            log.warn("Could not probe remote endpoint {}: {}", this.remoteEndpoint, description);
+            complete();
+        }
+
+        //the next probe is only scheduled if the circuit is still open
+        private void complete(){
+            if(this.completed.compareAndSet(false, true) && this.health.continueProbing()){
+                scheduleProbe(this.channel, this.remoteEndpoint, this.health);
+            }
+        }
+    }
+
+
+    private class EndpointHealth{
+
+        private int consecutiveFailures;
+        private double resetRate;
+        private int resetRateSamples;
+        private boolean open;
+
+        //there is a probe scheduled or in flight
+        private boolean probing;
+
+        //returns true if the circuit was opened
+        private synchronized boolean addFailure(){
+            this.consecutiveFailures += 1;
+
+            if(!this.open && this.consecutiveFailures >= configuration.getFailureThreshold()){
+                this.open = true;
+                return true;
+            }
+
+            return false;
+        }
+
+        //returns 1 if the circuit was opened, -1 if it was closed and 0 otherwise
+        private synchronized int addSuccess(Boolean reset){
+            this.consecutiveFailures = 0;
+
+            //resets of requests sent before the circuit was opened do not close the circuit
+            if(this.open && reset != null && reset){
+                return 0;
+            }
+
+            if(this.open){
+                this.open = false;
+                this.resetRate = 0;
+                this.resetRateSamples = 0;
+                return -1;
+            }
+
+            if(reset != null){
+                this.resetRate = (1 - RESET_RATE_WEIGHT) * this.resetRate + (reset ? RESET_RATE_WEIGHT : 0);
+                this.resetRateSamples += 1;
+
+                if(this.resetRateSamples >= MIN_RESET_RATE_SAMPLES &&
+                        this.resetRate > configuration.getMaxResetRate()){
+                    this.open = true;
+                    return 1;
+                }
+            }
+
+            return 0;
+        }
+
+        //returns true if a new probe is to be scheduled, i.e. the circuit is open and there is no probe yet
+        private synchronized boolean startProbing(){
+            if(!this.open || this.probing){
+                return false;
+            }
+
+            this.probing = true;
+            return true;
+        }
+
+        //returns true if the (next) probe is to be sent, i.e. the circuit is still open
+        private synchronized boolean continueProbing(){
+            this.probing = this.open;
+            return this.probing;
+        }
+
+        private synchronized boolean isOpen(){
+            return this.open;
+        }
+    }
+}
@@ -24,9 +24,10 @@
  */
 package de.uniluebeck.itm.ncoap.communication.observing;
 
-import com.google.common.collect.*;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.communication.events.client.ObservationCancelledEvent;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
 import de.uniluebeck.itm.ncoap.communication.events.ResetReceivedEvent;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.CoapRequest;
@@ -38,7 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The {@link de.uniluebeck.itm.ncoap.communication.observing.ClientObservationHandler} deals with
@@ -51,8 +52,7 @@ public class ClientObservationHandler extends SimpleChannelHandler {
 
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
-    private Table<InetSocketAddress, Token, ResourceStatusAge> observations;
-    private ReentrantReadWriteLock lock;
+    private ExchangeStore<ObservationStatus> observations;
 
 
     /**
@@ -60,80 +60,30 @@ public class ClientObservationHandler extends SimpleChannelHandler {
      * {@link de.uniluebeck.itm.ncoap.communication.observing.ClientObservationHandler}
      */
     public ClientObservationHandler(){
-        this.observations = HashBasedTable.create();
-        this.lock = new ReentrantReadWriteLock();
+        this.observations = new ExchangeStore<>();
     }
 
 
     private void startObservation(InetSocketAddress remoteEndpoint, Token token){
-        try{
-            this.lock.readLock().lock();
-            if(this.observations.contains(remoteEndpoint, token)){
-                log.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
-                        remoteEndpoint, token);
-                return;
-            }
-        }
-        finally{
-            this.lock.readLock().unlock();
-        }
-
-        try{
-            this.lock.writeLock().lock();
-            if(this.observations.contains(remoteEndpoint, token)){
-                log.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
-                        remoteEndpoint, token);
-            }
-
-            else{
-                this.observations.put(remoteEndpoint, token, new ResourceStatusAge(0, 0));
-                log.info("New observation added (remote endpoint: {}, token: {})", remoteEndpoint, token);
-            }
-        }
-        finally{
-            this.lock.writeLock().unlock();
+        if(this.observations.putIfAbsent(remoteEndpoint, token, new ObservationStatus()) != null){
+            log.error("Tried to override existing observation (remote endpoint: {}, token: {}).",
+                    remoteEndpoint, token);
         }
-    }
-
-
-    private void updateStatusAge(InetSocketAddress remoteEndpoint, Token token, ResourceStatusAge age){
-        try{
-            this.lock.writeLock().lock();
-            this.observations.put(remoteEndpoint, token, age);
-            log.info("Updated observation (remote endpoint: {}, token: {}): {}",
-                    new Object[]{remoteEndpoint, token, age});
-        }
-        finally {
-            this.lock.writeLock().unlock();
+        else{
+            log.info("New observation added (remote endpoint: {}, token: {})", remoteEndpoint, token);
         }
     }
 
-    private ResourceStatusAge stopObservation(InetSocketAddress remoteEndpoint, Token token){
-        try{
-            this.lock.readLock().lock();
-            if(!this.observations.contains(remoteEndpoint, token)){
-                log.error("No observation found to be stopped (remote endpoint: {}, token: {})", remoteEndpoint, token);
-                return null;
-            }
-        }
-        finally{
-            this.lock.readLock().unlock();
-        }
 
-        try{
-            this.lock.writeLock().lock();
-            ResourceStatusAge age = this.observations.remove(remoteEndpoint, token);
-            if(age == null){
-                log.error("No observation found to be stopped (remote endpoint: {}, token: {})", remoteEndpoint, token);
-            }
-            else{
-                log.info("Observation stopped (remote endpoint: {}, token: {})!", remoteEndpoint, token);
-            }
-            return age;
+    private ObservationStatus stopObservation(InetSocketAddress remoteEndpoint, Token token){
+        ObservationStatus status = this.observations.remove(remoteEndpoint, token);
+        if(status == null){
+            log.error("No observation found to be stopped (remote endpoint: {}, token: {})", remoteEndpoint, token);
         }
-        finally{
-            this.lock.writeLock().unlock();
+        else{
+            log.info("Observation stopped (remote endpoint: {}, token: {})!", remoteEndpoint, token);
         }
+        return status;
     }
 
 
@@ -146,6 +96,11 @@ public class ClientObservationHandler extends SimpleChannelHandler {
         else if(me.getMessage() instanceof ObservationCancelledEvent){
             handleObservationCancelledEvent((ObservationCancelledEvent) me.getMessage());
         }
+        else if(me.getMessage() instanceof RequestCancelledEvent){
+            RequestCancelledEvent event = (RequestCancelledEvent) me.getMessage();
+            this.observations.remove(event.getRemoteEndpoint(), event.getToken());
+            ctx.sendDownstream(me);
+        }
         else if(me.getMessage() instanceof CoapMessage){
             ctx.sendDownstream(me);
         }
@@ -238,34 +193,75 @@ public class ClientObservationHandler extends SimpleChannelHandler {
             }
         }
 
-        else if(coapResponse.isUpdateNotification()){
+        else{
+            //Lookup status of the observation (no allocation and no lock per update notification)
+            ObservationStatus status = observations.get(remoteEndpoint, token);
+            long receivedSequenceNo = coapResponse.getObserve();
+
             //current response is update notification but there is no suitable observation
-            if(!observations.contains(remoteEndpoint, token)){
+            if(status == null){
                 log.warn("No observation found for update notification (remote endpoint: {}, token: {}).",
                         remoteEndpoint, token);
             }
 
-            //Current response is (non-error) update notification and there is a suitable observation
-            else if(coapResponse.isUpdateNotification() && !MessageCode.isErrorMessage(coapResponse.getMessageCode())){
-                //Lookup status age of latest update notification
-                ResourceStatusAge latestStatusAge = observations.get(remoteEndpoint, token);
+            //Current response is (non-error) update notification but older than the latest
+            else if(!status.update(receivedSequenceNo, System.currentTimeMillis())){
+                log.warn("Received update notification (sequence no: {}) is older than latest. IGNORE!",
+                        receivedSequenceNo);
+                return;
+            }
+
+            else if(log.isDebugEnabled()){
+                log.debug("Updated observation (remote endpoint: {}, token: {}): sequence no {}",
+                        new Object[]{remoteEndpoint, token, receivedSequenceNo});
+            }
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    /**
+     * The age of the latest update notification of an observation, i.e. the sequence number (24 bits) and the
+     * reception time (relative to the start of the observation) packed into a single long to be updated with a
+     * compare-and-set.
+     */
+    private static class ObservationStatus {
 
-                //Get status age from newly received update notification
-                long receivedSequenceNo = coapResponse.getObserve();
-                ResourceStatusAge receivedStatusAge = new ResourceStatusAge(receivedSequenceNo, System.currentTimeMillis());
+        private static final long UNDEFINED = -1;
+        private static final long SEQUENCE_NO_MASK = ResourceStatusAge.MODULUS - 1;
+        private static final int TIMESTAMP_SHIFT = 24;
 
-                if(ResourceStatusAge.isReceivedStatusNewer(latestStatusAge, receivedStatusAge)){
-                    updateStatusAge(remoteEndpoint, token, receivedStatusAge);
+        private final long startTime;
+        private final AtomicLong latest;
+
+        private ObservationStatus(){
+            this.startTime = System.currentTimeMillis();
+            this.latest = new AtomicLong(UNDEFINED);
+        }
+
+        /**
+         * Returns <code>true</code> if the given status is newer than the latest (and is thus the latest now) or
+         * <code>false</code> otherwise.
+         */
+        private boolean update(long sequenceNo, long timestamp){
+            long receivedSequenceNo = sequenceNo & SEQUENCE_NO_MASK;
+            long receivedTimestamp = Math.max(0, timestamp - this.startTime);
+            long received = (receivedTimestamp << TIMESTAMP_SHIFT) | receivedSequenceNo;
+
+            while(true){
+                long current = this.latest.get();
+
+                //the first update notification is always accepted
+                if(current != UNDEFINED && !ResourceStatusAge.isReceivedStatusNewer(current & SEQUENCE_NO_MASK,
+                        current >>> TIMESTAMP_SHIFT, receivedSequenceNo, receivedTimestamp)){
+                    return false;
                 }
 
-                else{
-                    log.warn("Received update notification ({}) is older than latest ({}). IGNORE!",
-                            receivedStatusAge, latestStatusAge);
-                    return;
+                if(this.latest.compareAndSet(current, received)){
+                    return true;
                 }
             }
         }
-
-        ctx.sendUpstream(me);
     }
 }
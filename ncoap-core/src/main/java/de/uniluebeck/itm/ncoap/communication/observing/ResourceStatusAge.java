@@ -68,23 +68,46 @@ public class ResourceStatusAge {
      * otherwise
      */
     public static boolean isReceivedStatusNewer(ResourceStatusAge latest, ResourceStatusAge received){
-        if(latest.sequenceNo < received.sequenceNo && received.sequenceNo - latest.sequenceNo < THRESHOLD){
-            log.debug("Criterion 1 matches: received ({}) is newer than latest ({}).", received, latest);
-            return true;
+        boolean newer = isReceivedStatusNewer(latest.sequenceNo, latest.timestamp, received.sequenceNo,
+                received.timestamp);
+
+        if(log.isDebugEnabled()){
+            log.debug("Received ({}) is {} than latest ({}).", new Object[]{received, newer ? "newer" : "older",
+                    latest});
         }
 
-        if(latest.sequenceNo > received.sequenceNo && latest.sequenceNo - received.sequenceNo > THRESHOLD){
-            log.debug("Criterion 2 matches: received  ({}) is newer than latest ({}).", received, latest);
+        return newer;
+    }
+
+    /**
+     * Returns <code>true</code> if the received status is newer than the latest status or <code>false</code>
+     * otherwise. This is the allocation-free variant of
+     * {@link #isReceivedStatusNewer(ResourceStatusAge, ResourceStatusAge)}, i.e. the timestamps only need to be
+     * comparable with each other.
+     *
+     * @param latestSequenceNo the sequence number of the latest update notification received so far
+     * @param latestTimestamp the reception timestamp (in milliseconds) of the latest update notification
+     * @param receivedSequenceNo the sequence number of the newly received update notification
+     * @param receivedTimestamp the reception timestamp (in milliseconds) of the newly received update notification
+     *
+     * @return <code>true</code> if the received status is newer than the latest status or <code>false</code>
+     * otherwise
+     */
+    public static boolean isReceivedStatusNewer(long latestSequenceNo, long latestTimestamp, long receivedSequenceNo,
+                                                long receivedTimestamp){
+
+        //Criterion 1
+        if(latestSequenceNo < receivedSequenceNo && receivedSequenceNo - latestSequenceNo < THRESHOLD){
             return true;
         }
 
-        if(received.timestamp > latest.timestamp + 128000L){
-            log.debug("Criterion 3 matches: received ({}) is newer than latest ({}).", received, latest);
+        //Criterion 2
+        if(latestSequenceNo > receivedSequenceNo && latestSequenceNo - receivedSequenceNo > THRESHOLD){
             return true;
         }
 
-        log.debug("No criterion matches: received({}) is older than latest ({}).", received, latest);
-        return false;
+        //Criterion 3
+        return receivedTimestamp > latestTimestamp + 128000L;
     }
 
     @Override
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link RetransmissionPolicy} that estimates the retransmission timeout (RTO) per remote endpoint from the
+ * round trip times of acknowledged messages (according to CoCoA, see draft-ietf-core-cocoa), i.e.
+ *
+ * <ul>
+ *     <li>
+ *         the <b>strong estimator</b> is fed with round trip times of messages that were acknowledged without any
+ *         retransmission (RTO = SRTT + 4 * RTTVAR),
+ *     </li>
+ *     <li>
+ *         the <b>weak estimator</b> is fed with round trip times (measured from the first transmission) of messages
+ *         that were acknowledged after the first or second retransmission (RTO = SRTT + RTTVAR),
+ *     </li>
+ *     <li>
+ *         the overall RTO is the weighted average of its previous value and the estimator that was updated
+ *         (strong: 1/2, weak: 1/4),
+ *     </li>
+ *     <li>
+ *         the back-off factor depends on the (not randomized) RTO, i.e. 3 if it is less than 1 second, 1.5 if it
+ *         is more than 3 seconds and 2 otherwise (variable back-off),
+ *     </li>
+ *     <li>
+ *         the RTO never exceeds {@link RetransmissionPolicy#MAX_RETRANSMISSION_DELAY_MILLIS},
+ *     </li>
+ *     <li>
+ *         the RTO of a remote endpoint without recent updates ages towards the default of
+ *         {@link OutboundReliableMessageTransfer#ACK_TIMEOUT_MILLIS}.
+ *     </li>
+ * </ul>
+ *
+ * The estimation for a remote endpoint is discarded if there was no communication with that endpoint for
+ * {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds.
+ *
+ * @author Oliver Kleine
+ */
+public class AdaptiveRetransmissionPolicy extends RetransmissionPolicy {
+
+    private static Logger log = LoggerFactory.getLogger(AdaptiveRetransmissionPolicy.class.getName());
+
+    /**
+     * The granularity (10 milliseconds) of the clock used to schedule retransmissions (see
+     * {@link HashedWheelReliabilityTimer#TICK_DURATION_MILLIS}), i.e. the minimum deviation added to the estimated
+     * round trip time
+     */
+    public static final long CLOCK_GRANULARITY_MILLIS = HashedWheelReliabilityTimer.TICK_DURATION_MILLIS;
+
+    private final Cache<InetSocketAddress, RoundTripTimeEstimator> estimators;
+
+    /**
+     * Creates a new instance of {@link AdaptiveRetransmissionPolicy}
+     */
+    public AdaptiveRetransmissionPolicy(){
+        this.estimators = CacheBuilder.newBuilder()
+                .expireAfterAccess(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+    }
+
+
+    @Override
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint) {
+        RoundTripTimeEstimator estimator = this.estimators.getIfPresent(remoteEndpoint);
+        return estimator == null ? OutboundReliableMessageTransfer.ACK_TIMEOUT_MILLIS :
+                estimator.getRetransmissionTimeout();
+    }
+
+
+    @Override
+    public double getBackOffFactor(long retransmissionTimeout) {
+        if(retransmissionTimeout < 1000)
+            return 3;
+
+        else if(retransmissionTimeout > 3000)
+            return 1.5;
+
+        else
+            return 2;
+    }
+
+
+    @Override
+    public void updateRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTime, int retransmissions) {
+        //later acknowledgements can not be assigned to a particular transmission
+        if(retransmissions > 2)
+            return;
+
+        try{
+            RoundTripTimeEstimator estimator = this.estimators.get(remoteEndpoint,
+                    new Callable<RoundTripTimeEstimator>() {
+                        @Override
+                        public RoundTripTimeEstimator call() throws Exception {
+                            return new RoundTripTimeEstimator();
+                        }
+                    });
+
+            long rto = estimator.update(roundTripTime, retransmissions == 0);
+            log.debug("New RTO for {}: {} ms (RTT: {} ms, retransmissions: {})",
+                    new Object[]{remoteEndpoint, rto, roundTripTime, retransmissions});
+        }
+        catch(ExecutionException ex){
+            log.error("This should never happen!", ex);
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "Adaptive (CoCoA, " + this.estimators.size() + " estimated remote endpoints)";
+    }
+
+
+    private static class RoundTripTimeEstimator {
+
+        private final Estimator strong;
+        private final Estimator weak;
+        private long retransmissionTimeout;
+        private long lastUpdate;
+
+        private RoundTripTimeEstimator(){
+            this.strong = new Estimator(4);
+            this.weak = new Estimator(1);
+            this.retransmissionTimeout = OutboundReliableMessageTransfer.ACK_TIMEOUT_MILLIS;
+            this.lastUpdate = System.currentTimeMillis();
+        }
+
+        private synchronized long update(long roundTripTime, boolean strongMeasurement){
+            if(strongMeasurement){
+                long rto = this.strong.update(roundTripTime);
+                this.retransmissionTimeout = (rto + this.retransmissionTimeout) / 2;
+            }
+            else{
+                long rto = this.weak.update(roundTripTime);
+                this.retransmissionTimeout = (rto + 3 * this.retransmissionTimeout) / 4;
+            }
+
+            this.retransmissionTimeout = Math.min(this.retransmissionTimeout, MAX_RETRANSMISSION_DELAY_MILLIS);
+            this.lastUpdate = System.currentTimeMillis();
+            return this.retransmissionTimeout;
+        }
+
+        private synchronized long getRetransmissionTimeout(){
+            long now = System.currentTimeMillis();
+            long idle = now - this.lastUpdate;
+
+            //small RTOs age towards 1 second, large RTOs towards 2 seconds
+            if(this.retransmissionTimeout < 1000 && idle > 16 * this.retransmissionTimeout){
+                this.retransmissionTimeout = (1000 + this.retransmissionTimeout) / 2;
+                this.lastUpdate = now;
+            }
+            else if(this.retransmissionTimeout > 3000 && idle > 4 * this.retransmissionTimeout){
+                this.retransmissionTimeout = (2000 + this.retransmissionTimeout) / 2;
+                this.lastUpdate = now;
+            }
+
+            return this.retransmissionTimeout;
+        }
+    }
+
+
+    private static class Estimator {
+
+        private final int k;
+        private double smoothedRoundTripTime;
+        private double roundTripTimeVariation;
+        private boolean initialized;
+
+        private Estimator(int k){
+            this.k = k;
+            this.initialized = false;
+        }
+
+        private long update(long roundTripTime){
+            if(!this.initialized){
+                this.smoothedRoundTripTime = roundTripTime;
+                this.roundTripTimeVariation = roundTripTime / 2.0;
+                this.initialized = true;
+            }
+            else{
+                //alpha = 1/8, beta = 1/4 (see RFC 6298)
+                this.roundTripTimeVariation = 0.75 * this.roundTripTimeVariation +
+                        0.25 * Math.abs(this.smoothedRoundTripTime - roundTripTime);
+                this.smoothedRoundTripTime = 0.875 * this.smoothedRoundTripTime + 0.125 * roundTripTime;
+            }
+
+            return (long) (this.smoothedRoundTripTime +
+                    Math.max(CLOCK_GRANULARITY_MILLIS, this.k * this.roundTripTimeVariation));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import java.net.InetSocketAddress;
+
+/**
+ * The {@link RetransmissionPolicy} according to RFC 7252, i.e. the retransmission timeout is
+ * {@link OutboundReliableMessageTransfer#ACK_TIMEOUT_MILLIS} for all remote endpoints and the delay is doubled for
+ * every retransmission. Round trip times are ignored.
+ *
+ * @author Oliver Kleine
+ */
+class DefaultRetransmissionPolicy extends RetransmissionPolicy {
+
+    static final DefaultRetransmissionPolicy INSTANCE = new DefaultRetransmissionPolicy();
+
+    private DefaultRetransmissionPolicy(){
+        //use the singleton instance
+    }
+
+    @Override
+    public long getRetransmissionTimeout(InetSocketAddress remoteEndpoint) {
+        return OutboundReliableMessageTransfer.ACK_TIMEOUT_MILLIS;
+    }
+
+    @Override
+    public double getBackOffFactor(long retransmissionTimeout) {
+        return 2;
+    }
+
+    @Override
+    public String toString() {
+        return "RFC 7252 (static retransmission timeout)";
+    }
+}
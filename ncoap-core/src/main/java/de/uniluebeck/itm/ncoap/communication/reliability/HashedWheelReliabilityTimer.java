@@ -0,0 +1,126 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import org.jboss.netty.util.HashedWheelTimer;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link org.jboss.netty.util.Timer} for the reliability related tasks of the nCoAP framework, i.e.
+ * retransmissions, delayed empty acknowledgements and message ID retirements. It is backed by a
+ * {@link org.jboss.netty.util.HashedWheelTimer}, i.e. scheduling and cancellation of a
+ * {@link org.jboss.netty.util.Timeout} take constant time regardless of the number of pending timeouts. The price
+ * is a precision of {@link #TICK_DURATION_MILLIS} milliseconds which is by far sufficient for the CoAP timing
+ * parameters.
+ *
+ * Expired {@link org.jboss.netty.util.TimerTask}s are not executed by the single thread running the wheel but
+ * handed over to the given {@link java.util.concurrent.Executor}. Thus, time consuming tasks (e.g. application
+ * callbacks invoked upon a transmission timeout) do not delay other timeouts.
+ *
+ * @author Oliver Kleine
+ */
+public class HashedWheelReliabilityTimer implements Timer {
+
+    /**
+     * The duration (10 milliseconds) between two ticks of the wheel
+     */
+    public static final int TICK_DURATION_MILLIS = 10;
+
+    /**
+     * The number of buckets (512) of the wheel, i.e. a single revolution takes about 5 seconds which covers the
+     * first retransmissions of confirmable messages and the delay of empty acknowledgements.
+     */
+    public static final int TICKS_PER_WHEEL = 512;
+
+    private static Logger log = LoggerFactory.getLogger(HashedWheelReliabilityTimer.class.getName());
+
+    private final HashedWheelTimer wheel;
+    private final Executor executor;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.HashedWheelReliabilityTimer}
+     *
+     * @param threadFactory the {@link java.util.concurrent.ThreadFactory} to create the thread running the wheel
+     * @param executor the {@link java.util.concurrent.Executor} to execute expired
+     *                 {@link org.jboss.netty.util.TimerTask}s
+     */
+    public HashedWheelReliabilityTimer(ThreadFactory threadFactory, Executor executor){
+        this.wheel = new HashedWheelTimer(threadFactory, TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS,
+                TICKS_PER_WHEEL);
+        this.executor = executor;
+    }
+
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        return this.wheel.newTimeout(new DispatchingTimerTask(task), delay, unit);
+    }
+
+
+    @Override
+    public Set<Timeout> stop() {
+        return this.wheel.stop();
+    }
+
+
+    private class DispatchingTimerTask implements TimerTask{
+
+        private final TimerTask task;
+
+        private DispatchingTimerTask(TimerTask task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run(final Timeout timeout) throws Exception {
+            try{
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try{
+                            task.run(timeout);
+                        }
+                        catch(Exception ex){
+                            log.error("Exception while executing timer task!", ex);
+                        }
+                    }
+                });
+            }
+            catch(RejectedExecutionException ex){
+                log.warn("Executor rejected expired timer task (probably due to shutdown).");
+            }
+        }
+    }
+}
@@ -25,17 +25,19 @@
 
 package de.uniluebeck.itm.ncoap.communication.reliability;
 
-import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
+import de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent;
 import de.uniluebeck.itm.ncoap.message.*;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -51,23 +53,31 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
 
     private static Logger log = LoggerFactory.getLogger(InboundReliabilityHandler.class.getName());
 
-    private HashBasedTable<InetSocketAddress, Integer, InboundMessageTransfer> conversations;
-    private ReentrantReadWriteLock lock;
+    private ExchangeStore<InboundMessageTransfer> conversations;
 
-    private ScheduledExecutorService executor;
+    private Timer timer;
     private ChannelHandlerContext ctx;
 
 
     /**
      * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.InboundReliabilityHandler}
      *
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the tasks for reliability.
+     */
+    public InboundReliabilityHandler(Timer timer){
+        this.conversations = new ExchangeStore<>();
+        this.timer = timer;
+    }
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.InboundReliabilityHandler}
+     * that schedules its tasks using a {@link de.uniluebeck.itm.ncoap.communication.reliability.ScheduledExecutorTimer}
+     *
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to provide the threads to execute the
      *                 tasks for reliability.
      */
     public InboundReliabilityHandler(ScheduledExecutorService executor){
-        this.conversations = HashBasedTable.create();
-        this.executor = executor;
-        this.lock = new ReentrantReadWriteLock();
+        this(new ScheduledExecutorTimer(executor));
     }
 
     /**
@@ -131,12 +141,14 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
                     InboundReliableMessageTransfer reliableTransfer = (InboundReliableMessageTransfer) transfer;
 
                     //if the message reception was already confirmed, than confirm it again (after default delay)
-                    if(reliableTransfer.isConfirmed()){
-                        ConfirmationTask confirmationTask = new ConfirmationTask(remoteEndpoint, messageID);
-                        ScheduledFuture confirmationFuture = this.executor.schedule(confirmationTask,
-                                InboundReliableMessageTransfer.EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
-                        reliableTransfer.setConfirmationFuture(confirmationFuture);
-                        reliableTransfer.setConfirmed(false);
+                    synchronized(reliableTransfer){
+                        if(reliableTransfer.isConfirmed()){
+                            ConfirmationTask confirmationTask = new ConfirmationTask(remoteEndpoint, messageID);
+                            Timeout confirmationTimeout = this.timer.newTimeout(confirmationTask,
+                                    InboundReliableMessageTransfer.EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
+                            reliableTransfer.setConfirmationTimeout(confirmationTimeout);
+                            reliableTransfer.setConfirmed(false);
+                        }
                     }
                 }
             }
@@ -150,84 +162,61 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
 
 
     private boolean startConversation(InetSocketAddress remoteEndpoint, int messageID, MessageType.Name messageType){
-        try{
-            lock.readLock().lock();
-            //duplicate detection
-            if(this.conversations.contains(remoteEndpoint, messageID)){
-                return false;
-            }
+        //duplicate detection
+        if(this.conversations.contains(remoteEndpoint, messageID)){
+            return false;
         }
-        finally{
-            lock.readLock().unlock();
-        }
-
-        try{
-            lock.writeLock().lock();
 
-            //another duplicate detection (just to be safe within the synchronized area)
-            if(this.conversations.contains(remoteEndpoint, messageID)){
+        //this is probably no duplicate, so add a new conversation
+        else if(messageType == MessageType.Name.CON) {
+            TimerTask confirmationTask = new ConfirmationTask(remoteEndpoint, messageID);
+            Timeout confirmationTimeout = this.timer.newTimeout(confirmationTask,
+                    InboundReliableMessageTransfer.EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
+            InboundReliableMessageTransfer messageExchange = new InboundReliableMessageTransfer(remoteEndpoint,
+                    messageID, confirmationTimeout);
+
+            //another duplicate detection (just to be safe with concurrent receptions)
+            if(this.conversations.putIfAbsent(remoteEndpoint, messageID, messageExchange) != null){
+                confirmationTimeout.cancel();
                 return false;
             }
 
-            //this is definitely no duplicate, so add a new conversation
-            else if(messageType == MessageType.Name.CON) {
-                Runnable confirmationTask = new ConfirmationTask(remoteEndpoint, messageID);
-                ScheduledFuture confirmationFuture = this.executor.schedule(confirmationTask,
-                        InboundReliableMessageTransfer.EMPTY_ACK_DELAY, TimeUnit.MILLISECONDS);
-                InboundReliableMessageTransfer messageExchange = new InboundReliableMessageTransfer(remoteEndpoint,
-                        messageID, confirmationFuture);
-                this.conversations.put(remoteEndpoint, messageID, messageExchange);
-                return true;
-            }
-
-            else if(messageType == MessageType.Name.NON){
-                this.conversations.put(remoteEndpoint, messageID,
-                        new InboundMessageTransfer(remoteEndpoint, messageID));
-                return true;
-            }
+            return true;
+        }
 
-            else{
-                log.error("Unexpected message type ({}) to start a conversation!", messageType);
-                return false;
-            }
+        else if(messageType == MessageType.Name.NON){
+            InboundMessageTransfer messageExchange = new InboundMessageTransfer(remoteEndpoint, messageID);
+            return this.conversations.putIfAbsent(remoteEndpoint, messageID, messageExchange) == null;
         }
-        finally {
-            lock.writeLock().unlock();
+
+        else{
+            log.error("Unexpected message type ({}) to start a conversation!", messageType);
+            return false;
         }
     }
 
 
     private InboundMessageTransfer stopReliableTransfer(InetSocketAddress remoteEndpoint, int messageID){
-        try{
-            lock.readLock().lock();
-            if(!this.conversations.contains(remoteEndpoint, messageID)){
-                return null;
-            }
-        }
-        finally {
-            lock.readLock().unlock();
-        }
-
-        try{
-            lock.writeLock().lock();
-            InboundMessageTransfer messageTransfer = this.conversations.remove(remoteEndpoint, messageID);
-
-            if(messageTransfer != null && messageTransfer instanceof InboundReliableMessageTransfer){
-                stopConfirmationTask((InboundReliableMessageTransfer) messageTransfer);
-            }
+        InboundMessageTransfer messageTransfer = this.conversations.remove(remoteEndpoint, messageID);
 
-            return messageTransfer;
-        }
-        finally {
-            lock.writeLock().unlock();
+        if(messageTransfer != null && messageTransfer instanceof InboundReliableMessageTransfer){
+            stopConfirmationTask((InboundReliableMessageTransfer) messageTransfer);
         }
+
+        return messageTransfer;
     }
 
 
     private void stopConfirmationTask(InboundReliableMessageTransfer messageExchange){
-        //not yet confirmed
-        if(!messageExchange.isConfirmed()){
-            if(messageExchange.getConfirmationFuture().cancel(false)){
+        synchronized(messageExchange){
+            //already confirmed, i.e. there is nothing to cancel
+            if(messageExchange.isConfirmed()){
+                return;
+            }
+
+            Timeout confirmationTimeout = messageExchange.getConfirmationTimeout();
+            if(!confirmationTimeout.isExpired()){
+                confirmationTimeout.cancel();
                 log.info("Confirmation task successfully canceled (remote endpoint: {}, message ID: {})",
                         messageExchange.getRemoteEndpoint(), messageExchange.getMessageID());
             }
@@ -257,12 +246,28 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
         if(me.getMessage() instanceof CoapResponse){
             handleOutboundCoapResponse(ctx, me);
         }
+        else if(me.getMessage() instanceof RequestDroppedEvent){
+            handleRequestDroppedEvent(ctx, me);
+        }
         else{
             ctx.sendDownstream(me);
         }
     }
 
 
+    private void handleRequestDroppedEvent(ChannelHandlerContext ctx, MessageEvent me){
+        RequestDroppedEvent event = (RequestDroppedEvent) me.getMessage();
+
+        //there is no response to be sent, i.e. neither an empty ACK
+        if(stopReliableTransfer(event.getRemoteEndpoint(), event.getMessageID()) != null){
+            log.info("Removed conversation of dropped request (remote endpoint: {}, message ID: {})",
+                    event.getRemoteEndpoint(), event.getMessageID());
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
     private void handleOutboundCoapResponse(ChannelHandlerContext ctx, MessageEvent me){
 
         InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
@@ -284,7 +289,7 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
     }
 
 
-    private class ConfirmationTask implements Runnable{
+    private class ConfirmationTask implements TimerTask{
 
                   private final InetSocketAddress remoteEndpoint;
                   private final int messageID;
@@ -295,7 +300,7 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
                   }
 
                   @Override
-                  public void run(){
+                  public void run(Timeout timeout){
                       CoapMessage emptyACK = CoapMessage.createEmptyAcknowledgement(messageID);
                       ChannelFuture confirmationFuture = Channels.write(ctx.getChannel(), emptyACK, remoteEndpoint);
                       if(log.isInfoEnabled()){
@@ -307,8 +312,10 @@ public class InboundReliabilityHandler extends SimpleChannelHandler {
                               }
                           });
                       }
-                      ((InboundReliableMessageTransfer) conversations.get(remoteEndpoint, messageID))
-                              .setConfirmed(true);
+                      InboundMessageTransfer transfer = conversations.get(remoteEndpoint, messageID);
+                      if(transfer instanceof InboundReliableMessageTransfer){
+                          ((InboundReliableMessageTransfer) transfer).setConfirmed(true);
+                      }
                   }
               }
 }
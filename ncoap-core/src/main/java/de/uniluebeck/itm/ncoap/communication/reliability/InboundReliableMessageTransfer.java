@@ -25,8 +25,9 @@
 
 package de.uniluebeck.itm.ncoap.communication.reliability;
 
+import org.jboss.netty.util.Timeout;
+
 import java.net.InetSocketAddress;
-import java.util.concurrent.ScheduledFuture;
 
 /**
  * Instances of {@link de.uniluebeck.itm.ncoap.communication.reliability.InboundReliableMessageTransfer} represent
@@ -41,7 +42,7 @@ public class InboundReliableMessageTransfer extends InboundMessageTransfer {
      */
     public static final int EMPTY_ACK_DELAY = 1500;
 
-    private ScheduledFuture confirmationFuture;
+    private Timeout confirmationTimeout;
     private boolean confirmed;
     /**
      * Creates a new instance of
@@ -49,11 +50,12 @@ public class InboundReliableMessageTransfer extends InboundMessageTransfer {
      *
      * @param remoteEndpoint the sender of the received confirmable {@link de.uniluebeck.itm.ncoap.message.CoapMessage}
      * @param messageID the message ID of the received {@link de.uniluebeck.itm.ncoap.message.CoapMessage}.
+     * @param confirmationTimeout the {@link org.jboss.netty.util.Timeout} of the scheduled empty ACK
      */
     public InboundReliableMessageTransfer(InetSocketAddress remoteEndpoint, int messageID,
-                                          ScheduledFuture confirmationFuture) {
+                                          Timeout confirmationTimeout) {
         super(remoteEndpoint, messageID);
-        this.confirmationFuture = confirmationFuture;
+        this.confirmationTimeout = confirmationTimeout;
         this.confirmed = false;
     }
 
@@ -73,12 +75,12 @@ public class InboundReliableMessageTransfer extends InboundMessageTransfer {
     }
 
 
-    public void setConfirmationFuture(ScheduledFuture confirmationFuture){
-        this.confirmationFuture = confirmationFuture;
+    public void setConfirmationTimeout(Timeout confirmationTimeout){
+        this.confirmationTimeout = confirmationTimeout;
     }
 
 
-    public ScheduledFuture getConfirmationFuture(){
-        return this.confirmationFuture;
+    public Timeout getConfirmationTimeout(){
+        return this.confirmationTimeout;
     }
 }
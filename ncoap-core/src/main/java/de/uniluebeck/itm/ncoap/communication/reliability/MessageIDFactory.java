@@ -28,20 +28,35 @@ import de.uniluebeck.itm.ncoap.communication.events.MessageIDReleasedEvent;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.Channels;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.*;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * An instances of {@link MessageIDFactory} creates and manages message IDs for outgoing messages. On creation of
  * new message IDs the factory ensures that the same message ID is not used twice for different messages to the
  * same remote CoAP endpoints within {@link #EXCHANGE_LIFETIME} seconds.
  *
+ * The allocations for each remote endpoint are represented by a sequence counter and a ring of
+ * {@link #RING_SIZE} slots, each covering {@link #SLOT_DURATION_MILLIS} milliseconds and containing the highest
+ * sequence number allocated within that period. Since all message IDs share the same lifetime they retire in the
+ * order of their allocation, i.e. the ring is sufficient to determine which message IDs are retired. The retirement
+ * is checked lazily if all message IDs for a remote endpoint are in use and periodically by a single sweep over all
+ * remote endpoints which fires a {@link de.uniluebeck.itm.ncoap.communication.events.MessageIDReleasedEvent} for
+ * every retired message ID. Allocation of a message ID does not require any lock.
+ *
  * @author Oliver Kleine
 */
 public class MessageIDFactory{
@@ -58,24 +73,46 @@ public class MessageIDFactory{
      */
     public static final int MODULUS = 65536;
 
+    /**
+     * The number of milliseconds (250) covered by a single slot of the retirement ring. This is the precision of
+     * the retirement of message IDs and the interval of the periodic retirement sweep.
+     */
+    public static final int SLOT_DURATION_MILLIS = 250;
+
+    /**
+     * The number of slots (1024) of the retirement ring per remote endpoint. The ring covers 256 seconds, i.e. a bit
+     * more than {@link #EXCHANGE_LIFETIME}.
+     */
+    public static final int RING_SIZE = 1024;
+
+    private static final long RETIREMENT_SLOTS =
+            (TimeUnit.SECONDS.toMillis(EXCHANGE_LIFETIME) + SLOT_DURATION_MILLIS - 1) / SLOT_DURATION_MILLIS;
+
+    private static final long CLOSED = -1;
+
     private Logger log = LoggerFactory.getLogger(this.getClass().getName());
 
     private Random random;
 
-    private Map<InetSocketAddress, ArrayDeque<AllocationRetirementTask>> retirementTasks;
-    private ReentrantReadWriteLock lock;
-    private ScheduledExecutorService executor;
+    private ConcurrentHashMap<InetSocketAddress, Allocations> allocations;
+    private final long startTime;
+    private Timer timer;
+    private volatile Timeout sweepTimeout;
+    private volatile boolean shutdown;
     private Channel channel;
 
     /**
-     * @param executor the {@link ScheduledExecutorService} to provide the thread for operations to
-     *                        provide available message IDs
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the periodic retirement of allocated
+     *              message IDs
      */
-    public MessageIDFactory(ScheduledExecutorService executor){
-        this.executor = executor;
-        this.retirementTasks = new HashMap<>();
-        this.lock = new ReentrantReadWriteLock();
+    public MessageIDFactory(Timer timer){
+        this.timer = timer;
+        this.allocations = new ConcurrentHashMap<>();
         this.random = new Random(System.currentTimeMillis());
+        this.startTime = System.nanoTime();
+        this.shutdown = false;
+        this.sweepTimeout = this.timer.newTimeout(new RetirementSweepTask(), SLOT_DURATION_MILLIS,
+                TimeUnit.MILLISECONDS);
     }
 
 
@@ -96,98 +133,209 @@ public class MessageIDFactory{
      * {@link de.uniluebeck.itm.ncoap.message.CoapMessage#UNDEFINED_MESSAGE_ID} if all IDs are in use.
      */
     public int getNextMessageID(InetSocketAddress remoteEndpoint){
+        long slot = getCurrentSlot();
 
-        try{
-            lock.readLock().lock();
-            ArrayDeque<AllocationRetirementTask> allocations = this.retirementTasks.get(remoteEndpoint);
+        while(true){
+            Allocations endpointAllocations = getAllocations(remoteEndpoint, slot);
+            long sequenceNo = endpointAllocations.next.get();
 
-            if(allocations != null && allocations.size() == MODULUS){
-                log.warn("No more message IDs available for remote endpoint {}.", remoteEndpoint);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+            //allocations were removed by the retirement sweep
+            if(sequenceNo == CLOSED){
+                this.allocations.remove(remoteEndpoint, endpointAllocations);
             }
-        }
-        finally{
-            lock.readLock().unlock();
-        }
 
-        try{
-            lock.writeLock().lock();
+            //all message IDs in use, so check for retired message IDs
+            else if(sequenceNo - endpointAllocations.retired >= MODULUS){
+                retire(endpointAllocations, slot);
 
-            ArrayDeque<AllocationRetirementTask> allocations = this.retirementTasks.get(remoteEndpoint);
+                if(sequenceNo - endpointAllocations.retired >= MODULUS){
+                    log.warn("No more message IDs available for remote endpoint {}.", remoteEndpoint);
+                    return CoapMessage.UNDEFINED_MESSAGE_ID;
+                }
+            }
 
-            if(allocations != null && allocations.size() == MODULUS){
-                log.warn("No more message IDs available for remote endpoint {}.", remoteEndpoint);
-                return CoapMessage.UNDEFINED_MESSAGE_ID;
+            else if(endpointAllocations.next.compareAndSet(sequenceNo, sequenceNo + 1)){
+                //the slot is determined after the allocation to never retire a message ID too early
+                endpointAllocations.setAllocated(getCurrentSlot(), sequenceNo);
+                return endpointAllocations.getMessageID(sequenceNo);
             }
-            else{
-                int nextMessageID = allocations == null ? this.random.nextInt(MODULUS) :
-                        (allocations.getFirst().getMessageID() + 1) % MODULUS;
+        }
+    }
 
-                AllocationRetirementTask retirementTask = new AllocationRetirementTask(remoteEndpoint, nextMessageID);
 
-                if(allocations == null){
-                    this.retirementTasks.put(remoteEndpoint, new ArrayDeque<AllocationRetirementTask>());
-                }
+    /**
+     * Returns the number of message IDs that are currently allocated for the given remote endpoint, i.e. that were
+     * returned by {@link #getNextMessageID(java.net.InetSocketAddress)} and are not yet retired. The value is
+     * accurate up to {@link #SLOT_DURATION_MILLIS} milliseconds.
+     *
+     * @param remoteEndpoint the remote endpoint to return the number of allocated message IDs for
+     *
+     * @return the number of message IDs that are currently allocated for the given remote endpoint
+     */
+    public int getAllocatedMessageIDs(InetSocketAddress remoteEndpoint){
+        Allocations endpointAllocations = this.allocations.get(remoteEndpoint);
+        if(endpointAllocations == null)
+            return 0;
+
+        long sequenceNo = endpointAllocations.next.get();
+        return sequenceNo == CLOSED ? 0 : (int) Math.max(0, sequenceNo - endpointAllocations.retired);
+    }
+
+
+    public void shutdown(){
+        this.shutdown = true;
+        this.sweepTimeout.cancel();
+        this.allocations.clear();
+    }
+
 
-                allocations = this.retirementTasks.get(remoteEndpoint);
-                allocations.push(retirementTask);
+    private Allocations getAllocations(InetSocketAddress remoteEndpoint, long slot){
+        Allocations endpointAllocations = this.allocations.get(remoteEndpoint);
 
-                this.executor.schedule(retirementTask, EXCHANGE_LIFETIME, TimeUnit.SECONDS);
+        if(endpointAllocations == null){
+            Allocations newAllocations = new Allocations(remoteEndpoint, this.random.nextInt(MODULUS), slot);
+            endpointAllocations = this.allocations.putIfAbsent(remoteEndpoint, newAllocations);
 
-                return nextMessageID;
+            if(endpointAllocations == null){
+                endpointAllocations = newAllocations;
             }
         }
-        finally{
-            lock.writeLock().unlock();
-        }
+
+        return endpointAllocations;
     }
 
 
-    public void shutdown(){
+    private long getCurrentSlot(){
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.startTime) / SLOT_DURATION_MILLIS + 1;
+    }
+
+
+    private void retire(Allocations endpointAllocations, long slot){
+        //Another thread is already retiring message IDs for this remote endpoint
+        if(!endpointAllocations.retiring.compareAndSet(false, true)){
+            return;
+        }
+
         try{
-            lock.writeLock().lock();
-            this.retirementTasks.clear();
+            long lastRetiredSlot = slot - RETIREMENT_SLOTS - 1;
+            long firstRetiredSlot = Math.max(endpointAllocations.retiredSlot + 1, lastRetiredSlot - RING_SIZE + 1);
+
+            if(lastRetiredSlot < firstRetiredSlot){
+                return;
+            }
+
+            long retired = endpointAllocations.retired;
+            for(long retiredSlot = firstRetiredSlot; retiredSlot <= lastRetiredSlot; retiredSlot++){
+                retired = Math.max(retired, endpointAllocations.getAllocated(retiredSlot, retired) + 1);
+            }
+            endpointAllocations.retiredSlot = lastRetiredSlot;
+
+            //Fire the events before the message IDs are available again
+            for(long sequenceNo = endpointAllocations.retired; sequenceNo < retired; sequenceNo++){
+                MessageIDReleasedEvent event = new MessageIDReleasedEvent(endpointAllocations.remoteEndpoint,
+                        endpointAllocations.getMessageID(sequenceNo));
+                Channels.fireMessageReceived(this.channel, event);
+            }
+
+            endpointAllocations.retired = retired;
         }
         finally{
-            lock.writeLock().lock();
+            endpointAllocations.retiring.set(false);
         }
     }
 
 
-    private class AllocationRetirementTask implements Runnable{
+    private class RetirementSweepTask implements TimerTask{
 
-        private InetSocketAddress remoteEndpoint;
-        private int messageID;
+        @Override
+        public void run(Timeout timeout) {
+            long slot = getCurrentSlot();
 
-        private AllocationRetirementTask(InetSocketAddress remoteEndpoint, int messageID) {
-            this.remoteEndpoint = remoteEndpoint;
-            this.messageID = messageID;
+            for(Map.Entry<InetSocketAddress, Allocations> entry : allocations.entrySet()){
+                Allocations endpointAllocations = entry.getValue();
+                retire(endpointAllocations, slot);
+
+                //remove allocations if all message IDs were retired
+                long retired = endpointAllocations.retired;
+                if(endpointAllocations.next.compareAndSet(retired, CLOSED)){
+                    allocations.remove(entry.getKey(), endpointAllocations);
+                    log.debug("All message IDs retired for remote endpoint {}.", entry.getKey());
+                }
+            }
+
+            if(!shutdown){
+                try{
+                    sweepTimeout = timer.newTimeout(this, SLOT_DURATION_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                catch(IllegalStateException | RejectedExecutionException ex){
+                    log.debug("Timer was stopped. No more retirement sweeps.");
+                }
+            }
         }
+    }
+
+
+    private static class Allocations{
+
+        private final InetSocketAddress remoteEndpoint;
+        private final int offset;
 
-        public int getMessageID() {
-            return this.messageID;
+        //the next sequence number to be allocated
+        private final AtomicLong next;
+
+        //all sequence numbers lower than this are retired
+        private volatile long retired;
+        private long retiredSlot;
+        private final AtomicBoolean retiring;
+
+        //each slot contains the slot number (upper 32 bits) and the highest sequence number allocated within that
+        //slot (lower 32 bits)
+        private final AtomicLongArray ring;
+
+        private Allocations(InetSocketAddress remoteEndpoint, int offset, long slot){
+            this.remoteEndpoint = remoteEndpoint;
+            this.offset = offset;
+            this.next = new AtomicLong(0);
+            this.retired = 0;
+            this.retiredSlot = slot - 1;
+            this.retiring = new AtomicBoolean(false);
+            this.ring = new AtomicLongArray(RING_SIZE);
         }
 
-        public InetSocketAddress getRemoteEndpoint() {
-            return this.remoteEndpoint;
+        private int getMessageID(long sequenceNo){
+            return (int) ((this.offset + sequenceNo) % MODULUS);
         }
 
-        @Override
-        public void run() {
-            MessageIDReleasedEvent event = new MessageIDReleasedEvent(this.remoteEndpoint, this.messageID);
-            Channels.fireMessageReceived(MessageIDFactory.this.channel, event);
-
-            try{
-                lock.writeLock().lock();
-                ArrayDeque<AllocationRetirementTask> tasks = retirementTasks.get(remoteEndpoint);
-                tasks.remove(this);
-                if(tasks.size() == 0){
-                    retirementTasks.remove(remoteEndpoint);
+        private void setAllocated(long slot, long sequenceNo){
+            int index = (int) (slot % RING_SIZE);
+            long value = (slot << 32) | (sequenceNo & 0xFFFFFFFFL);
+
+            while(true){
+                long actual = this.ring.get(index);
+                long actualSlot = actual >>> 32;
+
+                //a later slot or a higher sequence number was already set
+                if(actualSlot > slot || (actualSlot == slot && (int) actual - (int) sequenceNo >= 0)){
+                    return;
+                }
+
+                if(this.ring.compareAndSet(index, actual, value)){
+                    return;
                 }
             }
-            finally {
-                lock.writeLock().unlock();
+        }
+
+        private long getAllocated(long slot, long retired){
+            long value = this.ring.get((int) (slot % RING_SIZE));
+
+            //nothing allocated within the given slot
+            if(value >>> 32 != slot){
+                return -1;
             }
+
+            //restore the full sequence number (which is somewhere between retired and retired + MODULUS)
+            int difference = (int) value - (int) retired;
+            return difference < 0 ? -1 : retired + difference;
         }
     }
 }
@@ -24,22 +24,24 @@
  */
 package de.uniluebeck.itm.ncoap.communication.reliability;
 
-import com.google.common.collect.HashBasedTable;
+import de.uniluebeck.itm.ncoap.communication.ExchangeStore;
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
 import de.uniluebeck.itm.ncoap.communication.events.*;
+import de.uniluebeck.itm.ncoap.communication.events.client.RequestCancelledEvent;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
 import de.uniluebeck.itm.ncoap.message.CoapResponse;
 import de.uniluebeck.itm.ncoap.message.MessageCode;
 import de.uniluebeck.itm.ncoap.message.MessageType;
 import org.jboss.netty.channel.*;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -57,22 +59,62 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
     private ChannelHandlerContext ctx;
 
     //remote socket mapped to message ID and token
-    private HashBasedTable<InetSocketAddress, Integer, OutboundMessageTransfer> transfers;
-    private ReentrantReadWriteLock lock;
+    private ExchangeStore<OutboundMessageTransfer> transfers;
 
     private final MessageIDFactory messageIDFactory;
-    private ScheduledExecutorService executor;
+    private final RetransmissionPolicy retransmissionPolicy;
+    private Timer timer;
 
     /**
      * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler}
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the tasks to ensure reliable message transfer
+     * @param retransmissionPolicy the {@link RetransmissionPolicy} to calculate the delays between retransmissions
+     */
+    public OutboundReliabilityHandler(Timer timer, RetransmissionPolicy retransmissionPolicy){
+        this.timer = timer;
+        this.retransmissionPolicy = retransmissionPolicy;
+        this.transfers = new ExchangeStore<>();
+        this.messageIDFactory = new MessageIDFactory(timer);
+    }
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler}
+     * that uses the {@link RetransmissionPolicy} according to RFC 7252 (see {@link RetransmissionPolicy#getDefault()})
+     *
+     * @param timer the {@link org.jboss.netty.util.Timer} to schedule the tasks to ensure reliable message transfer
+     */
+    public OutboundReliabilityHandler(Timer timer){
+        this(timer, RetransmissionPolicy.getDefault());
+    }
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler}
+     * that schedules its tasks using a {@link de.uniluebeck.itm.ncoap.communication.reliability.ScheduledExecutorTimer}
+     *
      * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to process the tasks to ensure
      *                 reliable message transfer
      */
     public OutboundReliabilityHandler(ScheduledExecutorService executor){
-        this.executor = executor;
-        this.transfers = HashBasedTable.create();
-        this.messageIDFactory = new MessageIDFactory(executor);
-        this.lock = new ReentrantReadWriteLock();
+        this(new ScheduledExecutorTimer(executor));
+    }
+
+    /**
+     * Returns the {@link RetransmissionPolicy} of this handler
+     * @return the {@link RetransmissionPolicy} of this handler
+     */
+    public RetransmissionPolicy getRetransmissionPolicy(){
+        return this.retransmissionPolicy;
+    }
+
+    /**
+     * Returns the number of message IDs that are currently allocated for the given remote endpoint
+     *
+     * @param remoteEndpoint the remote endpoint to return the number of allocated message IDs for
+     *
+     * @return the number of message IDs that are currently allocated for the given remote endpoint
+     */
+    public int getAllocatedMessageIDs(InetSocketAddress remoteEndpoint){
+        return this.messageIDFactory.getAllocatedMessageIDs(remoteEndpoint);
     }
 
     /**
@@ -89,43 +131,37 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
         Token token = coapMessage.getToken();
         int messageID = coapMessage.getMessageID();
 
-        try{
-            lock.writeLock().lock();
-
-            if(reliable){
-                long delay = OutboundReliableMessageTransfer.provideRetransmissionDelay(1);
-                RetransmissionTask retransmissionTask = new RetransmissionTask(remoteEndpoint, coapMessage);
-                ScheduledFuture retransmissionFuture = this.executor.schedule(retransmissionTask, delay, MILLIS);
+        if(reliable){
+            long rto = this.retransmissionPolicy.getRetransmissionTimeout(remoteEndpoint);
+            long delay = this.retransmissionPolicy.getInitialRetransmissionDelay(rto);
+            RetransmissionTask retransmissionTask = new RetransmissionTask(remoteEndpoint, coapMessage);
+            Timeout retransmissionTimeout = this.timer.newTimeout(retransmissionTask, delay, MILLIS);
 
-                OutboundReliableMessageTransfer transfer = new OutboundReliableMessageTransfer(remoteEndpoint,
-                        messageID, token, retransmissionFuture);
+            OutboundReliableMessageTransfer transfer = new OutboundReliableMessageTransfer(remoteEndpoint,
+                    messageID, token, retransmissionTimeout, rto, delay);
 
-                this.transfers.put(remoteEndpoint, coapMessage.getMessageID(), transfer);
-            }
-
-            else{
-                OutboundMessageTransfer transfer = new OutboundMessageTransfer(remoteEndpoint, messageID, token);
-                this.transfers.put(remoteEndpoint, messageID, transfer);
-            }
+            this.transfers.put(remoteEndpoint, messageID, transfer);
         }
 
-        finally{
-            lock.writeLock().unlock();
+        else{
+            OutboundMessageTransfer transfer = new OutboundMessageTransfer(remoteEndpoint, messageID, token);
+            this.transfers.put(remoteEndpoint, messageID, transfer);
         }
     }
 
 
      private OutboundMessageTransfer removeTransfer(InetSocketAddress remoteEndpoint, int messageID){
-         try{
-            lock.writeLock().lock();
-            return this.transfers.remove(remoteEndpoint, messageID);
-         }
-         finally {
-             lock.writeLock().unlock();
-         }
+         return this.transfers.remove(remoteEndpoint, messageID);
      }
 
 
+    private void updateRoundTripTime(OutboundReliableMessageTransfer transfer){
+        long roundTripTime = System.currentTimeMillis() - transfer.getTransmissionTime();
+        this.retransmissionPolicy.updateRoundTripTime(transfer.getRemoteEndpoint(), roundTripTime,
+                transfer.getRetransmissions());
+    }
+
+
     @Override
     public void writeRequested(final ChannelHandlerContext ctx, MessageEvent me) throws Exception{
         log.debug("DOWNSTREAM BEFORE (to {}): {}.", me.getRemoteAddress(), me.getMessage());
@@ -133,6 +169,10 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
         if(me.getMessage() instanceof CoapMessage){
             handleOutboundCoapMessage(ctx, me);
         }
+        else if(me.getMessage() instanceof RequestCancelledEvent){
+            handleRequestCancelledEvent((RequestCancelledEvent) me.getMessage());
+            me.getFuture().setSuccess();
+        }
         else{
             log.debug("DOWNSTREAM AFTER (to {}): {}.", me.getRemoteAddress(), me.getMessage());
             ctx.sendDownstream(me);
@@ -162,20 +202,18 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
         InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
         int messageID = event.getMessageID();
 
-        if(this.transfers.contains(remoteEndpoint, messageID)){
-            OutboundMessageTransfer transfer = removeTransfer(remoteEndpoint, messageID);
-            if(transfer != null){
-                if(transfer instanceof OutboundReliableMessageTransfer){
-                    log.info("Removed reliable transfer (remote endpoint: {}, message ID: {})", remoteEndpoint,
-                            messageID);
-                    Token token = transfer.getToken();
-                    Channels.fireMessageReceived(ctx, new TransmissionTimeoutEvent(remoteEndpoint, messageID, token));
-                }
-                else{
-                    log.info("Removed non-reliable transfer (remote endpoint: {}, message ID: {})", remoteEndpoint,
-                            messageID);
-                    ctx.sendUpstream(me);
-                }
+        OutboundMessageTransfer transfer = removeTransfer(remoteEndpoint, messageID);
+        if(transfer != null){
+            if(transfer instanceof OutboundReliableMessageTransfer){
+                log.info("Removed reliable transfer (remote endpoint: {}, message ID: {})", remoteEndpoint,
+                        messageID);
+                Token token = transfer.getToken();
+                Channels.fireMessageReceived(ctx, new TransmissionTimeoutEvent(remoteEndpoint, messageID, token));
+            }
+            else{
+                log.info("Removed non-reliable transfer (remote endpoint: {}, message ID: {})", remoteEndpoint,
+                        messageID);
+                ctx.sendUpstream(me);
             }
         }
 
@@ -183,51 +221,64 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
     }
 
 
-    private boolean updateConfirmableUpdateNotification(InetSocketAddress remoteEndpoint, CoapResponse coapResponse){
-        int messageID = coapResponse.getMessageID();
+    private void handleRequestCancelledEvent(RequestCancelledEvent event){
+        InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
+        int messageID = event.getMessageID();
 
-        try{
-            //update the update notification to be retransmitted
-            lock.readLock().lock();
+        if(messageID == CoapMessage.UNDEFINED_MESSAGE_ID)
+            return;
 
-            if(!this.transfers.contains(remoteEndpoint, messageID)){
-                return false;
+        OutboundMessageTransfer transfer = this.transfers.get(remoteEndpoint, messageID);
+        if(transfer == null || !transfer.getToken().equals(event.getToken()))
+            return;
+
+        //the message ID remains allocated until it is retired to not confuse the remote endpoint
+        this.transfers.remove(remoteEndpoint, messageID, transfer);
+
+        if(transfer instanceof OutboundReliableMessageTransfer){
+            OutboundReliableMessageTransfer reliableTransfer = (OutboundReliableMessageTransfer) transfer;
+            synchronized(reliableTransfer){
+                reliableTransfer.setConfirmed();
+                reliableTransfer.getRetransmissionTimeout().cancel();
             }
         }
-        finally{
-            lock.readLock().unlock();
-        }
 
-        try{
-            lock.writeLock().lock();
+        log.info("Stopped transfer of cancelled request (remote endpoint: {}, message ID: {})", remoteEndpoint,
+                messageID);
+    }
 
-            OutboundMessageTransfer transfer = transfers.get(remoteEndpoint, messageID);
-            if(transfer instanceof OutboundReliableMessageTransfer){
-                ScheduledFuture retransmissionFuture =
-                        ((OutboundReliableMessageTransfer) transfer).getRetransmissionFuture();
 
-                //Try to cancel the retransmission
-                if(!retransmissionFuture.cancel(true)){
-                    log.error("Could not cancel retransmission of update notification (remote endpoint: {}, " +
-                        "message ID: {})", remoteEndpoint, messageID);
-                }
+    private boolean updateConfirmableUpdateNotification(InetSocketAddress remoteEndpoint, CoapResponse coapResponse){
+        int messageID = coapResponse.getMessageID();
+        OutboundMessageTransfer transfer = transfers.get(remoteEndpoint, messageID);
 
-                long delay = Math.max(retransmissionFuture.getDelay(TimeUnit.MILLISECONDS), 0);
+        if(!(transfer instanceof OutboundReliableMessageTransfer)){
+            return false;
+        }
 
-                RetransmissionTask retransmissionTask = new RetransmissionTask(remoteEndpoint, coapResponse);
+        //update the update notification to be retransmitted
+        OutboundReliableMessageTransfer reliableTransfer = (OutboundReliableMessageTransfer) transfer;
+        synchronized(reliableTransfer){
+            if(reliableTransfer.isConfirmed()){
+                return false;
+            }
 
-                retransmissionFuture = this.executor.schedule(retransmissionTask, delay, TimeUnit.MILLISECONDS);
+            Timeout retransmissionTimeout = reliableTransfer.getRetransmissionTimeout();
 
-                ((OutboundReliableMessageTransfer) transfer).setRetransmissionFuture(retransmissionFuture);
-                return true;
+            //Try to cancel the retransmission
+            if(retransmissionTimeout.isExpired()){
+                log.error("Could not cancel retransmission of update notification (remote endpoint: {}, " +
+                    "message ID: {})", remoteEndpoint, messageID);
             }
+            retransmissionTimeout.cancel();
 
-            else{
-                return false;
-            }
-        }
-        finally{
-            lock.writeLock().unlock();
+            long delay = reliableTransfer.getRemainingRetransmissionDelay();
+
+            RetransmissionTask retransmissionTask = new RetransmissionTask(remoteEndpoint, coapResponse);
+            retransmissionTimeout = this.timer.newTimeout(retransmissionTask, delay, MILLIS);
+            reliableTransfer.replaceRetransmissionTimeout(retransmissionTimeout);
+
+            return true;
         }
     }
 
@@ -265,8 +316,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
         int messageID = this.messageIDFactory.getNextMessageID(remoteEndpoint);
 
         if(messageID == CoapMessage.UNDEFINED_MESSAGE_ID){
-            MiscellaneousErrorEvent event = new MiscellaneousErrorEvent(remoteEndpoint, messageID,
-            coapMessage.getToken(), "No message ID available for remote endpoint: " + remoteEndpoint);
+            NoMessageIDAvailableEvent event = new NoMessageIDAvailableEvent(remoteEndpoint, coapMessage.getToken());
             Channels.fireMessageReceived(ctx.getChannel(), event);
             return;
         }
@@ -315,6 +365,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
                      log.info("Received empty ACK (remote endpoint: {}, message ID: {}).", remoteEndpoint,
                              messageID);
                      ((OutboundReliableMessageTransfer) messageExchange).setConfirmed();
+                     updateRoundTripTime((OutboundReliableMessageTransfer) messageExchange);
                      Token token = messageExchange.getToken();
                      Channels.fireMessageReceived(ctx, new EmptyAckReceivedEvent(remoteEndpoint, messageID, token));
 
@@ -325,6 +376,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
                              remoteEndpoint, messageID);
 
                      ((OutboundReliableMessageTransfer) messageExchange).setConfirmed();
+                     updateRoundTripTime((OutboundReliableMessageTransfer) messageExchange);
                      ctx.sendUpstream(me);
                  }
 
@@ -343,6 +395,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
 
                  if(messageExchange instanceof OutboundReliableMessageTransfer){
                      ((OutboundReliableMessageTransfer) messageExchange).setConfirmed();
+                     updateRoundTripTime((OutboundReliableMessageTransfer) messageExchange);
                  }
 
                  Token token = messageExchange.getToken();
@@ -375,7 +428,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
 //     }
 
 
-    private class RetransmissionTask implements Runnable{
+    private class RetransmissionTask implements TimerTask{
 
         private InetSocketAddress remoteEndpoint;
         private CoapMessage coapMessage;
@@ -386,7 +439,7 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
         }
 
         @Override
-        public void run() {
+        public void run(Timeout timeout) {
             //Set the observe value for update notifications
             if(coapMessage instanceof CoapResponse && ((CoapResponse) coapMessage).isUpdateNotification()){
                 ((CoapResponse) coapMessage).setObserve();
@@ -422,10 +475,16 @@ public class OutboundReliabilityHandler extends SimpleChannelHandler{
                         new Object[]{count, remoteEndpoint, messageID});
 
                         if(count < OutboundReliableMessageTransfer.MAX_RETRANSMISSIONS){
-                            long delay = reliableTransfer.getNextRetransmissionDelay();
-                            RetransmissionTask retransmissionTask = new RetransmissionTask(remoteEndpoint, coapMessage);
-                            ScheduledFuture retransmissionFuture = executor.schedule(retransmissionTask, delay, MILLIS);
-                            reliableTransfer.setRetransmissionFuture(retransmissionFuture);
+                            synchronized(reliableTransfer){
+                                if(!reliableTransfer.isConfirmed()){
+                                    long delay = retransmissionPolicy.getRetransmissionDelay(
+                                            reliableTransfer.getBaseRetransmissionDelay(),
+                                            reliableTransfer.getInitialRetransmissionDelay(), count + 1);
+                                    RetransmissionTask task = new RetransmissionTask(remoteEndpoint, coapMessage);
+                                    Timeout retransmissionTimeout = timer.newTimeout(task, delay, MILLIS);
+                                    reliableTransfer.setRetransmissionTimeout(retransmissionTimeout, delay);
+                                }
+                            }
                         }
                         else{
                             log.warn("No more retransmissions (remote endpoint: {}, message ID: {})!",
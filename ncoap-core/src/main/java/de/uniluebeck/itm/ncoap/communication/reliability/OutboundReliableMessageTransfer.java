@@ -25,12 +25,11 @@
 package de.uniluebeck.itm.ncoap.communication.reliability;
 
 import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import org.jboss.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
-import java.util.Random;
-import java.util.concurrent.ScheduledFuture;
 
 /**
  * Created by olli on 26.09.14.
@@ -55,20 +54,30 @@ public class OutboundReliableMessageTransfer extends OutboundMessageTransfer {
      */
     public static final double ACK_RANDOM_FACTOR = 1.5;
 
-    private ScheduledFuture retransmissionFuture;
-    private int retransmissions;
-
-    private static final Random RANDOM = new Random(System.currentTimeMillis());
+    /**
+     * The maximum number of milliseconds (45000) from the first transmission of an outgoing
+     * {@link de.uniluebeck.itm.ncoap.message.CoapMessage} with
+     * {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON} to its last retransmission
+     */
+    public static final long MAX_TRANSMIT_SPAN_MILLIS =
+            (long) (ACK_TIMEOUT_MILLIS * ((1 << MAX_RETRANSMISSIONS) - 1) * ACK_RANDOM_FACTOR);
 
     /**
-     * Provides a random(!) delay for the given retransmission number according to the CoAP specification
-     * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
-     * @return a random(!) delay for the given retransmission number according to the CoAP specification
+     * The maximum number of milliseconds (93000) from the first transmission of an outgoing
+     * {@link de.uniluebeck.itm.ncoap.message.CoapMessage} with
+     * {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON} until the sender gives up waiting for an
+     * acknowledgement
      */
-    public static long provideRetransmissionDelay(int retransmission){
-        return (long)(Math.pow(2, retransmission - 1) * ACK_TIMEOUT_MILLIS *
-                (1 + RANDOM.nextDouble() * (ACK_RANDOM_FACTOR - 1)));
-    }
+    public static final long MAX_TRANSMIT_WAIT_MILLIS =
+            (long) (ACK_TIMEOUT_MILLIS * ((1 << (MAX_RETRANSMISSIONS + 1)) - 1) * ACK_RANDOM_FACTOR);
+
+    private Timeout retransmissionTimeout;
+    private long retransmissionTime;
+    private final long transmissionTime;
+    private final long baseRetransmissionDelay;
+    private final long initialRetransmissionDelay;
+    private int retransmissions;
+    private boolean confirmed;
 
     /**
      * Creates a new instance of
@@ -76,14 +85,21 @@ public class OutboundReliableMessageTransfer extends OutboundMessageTransfer {
      *
      * @param remoteEndpoint the intended recipient of the {@link de.uniluebeck.itm.ncoap.message.CoapMessage}
      * @param messageID    the message ID of the message to be transmitted
-     * @param retransmissionFuture the {@link java.util.concurrent.ScheduledFuture} of the next scheduled
-     *                             retransmission.
+     * @param retransmissionTimeout the {@link org.jboss.netty.util.Timeout} of the next scheduled retransmission.
+     * @param baseRetransmissionDelay the (not randomized) retransmission timeout (RTO) in milliseconds the delay of
+     *                                the first retransmission was derived from
+     * @param retransmissionDelay the delay (in milliseconds) of the first retransmission
      */
     public OutboundReliableMessageTransfer(InetSocketAddress remoteEndpoint, int messageID, Token token,
-                                           ScheduledFuture retransmissionFuture) {
+                                           Timeout retransmissionTimeout, long baseRetransmissionDelay,
+                                           long retransmissionDelay) {
         super(remoteEndpoint, messageID, token);
-        this.retransmissionFuture = retransmissionFuture;
+        this.transmissionTime = System.currentTimeMillis();
+        this.baseRetransmissionDelay = baseRetransmissionDelay;
+        this.initialRetransmissionDelay = retransmissionDelay;
+        this.setRetransmissionTimeout(retransmissionTimeout, retransmissionDelay);
         this.retransmissions = 0;
+        this.confirmed = false;
     }
 
 
@@ -96,29 +112,103 @@ public class OutboundReliableMessageTransfer extends OutboundMessageTransfer {
     }
 
 
-    public long getNextRetransmissionDelay(){
-        return provideRetransmissionDelay(retransmissions + 1);
+    /**
+     * Returns the number of retransmissions so far
+     * @return the number of retransmissions so far
+     */
+    public int getRetransmissions(){
+        return this.retransmissions;
+    }
+
+    /**
+     * Returns the time (in milliseconds since 1970-01-01) of the first transmission, i.e. the basis to measure the
+     * round trip time
+     *
+     * @return the time (in milliseconds since 1970-01-01) of the first transmission
+     */
+    public long getTransmissionTime(){
+        return this.transmissionTime;
+    }
+
+    /**
+     * Returns the (not randomized) retransmission timeout (RTO) in milliseconds the delay of the first
+     * retransmission was derived from, i.e. the basis to determine the back-off factor (see
+     * {@link RetransmissionPolicy#getBackOffFactor(long)})
+     *
+     * @return the (not randomized) retransmission timeout (RTO) in milliseconds
+     */
+    public long getBaseRetransmissionDelay(){
+        return this.baseRetransmissionDelay;
+    }
+
+    /**
+     * Returns the delay (in milliseconds) of the first retransmission, i.e. the basis to calculate the delays of
+     * further retransmissions (see {@link RetransmissionPolicy#getRetransmissionDelay(long, long, int)})
+     *
+     * @return the delay (in milliseconds) of the first retransmission
+     */
+    public long getInitialRetransmissionDelay(){
+        return this.initialRetransmissionDelay;
+    }
+
+    /**
+     * Sets the {@link org.jboss.netty.util.Timeout} of the next scheduled retransmission
+     *
+     * @param retransmissionTimeout the {@link org.jboss.netty.util.Timeout} of the next scheduled retransmission
+     * @param retransmissionDelay the delay (in milliseconds) of the next scheduled retransmission
+     */
+    public void setRetransmissionTimeout(Timeout retransmissionTimeout, long retransmissionDelay){
+        this.retransmissionTimeout = retransmissionTimeout;
+        this.retransmissionTime = System.currentTimeMillis() + retransmissionDelay;
+    }
+
+
+    /**
+     * Replaces the {@link org.jboss.netty.util.Timeout} of the next scheduled retransmission without changing the
+     * time of the next retransmission (e.g. to retransmit an updated message)
+     *
+     * @param retransmissionTimeout the {@link org.jboss.netty.util.Timeout} of the next scheduled retransmission
+     */
+    public void replaceRetransmissionTimeout(Timeout retransmissionTimeout){
+        this.retransmissionTimeout = retransmissionTimeout;
     }
 
-    public void setRetransmissionFuture(ScheduledFuture retransmissionFuture){
-        this.retransmissionFuture = retransmissionFuture;
+
+    public Timeout getRetransmissionTimeout(){
+        return this.retransmissionTimeout;
     }
 
+    /**
+     * Returns the number of milliseconds until the next scheduled retransmission (or <code>0</code> if the
+     * retransmission is overdue)
+     *
+     * @return the number of milliseconds until the next scheduled retransmission
+     */
+    public long getRemainingRetransmissionDelay(){
+        return Math.max(this.retransmissionTime - System.currentTimeMillis(), 0);
+    }
 
-    public ScheduledFuture getRetransmissionFuture(){
-        return this.retransmissionFuture;
+    /**
+     * Returns <code>true</code> if this message exchange was confirmed or <code>false</code> otherwise
+     * @return <code>true</code> if this message exchange was confirmed or <code>false</code> otherwise
+     */
+    public synchronized boolean isConfirmed(){
+        return this.confirmed;
     }
 
     /**
      * Set this message exchange to be confirmed, i.e. stop further retransmissions.
      */
-    public void setConfirmed(){
-        if(this.retransmissionFuture.cancel(true)){
+    public synchronized void setConfirmed(){
+        this.confirmed = true;
+
+        if(!this.retransmissionTimeout.isExpired()){
+            this.retransmissionTimeout.cancel();
             log.info("Retransmission stopped (remote endpoint: {}, message ID: {})", this.getRemoteEndpoint(),
                     this.getMessageID());
         }
         else{
-            log.error("Could not stop retransmission (remote endpoint: {}, message ID: {})", this.getRemoteEndpoint(),
+            log.warn("Could not stop retransmission (remote endpoint: {}, message ID: {})", this.getRemoteEndpoint(),
                     this.getMessageID());
         }
     }
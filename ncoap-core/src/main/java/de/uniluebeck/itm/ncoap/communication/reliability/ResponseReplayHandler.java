@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys.MessageIDKey;
+import de.uniluebeck.itm.ncoap.communication.ExchangeKeys.TokenKey;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.SimpleChannelHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The {@link de.uniluebeck.itm.ncoap.communication.reliability.ResponseReplayHandler} is part of the pipeline of
+ * {@link de.uniluebeck.itm.ncoap.application.server.CoapServerApplication}s, between the
+ * {@link org.jboss.netty.handler.execution.ExecutionHandler} and the
+ * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder}, i.e. it deals with encoded messages only.
+ *
+ * It keeps a copy of every encoded response to a {@link de.uniluebeck.itm.ncoap.message.CoapRequest} for
+ * {@link MessageIDFactory#EXCHANGE_LIFETIME} seconds (or until the cache capacity is exhausted), identified by the
+ * remote endpoint and the message ID of the request. Duplicates of such requests are answered by replaying the
+ * cached bytes. Apart from the header they are not decoded at all, i.e. they are never passed to the
+ * {@link de.uniluebeck.itm.ncoap.application.server.webservice.Webservice} again.
+ *
+ * If the response to a confirmable request was sent separately (i.e. after an empty acknowledgement) the
+ * cached reply to duplicates of that request is an empty acknowledgement.
+ *
+ * Responses are related to requests by remote endpoint and message ID, i.e. piggy-backed responses and empty
+ * acknowledgements by their own message ID. Only responses to non-confirmable requests (which have a message ID of
+ * their own) are related by the {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.Token}. If there
+ * are several such requests with the same token pending at the same time, their responses are not cached at all.
+ *
+ * The {@link de.uniluebeck.itm.ncoap.communication.events.server.RequestDroppedEvent} for a request dropped without
+ * response ends here, i.e. the request is no longer pending.
+ *
+ * @author Oliver Kleine
+ */
+public class ResponseReplayHandler extends SimpleChannelHandler {
+
+    /**
+     * The maximum number of bytes (8 MB) of the cached encoded responses
+     */
+    public static final int RESPONSE_CACHE_CAPACITY = 8 * 1024 * 1024;
+
+    /**
+     * The maximum number of requests (65536) waiting for a response at the same time. Requests exceeding this
+     * number are processed as usual but their responses are not cached.
+     */
+    public static final int MAX_PENDING_REQUESTS = 65536;
+
+    private static Logger log = LoggerFactory.getLogger(ResponseReplayHandler.class.getName());
+
+    //marks a token used by several pending non-confirmable requests
+    private static final int AMBIGUOUS = -1;
+
+    //remote endpoint and message ID of inbound requests mapped to the message type of the request
+    private final Cache<MessageIDKey, Integer> pendingRequests;
+
+    //remote endpoint and token of pending non-confirmable requests mapped to the message ID of the request
+    private final Cache<TokenKey, Integer> pendingTokens;
+
+    //remote endpoint and message ID of inbound requests mapped to the encoded response
+    private final Cache<MessageIDKey, ChannelBuffer> responses;
+
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.ResponseReplayHandler}
+     */
+    public ResponseReplayHandler(){
+        this.pendingRequests = CacheBuilder.newBuilder()
+                .maximumSize(MAX_PENDING_REQUESTS)
+                .expireAfterWrite(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+
+        this.pendingTokens = CacheBuilder.newBuilder()
+                .maximumSize(MAX_PENDING_REQUESTS)
+                .expireAfterWrite(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+
+        this.responses = CacheBuilder.newBuilder()
+                .maximumWeight(RESPONSE_CACHE_CAPACITY)
+                .weigher(new Weigher<MessageIDKey, ChannelBuffer>() {
+                    @Override
+                    public int weigh(MessageIDKey key, ChannelBuffer encodedResponse) {
+                        return encodedResponse.capacity();
+                    }
+                })
+                .expireAfterWrite(MessageIDFactory.EXCHANGE_LIFETIME, TimeUnit.SECONDS)
+                .build();
+    }
+
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(!(me.getMessage() instanceof ChannelBuffer)){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        ChannelBuffer buffer = (ChannelBuffer) me.getMessage();
+        if(buffer.readableBytes() < 4){
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        int index = buffer.readerIndex();
+        int messageType = (buffer.getUnsignedByte(index) >>> 4) & 0x03;
+        int messageCode = buffer.getUnsignedByte(index + 1);
+
+        if(!MessageCode.isRequest(messageCode) || (messageType != MessageType.Name.CON.getNumber() &&
+                messageType != MessageType.Name.NON.getNumber())){
+
+            ctx.sendUpstream(me);
+            return;
+        }
+
+        InetSocketAddress remoteEndpoint = (InetSocketAddress) me.getRemoteAddress();
+        int messageID = buffer.getUnsignedShort(index + 2);
+
+        ChannelBuffer encodedResponse = this.responses.getIfPresent(new MessageIDKey(remoteEndpoint, messageID));
+        if(encodedResponse != null){
+            log.info("Duplicate request (remote endpoint: {}, message ID: {}). Replay cached response!",
+                    remoteEndpoint, messageID);
+
+            Channels.write(ctx, Channels.future(ctx.getChannel()), encodedResponse.duplicate(), remoteEndpoint);
+            return;
+        }
+
+        this.pendingRequests.put(new MessageIDKey(remoteEndpoint, messageID), messageType);
+
+        //the response to a non-confirmable request has a message ID of its own, i.e. only the token relates them
+        if(messageType == MessageType.Name.NON.getNumber()){
+            Token token = ExchangeKeys.getToken(buffer);
+            if(token != null){
+                TokenKey tokenKey = new TokenKey(remoteEndpoint, token);
+                Integer previous = this.pendingTokens.asMap().putIfAbsent(tokenKey, messageID);
+                if(previous != null && previous != messageID){
+                    this.pendingTokens.put(tokenKey, AMBIGUOUS);
+                }
+            }
+        }
+
+        ctx.sendUpstream(me);
+    }
+
+
+    @Override
+    public void writeRequested(ChannelHandlerContext ctx, MessageEvent me) throws Exception {
+        if(me.getMessage() instanceof ChannelBuffer){
+            cacheResponse((InetSocketAddress) me.getRemoteAddress(), (ChannelBuffer) me.getMessage());
+        }
+
+        else if(me.getMessage() instanceof RequestDroppedEvent){
+            handleRequestDroppedEvent((RequestDroppedEvent) me.getMessage());
+            me.getFuture().setSuccess();
+            return;
+        }
+
+        ctx.sendDownstream(me);
+    }
+
+
+    private void handleRequestDroppedEvent(RequestDroppedEvent event){
+        InetSocketAddress remoteEndpoint = event.getRemoteEndpoint();
+        int messageID = event.getMessageID();
+
+        //there is no response to be cached, i.e. duplicates are processed like new requests
+        this.pendingRequests.invalidate(new MessageIDKey(remoteEndpoint, messageID));
+        if(event.getToken() != null){
+            this.pendingTokens.asMap().remove(new TokenKey(remoteEndpoint, event.getToken()), messageID);
+        }
+
+        log.debug("Released dropped request (remote endpoint: {}, message ID: {}).", remoteEndpoint, messageID);
+    }
+
+
+    private void cacheResponse(InetSocketAddress remoteEndpoint, ChannelBuffer buffer){
+        if(buffer.readableBytes() < 4)
+            return;
+
+        int index = buffer.readerIndex();
+        int messageType = (buffer.getUnsignedByte(index) >>> 4) & 0x03;
+        int messageCode = buffer.getUnsignedByte(index + 1);
+        int messageID = buffer.getUnsignedShort(index + 2);
+
+        //empty ACK (i.e. the response will be sent separately) or piggy-backed response
+        if(messageType == MessageType.Name.ACK.getNumber() && (messageCode == MessageCode.Name.EMPTY.getNumber() ||
+                MessageCode.isResponse(messageCode))){
+
+            MessageIDKey messageIDKey = new MessageIDKey(remoteEndpoint, messageID);
+            if(this.pendingRequests.getIfPresent(messageIDKey) != null){
+                this.pendingRequests.invalidate(messageIDKey);
+                cacheResponse(messageIDKey, buffer);
+            }
+        }
+
+        //response to a non-confirmable request (update notifications are not related to pending requests)
+        else if(messageType != MessageType.Name.ACK.getNumber() && MessageCode.isResponse(messageCode)){
+            Token token = ExchangeKeys.getToken(buffer);
+            if(token == null)
+                return;
+
+            TokenKey tokenKey = new TokenKey(remoteEndpoint, token);
+            Integer requestID = this.pendingTokens.getIfPresent(tokenKey);
+            if(requestID == null || requestID == AMBIGUOUS)
+                return;
+
+            this.pendingTokens.asMap().remove(tokenKey, requestID);
+
+            MessageIDKey messageIDKey = new MessageIDKey(remoteEndpoint, requestID);
+            if(this.pendingRequests.getIfPresent(messageIDKey) != null){
+                this.pendingRequests.invalidate(messageIDKey);
+                cacheResponse(messageIDKey, buffer);
+            }
+        }
+    }
+
+
+    private void cacheResponse(MessageIDKey messageIDKey, ChannelBuffer buffer){
+        //the encoded response is (potentially) a pooled buffer, i.e. it must be copied
+        this.responses.put(messageIDKey, buffer.copy());
+
+        log.debug("Cached response (remote endpoint: {}, message ID: {}).", messageIDKey.getRemoteEndpoint(),
+                messageIDKey.getMessageID());
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import java.net.InetSocketAddress;
+import java.util.Random;
+
+/**
+ * A {@link RetransmissionPolicy} defines the delays between the retransmissions of outbound
+ * {@link de.uniluebeck.itm.ncoap.message.CoapMessage}s with
+ * {@link de.uniluebeck.itm.ncoap.message.MessageType.Name#CON} per remote endpoint. The initial delay is the
+ * retransmission timeout (RTO, see {@link #getRetransmissionTimeout(InetSocketAddress)}) multiplied with a random
+ * value between 1 and {@link OutboundReliableMessageTransfer#ACK_RANDOM_FACTOR}. Each further delay is the previous
+ * one multiplied with the back-off factor (see {@link #getBackOffFactor(long)}), which depends on the (not
+ * randomized) RTO. No delay exceeds {@link #MAX_RETRANSMISSION_DELAY_MILLIS}.
+ *
+ * The {@link de.uniluebeck.itm.ncoap.communication.reliability.OutboundReliabilityHandler} reports the round trip
+ * time of every acknowledged (or reset) message to its {@link RetransmissionPolicy} (see
+ * {@link #updateRoundTripTime(InetSocketAddress, long, int)}).
+ *
+ * @author Oliver Kleine
+ */
+public abstract class RetransmissionPolicy {
+
+    /**
+     * The maximum number of milliseconds (60000) to wait for a single retransmission
+     */
+    public static final long MAX_RETRANSMISSION_DELAY_MILLIS = 60000;
+
+    private static final Random RANDOM = new Random(System.currentTimeMillis());
+
+    /**
+     * Returns the {@link RetransmissionPolicy} according to RFC 7252, i.e. with a static retransmission timeout
+     * of {@link OutboundReliableMessageTransfer#ACK_TIMEOUT_MILLIS} and binary exponential back-off for all remote
+     * endpoints.
+     *
+     * @return the {@link RetransmissionPolicy} according to RFC 7252
+     */
+    public static RetransmissionPolicy getDefault(){
+        return DefaultRetransmissionPolicy.INSTANCE;
+    }
+
+    /**
+     * Returns the current retransmission timeout (RTO) in milliseconds for the given remote endpoint, i.e. the
+     * minimum delay of the first retransmission.
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the current retransmission timeout (RTO) in milliseconds for the given remote endpoint
+     */
+    public abstract long getRetransmissionTimeout(InetSocketAddress remoteEndpoint);
+
+    /**
+     * Returns the factor to multiply the previous retransmission delay with to get the next one
+     *
+     * @param retransmissionTimeout the (not randomized) retransmission timeout (RTO) in milliseconds the delay of
+     *                              the first retransmission of the message exchange was derived from
+     *
+     * @return the factor to multiply the previous retransmission delay with to get the next one
+     */
+    public abstract double getBackOffFactor(long retransmissionTimeout);
+
+    /**
+     * Updates the estimation of the round trip time for the given remote endpoint. Policies without estimation
+     * ignore this information.
+     *
+     * @param remoteEndpoint the remote endpoint
+     * @param roundTripTime the number of milliseconds between the first transmission of the message and the
+     *                      reception of the acknowledgement (or reset)
+     * @param retransmissions the number of retransmissions of the message before the acknowledgement (or reset)
+     *                        was received
+     */
+    public void updateRoundTripTime(InetSocketAddress remoteEndpoint, long roundTripTime, int retransmissions){
+        //nothing to do by default
+    }
+
+    /**
+     * Returns a random(!) delay for the first retransmission of a message to the given remote endpoint, i.e. a
+     * value between the retransmission timeout and the retransmission timeout multiplied with
+     * {@link OutboundReliableMessageTransfer#ACK_RANDOM_FACTOR}.
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return a random(!) delay for the first retransmission of a message to the given remote endpoint
+     */
+    public long getInitialRetransmissionDelay(InetSocketAddress remoteEndpoint){
+        return getInitialRetransmissionDelay(getRetransmissionTimeout(remoteEndpoint));
+    }
+
+    /**
+     * Returns a random(!) delay for the first retransmission based on the given retransmission timeout, i.e. a
+     * value between the given retransmission timeout and the given retransmission timeout multiplied with
+     * {@link OutboundReliableMessageTransfer#ACK_RANDOM_FACTOR} (but at most
+     * {@link #MAX_RETRANSMISSION_DELAY_MILLIS}).
+     *
+     * @param retransmissionTimeout the retransmission timeout (RTO) in milliseconds
+     *
+     * @return a random(!) delay for the first retransmission based on the given retransmission timeout
+     */
+    public long getInitialRetransmissionDelay(long retransmissionTimeout){
+        double factor = 1 + RANDOM.nextDouble() * (OutboundReliableMessageTransfer.ACK_RANDOM_FACTOR - 1);
+        return (long) Math.min(retransmissionTimeout * factor, MAX_RETRANSMISSION_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns the delay for the given retransmission number (at most {@link #MAX_RETRANSMISSION_DELAY_MILLIS}) if
+     * the delay of the first retransmission was not randomized, i.e. is the retransmission timeout itself.
+     *
+     * @param initialDelay the delay (in milliseconds) of the first retransmission of the message exchange
+     * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
+     *
+     * @return the delay for the given retransmission number
+     */
+    public long getRetransmissionDelay(long initialDelay, int retransmission){
+        return getRetransmissionDelay(initialDelay, initialDelay, retransmission);
+    }
+
+    /**
+     * Returns the delay for the given retransmission number (at most {@link #MAX_RETRANSMISSION_DELAY_MILLIS}). The
+     * back-off factor is determined by the given retransmission timeout, not by the randomized delay of the first
+     * retransmission.
+     *
+     * @param retransmissionTimeout the retransmission timeout (RTO) in milliseconds the delay of the first
+     *                              retransmission was derived from
+     * @param initialDelay the delay (in milliseconds) of the first retransmission of the message exchange
+     * @param retransmission the retransmission number (e.g. 2 for the 2nd retransmission)
+     *
+     * @return the delay for the given retransmission number
+     */
+    public long getRetransmissionDelay(long retransmissionTimeout, long initialDelay, int retransmission){
+        double delay = initialDelay * Math.pow(getBackOffFactor(retransmissionTimeout), retransmission - 1);
+        return (long) Math.min(delay, MAX_RETRANSMISSION_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns the maximum number of milliseconds from the first transmission of a message to the given remote
+     * endpoint to its last retransmission (MAX_TRANSMIT_SPAN) based on the current retransmission timeout.
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the maximum number of milliseconds from the first transmission of a message to its last
+     * retransmission
+     */
+    public long getMaxTransmitSpan(InetSocketAddress remoteEndpoint){
+        return getMaxTransmitDuration(remoteEndpoint, OutboundReliableMessageTransfer.MAX_RETRANSMISSIONS);
+    }
+
+    /**
+     * Returns the maximum number of milliseconds from the first transmission of a message to the given remote
+     * endpoint until the sender gives up waiting for an acknowledgement (MAX_TRANSMIT_WAIT) based on the current
+     * retransmission timeout.
+     *
+     * @param remoteEndpoint the remote endpoint
+     *
+     * @return the maximum number of milliseconds from the first transmission of a message until the sender gives
+     * up waiting for an acknowledgement
+     */
+    public long getMaxTransmitWait(InetSocketAddress remoteEndpoint){
+        return getMaxTransmitDuration(remoteEndpoint, OutboundReliableMessageTransfer.MAX_RETRANSMISSIONS + 1);
+    }
+
+
+    private long getMaxTransmitDuration(InetSocketAddress remoteEndpoint, int intervals){
+        long retransmissionTimeout = getRetransmissionTimeout(remoteEndpoint);
+        long initialDelay = (long) Math.min(retransmissionTimeout * OutboundReliableMessageTransfer.ACK_RANDOM_FACTOR,
+                MAX_RETRANSMISSION_DELAY_MILLIS);
+
+        long result = 0;
+        for(int i = 1; i <= intervals; i++){
+            result += getRetransmissionDelay(retransmissionTimeout, initialDelay, i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.Timer;
+import org.jboss.netty.util.TimerTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link org.jboss.netty.util.Timer} that schedules its {@link org.jboss.netty.util.TimerTask}s on a
+ * {@link java.util.concurrent.ScheduledExecutorService}. This was the scheduling strategy of the nCoAP framework
+ * before {@link de.uniluebeck.itm.ncoap.communication.reliability.HashedWheelReliabilityTimer} was introduced and
+ * remains available for applications preferring exact delays over the constant costs of a timing wheel.
+ *
+ * <b>Note:</b> {@link #stop()} cancels all pending timeouts but does <b>not</b> shut the given
+ * {@link java.util.concurrent.ScheduledExecutorService} down as it is usually shared with other components.
+ *
+ * @author Oliver Kleine
+ */
+public class ScheduledExecutorTimer implements Timer {
+
+    private static Logger log = LoggerFactory.getLogger(ScheduledExecutorTimer.class.getName());
+
+    private final ScheduledExecutorService executor;
+    private final Set<ScheduledTimeout> pendingTimeouts;
+    private volatile boolean stopped;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.communication.reliability.ScheduledExecutorTimer}
+     *
+     * @param executor the {@link java.util.concurrent.ScheduledExecutorService} to schedule and execute the
+     *                 {@link org.jboss.netty.util.TimerTask}s
+     */
+    public ScheduledExecutorTimer(ScheduledExecutorService executor){
+        this.executor = executor;
+        this.pendingTimeouts = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledTimeout, Boolean>());
+        this.stopped = false;
+    }
+
+
+    @Override
+    public Timeout newTimeout(TimerTask task, long delay, TimeUnit unit) {
+        if(this.stopped){
+            throw new IllegalStateException("Timer was already stopped!");
+        }
+
+        ScheduledTimeout timeout = new ScheduledTimeout(task);
+        this.pendingTimeouts.add(timeout);
+        timeout.setFuture(this.executor.schedule(timeout, delay, unit));
+
+        return timeout;
+    }
+
+
+    @Override
+    public Set<Timeout> stop() {
+        this.stopped = true;
+
+        Set<Timeout> unprocessedTimeouts = new HashSet<>();
+        for(ScheduledTimeout timeout : this.pendingTimeouts){
+            if(timeout.cancelTimeout()){
+                unprocessedTimeouts.add(timeout);
+            }
+        }
+        this.pendingTimeouts.clear();
+
+        log.debug("Timer stopped ({} unprocessed timeouts).", unprocessedTimeouts.size());
+        return Collections.unmodifiableSet(unprocessedTimeouts);
+    }
+
+
+    private class ScheduledTimeout implements Timeout, Runnable{
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerTask task;
+        private final AtomicInteger state;
+
+        //null until the task was scheduled, i.e. the state decides and the future is only used to cancel
+        private volatile ScheduledFuture future;
+
+        private ScheduledTimeout(TimerTask task) {
+            this.task = task;
+            this.state = new AtomicInteger(PENDING);
+        }
+
+        private void setFuture(ScheduledFuture future){
+            this.future = future;
+
+            //the timeout was cancelled before the future was known
+            if(this.state.get() == CANCELLED){
+                future.cancel(false);
+            }
+        }
+
+        private boolean cancelTimeout(){
+            if(!this.state.compareAndSet(PENDING, CANCELLED)){
+                return false;
+            }
+
+            ScheduledFuture future = this.future;
+            if(future != null){
+                future.cancel(false);
+            }
+            return true;
+        }
+
+        @Override
+        public Timer getTimer() {
+            return ScheduledExecutorTimer.this;
+        }
+
+        @Override
+        public TimerTask getTask() {
+            return this.task;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return this.state.get() == EXPIRED;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return this.state.get() == CANCELLED;
+        }
+
+        @Override
+        public void cancel() {
+            if(cancelTimeout()){
+                pendingTimeouts.remove(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            pendingTimeouts.remove(this);
+
+            if(!this.state.compareAndSet(PENDING, EXPIRED)){
+                return;
+            }
+
+            try{
+                this.task.run(this);
+            }
+            catch(Exception ex){
+                log.error("Exception while executing timer task!", ex);
+            }
+        }
+    }
+}
@@ -97,6 +97,8 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ACCEPT,             MULTIPLE);
         optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.ETAG,               MULTIPLE);
         optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.OBSERVE,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.GET.getNumber(),      OptionValue.Name.SIZE_2,             ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_HOST,           ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.URI_PORT,           ONCE);
@@ -105,6 +107,10 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_URI,          ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.PROXY_SCHEME,       ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.BLOCK_1,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.SIZE_1,             ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.POST.getNumber(),     OptionValue.Name.SIZE_2,             ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_HOST,           ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.URI_PORT,           ONCE);
@@ -115,6 +121,10 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.CONTENT_FORMAT,     ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_MATCH,           ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.IF_NONE_MATCH,      ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.BLOCK_1,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.SIZE_1,             ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.PUT.getNumber(),      OptionValue.Name.SIZE_2,             ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_HOST,           ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.DELETE.getNumber(),   OptionValue.Name.URI_PORT,           ONCE);
@@ -129,6 +139,9 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_PATH,      MULTIPLE);
         optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.LOCATION_QUERY,     MULTIPLE);
         optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.BLOCK_1,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CREATED_201.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.DELETED_202.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
@@ -138,11 +151,18 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.VALID_203.getNumber(),    OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.BLOCK_1,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CHANGED_204.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.OBSERVE,            ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.MAX_AGE,            ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.ETAG,               ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.BLOCK_2,            ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.CONTENT_205.getNumber(),  OptionValue.Name.SIZE_2,             ONCE);
+
+        optionOccurenceConstraints.put(MessageCode.Name.CONTINUE_231.getNumber(), OptionValue.Name.BLOCK_1,            ONCE);
 
         //Client errors (4.x)
         optionOccurenceConstraints.put(MessageCode.Name.BAD_REQUEST_400.getNumber(),                  OptionValue.Name.MAX_AGE,    ONCE);
@@ -166,12 +186,16 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),               OptionValue.Name.MAX_AGE,    ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.NOT_ACCEPTABLE_406.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
+        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408.getNumber(),    OptionValue.Name.MAX_AGE,    ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_INCOMPLETE_408.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
         optionOccurenceConstraints.put(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),          OptionValue.Name.MAX_AGE,    ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.PRECONDITION_FAILED_412.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.MAX_AGE,    ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.SIZE_1,     ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.REQUEST_ENTITY_TOO_LARGE_413.getNumber(),     OptionValue.Name.BLOCK_1,    ONCE);
 
         optionOccurenceConstraints.put(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),   OptionValue.Name.MAX_AGE,    ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.UNSUPPORTED_CONTENT_FORMAT_415.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
@@ -186,6 +210,9 @@ public abstract class CoapMessage {
         optionOccurenceConstraints.put(MessageCode.Name.BAD_GATEWAY_502.getNumber(),              OptionValue.Name.MAX_AGE,   ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.BAD_GATEWAY_502.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
+        optionOccurenceConstraints.put(MessageCode.Name.SERVICE_UNAVAILABLE_503.getNumber(),      OptionValue.Name.MAX_AGE,   ONCE);
+        optionOccurenceConstraints.put(MessageCode.Name.SERVICE_UNAVAILABLE_503.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
+
         optionOccurenceConstraints.put(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),          OptionValue.Name.MAX_AGE,   ONCE);
         optionOccurenceConstraints.put(MessageCode.Name.GATEWAY_TIMEOUT_504.getNumber(),  OptionValue.Name.CONTENT_FORMAT,     ONCE);
 
@@ -199,8 +226,12 @@ public abstract class CoapMessage {
     private int messageID;
     private Token token;
 
-    protected SetMultimap<Integer, OptionValue> options;
+    //the options are materialized lazily, i.e. the map is published before the index is discarded
+    private volatile SetMultimap<Integer, OptionValue> options;
+    private volatile OptionIndex optionIndex;
+    private PreEncodedOptions preEncodedOptions;
     private ChannelBuffer content;
+    private volatile long receptionTime;
 
     /**
      * Creates a new instance of {@link CoapMessage}.
@@ -229,9 +260,6 @@ public abstract class CoapMessage {
         this.setMessageID(messageID);
         this.setToken(token);
 
-        this.options = Multimaps.newSetMultimap(new TreeMap<Integer, Collection<OptionValue>>(),
-                LinkedHashSetSupplier.getInstance());
-
         this.content = ChannelBuffers.EMPTY_BUFFER;
 
         log.debug("Created CoAP message: {}", this);
@@ -342,17 +370,66 @@ public abstract class CoapMessage {
 //                    optionValue.getValue().length, 6, 0, 0));
 //        }
 
-        for(int containedOption : options.keySet()){
+        for(int containedOption : getOptionMap().keySet()){
             if(OptionValue.mutuallyExcludes(containedOption, optionNumber))
                 throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
         }
 
-        options.put(optionNumber, optionValue);
+        getOptionMap().put(optionNumber, optionValue);
+        invalidatePreEncodedOptions(optionNumber);
 
         log.debug("Added option (number: {}, value: {})", optionNumber, optionValue.toString());
 
     }
 
+    /**
+     * Adds an encoded option to this {@link CoapMessage} without copying its value. The option is only indexed,
+     * i.e. the {@link OptionValue} instance is not created before it is requested, e.g. via
+     * {@link #getOptions(int)}. The checks performed are the same as with {@link #addOption(int, OptionValue)}.
+     * This method is intended for framework internal use, i.e. by the
+     * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder}. Options are expected to be added
+     * in ascending order of their numbers and the given {@link ChannelBuffer} must not be modified afterwards.
+     *
+     * @param optionNumber the number representing the option type
+     * @param buffer the {@link ChannelBuffer} containing the encoded value
+     * @param offset the index of the first byte of the encoded value in the given {@link ChannelBuffer}
+     * @param length the number of bytes of the encoded value
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number is unknown or not allowed with the
+     * message code of this {@link CoapMessage}, or if the encoded value is either the default value or exceeds the
+     * defined length limits for options with the given option number
+     */
+    public void addOption(int optionNumber, ChannelBuffer buffer, int offset, int length)
+            throws IllegalArgumentException {
+
+        //If there are options that are not part of the given buffer there is no benefit in indexing
+        if(this.options != null || (this.optionIndex != null && this.optionIndex.getBuffer() != buffer)){
+            OptionIndex index = new OptionIndex(buffer);
+            OptionValue.checkValue(optionNumber, buffer, offset, length);
+            index.add(optionNumber, offset, length);
+            addOption(optionNumber, index.createOptionValue(0));
+            return;
+        }
+
+        this.checkOptionPermission(optionNumber);
+
+        if(this.optionIndex != null){
+            for(int i = 0; i < optionIndex.size(); i++){
+                int containedOption = optionIndex.getOptionNumber(i);
+                if(OptionValue.mutuallyExcludes(containedOption, optionNumber))
+                    throw new IllegalArgumentException(String.format(EXCLUDES, containedOption, optionNumber));
+            }
+        }
+
+        OptionValue.checkValue(optionNumber, buffer, offset, length);
+
+        if(this.optionIndex == null)
+            this.optionIndex = new OptionIndex(buffer);
+
+        this.optionIndex.add(optionNumber, offset, length);
+        invalidatePreEncodedOptions(optionNumber);
+    }
+
     /**
      * Adds an string option to this {@link CoapMessage}. However, it is recommended to use the options specific methods
      * from {@link CoapRequest} and {@link CoapResponse} to add options. This method is intended for framework internal
@@ -437,7 +514,8 @@ public abstract class CoapMessage {
             throw new IllegalArgumentException(String.format(WRONG_OPTION_TYPE, optionNumber, OptionValue.Type.EMPTY));
 
         //Add new option to option list
-        options.put(optionNumber, new EmptyOptionValue(optionNumber));
+        getOptionMap().put(optionNumber, new EmptyOptionValue(optionNumber));
+        invalidatePreEncodedOptions(optionNumber);
 
         log.debug("Added empty option (number: {})", optionNumber);
     }
@@ -450,19 +528,87 @@ public abstract class CoapMessage {
      * @return the number of options that were removed, i.e. the count.
      */
     public int removeOptions(int optionNumber){
-        int result = options.removeAll(optionNumber).size();
+        int result = getOptionMap().removeAll(optionNumber).size();
+        if(result > 0)
+            invalidatePreEncodedOptions(optionNumber);
+
         log.debug("Removed {} options with number {}.", result, optionNumber);
         return result;
     }
 
 
+    /**
+     * Sets the {@link PreEncodedOptions} to be used by the
+     * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder} instead of encoding the options of this
+     * {@link CoapMessage} one by one. The given {@link PreEncodedOptions} must reflect the options (except for the
+     * variable ones, e.g. {@link OptionValue.Name#OBSERVE}) that are contained in this {@link CoapMessage} at the
+     * time of invocation. Any subsequent change of options other than the variable ones discards them. This method
+     * is intended for framework internal use.
+     *
+     * @param preEncodedOptions the {@link PreEncodedOptions} reflecting the options of this {@link CoapMessage}
+     */
+    public void setPreEncodedOptions(PreEncodedOptions preEncodedOptions){
+        this.preEncodedOptions = preEncodedOptions;
+    }
+
+    /**
+     * Adds all options of the given {@link CoapMessage} to this {@link CoapMessage} without checking them again,
+     * i.e. the options of the given {@link CoapMessage} must be allowed with the message code of this
+     * {@link CoapMessage} and this {@link CoapMessage} must not contain any options yet. This method is intended for
+     * framework internal use, i.e. by {@link CoapRequestTemplate}.
+     *
+     * @param coapMessage the {@link CoapMessage} to copy the options from
+     */
+    void copyOptions(CoapMessage coapMessage){
+        getOptionMap().putAll(coapMessage.getOptionMap());
+        this.preEncodedOptions = null;
+    }
+
+    /**
+     * Returns the {@link PreEncodedOptions} of this {@link CoapMessage} or <code>null</code> if there are none
+     *
+     * @return the {@link PreEncodedOptions} of this {@link CoapMessage} or <code>null</code> if there are none
+     */
+    public PreEncodedOptions getPreEncodedOptions(){
+        return this.preEncodedOptions;
+    }
+
+    /**
+     * Sets the time (in milliseconds since 1970-01-01) this {@link CoapMessage} was received. This method is
+     * intended for framework internal use, i.e. by the
+     * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageDecoder}.
+     *
+     * @param receptionTime the time (in milliseconds since 1970-01-01) this {@link CoapMessage} was received
+     */
+    public void setReceptionTime(long receptionTime){
+        this.receptionTime = receptionTime;
+    }
+
+    /**
+     * Returns the time (in milliseconds since 1970-01-01) this {@link CoapMessage} was received or <code>0</code>
+     * if this {@link CoapMessage} was not received but created locally.
+     *
+     * @return the time (in milliseconds since 1970-01-01) this {@link CoapMessage} was received or <code>0</code>
+     * if this {@link CoapMessage} was not received but created locally.
+     */
+    public long getReceptionTime(){
+        return this.receptionTime;
+    }
+
+
+    private void invalidatePreEncodedOptions(int optionNumber){
+        if(this.preEncodedOptions != null && !this.preEncodedOptions.isVariable(optionNumber))
+            this.preEncodedOptions = null;
+    }
+
+
     private void checkOptionPermission(int optionNumber) throws IllegalArgumentException {
         Integer allowedOccurence = optionOccurenceConstraints.get(this.messageCode, optionNumber);
         if(allowedOccurence == null)
             throw new IllegalArgumentException(String.format(OPTION_NOT_ALLOWED_WITH_MESSAGE_TYPE,
                     optionNumber, this.getMessageCodeName()));
 
-        if(options.containsKey(optionNumber)){
+        if(containsOption(optionNumber)){
             if(optionOccurenceConstraints.get(this.messageCode, optionNumber) == ONCE)
                 throw new IllegalArgumentException(String.format(OPTION_ALREADY_SET, optionNumber));
         }
@@ -570,8 +716,8 @@ public abstract class CoapMessage {
      * is present in this {@link CoapMessage}.
      */
     public long getContentFormat(){
-        if(options.containsKey(OptionValue.Name.CONTENT_FORMAT))
-            return ((UintOptionValue) options.get(OptionValue.Name.CONTENT_FORMAT).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.CONTENT_FORMAT))
+            return getUintOptionValue(OptionValue.Name.CONTENT_FORMAT);
 
         return ContentFormat.UNDEFINED;
     }
@@ -587,7 +733,7 @@ public abstract class CoapMessage {
      */
     public void setMaxAge(long maxAge)  {
         try{
-            this.options.removeAll(OptionValue.Name.MAX_AGE);
+            this.removeOptions(OptionValue.Name.MAX_AGE);
             this.addUintOption(OptionValue.Name.MAX_AGE, maxAge);
         }
         catch (IllegalArgumentException e) {
@@ -603,8 +749,8 @@ public abstract class CoapMessage {
      * returns {@link de.uniluebeck.itm.ncoap.message.options.OptionValue#MAX_AGE_DEFAULT}.
      */
     public long getMaxAge(){
-        if(options.containsKey(OptionValue.Name.MAX_AGE))
-            return ((UintOptionValue) options.get(OptionValue.Name.MAX_AGE).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.MAX_AGE))
+            return getUintOptionValue(OptionValue.Name.MAX_AGE);
         else
             return OptionValue.MAX_AGE_DEFAULT;
     }
@@ -643,10 +789,123 @@ public abstract class CoapMessage {
      * this {@link de.uniluebeck.itm.ncoap.message.CoapRequest}.
      */
     public long getObserve(){
-        if(!options.containsKey(OptionValue.Name.OBSERVE))
-            return UintOptionValue.UNDEFINED;
+        return getUintOptionValue(OptionValue.Name.OBSERVE);
+    }
+
+    /**
+     * Sets the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1} option of this
+     * {@link CoapMessage}. If there was such an option set prior to the invocation of this method, the previous
+     * value is overwritten.
+     *
+     * @param block1 the {@link de.uniluebeck.itm.ncoap.message.options.BlockOption} to be set
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the message code of this
+     * {@link CoapMessage}
+     */
+    public void setBlock1(BlockOption block1) throws IllegalArgumentException{
+        this.removeOptions(OptionValue.Name.BLOCK_1);
+        this.addUintOption(OptionValue.Name.BLOCK_1, block1.encode());
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1} option of this
+     * {@link CoapMessage} or <code>null</code> if there is no such option present.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1} option of this
+     * {@link CoapMessage} or <code>null</code> if there is no such option present.
+     */
+    public BlockOption getBlock1(){
+        return getBlockOption(OptionValue.Name.BLOCK_1);
+    }
+
+    /**
+     * Sets the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2} option of this
+     * {@link CoapMessage}. If there was such an option set prior to the invocation of this method, the previous
+     * value is overwritten.
+     *
+     * @param block2 the {@link de.uniluebeck.itm.ncoap.message.options.BlockOption} to be set
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the message code of this
+     * {@link CoapMessage}
+     */
+    public void setBlock2(BlockOption block2) throws IllegalArgumentException{
+        this.removeOptions(OptionValue.Name.BLOCK_2);
+        this.addUintOption(OptionValue.Name.BLOCK_2, block2.encode());
+    }
+
+    /**
+     * Returns the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2} option of this
+     * {@link CoapMessage} or <code>null</code> if there is no such option present.
+     *
+     * @return the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2} option of this
+     * {@link CoapMessage} or <code>null</code> if there is no such option present.
+     */
+    public BlockOption getBlock2(){
+        return getBlockOption(OptionValue.Name.BLOCK_2);
+    }
+
+
+    private BlockOption getBlockOption(int optionNumber){
+        if(!containsOption(optionNumber))
+            return null;
 
-        return (long) options.get(OptionValue.Name.OBSERVE).iterator().next().getDecodedValue();
+        try{
+            return BlockOption.decode(getUintOptionValue(optionNumber));
+        }
+        catch(IllegalArgumentException e){
+            log.warn("Ignore invalid block option (number: {}): {}", optionNumber, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sets the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_1} option of this
+     * {@link CoapMessage}, i.e. the size of the complete request payload to be transferred in blocks.
+     *
+     * @param size1 the size of the complete request payload in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the message code of this
+     * {@link CoapMessage}
+     */
+    public void setSize1(long size1) throws IllegalArgumentException{
+        this.removeOptions(OptionValue.Name.SIZE_1);
+        this.addUintOption(OptionValue.Name.SIZE_1, size1);
+    }
+
+    /**
+     * Returns the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_1} option or
+     * {@link de.uniluebeck.itm.ncoap.message.options.UintOptionValue#UNDEFINED} if there is no such option present.
+     *
+     * @return the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_1} option or
+     * {@link de.uniluebeck.itm.ncoap.message.options.UintOptionValue#UNDEFINED} if there is no such option present.
+     */
+    public long getSize1(){
+        return getUintOptionValue(OptionValue.Name.SIZE_1);
+    }
+
+    /**
+     * Sets the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_2} option of this
+     * {@link CoapMessage}, i.e. the size of the complete response payload to be transferred in blocks.
+     *
+     * @param size2 the size of the complete response payload in bytes
+     *
+     * @throws java.lang.IllegalArgumentException if the option is not allowed with the message code of this
+     * {@link CoapMessage}
+     */
+    public void setSize2(long size2) throws IllegalArgumentException{
+        this.removeOptions(OptionValue.Name.SIZE_2);
+        this.addUintOption(OptionValue.Name.SIZE_2, size2);
+    }
+
+    /**
+     * Returns the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_2} option or
+     * {@link de.uniluebeck.itm.ncoap.message.options.UintOptionValue#UNDEFINED} if there is no such option present.
+     *
+     * @return the value of the {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#SIZE_2} option or
+     * {@link de.uniluebeck.itm.ncoap.message.options.UintOptionValue#UNDEFINED} if there is no such option present.
+     */
+    public long getSize2(){
+        return getUintOptionValue(OptionValue.Name.SIZE_2);
     }
 
     /**
@@ -739,7 +998,7 @@ public abstract class CoapMessage {
      * @return a {@link Multimap} with the option numbers as keys and {@link de.uniluebeck.itm.ncoap.message.options.OptionValue}s as values.
      */
     public SetMultimap<Integer, OptionValue> getAllOptions(){
-        return this.options;
+        return getOptionMap();
     }
 
 
@@ -753,12 +1012,116 @@ public abstract class CoapMessage {
      * @return a {@link Set< de.uniluebeck.itm.ncoap.message.options.OptionValue >} containing the options that are explicitly set in this {@link CoapMessage}.
      */
     public Set<OptionValue> getOptions(int optionNumber){
-        return this.options.get(optionNumber);
+        return getOptionMap().get(optionNumber);
+    }
+
+
+    /**
+     * Returns <code>true</code> if this {@link CoapMessage} contains at least one option with the given number or
+     * <code>false</code> otherwise. For inbound messages this does not require the options to be materialized.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if this {@link CoapMessage} contains at least one option with the given number or
+     * <code>false</code> otherwise.
+     */
+    protected boolean containsOption(int optionNumber){
+        OptionIndex optionIndex = this.optionIndex;
+        if(optionIndex != null)
+            return optionIndex.contains(optionNumber);
+
+        SetMultimap<Integer, OptionValue> options = this.options;
+        return options != null && options.containsKey(optionNumber);
+    }
+
+
+    /**
+     * Returns the decoded value of the (first) option with the given number which is supposed to be of
+     * {@link OptionValue.Type#UINT} or {@link UintOptionValue#UNDEFINED} if there is no such option. For inbound
+     * messages this does not require the options to be materialized.
+     *
+     * @param optionNumber the option number
+     *
+     * @return the decoded value of the (first) option with the given number or {@link UintOptionValue#UNDEFINED}
+     * if there is no such option.
+     */
+    protected long getUintOptionValue(int optionNumber){
+        OptionIndex optionIndex = this.optionIndex;
+        if(optionIndex != null)
+            return optionIndex.getUintValue(optionNumber);
+
+        SetMultimap<Integer, OptionValue> options = this.options;
+        if(options == null || !options.containsKey(optionNumber))
+            return UintOptionValue.UNDEFINED;
+
+        return ((UintOptionValue) options.get(optionNumber).iterator().next()).getDecodedValue();
+    }
+
+
+    /**
+     * Returns the given prefix followed by the decoded values of all options with the given number (which are
+     * supposed to be of {@link OptionValue.Type#STRING}) separated by the given separator. For inbound messages
+     * this does not require the options to be materialized.
+     *
+     * @param optionNumber the option number
+     * @param prefix the (ASCII) prefix of the result
+     * @param separator the (ASCII) character to be placed between two values
+     *
+     * @return the given prefix followed by the decoded values of all options with the given number separated by
+     * the given separator (or just the prefix if there is no such option)
+     */
+    protected String joinStringOptionValues(int optionNumber, String prefix, char separator){
+        OptionIndex optionIndex = this.optionIndex;
+        if(optionIndex != null)
+            return optionIndex.join(optionNumber, prefix, separator);
+
+        StringBuilder result = new StringBuilder(prefix);
+
+        SetMultimap<Integer, OptionValue> options = this.options;
+        if(options != null && options.containsKey(optionNumber)){
+            Iterator<OptionValue> iterator = options.get(optionNumber).iterator();
+            result.append(((StringOptionValue) iterator.next()).getDecodedValue());
+
+            while(iterator.hasNext())
+                result.append(separator).append(((StringOptionValue) iterator.next()).getDecodedValue());
+        }
+
+        return result.toString();
+    }
+
+
+    private SetMultimap<Integer, OptionValue> getOptionMap(){
+        SetMultimap<Integer, OptionValue> options = this.options;
+        if(options != null)
+            return options;
+
+        //several threads may read the options of an inbound message, i.e. materialize them only once
+        synchronized(this){
+            if(this.options == null){
+                options = Multimaps.newSetMultimap(new TreeMap<Integer, Collection<OptionValue>>(),
+                        LinkedHashSetSupplier.getInstance());
+
+                //materialize indexed options (if any)
+                OptionIndex optionIndex = this.optionIndex;
+                if(optionIndex != null){
+                    for(int i = 0; i < optionIndex.size(); i++)
+                        options.put(optionIndex.getOptionNumber(i), optionIndex.createOptionValue(i));
+                }
+
+                //the index is discarded after the map was published, i.e. readers always find one of both
+                this.options = options;
+                this.optionIndex = null;
+            }
+
+            return this.options;
+        }
     }
 
 
     @Override
     public int hashCode(){
+        //duplicate values are only removed when indexed options are materialized
+        getOptionMap();
         return toString().hashCode() + content.hashCode();
     }
 
@@ -838,15 +1201,31 @@ public abstract class CoapMessage {
             + token.getBytes().length + ", (C) " + getMessageCodeName() + ", (ID) " + getMessageID() + " | (Token) "
             + token + " | ");
 
-        //Options
+        //Options (indexed options are not materialized for logging purposes)
         result.append("Options:");
-        for(int optionNumber : getAllOptions().keySet()){
-            result.append(" (No. " + optionNumber + ") ");
-            Iterator<OptionValue> iterator = this.getOptions(optionNumber).iterator();
-            OptionValue optionValue = iterator.next();
-            result.append(optionValue.toString());
-            while(iterator.hasNext())
-                result.append(" / " + iterator.next().toString());
+        OptionIndex optionIndex = this.optionIndex;
+        SetMultimap<Integer, OptionValue> options = this.options;
+        if(optionIndex != null){
+            for(int i = 0; i < optionIndex.size(); i++){
+                int optionNumber = optionIndex.getOptionNumber(i);
+                if(i == 0 || optionIndex.getOptionNumber(i - 1) != optionNumber)
+                    result.append(" (No. " + optionNumber + ") ");
+                else
+                    result.append(" / ");
+
+                result.append(optionIndex.createOptionValue(i).toString());
+            }
+        }
+
+        else if(options != null){
+            for(int optionNumber : options.keySet()){
+                result.append(" (No. " + optionNumber + ") ");
+                Iterator<OptionValue> iterator = options.get(optionNumber).iterator();
+                OptionValue optionValue = iterator.next();
+                result.append(optionValue.toString());
+                while(iterator.hasNext())
+                    result.append(" / " + iterator.next().toString());
+            }
         }
         result.append(" | ");
 
@@ -261,7 +261,7 @@ public class CoapRequest extends CoapMessage {
      */
     public Set<byte[]> getIfMatch(){
 
-        Set<OptionValue> ifMatchOptionValues = options.get(OptionValue.Name.IF_MATCH);
+        Set<OptionValue> ifMatchOptionValues = getAllOptions().get(OptionValue.Name.IF_MATCH);
         Set<byte[]> result = new HashSet<>(ifMatchOptionValues.size());
 
         for (OptionValue ifMatchOptionValue : ifMatchOptionValues)
@@ -279,8 +279,8 @@ public class CoapRequest extends CoapMessage {
      */
     public String getUriHost(){
 
-        if(options.containsKey(OptionValue.Name.URI_HOST))
-            return ((StringOptionValue) options.get(OptionValue.Name.URI_HOST).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.URI_HOST))
+            return joinStringOptionValues(OptionValue.Name.URI_HOST, "", '/');
 
         return null;
     }
@@ -320,7 +320,7 @@ public class CoapRequest extends CoapMessage {
     public Set<byte[]> getEtags(){
         Set<byte[]> result = new HashSet<>();
 
-        for (OptionValue optionValue : options.get(OptionValue.Name.ETAG))
+        for (OptionValue optionValue : getAllOptions().get(OptionValue.Name.ETAG))
             result.add(((OpaqueOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -335,7 +335,7 @@ public class CoapRequest extends CoapMessage {
      * @return <code>true</code> if the option is set after method returned or <code>false</code> otherwise.
      */
     public boolean setIfNonMatch() {
-        if(options.containsKey(OptionValue.Name.IF_NONE_MATCH))
+        if(containsOption(OptionValue.Name.IF_NONE_MATCH))
             return true;
 
         try{
@@ -355,7 +355,7 @@ public class CoapRequest extends CoapMessage {
      * no such option present in this {@link de.uniluebeck.itm.ncoap.message.CoapRequest}.
      */
     public boolean isIfNonMatchSet(){
-        return options.containsKey(OptionValue.Name.IF_NONE_MATCH);
+        return containsOption(OptionValue.Name.IF_NONE_MATCH);
     }
 
 
@@ -367,8 +367,8 @@ public class CoapRequest extends CoapMessage {
      * present in this {@link de.uniluebeck.itm.ncoap.message.CoapRequest}.
      */
     public long getUriPort(){
-        if(options.containsKey(OptionValue.Name.URI_PORT))
-            return ((UintOptionValue) options.get(OptionValue.Name.URI_PORT).iterator().next()).getDecodedValue();
+        if(containsOption(OptionValue.Name.URI_PORT))
+            return getUintOptionValue(OptionValue.Name.URI_PORT);
 
         return OptionValue.URI_PORT_DEFAULT;
     }
@@ -382,16 +382,7 @@ public class CoapRequest extends CoapMessage {
      * {@link de.uniluebeck.itm.ncoap.message.CoapRequest}.
      */
     public String getUriPath(){
-        String result = "/";
-
-        Iterator<OptionValue> iterator = options.get(OptionValue.Name.URI_PATH).iterator();
-        if(iterator.hasNext())
-            result += ((StringOptionValue) iterator.next()).getDecodedValue();
-
-        while(iterator.hasNext())
-            result += ("/" + ((StringOptionValue) iterator.next()).getDecodedValue());
-
-        return result;
+        return joinStringOptionValues(OptionValue.Name.URI_PATH, "/", '/');
     }
 
     /**
@@ -402,19 +393,7 @@ public class CoapRequest extends CoapMessage {
      * {@link de.uniluebeck.itm.ncoap.message.CoapRequest} or the empty string ("") if no such option is present.
      */
     public String getUriQuery(){
-        String result = "";
-
-        if(options.containsKey(OptionValue.Name.URI_QUERY)){
-
-            Iterator<OptionValue> iterator = options.get(OptionValue.Name.URI_QUERY).iterator();
-            result += (((StringOptionValue) iterator.next()).getDecodedValue());
-
-            while(iterator.hasNext())
-                result += ("&" + ((StringOptionValue) iterator.next()).getDecodedValue());
-
-        }
-
-        return result;
+        return joinStringOptionValues(OptionValue.Name.URI_QUERY, "", '&');
     }
 
     /**
@@ -433,7 +412,7 @@ public class CoapRequest extends CoapMessage {
         if(!parameter.endsWith("="))
             parameter += "=";
 
-        for(OptionValue optionValue : options.get(OptionValue.Name.URI_QUERY)){
+        for(OptionValue optionValue : getAllOptions().get(OptionValue.Name.URI_QUERY)){
             String value = ((StringOptionValue) optionValue).getDecodedValue();
 
             if(value.startsWith(parameter))
@@ -457,13 +436,13 @@ public class CoapRequest extends CoapMessage {
      * format
      */
     public void setAccept(long... contentFormatNumbers) throws IllegalArgumentException {
-        options.removeAll(OptionValue.Name.ACCEPT);
+        getAllOptions().removeAll(OptionValue.Name.ACCEPT);
         try{
             for(long contentFormatNumber : contentFormatNumbers)
                 this.addUintOption(OptionValue.Name.ACCEPT, contentFormatNumber);
         }
         catch (IllegalArgumentException e) {
-            options.removeAll(OptionValue.Name.ACCEPT);
+            getAllOptions().removeAll(OptionValue.Name.ACCEPT);
             throw e;
         }
     }
@@ -479,7 +458,7 @@ public class CoapRequest extends CoapMessage {
     public Set<Long> getAcceptedContentFormats(){
         Set<Long> result = new HashSet<>();
 
-        for(OptionValue optionValue : options.get(OptionValue.Name.ACCEPT))
+        for(OptionValue optionValue : getAllOptions().get(OptionValue.Name.ACCEPT))
             result.add(((UintOptionValue) optionValue).getDecodedValue());
 
         return result;
@@ -502,16 +481,16 @@ public class CoapRequest extends CoapMessage {
      * URI host, URI port, URI path, and URI query options is invalid.
      */
     public URI getProxyURI() throws URISyntaxException {
-        if(options.containsKey(OptionValue.Name.PROXY_URI)){
-            OptionValue proxyUriOptionValue = options.get(OptionValue.Name.PROXY_URI).iterator().next();
+        if(getAllOptions().containsKey(OptionValue.Name.PROXY_URI)){
+            OptionValue proxyUriOptionValue = getAllOptions().get(OptionValue.Name.PROXY_URI).iterator().next();
             return new URI(((StringOptionValue) proxyUriOptionValue).getDecodedValue());
         }
 
-        if(options.get(OptionValue.Name.PROXY_SCHEME).size() == 1){
-            OptionValue proxySchemeOptionValue = options.get(OptionValue.Name.PROXY_SCHEME).iterator().next();
+        if(getAllOptions().get(OptionValue.Name.PROXY_SCHEME).size() == 1){
+            OptionValue proxySchemeOptionValue = getAllOptions().get(OptionValue.Name.PROXY_SCHEME).iterator().next();
             String scheme = ((StringOptionValue) proxySchemeOptionValue).getDecodedValue();
             String uriHost = getUriHost();
-            OptionValue uriPortOptionValue = options.get(OptionValue.Name.URI_PORT).iterator().next();
+            OptionValue uriPortOptionValue = getAllOptions().get(OptionValue.Name.URI_PORT).iterator().next();
             int uriPort = ((UintOptionValue) uriPortOptionValue).getDecodedValue().intValue();
             String uriPath = getUriPath();
             String uriQuery = getUriQuery();
@@ -531,6 +510,6 @@ public class CoapRequest extends CoapMessage {
      * {@link de.uniluebeck.itm.ncoap.message.CoapRequest} or <code>false</code> otherwise.
      */
     public boolean isObservationRequest(){
-        return(!options.get(OptionValue.Name.OBSERVE).isEmpty());
+        return containsOption(OptionValue.Name.OBSERVE);
     }
 }
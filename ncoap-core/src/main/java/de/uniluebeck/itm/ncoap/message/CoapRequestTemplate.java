@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message;
+
+import de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder;
+import de.uniluebeck.itm.ncoap.communication.codec.OptionCodecException;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.net.URI;
+
+/**
+ * A {@link CoapRequestTemplate} contains the parts of {@link CoapRequest}s that are equal for many requests, i.e.
+ * message type, message code, options and content. The target {@link URI} is parsed and the options are validated
+ * and encoded only once (see {@link PreEncodedOptions}). Requests created from a template
+ *
+ * <ul>
+ *     <li>get the options of the template without any further validation,</li>
+ *     <li>share the content of the template (if any) and</li>
+ *     <li>share the pre-encoded options of the template, i.e. only header, token and the
+ *     {@link OptionValue.Name#ETAG} and {@link OptionValue.Name#OBSERVE} options are encoded per request.</li>
+ * </ul>
+ *
+ * Token and message ID of a created request are set by the framework as usual. Observe (see
+ * {@link CoapRequest#setObserve(long)}), ETags (see {@link CoapRequest#setEtags(byte[]...)}) and the content (see
+ * {@link CoapMessage#setContent(ChannelBuffer)}) may be changed per request. Any other change of options (including
+ * {@link CoapMessage#setContent(ChannelBuffer, long)}) discards the pre-encoded options of that request, i.e. its
+ * options are then encoded one by one.
+ *
+ * A {@link CoapRequestTemplate} is immutable and may be used by several threads concurrently.
+ *
+ * @author Oliver Kleine
+ */
+public final class CoapRequestTemplate {
+
+    private final CoapRequest prototype;
+    private final PreEncodedOptions preEncodedOptions;
+
+    /**
+     * Creates a new instance of {@link CoapRequestTemplate}
+     *
+     * @param messageType the {@link MessageType.Name} of the requests to be created
+     * @param messageCode the {@link MessageCode.Name} of the requests to be created
+     * @param targetUri the {@link URI} of the resource the requests to be created refer to
+     *
+     * @throws java.lang.IllegalArgumentException if at least one of the given arguments is not suitable for a
+     * {@link CoapRequest} or if the options could not be encoded
+     */
+    public CoapRequestTemplate(MessageType.Name messageType, MessageCode.Name messageCode, URI targetUri)
+            throws IllegalArgumentException {
+
+        this(new CoapRequest(messageType, messageCode, targetUri));
+    }
+
+    /**
+     * Creates a new instance of {@link CoapRequestTemplate} from the given {@link CoapRequest}. Any subsequent
+     * change of the given {@link CoapRequest} does not affect the template.
+     *
+     * @param coapRequest the {@link CoapRequest} to create the template from
+     *
+     * @throws java.lang.IllegalArgumentException if the options of the given {@link CoapRequest} could not be
+     * encoded
+     */
+    public CoapRequestTemplate(CoapRequest coapRequest) throws IllegalArgumentException {
+        this.prototype = new CoapRequest(coapRequest.getMessageType(), coapRequest.getMessageCode());
+        this.prototype.copyOptions(coapRequest);
+
+        ChannelBuffer content = coapRequest.getContent();
+        if(content.readableBytes() > 0){
+            this.prototype.setContent(content.duplicate());
+        }
+
+        try {
+            this.preEncodedOptions = CoapMessageEncoder.preEncodeOptions(this.prototype, OptionValue.Name.ETAG,
+                    OptionValue.Name.OBSERVE);
+        }
+        catch (OptionCodecException ex) {
+            throw new IllegalArgumentException("Could not encode options of request!", ex);
+        }
+    }
+
+    /**
+     * Returns a new {@link CoapRequest} with the message type, message code, options and content of this
+     * {@link CoapRequestTemplate}.
+     *
+     * @return a new {@link CoapRequest} with the message type, message code, options and content of this
+     * {@link CoapRequestTemplate}.
+     */
+    public CoapRequest createCoapRequest(){
+        CoapRequest coapRequest = new CoapRequest(this.prototype.getMessageType(), this.prototype.getMessageCode());
+        coapRequest.copyOptions(this.prototype);
+
+        ChannelBuffer content = this.prototype.getContent();
+        if(content.readableBytes() > 0){
+            coapRequest.setContent(content.duplicate());
+        }
+
+        //must be set after all other options as any other option discards pre-encoded options
+        coapRequest.setPreEncodedOptions(this.preEncodedOptions);
+
+        return coapRequest;
+    }
+
+    /**
+     * Returns the {@link PreEncodedOptions} shared by all {@link CoapRequest}s created from this
+     * {@link CoapRequestTemplate}
+     *
+     * @return the {@link PreEncodedOptions} shared by all {@link CoapRequest}s created from this
+     * {@link CoapRequestTemplate}
+     */
+    public PreEncodedOptions getPreEncodedOptions(){
+        return this.preEncodedOptions;
+    }
+
+    @Override
+    public String toString(){
+        return "[Template] " + this.prototype.toString();
+    }
+}
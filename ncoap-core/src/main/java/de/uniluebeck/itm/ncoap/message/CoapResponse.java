@@ -173,8 +173,8 @@ public class CoapResponse extends CoapMessage {
      * @return the byte array representing the ETAG of the content returned by {@link #getContent()}
      */
     public byte[] getEtag(){
-        if(options.containsKey(OptionValue.Name.ETAG))
-            return ((OpaqueOptionValue) options.get(OptionValue.Name.ETAG).iterator().next()).getDecodedValue();
+        if(getAllOptions().containsKey(OptionValue.Name.ETAG))
+            return ((OpaqueOptionValue) getAllOptions().get(OptionValue.Name.ETAG).iterator().next()).getDecodedValue();
         else
             return null;
     }
@@ -218,8 +218,8 @@ public class CoapResponse extends CoapMessage {
      */
     public void setLocationURI(URI locationURI) throws IllegalArgumentException {
 
-        options.removeAll(OptionValue.Name.LOCATION_PATH);
-        options.removeAll(OptionValue.Name.LOCATION_QUERY);
+        getAllOptions().removeAll(OptionValue.Name.LOCATION_PATH);
+        getAllOptions().removeAll(OptionValue.Name.LOCATION_QUERY);
 
         String locationPath = locationURI.getRawPath();
         String locationQuery = locationURI.getRawQuery();
@@ -240,8 +240,8 @@ public class CoapResponse extends CoapMessage {
             }
         }
         catch(IllegalArgumentException ex){
-            options.removeAll(OptionValue.Name.LOCATION_PATH);
-            options.removeAll(OptionValue.Name.LOCATION_QUERY);
+            getAllOptions().removeAll(OptionValue.Name.LOCATION_PATH);
+            getAllOptions().removeAll(OptionValue.Name.LOCATION_QUERY);
             throw ex;
         }
     }
@@ -259,16 +259,16 @@ public class CoapResponse extends CoapMessage {
         //Reconstruct path
         StringBuilder locationPath = new StringBuilder();
 
-        if(options.containsKey(OptionValue.Name.LOCATION_PATH)){
-            for (OptionValue optionValue : options.get(OptionValue.Name.LOCATION_PATH))
+        if(getAllOptions().containsKey(OptionValue.Name.LOCATION_PATH)){
+            for (OptionValue optionValue : getAllOptions().get(OptionValue.Name.LOCATION_PATH))
                 locationPath.append("/").append(((StringOptionValue) optionValue).getDecodedValue());
         }
 
        //Reconstruct query
         StringBuilder locationQuery = new StringBuilder();
 
-        if(options.containsKey(OptionValue.Name.LOCATION_QUERY)){
-            Iterator<OptionValue> queryComponentIterator = options.get(OptionValue.Name.LOCATION_QUERY).iterator();
+        if(getAllOptions().containsKey(OptionValue.Name.LOCATION_QUERY)){
+            Iterator<OptionValue> queryComponentIterator = getAllOptions().get(OptionValue.Name.LOCATION_QUERY).iterator();
             locationQuery.append(((StringOptionValue) queryComponentIterator.next()).getDecodedValue());
             while(queryComponentIterator.hasNext())
                 locationQuery.append("&")
@@ -281,4 +281,29 @@ public class CoapResponse extends CoapMessage {
         return new URI(null, null, null, (int) UintOptionValue.UNDEFINED, locationPath.toString(),
                 locationQuery.toString(), null);
     }
+
+    /**
+     * Returns a copy of this {@link de.uniluebeck.itm.ncoap.message.CoapResponse} with the same header, options and
+     * content. The copy shares the content bytes but has its own reader and writer index, i.e. reading the content
+     * of the copy does not affect this {@link de.uniluebeck.itm.ncoap.message.CoapResponse}. This is e.g. used to
+     * deliver the same response to several {@link de.uniluebeck.itm.ncoap.communication.dispatching.client
+     * .ClientCallback}s.
+     *
+     * @return a copy of this {@link de.uniluebeck.itm.ncoap.message.CoapResponse}
+     */
+    public CoapResponse copy(){
+        CoapResponse copy = new CoapResponse(getMessageType(), getMessageCode());
+
+        copy.copyOptions(this);
+
+        if(getMessageID() != UNDEFINED_MESSAGE_ID){
+            copy.setMessageID(getMessageID());
+        }
+
+        copy.setToken(getToken());
+        copy.setContent(getContent().duplicate());
+        copy.setReceptionTime(getReceptionTime());
+
+        return copy;
+    }
 }
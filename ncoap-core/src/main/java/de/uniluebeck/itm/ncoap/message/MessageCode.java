@@ -116,6 +116,11 @@ public abstract class MessageCode {
          */
         CONTENT_205(69),
 
+        /**
+         * Corresponds to Response Code 95
+         */
+        CONTINUE_231(95),
+
         /**
          * Corresponds to Response Code 128
          */
@@ -151,6 +156,11 @@ public abstract class MessageCode {
          */
         NOT_ACCEPTABLE_406(134),
 
+        /**
+         * Corresponds to Response Code 136
+         */
+        REQUEST_ENTITY_INCOMPLETE_408(136),
+
         /**
          * Corresponds to Response Code 140
          */
@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message;
+
+import de.uniluebeck.itm.ncoap.message.options.*;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * An {@link OptionIndex} refers to the encoded options of an inbound {@link CoapMessage} without copying them. It
+ * consists of the {@link ChannelBuffer} the message was decoded from and an <code>int[]</code> containing a
+ * (option number, offset, length) triple for every option in the order of appearance. {@link OptionValue} instances
+ * are only created on demand.
+ *
+ * @author Oliver Kleine
+ */
+final class OptionIndex {
+
+    private static final int ENTRY_SIZE = 3;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final ChannelBuffer buffer;
+    private int[] entries;
+    private int size;
+
+    /**
+     * Creates a new (empty) instance of {@link OptionIndex}
+     *
+     * @param buffer the {@link ChannelBuffer} containing the encoded options to be indexed
+     */
+    OptionIndex(ChannelBuffer buffer){
+        this.buffer = buffer;
+        this.entries = new int[INITIAL_CAPACITY * ENTRY_SIZE];
+        this.size = 0;
+    }
+
+    /**
+     * Returns the {@link ChannelBuffer} the offsets of this {@link OptionIndex} refer to
+     * @return the {@link ChannelBuffer} the offsets of this {@link OptionIndex} refer to
+     */
+    ChannelBuffer getBuffer(){
+        return this.buffer;
+    }
+
+    /**
+     * Adds an entry for an option. The entries are expected to be added in ascending order of their option number.
+     *
+     * @param optionNumber the number of the option
+     * @param offset the index of the first byte of the encoded value in the {@link ChannelBuffer}
+     * @param length the length of the encoded value
+     */
+    void add(int optionNumber, int offset, int length){
+        if(size * ENTRY_SIZE == entries.length)
+            entries = Arrays.copyOf(entries, entries.length * 2);
+
+        int index = size * ENTRY_SIZE;
+        entries[index] = optionNumber;
+        entries[index + 1] = offset;
+        entries[index + 2] = length;
+        size++;
+    }
+
+    /**
+     * Returns the number of indexed options
+     * @return the number of indexed options
+     */
+    int size(){
+        return this.size;
+    }
+
+    int getOptionNumber(int position){
+        return entries[position * ENTRY_SIZE];
+    }
+
+    int getOffset(int position){
+        return entries[position * ENTRY_SIZE + 1];
+    }
+
+    int getLength(int position){
+        return entries[position * ENTRY_SIZE + 2];
+    }
+
+    /**
+     * Returns <code>true</code> if there is at least one option with the given number or <code>false</code>
+     * otherwise.
+     *
+     * @param optionNumber the option number to look up
+     *
+     * @return <code>true</code> if there is at least one option with the given number or <code>false</code>
+     * otherwise.
+     */
+    boolean contains(int optionNumber){
+        return indexOf(optionNumber) != -1;
+    }
+
+    /**
+     * Returns the decoded value of the first option with the given number (which is expected to be of
+     * {@link OptionValue.Type#UINT}) or {@link UintOptionValue#UNDEFINED} if there is no such option.
+     *
+     * @param optionNumber the option number to look up
+     *
+     * @return the decoded value of the first option with the given number or {@link UintOptionValue#UNDEFINED} if
+     * there is no such option.
+     */
+    long getUintValue(int optionNumber){
+        int position = indexOf(optionNumber);
+        if(position == -1)
+            return UintOptionValue.UNDEFINED;
+
+        return UintOptionValue.decode(buffer, getOffset(position), getLength(position));
+    }
+
+    /**
+     * Returns the concatenation of the given prefix and the decoded values of all options with the given number
+     * (which are expected to be of {@link OptionValue.Type#STRING}) separated by the given separator. The bytes are
+     * copied only once, i.e. there is no {@link StringOptionValue} created.
+     *
+     * @param optionNumber the option number to look up
+     * @param prefix the (ASCII) prefix of the result
+     * @param separator the (ASCII) separator to be placed between two values
+     *
+     * @return the concatenation of the given prefix and the decoded values of all options with the given number
+     * separated by the given separator or the prefix if there is no such option.
+     */
+    String join(int optionNumber, String prefix, char separator){
+        int first = indexOf(optionNumber);
+        if(first == -1)
+            return prefix;
+
+        //determine the number of bytes
+        int length = prefix.length() - 1;
+        for(int i = first; i < size && getOptionNumber(i) == optionNumber; i++)
+            length += getLength(i) + 1;
+
+        byte[] result = new byte[length];
+        int index = 0;
+        for(; index < prefix.length(); index++)
+            result[index] = (byte) prefix.charAt(index);
+
+        for(int i = first; i < size && getOptionNumber(i) == optionNumber; i++){
+            if(i > first)
+                result[index++] = (byte) separator;
+
+            buffer.getBytes(getOffset(i), result, index, getLength(i));
+            index += getLength(i);
+        }
+
+        return new String(result, CoapMessage.CHARSET);
+    }
+
+    /**
+     * Creates a new instance of {@link OptionValue} for the option at the given position. As the values were
+     * checked on insertion this method is not expected to throw any exception.
+     *
+     * @param position the position of the option in this {@link OptionIndex}
+     *
+     * @return a new instance of {@link OptionValue} for the option at the given position.
+     */
+    OptionValue createOptionValue(int position){
+        int optionNumber = getOptionNumber(position);
+        byte[] value = new byte[getLength(position)];
+        buffer.getBytes(getOffset(position), value);
+
+        switch(OptionValue.getOptionType(optionNumber)){
+            case OptionValue.Type.EMPTY:
+                return new EmptyOptionValue(optionNumber);
+
+            case OptionValue.Type.STRING:
+                return new StringOptionValue(optionNumber, value);
+
+            case OptionValue.Type.UINT:
+                return new UintOptionValue(optionNumber, value);
+
+            default:
+                return new OpaqueOptionValue(optionNumber, value);
+        }
+    }
+
+
+    private int indexOf(int optionNumber){
+        for(int i = 0; i < size; i++){
+            int current = getOptionNumber(i);
+
+            if(current == optionNumber)
+                return i;
+
+            //entries are sorted by option number
+            if(current > optionNumber)
+                return -1;
+        }
+
+        return -1;
+    }
+}
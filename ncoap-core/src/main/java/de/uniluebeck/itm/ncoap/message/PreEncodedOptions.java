@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message;
+
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.Arrays;
+
+/**
+ * {@link PreEncodedOptions} contain the encoded options of a {@link CoapMessage} except for the variable options,
+ * i.e. by default the {@link OptionValue.Name#OBSERVE} option. They are intended to encode the options of messages
+ * that are sent very often only once, e.g. update notifications to many observers (where only header, token and
+ * the observe option differ) or requests created from a {@link CoapRequestTemplate} (where additionally the
+ * {@link OptionValue.Name#ETAG} options differ).
+ *
+ * The encoded options are split into segments at the positions of the variable options, i.e. the first segment
+ * contains all options with a number smaller than the first variable option number and so on. As option numbers
+ * are delta encoded, the first option of each segment is kept separately and encoded with the appropriate delta,
+ * whereas the remaining options of the segment are encoded already. The values of the variable options are taken
+ * from the message to be encoded.
+ *
+ * The {@link ChannelBuffer}s of an instance are shared by all messages referring to it and must not be modified.
+ *
+ * @author Oliver Kleine
+ */
+public final class PreEncodedOptions {
+
+    private final int[] variableOptionNumbers;
+    private final int[] firstOptionNumbers;
+    private final byte[][] firstOptionValues;
+    private final ChannelBuffer[] remainders;
+    private final int[] lastOptionNumbers;
+    private final int remaindersLength;
+
+    /**
+     * Creates a new instance of {@link PreEncodedOptions}. This is intended for framework internal use, i.e. by
+     * {@link de.uniluebeck.itm.ncoap.communication.codec.CoapMessageEncoder#preEncodeOptions(CoapMessage, int...)}.
+     * All arrays except for the variable option numbers contain one element per segment, i.e. one element more than
+     * there are variable option numbers.
+     *
+     * @param variableOptionNumbers the (ascending) numbers of the options that are not pre-encoded
+     * @param firstOptionNumbers the number of the first option per segment (or 0 if the segment is empty)
+     * @param firstOptionValues the value of the first option per segment (or <code>null</code> if the segment is
+     *                          empty)
+     * @param remainders the encoded options per segment except for the first one
+     * @param lastOptionNumbers the number of the last option per segment (or 0 if the segment is empty)
+     */
+    public PreEncodedOptions(int[] variableOptionNumbers, int[] firstOptionNumbers, byte[][] firstOptionValues,
+                             ChannelBuffer[] remainders, int[] lastOptionNumbers){
+
+        this.variableOptionNumbers = variableOptionNumbers;
+        this.firstOptionNumbers = firstOptionNumbers;
+        this.firstOptionValues = firstOptionValues;
+        this.remainders = remainders;
+        this.lastOptionNumbers = lastOptionNumbers;
+
+        int length = 0;
+        for(ChannelBuffer remainder : remainders){
+            length += remainder.readableBytes();
+        }
+        this.remaindersLength = length;
+    }
+
+    /**
+     * Returns <code>true</code> if options with the given number are not pre-encoded, i.e. may be changed without
+     * discarding this {@link PreEncodedOptions}, or <code>false</code> otherwise.
+     *
+     * @param optionNumber the option number
+     *
+     * @return <code>true</code> if options with the given number are not pre-encoded or <code>false</code> otherwise
+     */
+    public boolean isVariable(int optionNumber){
+        return Arrays.binarySearch(this.variableOptionNumbers, optionNumber) >= 0;
+    }
+
+    /**
+     * Returns the number of segments, i.e. the number of variable options plus one
+     * @return the number of segments, i.e. the number of variable options plus one
+     */
+    public int getNumberOfSegments(){
+        return this.remainders.length;
+    }
+
+    /**
+     * Returns the number of the variable option following the segment with the given index
+     *
+     * @param index the index of the segment (smaller than {@link #getNumberOfSegments()} - 1)
+     *
+     * @return the number of the variable option following the segment with the given index
+     */
+    public int getVariableOptionNumber(int index){
+        return this.variableOptionNumbers[index];
+    }
+
+    /**
+     * Returns the number of the first option of the segment with the given index (or 0 if the segment is empty)
+     *
+     * @param index the index of the segment
+     *
+     * @return the number of the first option of the segment with the given index (or 0 if the segment is empty)
+     */
+    public int getFirstOptionNumber(int index){
+        return this.firstOptionNumbers[index];
+    }
+
+    /**
+     * Returns the value of the first option of the segment with the given index (or <code>null</code> if the
+     * segment is empty)
+     *
+     * @param index the index of the segment
+     *
+     * @return the value of the first option of the segment with the given index (or <code>null</code> if the
+     * segment is empty)
+     */
+    public byte[] getFirstOptionValue(int index){
+        return this.firstOptionValues[index];
+    }
+
+    /**
+     * Returns the encoded options of the segment with the given index except for the first one
+     *
+     * @param index the index of the segment
+     *
+     * @return the encoded options of the segment with the given index except for the first one
+     */
+    public ChannelBuffer getRemainder(int index){
+        return this.remainders[index];
+    }
+
+    /**
+     * Returns the number of the last option of the segment with the given index (or 0 if the segment is empty)
+     *
+     * @param index the index of the segment
+     *
+     * @return the number of the last option of the segment with the given index (or 0 if the segment is empty)
+     */
+    public int getLastOptionNumber(int index){
+        return this.lastOptionNumbers[index];
+    }
+
+    /**
+     * Returns the number of bytes of the encoded options of all segments except for the first option per segment
+     *
+     * @return the number of bytes of the encoded options of all segments except for the first option per segment
+     */
+    public int getRemaindersLength(){
+        return this.remaindersLength;
+    }
+}
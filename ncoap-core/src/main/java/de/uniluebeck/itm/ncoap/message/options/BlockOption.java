@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.message.options;
+
+/**
+ * Instances of {@link de.uniluebeck.itm.ncoap.message.options.BlockOption} represent the decoded value of a
+ * {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1} or
+ * {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2} option, i.e. the number of the block,
+ * whether more blocks follow and the size exponent (SZX). The size of a block is <code>2^(SZX + 4)</code> bytes.
+ *
+ * @author Oliver Kleine
+ */
+public final class BlockOption {
+
+    /**
+     * The largest valid size exponent (6), i.e. blocks of 1024 bytes
+     */
+    public static final int MAX_SZX = 6;
+
+    /**
+     * The largest valid block number (2^20 - 1)
+     */
+    public static final long MAX_NUMBER = 0xFFFFF;
+
+    private static final String INVALID_SZX = "Block size exponent must be between 0 and %d (but was %d).";
+    private static final String INVALID_NUMBER = "Block number must be between 0 and %d (but was %d).";
+
+    private final long number;
+    private final boolean more;
+    private final int szx;
+
+    /**
+     * Creates a new instance of {@link de.uniluebeck.itm.ncoap.message.options.BlockOption}
+     *
+     * @param number the number of the block (starting with <code>0</code>)
+     * @param more <code>true</code> if more blocks follow and <code>false</code> otherwise
+     * @param szx the size exponent, i.e. a value between <code>0</code> (16 bytes) and {@link #MAX_SZX}
+     *            (1024 bytes)
+     *
+     * @throws java.lang.IllegalArgumentException if the number or the size exponent is out of range
+     */
+    public BlockOption(long number, boolean more, int szx) throws IllegalArgumentException{
+        if(szx < 0 || szx > MAX_SZX)
+            throw new IllegalArgumentException(String.format(INVALID_SZX, MAX_SZX, szx));
+
+        if(number < 0 || number > MAX_NUMBER)
+            throw new IllegalArgumentException(String.format(INVALID_NUMBER, MAX_NUMBER, number));
+
+        this.number = number;
+        this.more = more;
+        this.szx = szx;
+    }
+
+    /**
+     * Decodes the given value of a block option
+     *
+     * @param value the value of a {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_1} or
+     *              {@link de.uniluebeck.itm.ncoap.message.options.OptionValue.Name#BLOCK_2} option
+     *
+     * @return the decoded {@link de.uniluebeck.itm.ncoap.message.options.BlockOption}
+     *
+     * @throws java.lang.IllegalArgumentException if the value contains the reserved size exponent (7)
+     */
+    public static BlockOption decode(long value) throws IllegalArgumentException{
+        return new BlockOption(value >>> 4, (value & 0x08) != 0, (int) (value & 0x07));
+    }
+
+    /**
+     * Returns the largest size exponent whose block size does not exceed the given number of bytes (but at least
+     * <code>0</code>)
+     *
+     * @param size the maximum block size in bytes
+     *
+     * @return the largest size exponent whose block size does not exceed the given number of bytes
+     */
+    public static int getSzx(int size){
+        int szx = 0;
+        while(szx < MAX_SZX && (1 << (szx + 5)) <= size){
+            szx++;
+        }
+        return szx;
+    }
+
+    /**
+     * Returns the encoded value of this {@link de.uniluebeck.itm.ncoap.message.options.BlockOption}
+     *
+     * @return the encoded value of this {@link de.uniluebeck.itm.ncoap.message.options.BlockOption}
+     */
+    public long encode(){
+        return (number << 4) | (more ? 0x08 : 0x00) | szx;
+    }
+
+    /**
+     * Returns the number of the block
+     * @return the number of the block
+     */
+    public long getNumber(){
+        return this.number;
+    }
+
+    /**
+     * Returns <code>true</code> if more blocks follow and <code>false</code> otherwise
+     * @return <code>true</code> if more blocks follow and <code>false</code> otherwise
+     */
+    public boolean isMore(){
+        return this.more;
+    }
+
+    /**
+     * Returns the size exponent
+     * @return the size exponent
+     */
+    public int getSzx(){
+        return this.szx;
+    }
+
+    /**
+     * Returns the size of the block in bytes, i.e. <code>2^(SZX + 4)</code>
+     * @return the size of the block in bytes
+     */
+    public int getSize(){
+        return 1 << (szx + 4);
+    }
+
+    /**
+     * Returns the position of the first byte of the block within the complete payload
+     * @return the position of the first byte of the block within the complete payload
+     */
+    public long getOffset(){
+        return number * getSize();
+    }
+
+
+    @Override
+    public boolean equals(Object object){
+        if(!(object instanceof BlockOption))
+            return false;
+
+        BlockOption other = (BlockOption) object;
+        return this.number == other.number && this.more == other.more && this.szx == other.szx;
+    }
+
+
+    @Override
+    public int hashCode(){
+        return (int) encode();
+    }
+
+
+    @Override
+    public String toString(){
+        return "[NUM: " + number + ", M: " + more + ", SZX: " + szx + " (" + getSize() + " bytes)]";
+    }
+}
@@ -24,10 +24,11 @@
  */
 package de.uniluebeck.itm.ncoap.message.options;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.net.InetAddresses;
 import com.google.common.primitives.Longs;
 import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.jboss.netty.buffer.ChannelBuffer;
 
 import java.math.BigInteger;
 import java.util.Arrays;
@@ -144,6 +145,21 @@ public abstract class OptionValue<T>{
          */
         public static final int LOCATION_QUERY  = 20;
 
+        /**
+         * Corresponds to option number 23
+         */
+        public static final int BLOCK_2         = 23;
+
+        /**
+         * Corresponds to option number 27
+         */
+        public static final int BLOCK_1         = 27;
+
+        /**
+         * Corresponds to option number 28
+         */
+        public static final int SIZE_2          = 28;
+
         /**
          * Corresponds to option number 35
          */
@@ -205,28 +221,32 @@ public abstract class OptionValue<T>{
         characteristics.put(    Name.URI_QUERY,      new Integer[]{Type.STRING,       0,      255     });
         characteristics.put(    Name.ACCEPT,         new Integer[]{Type.UINT,         0,      2       });
         characteristics.put(    Name.LOCATION_QUERY, new Integer[]{Type.STRING,       0,      255     });
+        characteristics.put(    Name.BLOCK_2,        new Integer[]{Type.UINT,         0,      3       });
+        characteristics.put(    Name.BLOCK_1,        new Integer[]{Type.UINT,         0,      3       });
+        characteristics.put(    Name.SIZE_2,         new Integer[]{Type.UINT,         0,      4       });
         characteristics.put(    Name.PROXY_URI,      new Integer[]{Type.STRING,       1,      1034    });
         characteristics.put(    Name.PROXY_SCHEME,   new Integer[]{Type.STRING,       1,      255     });
         characteristics.put(    Name.SIZE_1,         new Integer[]{Type.UINT,         0,      4       });
     }
 
-    private static HashMultimap<Integer, Integer> mutualExclusions = HashMultimap.create();
-    static{
-        mutualExclusions.put(Name.URI_HOST,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_HOST);
+    //an immutable multimap returns the stored sets on lookup, i.e. checking for exclusions does not allocate
+    private static ImmutableSetMultimap<Integer, Integer> mutualExclusions =
+            ImmutableSetMultimap.<Integer, Integer>builder()
+                .put(Name.URI_HOST,     Name.PROXY_URI)
+                .put(Name.PROXY_URI,    Name.URI_HOST)
 
-        mutualExclusions.put(Name.URI_PORT,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_PORT);
+                .put(Name.URI_PORT,     Name.PROXY_URI)
+                .put(Name.PROXY_URI,    Name.URI_PORT)
 
-        mutualExclusions.put(Name.URI_PATH,     Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_PATH);
+                .put(Name.URI_PATH,     Name.PROXY_URI)
+                .put(Name.PROXY_URI,    Name.URI_PATH)
 
-        mutualExclusions.put(Name.URI_QUERY,    Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.URI_QUERY);
+                .put(Name.URI_QUERY,    Name.PROXY_URI)
+                .put(Name.PROXY_URI,    Name.URI_QUERY)
 
-        mutualExclusions.put(Name.PROXY_SCHEME, Name.PROXY_URI);
-        mutualExclusions.put(Name.PROXY_URI,    Name.PROXY_SCHEME);
-    }
+                .put(Name.PROXY_SCHEME, Name.PROXY_URI)
+                .put(Name.PROXY_URI,    Name.PROXY_SCHEME)
+                .build();
 
     /**
      * Returns <code>true</code> if and only if the co-existence of both options is not allowed in a single
@@ -360,6 +380,52 @@ public abstract class OptionValue<T>{
         return false;
     }
 
+    /**
+     * Checks if the encoded value of the given length at the given offset of the given {@link ChannelBuffer} is a
+     * valid value for an option with the given number. The checks are the same as performed by the constructors
+     * of the {@link OptionValue} subclasses but do not require the value to be copied into a byte array (except
+     * for {@link Name#URI_HOST}).
+     *
+     * @param optionNumber the number of the option to check the value for
+     * @param buffer the {@link ChannelBuffer} containing the encoded value
+     * @param offset the index of the first byte of the encoded value in the given {@link ChannelBuffer}
+     * @param length the number of bytes of the encoded value
+     *
+     * @throws java.lang.IllegalArgumentException if the given option number refers to an unknown option, or if the
+     * encoded value is either the default value or exceeds the defined length limits for options with the given
+     * option number
+     */
+    public static void checkValue(int optionNumber, ChannelBuffer buffer, int offset, int length)
+            throws IllegalArgumentException {
+
+        int optionType = getOptionType(optionNumber);
+
+        //leading zeros of uint values are removed (see UintOptionValue#shortenValue(byte[]))
+        int valueLength = length;
+        if(optionType == Type.UINT){
+            while(valueLength > 1 && buffer.getByte(offset + length - valueLength) == 0)
+                valueLength--;
+        }
+
+        if(getMinLength(optionNumber) > valueLength || getMaxLength(optionNumber) < valueLength)
+            throw new IllegalArgumentException(String.format(OUT_OF_ALLOWED_RANGE, valueLength, optionNumber,
+                    getMinLength(optionNumber), getMaxLength(optionNumber)));
+
+        if(optionNumber == Name.URI_PORT || optionNumber == Name.MAX_AGE){
+            long defaultValue = optionNumber == Name.URI_PORT ? URI_PORT_DEFAULT : MAX_AGE_DEFAULT;
+            if(UintOptionValue.decode(buffer, offset, length) == defaultValue)
+                throw new IllegalArgumentException(String.format(VALUE_IS_DEFAULT_VALUE, optionNumber));
+        }
+
+        else if(optionNumber == Name.URI_HOST){
+            byte[] value = new byte[length];
+            buffer.getBytes(offset, value);
+
+            if(isDefaultValue(optionNumber, value))
+                throw new IllegalArgumentException(String.format(VALUE_IS_DEFAULT_VALUE, optionNumber));
+        }
+    }
+
 
     protected byte[] value;
 
@@ -25,6 +25,7 @@
 package de.uniluebeck.itm.ncoap.message.options;
 
 import com.google.common.primitives.Longs;
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -81,6 +82,25 @@ public class UintOptionValue extends OptionValue<Long> {
     }
 
 
+    /**
+     * Returns the unsigned integer value encoded in the given number of bytes at the given offset of the given
+     * {@link ChannelBuffer} without creating an instance of {@link UintOptionValue}.
+     *
+     * @param buffer the {@link ChannelBuffer} containing the encoded value
+     * @param offset the index of the first byte of the encoded value in the given {@link ChannelBuffer}
+     * @param length the number of bytes of the encoded value
+     *
+     * @return the decoded unsigned integer value
+     */
+    public static long decode(ChannelBuffer buffer, int offset, int length){
+        long result = 0;
+        for(int i = offset; i < offset + length; i++)
+            result = (result << 8) | (buffer.getByte(i) & 0xFF);
+
+        return result;
+    }
+
+
     public static byte[] shortenValue(byte[] value){
         int index = 0;
         while(index < value.length - 1 && value[index] == 0)
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests if the {@link RemoteEndpointOrderedExecutor} keeps the order of tasks per remote endpoint.
+ *
+ * @author Oliver Kleine
+ */
+public class RemoteEndpointOrderedExecutorTest {
+
+    private static final int REMOTE_ENDPOINTS = 4;
+    private static final int TASKS_PER_REMOTE_ENDPOINT = 1000;
+
+
+    @Test
+    public void testTasksAreExecutedInOrderPerRemoteEndpoint() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REMOTE_ENDPOINTS);
+        RemoteEndpointOrderedExecutor orderedExecutor = new RemoteEndpointOrderedExecutor(executor);
+
+        final CountDownLatch latch = new CountDownLatch(REMOTE_ENDPOINTS * TASKS_PER_REMOTE_ENDPOINT);
+        List<List<Integer>> executedTasks = new ArrayList<>();
+
+        for(int i = 0; i < REMOTE_ENDPOINTS; i++){
+            //not synchronized on purpose, the tasks for one remote endpoint must not run concurrently
+            executedTasks.add(new ArrayList<Integer>());
+        }
+
+        for(int task = 0; task < TASKS_PER_REMOTE_ENDPOINT; task++){
+            for(int i = 0; i < REMOTE_ENDPOINTS; i++){
+                final List<Integer> tasks = executedTasks.get(i);
+                final int number = task;
+                orderedExecutor.execute(new InetSocketAddress("localhost", 5683 + i), new Runnable() {
+                    @Override
+                    public void run() {
+                        tasks.add(number);
+                        latch.countDown();
+                    }
+                });
+            }
+        }
+
+        assertTrue("Tasks not finished in time", latch.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        for(List<Integer> tasks : executedTasks){
+            List<Integer> expected = new ArrayList<>(tasks);
+            Collections.sort(expected);
+            assertEquals("Wrong number of tasks", TASKS_PER_REMOTE_ENDPOINT, tasks.size());
+            assertEquals("Wrong order of tasks", expected, tasks);
+        }
+    }
+
+
+    @Test
+    public void testTasksForDifferentRemoteEndpointsAreExecutedInParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        RemoteEndpointOrderedExecutor orderedExecutor = new RemoteEndpointOrderedExecutor(executor);
+
+        final CountDownLatch blockingTaskStarted = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch otherTaskExecuted = new CountDownLatch(1);
+
+        InetSocketAddress remoteEndpoint1 = new InetSocketAddress("localhost", 5683);
+        InetSocketAddress remoteEndpoint2 = new InetSocketAddress("localhost", 5684);
+
+        orderedExecutor.execute(remoteEndpoint1, new Runnable() {
+            @Override
+            public void run() {
+                blockingTaskStarted.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertTrue(blockingTaskStarted.await(10, TimeUnit.SECONDS));
+
+        orderedExecutor.execute(remoteEndpoint2, new Runnable() {
+            @Override
+            public void run() {
+                otherTaskExecuted.countDown();
+            }
+        });
+
+        assertTrue("Task for other remote endpoint was blocked", otherTaskExecuted.await(10, TimeUnit.SECONDS));
+        release.countDown();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.application.server.webservice;
+
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.observing.ResourceStatusAge;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the lock-free state of an {@link Observation}.
+ *
+ * @author Oliver Kleine
+ */
+public class ObservationTest {
+
+    private static final int THREADS = 4;
+    private static final int SEQUENCE_NUMBERS_PER_THREAD = 10000;
+
+    private Observation observation = new Observation(new InetSocketAddress("localhost", 5683),
+            new Token(new byte[]{1, 2, 3, 4}), ContentFormat.TEXT_PLAIN_UTF8);
+
+
+    @Test
+    public void testConcurrentlyRetrievedSequenceNumbersAreUniqueAndIncreasing() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<List<Long>>> futures = new ArrayList<>();
+
+        for(int i = 0; i < THREADS; i++){
+            futures.add(executor.submit(new Callable<List<Long>>() {
+                @Override
+                public List<Long> call() throws Exception {
+                    List<Long> result = new ArrayList<>(SEQUENCE_NUMBERS_PER_THREAD);
+                    for(int j = 0; j < SEQUENCE_NUMBERS_PER_THREAD; j++){
+                        result.add(observation.getNextSequenceNo());
+                    }
+                    return result;
+                }
+            }));
+        }
+
+        Set<Long> allSequenceNumbers = new HashSet<>();
+        for(Future<List<Long>> future : futures){
+            List<Long> sequenceNumbers = future.get();
+            allSequenceNumbers.addAll(sequenceNumbers);
+
+            for(int i = 1; i < sequenceNumbers.size(); i++){
+                ResourceStatusAge latest = new ResourceStatusAge(sequenceNumbers.get(i - 1), 0);
+                ResourceStatusAge received = new ResourceStatusAge(sequenceNumbers.get(i), 0);
+                assertTrue("Sequence number not increasing", ResourceStatusAge.isReceivedStatusNewer(latest, received));
+            }
+        }
+
+        executor.shutdown();
+        assertEquals("Duplicate sequence numbers", THREADS * SEQUENCE_NUMBERS_PER_THREAD, allSequenceNumbers.size());
+        assertTrue("Sequence number out of range", Collections.max(allSequenceNumbers) < ResourceStatusAge.MODULUS);
+    }
+
+    @Test
+    public void testMessageIDIsOnlyResetWithMatchingMessageID(){
+        observation.setMessageID(17);
+
+        assertFalse(observation.resetMessageID(18));
+        assertEquals(17, observation.getMessageID());
+
+        assertTrue(observation.resetMessageID(17));
+        assertEquals(CoapMessage.UNDEFINED_MESSAGE_ID, observation.getMessageID());
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCacheConfiguration;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+* Tests to verify that the client answers requests from its response cache while the cached response is fresh and
+* validates the stale response with its ETag afterwards.
+*
+* @author Oliver Kleine
+*/
+public class ClientAnswersFromResponseCacheTest extends AbstractCoapCommunicationTest{
+
+    private static final String PAYLOAD = "some arbitrary payload";
+    private static final byte[] ETAG = new byte[]{1, 2, 3, 4};
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+
+    private static ClientTestCallback firstCallback;
+    private static ClientTestCallback secondCallback;
+    private static ClientTestCallback thirdCallback;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.caching").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setResponseCacheConfiguration(ResponseCacheConfiguration.getDefault())
+                .build());
+
+        firstCallback = new ClientTestCallback();
+        secondCallback = new ClientTestCallback();
+        thirdCallback = new ClientTestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                          endpoint     DESCRIPTION
+//                  |                               |
+//              (1) |----CON-GET------------------->|        Client sends request
+//              (2) |<----ACK-CONTENT---------------|        Endpoint responds (ETag, Max-Age: 1)
+//                  |                               |
+//              (3) |                               |        Client answers same request from cache
+//                  |                               |
+//                  |                               |        cached response becomes stale
+//                  |                               |
+//              (4) |----CON-GET (ETag)------------>|        Client validates cached response
+//              (5) |<----ACK-VALID-----------------|        Endpoint confirms ETag (Max-Age: 30)
+
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/sensor");
+
+        //(1) and (2)
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                firstCallback, endpointSocket);
+        Thread.sleep(300);
+
+        CoapMessage request = endpoint.getReceivedMessage(0);
+        CoapResponse content = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        content.setMessageID(request.getMessageID());
+        content.setToken(request.getToken());
+        content.setEtag(ETAG);
+        content.setMaxAge(1);
+        content.setContent(PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        endpoint.writeMessage(content, new InetSocketAddress("localhost", client.getPort()));
+        Thread.sleep(300);
+
+        //(3)
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                secondCallback, endpointSocket);
+        Thread.sleep(1200);
+
+        //(4) and (5)
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                thirdCallback, endpointSocket);
+        Thread.sleep(300);
+
+        request = endpoint.getReceivedMessage(1);
+        CoapResponse valid = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.VALID_203);
+        valid.setMessageID(request.getMessageID());
+        valid.setToken(request.getToken());
+        valid.setEtag(ETAG);
+        valid.setMaxAge(30);
+        endpoint.writeMessage(valid, new InetSocketAddress("localhost", client.getPort()));
+        Thread.sleep(300);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testEndpointReceivedTwoRequests(){
+        assertEquals("Wrong number of requests", 2, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testSecondRequestContainsEtag(){
+        CoapRequest coapRequest = (CoapRequest) endpoint.getReceivedMessage(1);
+        assertEquals("Wrong number of ETags", 1, coapRequest.getEtags().size());
+        assertTrue("Wrong ETag", Arrays.equals(ETAG, coapRequest.getEtags().iterator().next()));
+    }
+
+    @Test
+    public void testAllCallbacksReceivedContent(){
+        for(ClientTestCallback callback : Arrays.asList(firstCallback, secondCallback, thirdCallback)){
+            assertEquals("Wrong number of responses", 1, callback.getCoapResponses().size());
+
+            CoapResponse coapResponse = callback.getCoapResponses().values().iterator().next();
+            assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, coapResponse.getMessageCodeName());
+            assertEquals("Wrong payload", PAYLOAD, coapResponse.getContent().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testValidatedResponseHasNewMaxAge(){
+        CoapResponse coapResponse = thirdCallback.getCoapResponses().values().iterator().next();
+        assertTrue("Wrong Max-Age: " + coapResponse.getMaxAge(), coapResponse.getMaxAge() >= 29);
+    }
+
+    @Test
+    public void testCacheStatistics(){
+        ResponseCache responseCache = client.getResponseCache();
+        assertEquals("Wrong number of hits", 1, responseCache.getHits());
+        assertEquals("Wrong number of validations", 1, responseCache.getValidations());
+        assertEquals("Wrong number of misses", 1, responseCache.getMisses());
+    }
+}
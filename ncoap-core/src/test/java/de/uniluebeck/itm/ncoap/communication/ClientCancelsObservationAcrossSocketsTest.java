@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.SocketPoolConfiguration;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.ObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+* Tests to verify that a client with several sockets sends the request to cancel an observation over the socket
+* the observation was started with, i.e. the server stops the observation.
+*
+* @author Oliver Kleine
+*/
+public class ClientCancelsObservationAcrossSocketsTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapClientApplication client;
+    private static CoapServerApplication server;
+    private static ObservableTestWebservice service;
+
+    private static ClientTestCallback observationCallback;
+    private static ClientTestCallback cancellationCallback;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.dispatching.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        service = new ObservableTestWebservice(PATH_TO_SERVICE, 1, 0, server.getExecutor());
+        server.registerService(service);
+
+        //round robin, i.e. without routing by token the cancellation would be sent over the second socket
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setSocketPoolConfiguration(new SocketPoolConfiguration(2,
+                        SocketPoolConfiguration.SelectionPolicy.ROUND_ROBIN))
+                .build());
+
+        observationCallback = new ClientTestCallback(){
+            @Override
+            public boolean continueObservation() {
+                return true;
+            }
+        };
+
+        cancellationCallback = new ClientTestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client (2 sockets)              server     DESCRIPTION
+//                  |                             |
+//              (1) |----GET OBS: 0 (socket 1)--->|       Client starts observation
+//                  |                             |
+//              (2) |<---ACK OBS: 1 (socket 1)----|       Server sends first notification (status: 1)
+//                  |                             |
+//              (3) |----GET OBS: 1 (socket 1)--->|       Client cancels observation (with the same token)
+//                  |                             |
+//              (4) |<---ACK (socket 1)-----------|       Server responds without observe option
+//                  |                             |
+//                  |                             | <---  Status update (new status: 2)
+//                  |                             |
+//                  |                             |       no notification is sent
+
+        URI targetURI = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        CoapRequest observationRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+        observationRequest.setObserve(0);
+        client.sendCoapRequest(observationRequest, observationCallback, serverSocket);
+
+        Thread.sleep(1000);
+
+        CoapResponse notification = observationCallback.getCoapResponses().values().iterator().next();
+        CoapRequest cancellationRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+        cancellationRequest.setToken(notification.getToken());
+        cancellationRequest.setObserve(1);
+        client.sendCoapRequest(cancellationRequest, cancellationCallback, serverSocket);
+
+        Thread.sleep(1000);
+        service.setResourceStatus(2, 0);
+
+        Thread.sleep(2000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Test
+    public void testCancellationFoundOngoingObservation(){
+        assertEquals("Wrong number of errors", 0, cancellationCallback.getMiscellaneousErrors().size());
+    }
+
+    @Test
+    public void testNoNotificationAfterCancellation(){
+        for(CoapResponse coapResponse : observationCallback.getCoapResponses().values()){
+            String content = coapResponse.getContent().toString(Charset.forName("UTF-8"));
+            assertFalse("Notification after cancellation", "Status #2".equals(content));
+        }
+    }
+}
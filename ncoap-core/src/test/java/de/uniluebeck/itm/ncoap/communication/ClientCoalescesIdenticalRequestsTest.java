@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+* Tests to verify that concurrent identical GET requests are sent only once and that the response is delivered to
+* all callbacks.
+*
+* @author Oliver Kleine
+*/
+public class ClientCoalescesIdenticalRequestsTest extends AbstractCoapCommunicationTest{
+
+    private static final int NUMBER_OF_REQUESTS = 5;
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static ClientTestCallback[] callbacks;
+    private static ClientTestCallback laterCallback;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.dispatching.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        client = new CoapClientApplication();
+
+        callbacks = new ClientTestCallback[NUMBER_OF_REQUESTS];
+        for(int i = 0; i < NUMBER_OF_REQUESTS; i++){
+            callbacks[i] = new ClientTestCallback();
+        }
+        laterCallback = new ClientTestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                          endpoint     DESCRIPTION
+//                  |                               |
+//              (1) |----CON-GET------------------->|        Client sends one of 5 identical requests
+//              (2) |<----ACK-CONTENT---------------|        Endpoint responds (all callbacks are invoked)
+//                  |                               |
+//              (3) |----CON-GET------------------->|        Client sends identical request afterwards
+
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/sensor");
+        InetSocketAddress endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        //(1)
+        for(int i = 0; i < NUMBER_OF_REQUESTS; i++){
+            client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                    callbacks[i], endpointSocket);
+        }
+        Thread.sleep(300);
+
+        //(2)
+        CoapMessage request = endpoint.getReceivedMessage(0);
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        coapResponse.setMessageID(request.getMessageID());
+        coapResponse.setToken(request.getToken());
+        coapResponse.setContent(PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        endpoint.writeMessage(coapResponse, new InetSocketAddress("localhost", client.getPort()));
+        Thread.sleep(300);
+
+        //(3)
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                laterCallback, endpointSocket);
+        Thread.sleep(300);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testEndpointReceivedTwoRequests(){
+        assertEquals("Wrong number of requests", 2, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testAllCallbacksReceivedResponse(){
+        for(int i = 0; i < NUMBER_OF_REQUESTS; i++){
+            assertEquals("Wrong number of responses (callback " + i + ")", 1,
+                    callbacks[i].getCoapResponses().size());
+
+            CoapResponse coapResponse = callbacks[i].getCoapResponses().values().iterator().next();
+            assertEquals("Wrong payload", PAYLOAD, coapResponse.getContent().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testLaterRequestWasNotAttached(){
+        assertEquals("Wrong number of responses", 0, laterCallback.getCoapResponses().size());
+    }
+}
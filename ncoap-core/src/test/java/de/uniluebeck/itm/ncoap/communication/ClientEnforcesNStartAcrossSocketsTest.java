@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.SocketPoolConfiguration;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlConfiguration;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that a client with several sockets does not exceed NSTART outstanding confirmable requests per
+* remote endpoint in total and sends queued requests over the socket they were written to.
+*
+* @author Oliver Kleine
+*/
+public class ClientEnforcesNStartAcrossSocketsTest extends AbstractCoapCommunicationTest{
+
+    private static final int NUMBER_OF_SOCKETS = 3;
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+
+    private static int receivedBeforeFirstAck;
+    private static int receivedBeforeSecondAck;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.congestion").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setCongestionControlConfiguration(new CongestionControlConfiguration(1, 10, 1000))
+                .setSocketPoolConfiguration(new SocketPoolConfiguration(NUMBER_OF_SOCKETS,
+                        SocketPoolConfiguration.SelectionPolicy.ROUND_ROBIN))
+                .build());
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client (3 sockets)            endpoint     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET (socket 1)------>|       Client sends first request (2nd and 3rd are queued)
+//                  |                             |
+//              (2) |<---------------EMPTY-ACK----|       Endpoint acknowledges first request
+//                  |                             |
+//              (3) |----CON-GET (socket 2)------>|       Client sends second request (3rd remains queued)
+//                  |                             |
+//              (4) |<---------------EMPTY-ACK----|       Endpoint acknowledges second request
+//                  |                             |
+//              (5) |----CON-GET (socket 3)------>|       Client sends third request
+
+        int[] ports = client.getPorts();
+
+        //distinct paths, i.e. identical requests are not coalesced
+        for(int i = 0; i < 3; i++){
+            URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/testpath" + i);
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+            client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        }
+
+        Thread.sleep(500);
+        receivedBeforeFirstAck = endpoint.getReceivedCoapMessages().size();
+
+        int messageID = endpoint.getReceivedMessage(0).getMessageID();
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(messageID),
+                new InetSocketAddress("localhost", ports[0]));
+
+        Thread.sleep(500);
+        receivedBeforeSecondAck = endpoint.getReceivedCoapMessages().size();
+
+        //the acknowledgement only matches if the second request was sent over the second socket
+        messageID = endpoint.getReceivedMessage(1).getMessageID();
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(messageID),
+                new InetSocketAddress("localhost", ports[1]));
+
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testOnlyFirstRequestWasSentBeforeFirstAck(){
+        assertEquals("Wrong number of messages before first ACK", 1, receivedBeforeFirstAck);
+    }
+
+    @Test
+    public void testOnlySecondRequestWasSentBeforeSecondAck(){
+        assertEquals("Wrong number of messages before second ACK", 2, receivedBeforeSecondAck);
+    }
+
+    @Test
+    public void testThirdRequestWasSentAfterSecondAck(){
+        assertEquals("Wrong number of messages after second ACK", 3, endpoint.getReceivedCoapMessages().size());
+    }
+}
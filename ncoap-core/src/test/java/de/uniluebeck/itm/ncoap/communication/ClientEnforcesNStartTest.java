@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlHandler;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+* Tests to verify that the client does not exceed NSTART outstanding confirmable requests per remote endpoint, i.e.
+* further requests are queued and sent as soon as an outstanding request was acknowledged.
+*
+* @author Oliver Kleine
+*/
+public class ClientEnforcesNStartTest extends AbstractCoapCommunicationTest{
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+
+    private static int receivedBeforeAck;
+    private static int waitingBeforeAck;
+    private static int waitingAfterAck;
+    private static long delayedRequests;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.congestion").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setCongestionControlConfiguration(new CongestionControlConfiguration(1, 10, 1000))
+                .build());
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        endpoint     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       Client sends first request (2nd and 3rd are queued)
+//                  |                             |
+//              (2) |<---------------EMPTY-ACK----|       Endpoint acknowledges first request
+//                  |                             |
+//              (3) |----CON-GET----------------->|       Client sends second request (3rd remains queued)
+
+        //distinct paths, i.e. identical requests are not coalesced
+        for(int i = 0; i < 3; i++){
+            URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/testpath" + i);
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+            client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        }
+
+        Thread.sleep(500);
+
+        CongestionControlHandler handler = client.getCongestionControlHandler();
+        receivedBeforeAck = endpoint.getReceivedCoapMessages().size();
+        waitingBeforeAck = handler.getWaitingRequests(endpointSocket);
+
+        int messageID = endpoint.getReceivedMessage(0).getMessageID();
+        endpoint.writeMessage(CoapMessage.createEmptyAcknowledgement(messageID),
+                new InetSocketAddress("localhost", client.getPort()));
+
+        Thread.sleep(500);
+
+        waitingAfterAck = handler.getWaitingRequests(endpointSocket);
+        delayedRequests = handler.getDelayedRequests();
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testOnlyFirstRequestWasSentBeforeAck(){
+        assertEquals("Wrong number of messages before ACK", 1, receivedBeforeAck);
+        assertEquals("Wrong number of waiting requests before ACK", 2, waitingBeforeAck);
+    }
+
+    @Test
+    public void testSecondRequestWasSentAfterAck(){
+        assertEquals("Wrong number of messages after ACK", 2, endpoint.getReceivedCoapMessages().size());
+        assertEquals("Wrong number of waiting requests after ACK", 1, waitingAfterAck);
+
+        CoapMessage first = endpoint.getReceivedMessage(0);
+        CoapMessage second = endpoint.getReceivedMessage(1);
+        assertFalse("Second message is a retransmission", first.getMessageID() == second.getMessageID());
+    }
+
+    @Test
+    public void testDelayedRequestsWereCounted(){
+        assertEquals("Wrong number of delayed requests", 2, delayedRequests);
+    }
+}
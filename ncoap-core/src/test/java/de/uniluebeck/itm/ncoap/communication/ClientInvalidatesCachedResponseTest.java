@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCache;
+import de.uniluebeck.itm.ncoap.communication.caching.ResponseCacheConfiguration;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that a request other than GET invalidates the cached response for the same resource (even with
+* other options) but not the cached responses for other resources.
+*
+* @author Oliver Kleine
+*/
+public class ClientInvalidatesCachedResponseTest extends AbstractCoapCommunicationTest{
+
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+    private static InetSocketAddress clientSocket;
+
+    private static ClientTestCallback lastCallback;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.caching").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setResponseCacheConfiguration(ResponseCacheConfiguration.getDefault())
+                .build());
+        clientSocket = new InetSocketAddress("localhost", client.getPort());
+
+        lastCallback = new ClientTestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                          endpoint     DESCRIPTION
+//                  |                               |
+//              (1) |----CON-GET /sensor----------->|        Client sends request
+//              (2) |<----ACK-CONTENT---------------|        Endpoint responds (Max-Age: 60)
+//                  |                               |
+//              (3) |----CON-GET /other------------>|        Client sends request for another resource
+//              (4) |<----ACK-CONTENT---------------|        Endpoint responds (Max-Age: 60)
+//                  |                               |
+//              (5) |----CON-PUT /sensor----------->|        Client invalidates cached response for /sensor
+//              (6) |<----ACK-CHANGED---------------|
+//                  |                               |
+//              (7) |----CON-GET /sensor----------->|        Client does not answer from cache
+//              (8) |<----ACK-CONTENT---------------|
+//                  |                               |
+//              (9) |                               |        Client answers request for /other from cache
+
+        URI sensorURI = new URI("coap://localhost:" + endpoint.getPort() + "/sensor?unit=celsius");
+        URI otherURI = new URI("coap://localhost:" + endpoint.getPort() + "/other");
+
+        //(1) and (2)
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, sensorURI);
+        coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+        client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        respond(0, MessageCode.Name.CONTENT_205);
+
+        //(3) and (4)
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, otherURI);
+        client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        respond(1, MessageCode.Name.CONTENT_205);
+
+        //(5) and (6)
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.PUT, sensorURI);
+        coapRequest.setContent(PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        respond(2, MessageCode.Name.CHANGED_204);
+
+        //(7) and (8)
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, sensorURI);
+        coapRequest.setAccept(ContentFormat.TEXT_PLAIN_UTF8);
+        client.sendCoapRequest(coapRequest, new ClientTestCallback(), endpointSocket);
+        respond(3, MessageCode.Name.CONTENT_205);
+
+        //(9)
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, otherURI);
+        client.sendCoapRequest(coapRequest, lastCallback, endpointSocket);
+        Thread.sleep(300);
+    }
+
+
+    private static void respond(int index, MessageCode.Name messageCode) throws Exception {
+        Thread.sleep(300);
+
+        CoapMessage request = endpoint.getReceivedMessage(index);
+        CoapResponse coapResponse = new CoapResponse(MessageType.Name.ACK, messageCode);
+        coapResponse.setMessageID(request.getMessageID());
+        coapResponse.setToken(request.getToken());
+
+        if(messageCode == MessageCode.Name.CONTENT_205){
+            coapResponse.setMaxAge(60);
+            coapResponse.setContent(PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        }
+
+        endpoint.writeMessage(coapResponse, clientSocket);
+        Thread.sleep(300);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testEndpointReceivedFourRequests(){
+        assertEquals("Wrong number of requests", 4, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testSecondGetWasSentAfterPut(){
+        CoapMessage coapMessage = endpoint.getReceivedMessage(3);
+        assertEquals("Wrong message code", MessageCode.Name.GET, coapMessage.getMessageCodeName());
+        assertEquals("Wrong path", "/sensor", ((CoapRequest) coapMessage).getUriPath());
+    }
+
+    @Test
+    public void testOtherResourceWasAnsweredFromCache(){
+        assertEquals("Wrong number of responses", 1, lastCallback.getCoapResponses().size());
+
+        ResponseCache responseCache = client.getResponseCache();
+        assertEquals("Wrong number of hits", 1, responseCache.getHits());
+        assertEquals("Wrong number of cached responses", 2, responseCache.size());
+    }
+}
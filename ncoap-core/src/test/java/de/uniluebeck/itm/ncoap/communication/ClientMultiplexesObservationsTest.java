@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.ObservationMultiplexer;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.ObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests if an {@link de.uniluebeck.itm.ncoap.application.client.ObservationMultiplexer} shares one observation
+ * among several subscribers and cancels it when the last subscriber left.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientMultiplexesObservationsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapClientApplication client;
+    private static ObservationMultiplexer multiplexer;
+    private static ClientTestCallback[] subscribers;
+
+    private static CoapServerApplication server;
+    private static ObservableTestWebservice service;
+
+    private static CoapRequest request;
+    private static InetSocketAddress serverSocket;
+
+    private static int responsesAfterLateSubscription;
+    private static int observationsWhileShared;
+    private static int observationsAfterLastSubscriberLeft;
+
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication();
+        service = new ObservableTestWebservice(PATH_TO_SERVICE, 1, 0, server.getExecutor());
+        server.registerService(service);
+        serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        client = new CoapClientApplication();
+        multiplexer = new ObservationMultiplexer(client);
+
+        subscribers = new ClientTestCallback[3];
+        for(int i = 0; i < subscribers.length; i++){
+            subscribers[i] = new SubscriberCallback();
+        }
+
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        request = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+        request.setObserve(0);
+    }
+
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Subscribers          Client                        Server
+//           (1) #1 subscribe ------> |------GET-OBSERVE----------->|
+//                                    |                             |
+//           (2) #1 <---------------- |<-----ACK-NOTIFICATION-------|      (Status #1)
+//                                    |                             |
+//           (3) #2, #3 subscribe --> |                             |      no request, latest status delivered
+//                                    |                             |
+//           (4) #1, #2, #3 <-------- |<-----NOTIFICATION-----------|      (Status #2)
+//                                    |                             |
+//           (5) #1, #2 cancel        |                             |
+//                                    |                             |
+//           (6) #3 <---------------- |<-----NOTIFICATION-----------|      (Status #3)
+//                                    |                             |
+//           (7) #3 cancel            |                             |
+//                                    |                             |
+//           (8)                      |<-----NOTIFICATION-----------|      (Status #4)
+//                                    |------RST------------------->|      observation cancelled
+
+        ObservationMultiplexer.Subscription subscription1 =
+                multiplexer.subscribe(request, serverSocket, subscribers[0]);
+        Thread.sleep(2000);
+
+        ObservationMultiplexer.Subscription subscription2 =
+                multiplexer.subscribe(request, serverSocket, subscribers[1]);
+        ObservationMultiplexer.Subscription subscription3 =
+                multiplexer.subscribe(request, serverSocket, subscribers[2]);
+
+        responsesAfterLateSubscription = subscribers[1].getCoapResponses().size();
+        observationsWhileShared = multiplexer.getNumberOfObservations();
+
+        Thread.sleep(1000);
+        service.setResourceStatus(2, 10);
+        Thread.sleep(2000);
+
+        subscription1.cancel();
+        subscription2.cancel();
+
+        service.setResourceStatus(3, 10);
+        Thread.sleep(2000);
+
+        subscription3.cancel();
+
+        service.setResourceStatus(4, 10);
+        Thread.sleep(2000);
+
+        observationsAfterLastSubscriberLeft = multiplexer.getNumberOfObservations();
+    }
+
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client.ObservationMultiplexer")
+                .setLevel(Level.DEBUG);
+        Logger.getLogger("de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback")
+                .setLevel(Level.DEBUG);
+    }
+
+
+    @Test
+    public void testLateSubscriberReceivedLatestStatusImmediately(){
+        assertEquals("Wrong number of responses right after subscription", 1, responsesAfterLateSubscription);
+
+        CoapResponse response = subscribers[1].getCoapResponses().values().iterator().next();
+        assertEquals("Wrong content", "Status #1", response.getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testSubscribersShareOneObservation(){
+        assertEquals("Wrong number of observations", 1, observationsWhileShared);
+    }
+
+    @Test
+    public void testSubscribersReceivedNotificationsUntilCancellation(){
+        assertEquals("Subscriber #1: wrong number of responses", 2, subscribers[0].getCoapResponses().size());
+        assertEquals("Subscriber #2: wrong number of responses", 2, subscribers[1].getCoapResponses().size());
+        assertEquals("Subscriber #3: wrong number of responses", 3, subscribers[2].getCoapResponses().size());
+    }
+
+    @Test
+    public void testLastSubscriberReceivedAllStatusUpdates(){
+        Iterator<CoapResponse> responses = subscribers[2].getCoapResponses().values().iterator();
+        for(int i = 1; i <= 3; i++){
+            assertEquals("Wrong content", "Status #" + i, responses.next().getContent().toString(CoapMessage.CHARSET));
+        }
+    }
+
+    @Test
+    public void testObservationWasCancelledAfterLastSubscriberLeft(){
+        assertEquals("Wrong number of observations", 0, observationsAfterLastSubscriberLeft);
+    }
+
+
+    private static class SubscriberCallback extends ClientTestCallback {
+
+        @Override
+        public boolean continueObservation(){
+            return true;
+        }
+    }
+}
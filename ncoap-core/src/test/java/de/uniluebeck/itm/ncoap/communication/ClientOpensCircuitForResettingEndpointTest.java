@@ -0,0 +1,207 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.health.CircuitBreakerHandler;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+* Tests to verify that the client does not consider retransmissions as failures, opens the circuit for a remote
+* endpoint that resets too many requests, fails further requests to that endpoint immediately, has at most one
+* probe in flight and closes the circuit after the endpoint answered the probe.
+*
+* @author Oliver Kleine
+*/
+public class ClientOpensCircuitForResettingEndpointTest extends AbstractCoapCommunicationTest{
+
+    private static final int RESET_REQUESTS = CircuitBreakerHandler.MIN_RESET_RATE_SAMPLES;
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+    private static InetSocketAddress clientSocket;
+
+    private static ClientTestCallback unansweredCallback;
+    private static ClientTestCallback rejectedCallback;
+
+    private static boolean openAfterRetransmission;
+    private static boolean openAfterResets;
+    private static Set<Integer> probeMessageIDs;
+    private static boolean openAfterProbe;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.health").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        //open the circuit upon the first failure or if more than half of the requests were reset, probe every second
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setCircuitBreakerConfiguration(new CircuitBreakerConfiguration(1, 0.5, 1))
+                .build());
+        clientSocket = new InetSocketAddress("localhost", client.getPort());
+
+        unansweredCallback = new ClientTestCallback();
+        rejectedCallback = new ClientTestCallback();
+        probeMessageIDs = new HashSet<>();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        endpoint     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       Client sends request without answer
+//                  |                             |
+//              (2) |----1st RETRANSMISSION------>|       Client keeps the circuit closed
+//                  |                             |
+//              (3) |----CON-GET----------------->|       Client sends request (8 times)
+//                  |                             |
+//              (4) |<--------------------RST-----|       Endpoint resets request (8 times), client opens circuit
+//                  |                             |
+//                  |                             |       Client fails another request immediately
+//                  |                             |
+//              (5) |----CON-PING---------------->|       Client probes the endpoint (no second probe)
+//                  |                             |
+//              (6) |<--------------------RST-----|       Client closes the circuit
+
+        CircuitBreakerHandler handler = client.getCircuitBreakerHandler();
+
+        URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/unanswered");
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                unansweredCallback, endpointSocket);
+
+        //wait for the first retransmission
+        Thread.sleep(3200);
+        openAfterRetransmission = handler.isOpen(endpointSocket);
+
+        //distinct paths, i.e. the requests are not coalesced
+        for(int i = 0; i < RESET_REQUESTS; i++){
+            targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/testpath" + i);
+            client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                    new ClientTestCallback(), endpointSocket);
+
+            CoapRequest coapRequest = awaitRequest("/testpath" + i);
+            if(coapRequest != null){
+                endpoint.writeMessage(CoapMessage.createEmptyReset(coapRequest.getMessageID()), clientSocket);
+            }
+            Thread.sleep(100);
+        }
+
+        openAfterResets = handler.isOpen(endpointSocket);
+
+        targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/rejected");
+        client.sendCoapRequest(new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI),
+                rejectedCallback, endpointSocket);
+
+        //the probe is sent after one second, another one would be sent a second later
+        Thread.sleep(2500);
+
+        for(CoapMessage coapMessage : endpoint.getReceivedCoapMessages().values()){
+            if(coapMessage.getMessageCodeName() == MessageCode.Name.EMPTY){
+                probeMessageIDs.add(coapMessage.getMessageID());
+            }
+        }
+
+        for(int messageID : probeMessageIDs){
+            endpoint.writeMessage(CoapMessage.createEmptyReset(messageID), clientSocket);
+        }
+
+        Thread.sleep(300);
+        openAfterProbe = handler.isOpen(endpointSocket);
+    }
+
+
+    private static CoapRequest awaitRequest(String uriPath) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while(System.currentTimeMillis() < deadline){
+            for(CoapMessage coapMessage : endpoint.getReceivedCoapMessages().values()){
+                if(coapMessage instanceof CoapRequest && uriPath.equals(((CoapRequest) coapMessage).getUriPath())){
+                    return (CoapRequest) coapMessage;
+                }
+            }
+            Thread.sleep(20);
+        }
+        return null;
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testCircuitWasNotOpenedByRetransmission(){
+        assertFalse("First request was not retransmitted", unansweredCallback.getTransmissions().isEmpty());
+        assertFalse("Circuit was opened by retransmission", openAfterRetransmission);
+    }
+
+    @Test
+    public void testCircuitWasOpenedByResets(){
+        assertTrue("Circuit was not opened", openAfterResets);
+    }
+
+    @Test
+    public void testRequestFailedImmediately(){
+        assertEquals("Wrong number of errors", 1, rejectedCallback.getMiscellaneousErrors().size());
+        assertEquals("Wrong number of rejected requests", 1,
+                client.getCircuitBreakerHandler().getRejectedRequests());
+    }
+
+    @Test
+    public void testEndpointWasProbedOnce(){
+        assertEquals("Wrong number of probes", 1, probeMessageIDs.size());
+    }
+
+    @Test
+    public void testCircuitWasClosedAfterProbe(){
+        assertFalse("Circuit was not closed", openAfterProbe);
+    }
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.ConflatingClientCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.ObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests if a {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ConflatingClientCallback} only delivers
+ * update notifications on demand and keeps only the newest one while there is no demand.
+ *
+ * @author Oliver Kleine
+ */
+public class ClientReceivesConflatedNotificationsTest extends AbstractCoapCommunicationTest {
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static CoapClientApplication client;
+    private static ExecutorService executor;
+    private static TestConflatingCallback clientCallback;
+
+    private static CoapServerApplication server;
+    private static ObservableTestWebservice service;
+
+    private static CoapRequest request;
+
+    private static int responsesWithoutDemand;
+
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication();
+        service = new ObservableTestWebservice(PATH_TO_SERVICE, 1, 0, server.getExecutor());
+        server.registerService(service);
+
+        client = new CoapClientApplication();
+        executor = Executors.newSingleThreadExecutor();
+        clientCallback = new TestConflatingCallback();
+
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        request = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+        request.setObserve(0);
+    }
+
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//               Client                        Server
+//              (1) |------GET-OBSERVE----------->|
+//                  |                             |
+//              (2) |<-----ACK-NOTIFICATION-------|           Status #1, delivered (demand: 1 -> 0)
+//                  |                             |
+//              (3) |<-----NOTIFICATION-----------|           Status #2, kept (no demand)
+//                  |                             |
+//              (4) |<-----NOTIFICATION-----------|           Status #3, replaces Status #2
+//                  |                             |
+//              (5) |<-----NOTIFICATION-----------|           Status #4, replaces Status #3
+//                  |                             |
+//                  |                             |           request(1): Status #4 delivered
+//                  |                             |
+//                  |                             |           cancel()
+//                  |                             |
+//              (6) |<-----NOTIFICATION-----------|           Status #5, not delivered
+//              (7) |------RST------------------->|
+
+        client.sendCoapRequest(request, clientCallback, new InetSocketAddress("localhost", server.getPort()));
+        Thread.sleep(1500);
+
+        for(int status = 2; status <= 4; status++){
+            service.setResourceStatus(status, 10);
+            Thread.sleep(1500);
+        }
+
+        responsesWithoutDemand = clientCallback.getResponses().size();
+
+        clientCallback.request(1);
+        Thread.sleep(500);
+
+        clientCallback.cancel();
+        service.setResourceStatus(5, 10);
+        Thread.sleep(1500);
+    }
+
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        executor.shutdownNow();
+    }
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.dispatching.client.ConflatingClientCallback")
+                .setLevel(Level.DEBUG);
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.observing.ClientObservationHandler")
+                .setLevel(Level.DEBUG);
+    }
+
+
+    @Test
+    public void testNoDeliveryWithoutDemand(){
+        assertEquals("Wrong number of responses without demand", 1, responsesWithoutDemand);
+    }
+
+    @Test
+    public void testNewestNotificationWasDeliveredOnDemand(){
+        List<CoapResponse> responses = clientCallback.getResponses();
+        assertEquals("Wrong number of responses", 2, responses.size());
+        assertEquals("Wrong content", "Status #1", responses.get(0).getContent().toString(CoapMessage.CHARSET));
+        assertEquals("Wrong content", "Status #4", responses.get(1).getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testOlderNotificationsWereConflated(){
+        assertEquals("Wrong number of conflated notifications", 2, clientCallback.getNumberOfConflatedResponses());
+    }
+
+
+    private static class TestConflatingCallback extends ConflatingClientCallback {
+
+        private final List<CoapResponse> responses;
+
+        private TestConflatingCallback(){
+            super(executor, 1);
+            this.responses = Collections.synchronizedList(new ArrayList<CoapResponse>());
+        }
+
+        @Override
+        public void processLatestResponse(CoapResponse coapResponse) {
+            this.responses.add(coapResponse);
+        }
+
+        private List<CoapResponse> getResponses(){
+            return new ArrayList<>(this.responses);
+        }
+    }
+}
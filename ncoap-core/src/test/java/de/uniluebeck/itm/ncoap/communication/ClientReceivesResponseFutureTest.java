@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+* Tests to verify that the future returned by
+* {@link CoapClientApplication#sendCoapRequest(CoapRequest, InetSocketAddress, long, TimeUnit)} succeeds with the
+* response and fails if the deadline expired, whereupon the request is no longer retransmitted.
+*
+* @author Oliver Kleine
+*/
+public class ClientReceivesResponseFutureTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH_TO_SERVICE = "/path/to/service";
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapClientApplication client;
+    private static CoapServerApplication server;
+    private static DummyEndpoint endpoint;
+
+    private static ListenableFuture<CoapResponse> responseFuture;
+    private static ListenableFuture<CoapResponse> deadlineFuture;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.dispatching.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebservice(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                server.getExecutor()));
+
+        endpoint = new DummyEndpoint();
+        client = new CoapClientApplication();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                  server   endpoint     DESCRIPTION
+//                  |                       |       |
+//              (1) |----CON-GET----------->|       |        Client sends request to server
+//              (2) |<----ACK-RESPONSE------|       |        Server responds (future succeeds)
+//                  |                       |       |
+//              (3) |----CON-GET------------------->|        Client sends request to silent endpoint
+//                  |                       |       |
+//                  |                       |       |        deadline expires (no retransmission)
+
+        URI serverURI = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, serverURI);
+        responseFuture = client.sendCoapRequest(coapRequest, new InetSocketAddress("localhost", server.getPort()));
+
+        URI endpointURI = new URI("coap://localhost:" + endpoint.getPort() + "/testpath");
+        coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, endpointURI);
+        deadlineFuture = client.sendCoapRequest(coapRequest, new InetSocketAddress("localhost", endpoint.getPort()),
+                500, TimeUnit.MILLISECONDS);
+
+        //wait longer than the maximum initial retransmission timeout (3 seconds)
+        Thread.sleep(4000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testFutureSucceededWithResponse() throws Exception{
+        assertTrue("Future is not done", responseFuture.isDone());
+
+        CoapResponse coapResponse = responseFuture.get();
+        assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, coapResponse.getMessageCodeName());
+        assertEquals("Wrong payload", PAYLOAD, coapResponse.getContent().toString(Charset.forName("UTF-8")));
+    }
+
+    @Test
+    public void testFutureFailedAfterDeadline() throws Exception{
+        assertTrue("Future is not done", deadlineFuture.isDone());
+
+        try{
+            deadlineFuture.get();
+            fail("Future did not fail");
+        }
+        catch(ExecutionException ex){
+            assertTrue("Wrong cause: " + ex.getCause(), ex.getCause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testRequestWasNotRetransmittedAfterDeadline(){
+        assertEquals("Wrong number of messages", 1, endpoint.getReceivedCoapMessages().size());
+    }
+}
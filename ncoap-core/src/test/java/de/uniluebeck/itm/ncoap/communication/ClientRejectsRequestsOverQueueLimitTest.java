@@ -0,0 +1,123 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.communication.congestion.CongestionControlConfiguration;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that a request exceeding the maximum number of waiting requests per remote endpoint is not sent
+* and its {@link de.uniluebeck.itm.ncoap.communication.dispatching.client.ClientCallback} is informed about the
+* rejection.
+*
+* @author Oliver Kleine
+*/
+public class ClientRejectsRequestsOverQueueLimitTest extends AbstractCoapCommunicationTest{
+
+    private static CoapClientApplication client;
+    private static DummyEndpoint endpoint;
+    private static InetSocketAddress endpointSocket;
+
+    private static ClientTestCallback[] callbacks;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.congestion").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        endpoint = new DummyEndpoint();
+        endpointSocket = new InetSocketAddress("localhost", endpoint.getPort());
+
+        //one outstanding and one waiting request at most (requests are sent in order, i.e. the 3rd is rejected)
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setThreadingConfiguration(new ThreadingConfiguration(1, 2, 2, true))
+                .setCongestionControlConfiguration(new CongestionControlConfiguration(1, 1, 1000))
+                .build());
+
+        callbacks = new ClientTestCallback[3];
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        endpoint     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET----------------->|       Client sends first request (2nd is queued)
+//                  |                             |
+//                  |                             |       Client rejects the 3rd request
+
+        for(int i = 0; i < 3; i++){
+            URI targetURI = new URI("coap://localhost:" + endpoint.getPort() + "/testpath" + i);
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+            callbacks[i] = new ClientTestCallback();
+            client.sendCoapRequest(coapRequest, callbacks[i], endpointSocket);
+        }
+
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testOnlyFirstRequestWasSent(){
+        assertEquals("Wrong number of messages", 1, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testCallbackOfRejectedRequestWasInformed(){
+        assertEquals("Wrong number of errors of 1st request", 0, callbacks[0].getMiscellaneousErrors().size());
+        assertEquals("Wrong number of errors of 2nd request", 0, callbacks[1].getMiscellaneousErrors().size());
+        assertEquals("Wrong number of errors of 3rd request", 1, callbacks[2].getMiscellaneousErrors().size());
+    }
+
+    @Test
+    public void testRejectedRequestWasCounted(){
+        assertEquals("Wrong number of rejected requests", 1,
+                client.getCongestionControlHandler().getRejectedRequests());
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.BulkClientCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.CoapResponse;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that a request sent to several remote endpoints at once leads to one result per remote endpoint
+* and a single completion.
+*
+* @author Oliver Kleine
+*/
+public class ClientSendsBulkRequestTest extends AbstractCoapCommunicationTest{
+
+    private static final int NUMBER_OF_SERVERS = 3;
+    private static final String PATH_TO_SERVICE = "/path/to/service";
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapClientApplication client;
+    private static CoapServerApplication[] servers;
+    private static List<InetSocketAddress> serverSockets;
+
+    private static Map<InetSocketAddress, CoapResponse> responses;
+    private static AtomicInteger failures;
+    private static AtomicInteger completions;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        servers = new CoapServerApplication[NUMBER_OF_SERVERS];
+        serverSockets = new ArrayList<>();
+
+        for(int i = 0; i < NUMBER_OF_SERVERS; i++){
+            servers[i] = new CoapServerApplication(0);
+            servers[i].registerService(new NotObservableTestWebservice(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                    servers[i].getExecutor()));
+            serverSockets.add(new InetSocketAddress("127.0.0.1", servers[i].getPort()));
+        }
+
+        client = new CoapClientApplication();
+
+        responses = new ConcurrentHashMap<>();
+        failures = new AtomicInteger(0);
+        completions = new AtomicInteger(0);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client                        servers      DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET (to each)------->|       Client sends the same request to all servers
+//                  |                             |
+//              (2) |<---ACK-RESPONSE (each)------|       All servers respond
+
+        //IP literal, i.e. no URI-Host option
+        URI targetURI = new URI("coap://127.0.0.1" + PATH_TO_SERVICE);
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+
+        client.sendCoapRequests(coapRequest, serverSockets, new BulkClientCallback() {
+            @Override
+            public void processCoapResponse(InetSocketAddress remoteEndpoint, CoapResponse coapResponse) {
+                responses.put(remoteEndpoint, coapResponse);
+            }
+
+            @Override
+            public void processFailure(InetSocketAddress remoteEndpoint, String description) {
+                failures.incrementAndGet();
+            }
+
+            @Override
+            public void processCompletion() {
+                completions.incrementAndGet();
+            }
+        });
+
+        Thread.sleep(1000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        for(CoapServerApplication server : servers){
+            server.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testEachServerResponded(){
+        assertEquals("Wrong number of responses", NUMBER_OF_SERVERS, responses.size());
+        assertEquals("Wrong number of failures", 0, failures.get());
+
+        for(InetSocketAddress serverSocket : serverSockets){
+            assertEquals("Wrong payload from " + serverSocket, PAYLOAD,
+                    responses.get(serverSocket).getContent().toString(Charset.forName("UTF-8")));
+        }
+    }
+
+    @Test
+    public void testCompletionWasProcessedOnce(){
+        assertEquals("Wrong number of completions", 1, completions.get());
+    }
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.NotObservableWebservice;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that request and response payloads exceeding the maximum block size are transparently
+* transferred in blocks.
+*
+* @author Oliver Kleine
+*/
+public class ClientServerBlockwiseTransferTest extends AbstractCoapCommunicationTest{
+
+    private static final String LARGE_STATUS = Strings.repeat("0123456789", 500);
+    private static final String LARGE_PAYLOAD = Strings.repeat("abcdefghij", 300);
+
+    private static CoapServerApplication server;
+    private static CountingWebservice largeService;
+    private static EchoWebservice echoService;
+
+    private static CoapClientApplication client;
+    private static ClientTestCallback getCallback;
+    private static ClientTestCallback postCallback;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.blockwise").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        largeService = new CountingWebservice("/large", LARGE_STATUS, server.getExecutor());
+        server.registerService(largeService);
+        echoService = new EchoWebservice("/echo", server.getExecutor());
+        server.registerService(echoService);
+
+        client = new CoapClientApplication();
+        getCallback = new ClientTestCallback();
+        postCallback = new ClientTestCallback();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        URI largeUri = new URI("coap://localhost:" + server.getPort() + "/large");
+        CoapRequest getRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, largeUri);
+        client.sendCoapRequest(getRequest, getCallback, serverSocket);
+
+        URI echoUri = new URI("coap://localhost:" + server.getPort() + "/echo");
+        CoapRequest postRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.POST, echoUri);
+        postRequest.setContent(LARGE_PAYLOAD.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+        client.sendCoapRequest(postRequest, postCallback, serverSocket);
+
+        Thread.sleep(2000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Test
+    public void testClientReceivedCompleteResponseOnce(){
+        assertEquals("Wrong number of responses", 1, getCallback.getCoapResponses().size());
+        CoapResponse coapResponse = getCallback.getCoapResponses().values().iterator().next();
+        assertEquals("Wrong payload", LARGE_STATUS, coapResponse.getContent().toString(CoapMessage.CHARSET));
+    }
+
+    @Test
+    public void testResponseHasNoBlockOptions(){
+        CoapResponse coapResponse = getCallback.getCoapResponses().values().iterator().next();
+        assertEquals("Unexpected BLOCK2 option", null, coapResponse.getBlock2());
+    }
+
+    @Test
+    public void testResourceWasSerializedOnlyOnce(){
+        assertEquals("Wrong number of serializations", 1, largeService.getSerializations());
+    }
+
+    @Test
+    public void testServerReceivedCompleteRequestOnce(){
+        assertEquals("Wrong number of requests", 1, echoService.getRequests());
+        assertEquals("Wrong request payload", LARGE_PAYLOAD, echoService.getLastPayload());
+    }
+
+    @Test
+    public void testClientReceivedCompleteEchoOnce(){
+        assertEquals("Wrong number of responses", 1, postCallback.getCoapResponses().size());
+        CoapResponse coapResponse = postCallback.getCoapResponses().values().iterator().next();
+        assertEquals("Wrong response code", MessageCode.Name.CHANGED_204, coapResponse.getMessageCodeName());
+        assertEquals("Wrong payload", LARGE_PAYLOAD, coapResponse.getContent().toString(CoapMessage.CHARSET));
+    }
+
+
+    private static class CountingWebservice extends NotObservableTestWebservice{
+
+        private AtomicInteger serializations = new AtomicInteger(0);
+
+        public CountingWebservice(String path, String status, ScheduledExecutorService executor){
+            super(path, status, 0, 0, executor);
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            serializations.incrementAndGet();
+            return super.getSerializedResourceStatus(contentFormat);
+        }
+
+        public int getSerializations(){
+            return serializations.get();
+        }
+    }
+
+
+    private static class EchoWebservice extends NotObservableWebservice<String>{
+
+        private AtomicInteger requests = new AtomicInteger(0);
+        private volatile String lastPayload;
+
+        public EchoWebservice(String path, ScheduledExecutorService executor){
+            super(path, "", 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            requests.incrementAndGet();
+            lastPayload = coapRequest.getContent().toString(CoapMessage.CHARSET);
+
+            CoapResponse coapResponse = new CoapResponse(coapRequest.getMessageTypeName(),
+                    MessageCode.Name.CHANGED_204);
+            coapResponse.setContent(lastPayload.getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+            responseFuture.set(coapResponse);
+        }
+
+        @Override
+        public byte[] getSerializedResourceStatus(long contentFormat) {
+            return getStatus().getBytes(CoapMessage.CHARSET);
+        }
+
+        @Override
+        public byte[] getEtag(long contentFormat) {
+            return new byte[0];
+        }
+
+        @Override
+        public void updateEtag(String resourceStatus) {
+            //nothing to do
+        }
+
+        @Override
+        public void shutdown() {
+            //nothing to do
+        }
+
+        public int getRequests(){
+            return requests.get();
+        }
+
+        public String getLastPayload(){
+            return lastPayload;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.client.ClientConfiguration;
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.client.SocketPoolConfiguration;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.CoapRequest;
+import de.uniluebeck.itm.ncoap.message.MessageCode;
+import de.uniluebeck.itm.ncoap.message.MessageType;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that a client with several sockets spreads its requests across these sockets and relates the
+* responses with the callbacks of the requests sent over the same socket.
+*
+* @author Oliver Kleine
+*/
+public class ClientSpreadsRequestsAcrossSocketsTest extends AbstractCoapCommunicationTest{
+
+    private static final int NUMBER_OF_SOCKETS = 3;
+    private static final String PATH_TO_SERVICE = "/path/to/service";
+    private static final String PAYLOAD = "some arbitrary payload";
+
+    private static CoapClientApplication client;
+    private static CoapServerApplication server;
+    private static ClientTestCallback[] callbacks;
+    private static int[] ports;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.client").setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        server.registerService(new NotObservableTestWebservice(PATH_TO_SERVICE, PAYLOAD, 0, 0,
+                server.getExecutor()));
+
+        client = new CoapClientApplication("CoAP Testclient", 0, new ClientConfiguration.Builder()
+                .setSocketPoolConfiguration(new SocketPoolConfiguration(NUMBER_OF_SOCKETS,
+                        SocketPoolConfiguration.SelectionPolicy.ROUND_ROBIN))
+                .build());
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+
+//             client (3 sockets)              server     DESCRIPTION
+//                  |                             |
+//              (1) |----CON-GET (socket 1)------>|       Client sends one request over each socket
+//              (2) |----CON-GET (socket 2)------>|
+//              (3) |----CON-GET (socket 3)------>|
+//                  |                             |
+//              (4) |<---ACK-RESPONSE (socket x)--|       Server responds to each socket
+
+        //the local addresses are not available after shutdown
+        ports = client.getPorts();
+
+        URI targetURI = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        callbacks = new ClientTestCallback[NUMBER_OF_SOCKETS];
+        for(int i = 0; i < NUMBER_OF_SOCKETS; i++){
+            callbacks[i] = new ClientTestCallback();
+            CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetURI);
+            client.sendCoapRequest(coapRequest, callbacks[i], serverSocket);
+        }
+
+        Thread.sleep(1000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+
+    @Test
+    public void testClientIsBoundToDistinctPorts(){
+        Set<Integer> distinctPorts = new HashSet<>();
+        for(int port : ports){
+            distinctPorts.add(port);
+        }
+
+        assertEquals("Wrong number of distinct ports", NUMBER_OF_SOCKETS, distinctPorts.size());
+    }
+
+    @Test
+    public void testEachCallbackReceivedOneResponse(){
+        for(int i = 0; i < NUMBER_OF_SOCKETS; i++){
+            assertEquals("Wrong number of responses for callback " + i, 1, callbacks[i].getCoapResponses().size());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the key handling of {@link de.uniluebeck.itm.ncoap.communication.ExchangeStore}.
+ *
+ * @author Oliver Kleine
+ */
+public class ExchangeStoreTest extends AbstractCoapTest{
+
+    private static InetSocketAddress remoteEndpoint1 = new InetSocketAddress("localhost", 5683);
+    private static InetSocketAddress remoteEndpoint2 = new InetSocketAddress("localhost", 5684);
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do (default level is sufficient)
+    }
+
+    @Test
+    public void testTokensOfDifferentLengthAreDifferentKeys(){
+        ExchangeStore<String> store = new ExchangeStore<>();
+
+        store.put(remoteEndpoint1, new Token(new byte[0]), "empty");
+        store.put(remoteEndpoint1, new Token(new byte[1]), "one zero byte");
+        store.put(remoteEndpoint1, new Token(new byte[2]), "two zero bytes");
+
+        assertEquals("empty", store.get(remoteEndpoint1, new Token(new byte[0])));
+        assertEquals("one zero byte", store.get(remoteEndpoint1, new Token(new byte[1])));
+        assertEquals("two zero bytes", store.get(remoteEndpoint1, new Token(new byte[2])));
+        assertEquals(3, store.size());
+    }
+
+    @Test
+    public void testRemoteEndpointsAreDifferentKeys(){
+        ExchangeStore<String> store = new ExchangeStore<>();
+
+        store.put(remoteEndpoint1, 12345, "first");
+        assertNull(store.putIfAbsent(remoteEndpoint2, 12345, "second"));
+        assertEquals("second", store.putIfAbsent(remoteEndpoint2, 12345, "third"));
+
+        assertEquals("first", store.get(remoteEndpoint1, 12345));
+        assertEquals("second", store.get(remoteEndpoint2, 12345));
+        assertNull(store.get(remoteEndpoint2, 54321));
+    }
+
+    @Test
+    public void testRemoteEndpointIsRemovedWithLastExchange(){
+        ExchangeStore<String> store = new ExchangeStore<>();
+        Token token = new Token(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        store.put(remoteEndpoint1, token, "first");
+        store.put(remoteEndpoint1, 1, "second");
+
+        assertFalse(store.remove(remoteEndpoint1, token, "other"));
+        assertEquals("first", store.remove(remoteEndpoint1, token));
+        assertTrue(store.getRemoteEndpoints().contains(remoteEndpoint1));
+
+        assertTrue(store.remove(remoteEndpoint1, 1, "second"));
+        assertTrue(store.isEmpty());
+
+        store.put(remoteEndpoint1, token, "third");
+        assertEquals("third", store.get(remoteEndpoint1, token));
+    }
+
+    @Test
+    public void testManyExchangesArePutAndRemovedInAnyOrder(){
+        ExchangeStore<Integer> store = new ExchangeStore<>();
+
+        for(int messageID = 0; messageID < 1000; messageID++){
+            store.put(remoteEndpoint1, messageID, messageID);
+        }
+
+        //remove every other exchange to leave gaps in the probe sequences
+        for(int messageID = 0; messageID < 1000; messageID += 2){
+            assertEquals(Integer.valueOf(messageID), store.remove(remoteEndpoint1, messageID));
+        }
+
+        for(int messageID = 0; messageID < 1000; messageID++){
+            assertEquals(messageID % 2 == 0 ? null : Integer.valueOf(messageID), store.get(remoteEndpoint1, messageID));
+        }
+        assertEquals(500, store.size());
+
+        for(int messageID = 1; messageID < 1000; messageID += 2){
+            assertTrue(store.remove(remoteEndpoint1, messageID, messageID));
+        }
+        assertTrue(store.isEmpty());
+        assertTrue(store.getRemoteEndpoints().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.ThreadingConfiguration;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.ServerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that requests waiting too long for an application thread are silently dropped without invoking
+* the webservice, i.e. stale confirmable requests are neither answered with a response nor with an empty
+* acknowledgement.
+*
+* @author Oliver Kleine
+*/
+public class ServerDropsStaleRequestsTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH = "/path";
+
+    private static CoapServerApplication server;
+    private static DummyEndpoint endpoint;
+    private static URI serviceURI;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.dispatching.server").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        //a single application thread, i.e. the second request waits until the first one was processed
+        server = new CoapServerApplication(NotFoundHandler.getDefault(), new InetSocketAddress(0),
+                new ServerConfiguration.Builder()
+                        .setThreadingConfiguration(new ThreadingConfiguration(1, 2, 1, false))
+                        .build());
+
+        server.registerService(new NotObservableTestWebservice(PATH, "Status 1", 0, 1000, server.getExecutor()));
+        server.getWebserviceManager().setMaxRequestAge(MessageType.Name.NON, 500);
+        server.getWebserviceManager().setMaxRequestAge(MessageType.Name.CON, 500);
+
+        endpoint = new DummyEndpoint();
+        serviceURI = new URI("coap", null, "localhost", server.getPort(), PATH, null, null);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        //the 3rd request is confirmable and dropped before the empty ACK is due (i.e. after 1.5 seconds)
+        for(int i = 1; i <= 3; i++){
+            MessageType.Name messageType = i < 3 ? MessageType.Name.NON : MessageType.Name.CON;
+            CoapRequest coapRequest = new CoapRequest(messageType, MessageCode.Name.GET, serviceURI);
+            coapRequest.setMessageID(i);
+            coapRequest.setToken(new Token(new byte[]{(byte) i}));
+            endpoint.writeMessage(coapRequest, serverSocket);
+            Thread.sleep(50);
+        }
+
+        Thread.sleep(2000);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testEndpointReceivedOneMessage(){
+        assertEquals("Wrong number of messages", 1, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testFirstRequestWasProcessed(){
+        CoapMessage response = endpoint.getReceivedMessage(0);
+        assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, response.getMessageCodeName());
+        assertEquals("Wrong token", new Token(new byte[]{1}), response.getToken());
+    }
+
+    @Test
+    public void testStaleRequestsWereCounted(){
+        assertEquals("Wrong number of stale requests", 2, server.getWebserviceManager().getStaleRequests());
+    }
+}
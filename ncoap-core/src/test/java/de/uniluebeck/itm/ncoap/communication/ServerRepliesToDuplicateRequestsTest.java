@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import com.google.common.util.concurrent.SettableFuture;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that duplicates of already answered CON and NON requests are answered with the cached
+* response without invoking the webservice again.
+*
+* @author Oliver Kleine
+*/
+public class ServerRepliesToDuplicateRequestsTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH = "/path";
+
+    private static CoapServerApplication server;
+    private static CountingWebservice service;
+    private static DummyEndpoint endpoint;
+
+    private static CoapRequest conRequest;
+    private static CoapRequest nonRequest;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.reliability").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication(0);
+        service = new CountingWebservice(PATH, "Status 1", server.getExecutor());
+        server.registerService(service);
+
+        endpoint = new DummyEndpoint();
+
+        URI serviceURI = new URI("coap", null, "localhost", server.getPort(), PATH, null, null);
+
+        conRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, serviceURI);
+        conRequest.setMessageID(1);
+        conRequest.setToken(new Token(new byte[]{1, 2, 3, 4}));
+
+        nonRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.GET, serviceURI);
+        nonRequest.setMessageID(2);
+        nonRequest.setToken(new Token(new byte[]{5, 6, 7, 8}));
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        endpoint.writeMessage(conRequest, serverSocket);
+        Thread.sleep(500);
+        endpoint.writeMessage(conRequest, serverSocket);
+        Thread.sleep(500);
+
+        endpoint.writeMessage(nonRequest, serverSocket);
+        Thread.sleep(500);
+        endpoint.writeMessage(nonRequest, serverSocket);
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    @Test
+    public void testEndpointReceivedFourMessages(){
+        assertEquals("Wrong number of messages", 4, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testWebserviceWasInvokedOncePerRequest(){
+        assertEquals("Wrong number of requests", 2, service.getRequests());
+    }
+
+    @Test
+    public void testDuplicateConRequestWasAnsweredWithSameResponse(){
+        CoapMessage response1 = endpoint.getReceivedMessage(0);
+        CoapMessage response2 = endpoint.getReceivedMessage(1);
+
+        assertEquals("Wrong message type", MessageType.Name.ACK, response1.getMessageTypeName());
+        assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, response1.getMessageCodeName());
+        assertEquals("Wrong message ID", 1, response1.getMessageID());
+        assertEquals("Responses differ", response1, response2);
+    }
+
+    @Test
+    public void testDuplicateNonRequestWasAnsweredWithSameResponse(){
+        CoapMessage response1 = endpoint.getReceivedMessage(2);
+        CoapMessage response2 = endpoint.getReceivedMessage(3);
+
+        assertEquals("Wrong message type", MessageType.Name.NON, response1.getMessageTypeName());
+        assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, response1.getMessageCodeName());
+        assertEquals("Responses differ", response1, response2);
+    }
+
+
+    private static class CountingWebservice extends NotObservableTestWebservice{
+
+        private AtomicInteger requests = new AtomicInteger(0);
+
+        public CountingWebservice(String path, String status, ScheduledExecutorService executor){
+            super(path, status, 0, 0, executor);
+        }
+
+        @Override
+        public void processCoapRequest(SettableFuture<CoapResponse> responseFuture, CoapRequest coapRequest,
+                                       InetSocketAddress remoteAddress) throws Exception {
+            requests.incrementAndGet();
+            super.processCoapRequest(responseFuture, coapRequest, remoteAddress);
+        }
+
+        public int getRequests(){
+            return requests.get();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.ServerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that requests exceeding the token bucket of the remote endpoint are shed, i.e. CON requests are
+* answered with a 5.03 (Service Unavailable) and NON requests are dropped.
+*
+* @author Oliver Kleine
+*/
+public class ServerShedsRequestsOverBudgetTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH = "/path";
+    private static final long BACK_OFF_SECONDS = 7;
+
+    private static CoapServerApplication server;
+    private static DummyEndpoint endpoint;
+    private static URI serviceURI;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.admission").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        //a burst of 2 requests per remote endpoint and 1 request per second afterwards
+        AdmissionControlConfiguration admissionControlConfiguration =
+                new AdmissionControlConfiguration(100, 100000, 1, 2, 100000, 100000, BACK_OFF_SECONDS);
+
+        server = new CoapServerApplication(NotFoundHandler.getDefault(), new InetSocketAddress(0),
+                new ServerConfiguration.Builder()
+                        .setAdmissionControlConfiguration(admissionControlConfiguration)
+                        .build());
+
+        server.registerService(new NotObservableTestWebservice(PATH, "Status 1", 0, 0, server.getExecutor()));
+
+        endpoint = new DummyEndpoint();
+        serviceURI = new URI("coap", null, "localhost", server.getPort(), PATH, null, null);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for(int i = 1; i <= 3; i++){
+            endpoint.writeMessage(createRequest(MessageType.Name.CON, i), serverSocket);
+            Thread.sleep(100);
+        }
+
+        endpoint.writeMessage(createRequest(MessageType.Name.NON, 4), serverSocket);
+        Thread.sleep(500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    private static CoapRequest createRequest(MessageType.Name messageType, int number) throws Exception{
+        CoapRequest coapRequest = new CoapRequest(messageType, MessageCode.Name.GET, serviceURI);
+        coapRequest.setMessageID(number);
+        coapRequest.setToken(new Token(new byte[]{(byte) number}));
+        return coapRequest;
+    }
+
+
+    @Test
+    public void testEndpointReceivedThreeMessages(){
+        assertEquals("Wrong number of messages", 3, endpoint.getReceivedCoapMessages().size());
+    }
+
+    @Test
+    public void testRequestsWithinBurstWereProcessed(){
+        for(int i = 0; i < 2; i++){
+            CoapMessage response = endpoint.getReceivedMessage(i);
+            assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, response.getMessageCodeName());
+            assertEquals("Wrong message ID", i + 1, response.getMessageID());
+        }
+    }
+
+    @Test
+    public void testRequestExceedingBurstWasRejected(){
+        CoapMessage response = endpoint.getReceivedMessage(2);
+
+        assertEquals("Wrong message type", MessageType.Name.ACK, response.getMessageTypeName());
+        assertEquals("Wrong message code", MessageCode.Name.SERVICE_UNAVAILABLE_503,
+                response.getMessageCodeName());
+        assertEquals("Wrong message ID", 3, response.getMessageID());
+        assertEquals("Wrong token", new Token(new byte[]{3}), response.getToken());
+        assertEquals("Wrong Max-Age", BACK_OFF_SECONDS, ((CoapResponse) response).getMaxAge());
+    }
+
+    @Test
+    public void testShedRequestsWereCounted(){
+        AdmissionControlHandler handler = server.getAdmissionControlHandler();
+
+        assertEquals("Wrong number of rejected requests", 1, handler.getRejectedRequests());
+        assertEquals("Wrong number of dropped requests", 1, handler.getDroppedRequests());
+        assertEquals("Budget of answered requests not released", 0, handler.getQueuedRequests());
+        assertEquals("Budget of answered requests not released", 0, handler.getQueuedBytes());
+    }
+}
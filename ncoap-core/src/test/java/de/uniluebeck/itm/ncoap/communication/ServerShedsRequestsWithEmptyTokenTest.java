@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication;
+
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.ServerConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlConfiguration;
+import de.uniluebeck.itm.ncoap.communication.admission.AdmissionControlHandler;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.communication.dispatching.server.NotFoundHandler;
+import de.uniluebeck.itm.ncoap.endpoints.DummyEndpoint;
+import de.uniluebeck.itm.ncoap.endpoints.server.NotObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+* Tests to verify that requests with the same (empty) token are charged one by one, i.e. a request exceeding the
+* global budget is rejected even if a request with the same token is still being processed, whereas a duplicate
+* (i.e. same message ID) of an admitted request is not charged again.
+*
+*                     testEndpoint                    Server               Service
+*                          |                             |                    |
+*    (1)                   |--------GET (CON, ID 1)----->|                    |
+*                          |                             |------------------->|
+*                          |                             |                    |
+*    (2)                   |--------GET (CON, ID 2)----->|                    |
+*                          |                             |------------------->|
+*                          |                             |                    |
+*    (3)                   |--------GET (CON, ID 3)----->|                    |
+*                          |                             |                    |
+*                          |<----5.03 (ACK, ID 3)--------|                    |
+*                          |                             |                    |
+*    (4)                   |--------GET (CON, ID 1)----->| (duplicate)        |
+*                          |                             |                    |
+*                          |                             |<-------------------|
+*                          |<----CONTENT (ACK, ID 1)-----|                    |
+*                          |                             |<-------------------|
+*                          |<----CONTENT (ACK, ID 2)-----|                    |
+*                          |                             |                    |
+*
+* @author Oliver Kleine
+*/
+public class ServerShedsRequestsWithEmptyTokenTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH = "/path";
+    private static final long BACK_OFF_SECONDS = 5;
+
+    private static CoapServerApplication server;
+    private static DummyEndpoint endpoint;
+    private static URI serviceURI;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.admission").setLevel(Level.INFO);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        //a global budget of 2 requests and no relevant limit per remote endpoint
+        AdmissionControlConfiguration admissionControlConfiguration =
+                new AdmissionControlConfiguration(2, 100000, 100, 100, 100000, 100000, BACK_OFF_SECONDS);
+
+        server = new CoapServerApplication(NotFoundHandler.getDefault(), new InetSocketAddress(0),
+                new ServerConfiguration.Builder()
+                        .setAdmissionControlConfiguration(admissionControlConfiguration)
+                        .build());
+
+        server.registerService(new NotObservableTestWebservice(PATH, "Status 1", 0, 1000, server.getExecutor()));
+
+        endpoint = new DummyEndpoint();
+        serviceURI = new URI("coap", null, "localhost", server.getPort(), PATH, null, null);
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for(int i = 1; i <= 3; i++){
+            endpoint.writeMessage(createRequest(i), serverSocket);
+            Thread.sleep(100);
+        }
+
+        //retransmission of the first request
+        endpoint.writeMessage(createRequest(1), serverSocket);
+        Thread.sleep(1500);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        server.shutdown();
+        endpoint.shutdown();
+    }
+
+
+    private static CoapRequest createRequest(int messageID) throws Exception{
+        CoapRequest coapRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, serviceURI);
+        coapRequest.setMessageID(messageID);
+        coapRequest.setToken(new Token(new byte[0]));
+        return coapRequest;
+    }
+
+
+    @Test
+    public void testOnlyRequestExceedingBudgetWasRejected(){
+        int rejected = 0;
+        for(CoapMessage coapMessage : endpoint.getReceivedCoapMessages().values()){
+            if(coapMessage.getMessageCodeName() == MessageCode.Name.SERVICE_UNAVAILABLE_503){
+                assertEquals("Wrong message ID", 3, coapMessage.getMessageID());
+                rejected++;
+            }
+        }
+
+        assertEquals("Wrong number of 5.03 responses", 1, rejected);
+    }
+
+    @Test
+    public void testAdmittedRequestsWereProcessed(){
+        int[] messageIDs = new int[2];
+        for(CoapMessage coapMessage : endpoint.getReceivedCoapMessages().values()){
+            if(coapMessage.getMessageCodeName() == MessageCode.Name.CONTENT_205){
+                messageIDs[coapMessage.getMessageID() - 1]++;
+            }
+        }
+
+        assertEquals("Wrong number of responses to request 1", 1, messageIDs[0]);
+        assertEquals("Wrong number of responses to request 2", 1, messageIDs[1]);
+    }
+
+    @Test
+    public void testShedRequestsWereCounted(){
+        AdmissionControlHandler handler = server.getAdmissionControlHandler();
+
+        assertEquals("Wrong number of rejected requests", 1, handler.getRejectedRequests());
+        assertEquals("Budget of answered requests not released", 0, handler.getQueuedRequests());
+        assertEquals("Budget of answered requests not released", 0, handler.getQueuedBytes());
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.collect.Lists;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.BlockOption;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.net.URI;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests if requests created from a {@link CoapRequestTemplate} are encoded exactly like the same requests created
+ * without, in particular if the variable options (ETag and Observe) differ per request.
+ *
+ * @author Oliver Kleine
+ */
+@RunWith(Parameterized.class)
+public class CoapRequestTemplateEncodingTest extends AbstractCoapTest{
+
+    private static final byte[][] NO_ETAGS = new byte[0][];
+    private static final byte[][] ETAGS = new byte[][]{{1, 2, 3, 4}, {5, 6, 7, 8, 9, 10, 11, 12}};
+
+    @Parameterized.Parameters(name = "Test {index}: {0} {1}")
+    public static Collection<Object[]> data() throws Exception {
+
+        initializeLogging();
+
+        String withHost = "coap://coap.me:5683/p1/p2/a-longer-path-component-with-extended-length?q1=v1&q2";
+        String withoutHost = "coap://127.0.0.1/p1";
+
+        return Lists.newArrayList(
+                new Object[]{MessageCode.Name.GET, withHost, NO_ETAGS, null, null},
+                new Object[]{MessageCode.Name.GET, withHost, ETAGS, null, null},
+                new Object[]{MessageCode.Name.GET, withHost, NO_ETAGS, 0L, null},
+                new Object[]{MessageCode.Name.GET, withHost, ETAGS, 0L, null},
+                new Object[]{MessageCode.Name.GET, withoutHost, ETAGS, 0L, null},
+                new Object[]{MessageCode.Name.GET, withoutHost, NO_ETAGS, null, null},
+                new Object[]{MessageCode.Name.POST, withHost, NO_ETAGS, null, "Some arbitrary payload".getBytes()}
+        );
+    }
+
+    private CoapRequestTemplate template;
+    private CoapRequest expected;
+    private CoapRequest actual;
+    private CoapTestEncoder encoder;
+
+    public CoapRequestTemplateEncodingTest(MessageCode.Name messageCode, String uri, byte[][] etags, Long observe,
+                                           byte[] payload) throws Exception {
+
+        CoapRequest prototype = new CoapRequest(MessageType.Name.CON, messageCode, new URI(uri));
+        this.expected = new CoapRequest(MessageType.Name.CON, messageCode, new URI(uri));
+
+        //the accept option is not allowed with POST requests
+        if(messageCode == MessageCode.Name.GET){
+            prototype.setAccept(ContentFormat.APP_XML, ContentFormat.APP_JSON);
+            this.expected.setAccept(ContentFormat.APP_XML, ContentFormat.APP_JSON);
+        }
+
+        this.template = new CoapRequestTemplate(prototype);
+        this.actual = this.template.createCoapRequest();
+
+        for(CoapRequest coapRequest : new CoapRequest[]{this.expected, this.actual}){
+            coapRequest.setMessageID(4321);
+            coapRequest.setToken(new Token(new byte[]{1, 2, 3, 4, 5, 6}));
+
+            if(etags.length > 0)
+                coapRequest.setEtags(etags);
+
+            if(observe != null)
+                coapRequest.setObserve(observe);
+
+            if(payload != null)
+                coapRequest.setContent(ChannelBuffers.wrappedBuffer(payload));
+        }
+
+        this.encoder = new CoapTestEncoder();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+    }
+
+    @Test
+    public void testPreEncodedOptionsAreKeptOnVariableOptionChange() throws Exception {
+        assertSame(this.template.getPreEncodedOptions(), this.actual.getPreEncodedOptions());
+    }
+
+    @Test
+    public void testEncodingFromTemplateEqualsEncodingWithout() throws Exception {
+        assertEquals(this.encoder.encode(this.expected), this.encoder.encode(this.actual));
+    }
+
+    @Test
+    public void testRequestFromTemplateEqualsRequestWithout() throws Exception {
+        assertEquals(this.expected, this.actual);
+    }
+
+    @Test
+    public void testPreEncodedOptionsAreDiscardedOnOtherOptionChange() throws Exception {
+        this.expected.setBlock2(new BlockOption(0, false, 2));
+        this.actual.setBlock2(new BlockOption(0, false, 2));
+
+        assertNull(this.actual.getPreEncodedOptions());
+        assertEquals(this.encoder.encode(this.expected), this.encoder.encode(this.actual));
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.collect.Lists;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the encoding of empty messages, i.e. empty ACK, RST and PING
+ *
+ * @author Oliver Kleine
+ */
+@RunWith(Parameterized.class)
+public class EmptyMessageEncoding extends AbstractCoapTest{
+
+    @Parameterized.Parameters(name = "Test: {0}")
+    public static Collection<Object[]> data() throws Exception {
+
+        initializeLogging();
+
+        return Lists.newArrayList(
+                new Object[]{CoapMessage.createEmptyAcknowledgement(65535), 0x6000FFFF},
+                new Object[]{CoapMessage.createEmptyAcknowledgement(65535 - 1024),
+                        0x6000FFFF - 1024},
+                new Object[]{CoapMessage.createEmptyReset(0), 0x70000000},
+                new Object[]{CoapMessage.createEmptyReset(1024),
+                        0x70000000 + 1024},
+                new Object[]{CoapMessage.createPing(12345), 0x40003039}
+        );
+    }
+
+    private CoapMessage coapMessage;
+    private int expected;
+
+    public EmptyMessageEncoding(CoapMessage coapMessage, int expected){
+        this.coapMessage = coapMessage;
+        this.expected = expected;
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+    }
+
+    @Test
+    public void testEncodedMessage() throws Exception {
+        //encode twice to make sure that reading the first result does not affect the second one
+        ChannelBuffer encodedMessage = new CoapTestEncoder().encode(coapMessage);
+        assertEquals(4, encodedMessage.readableBytes());
+        assertEquals(expected, encodedMessage.readInt());
+
+        encodedMessage = new CoapTestEncoder().encode(coapMessage);
+        assertEquals(4, encodedMessage.readableBytes());
+        assertEquals(expected, encodedMessage.readInt());
+    }
+}
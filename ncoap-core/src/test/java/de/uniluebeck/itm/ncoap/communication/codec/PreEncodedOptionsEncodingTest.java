@@ -0,0 +1,148 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.collect.Lists;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import de.uniluebeck.itm.ncoap.message.options.OptionValue;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.net.URI;
+import java.util.Collection;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests if messages with {@link PreEncodedOptions} are encoded exactly like the same messages without.
+ *
+ * @author Oliver Kleine
+ */
+@RunWith(Parameterized.class)
+public class PreEncodedOptionsEncodingTest extends AbstractCoapTest{
+
+    @Parameterized.Parameters(name = "Test {index}: {0}")
+    public static Collection<Object[]> data() throws Exception {
+
+        initializeLogging();
+
+        CoapResponse notification = new CoapResponse(MessageType.Name.CON, MessageCode.Name.CONTENT_205);
+        notification.setObserve(123456);
+        notification.setMaxAge(3600);
+        notification.setEtag(new byte[]{1, 2, 3, 4, 5});
+        notification.setContent("Some arbitrary payload".getBytes(CoapMessage.CHARSET), ContentFormat.APP_XML);
+
+        CoapResponse response = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        response.setEtag(new byte[]{1, 2, 3, 4, 5});
+        response.setContent("Some arbitrary payload".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        CoapResponse validNotification = new CoapResponse(MessageType.Name.NON, MessageCode.Name.VALID_203);
+        validNotification.setEtag(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        validNotification.setObserve(7);
+
+        CoapRequest observationRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap://coap.me:5683/p1/p2/a-longer-path-component-with-extended-length?q1=v1&q2"));
+        observationRequest.setObserve(0);
+
+        return Lists.newArrayList(
+                new Object[]{notification},
+                new Object[]{response},
+                new Object[]{validNotification},
+                new Object[]{observationRequest}
+        );
+    }
+
+    private CoapMessage coapMessage;
+    private CoapTestEncoder encoder;
+
+    public PreEncodedOptionsEncodingTest(CoapMessage coapMessage) throws Exception {
+        coapMessage.setMessageID(4321);
+        coapMessage.setToken(new Token(new byte[]{1, 2, 3, 4, 5, 6}));
+        this.coapMessage = coapMessage;
+        this.encoder = new CoapTestEncoder();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+    }
+
+    @Test
+    public void testEncodingWithPreEncodedOptionsEqualsEncodingWithout() throws Exception {
+        ChannelBuffer expected = encoder.encode(coapMessage);
+
+        coapMessage.setPreEncodedOptions(CoapMessageEncoder.preEncodeOptions(coapMessage));
+        ChannelBuffer actual = encoder.encode(coapMessage);
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testPreEncodedOptionsAreKeptOnObserveChange() throws Exception {
+        PreEncodedOptions preEncodedOptions = CoapMessageEncoder.preEncodeOptions(coapMessage);
+        coapMessage.setPreEncodedOptions(preEncodedOptions);
+
+        coapMessage.removeOptions(OptionValue.Name.OBSERVE);
+        assertSame(preEncodedOptions, coapMessage.getPreEncodedOptions());
+        assertEquals(encodeWithoutPreEncodedOptions(), encoder.encode(coapMessage));
+
+        coapMessage.setObserve(987654);
+        assertSame(preEncodedOptions, coapMessage.getPreEncodedOptions());
+        assertEquals(encodeWithoutPreEncodedOptions(), encoder.encode(coapMessage));
+    }
+
+    @Test
+    public void testPreEncodedOptionsAreDiscardedOnOtherOptionChange() throws Exception {
+        coapMessage.setPreEncodedOptions(CoapMessageEncoder.preEncodeOptions(coapMessage));
+        for(int optionNumber : coapMessage.getAllOptions().keySet()){
+            if(optionNumber != OptionValue.Name.OBSERVE){
+                coapMessage.removeOptions(optionNumber);
+                break;
+            }
+        }
+
+        assertNull(coapMessage.getPreEncodedOptions());
+    }
+
+
+    private ChannelBuffer encodeWithoutPreEncodedOptions() throws Exception {
+        PreEncodedOptions preEncodedOptions = coapMessage.getPreEncodedOptions();
+        coapMessage.setPreEncodedOptions(null);
+        try{
+            return encoder.encode(coapMessage);
+        }
+        finally{
+            coapMessage.setPreEncodedOptions(preEncodedOptions);
+        }
+    }
+}
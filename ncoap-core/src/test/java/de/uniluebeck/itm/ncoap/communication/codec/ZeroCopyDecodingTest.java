@@ -0,0 +1,133 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.codec;
+
+import com.google.common.collect.Lists;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.communication.codec.tools.CoapTestDecoder;
+import de.uniluebeck.itm.ncoap.communication.codec.tools.CoapTestEncoder;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.message.*;
+import de.uniluebeck.itm.ncoap.message.options.ContentFormat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.net.URI;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests if messages decoded in zero-copy mode (i.e. with lazily materialized options) equal the messages decoded
+ * with eagerly created options.
+ *
+ * @author Oliver Kleine
+ */
+@RunWith(Parameterized.class)
+public class ZeroCopyDecodingTest extends AbstractCoapTest{
+
+    @Parameterized.Parameters(name = "Test {index}: {0}")
+    public static Collection<Object[]> data() throws Exception {
+
+        initializeLogging();
+
+        CoapRequest observationRequest = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET,
+                new URI("coap://coap.me:5683/p1/p2/a-longer-path-component-with-extended-length?q1=v1&q2"));
+        observationRequest.setObserve(0);
+
+        CoapRequest postRequest = new CoapRequest(MessageType.Name.NON, MessageCode.Name.POST,
+                new URI("coap://example.org:5684/test"));
+        postRequest.setContent("Some arbitrary payload".getBytes(CoapMessage.CHARSET), ContentFormat.TEXT_PLAIN_UTF8);
+
+        CoapResponse response = new CoapResponse(MessageType.Name.ACK, MessageCode.Name.CONTENT_205);
+        response.setObserve(123456);
+        response.setMaxAge(3600);
+        response.setEtag(new byte[]{1, 2, 3, 4, 5});
+        response.setContent("Some arbitrary payload".getBytes(CoapMessage.CHARSET), ContentFormat.APP_XML);
+
+        return Lists.newArrayList(
+                new Object[]{observationRequest},
+                new Object[]{postRequest},
+                new Object[]{response}
+        );
+    }
+
+    private CoapMessage coapMessage;
+    private CoapMessage eagerlyDecoded;
+    private CoapMessage lazilyDecoded;
+
+    public ZeroCopyDecodingTest(CoapMessage coapMessage) throws Exception {
+        coapMessage.setMessageID(4321);
+        coapMessage.setToken(new Token(new byte[]{1, 2, 3, 4, 5, 6}));
+        this.coapMessage = coapMessage;
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.communication.codec").setLevel(Level.DEBUG);
+    }
+
+    @Before
+    public void decodeMessage() throws Exception {
+        ChannelBuffer encodedMessage = new CoapTestEncoder().encode(coapMessage);
+        eagerlyDecoded = (CoapMessage) new CoapTestDecoder(false).decode(encodedMessage.duplicate());
+        lazilyDecoded = (CoapMessage) new CoapTestDecoder(true).decode(encodedMessage.duplicate());
+    }
+
+    @Test
+    public void testRoutingFieldsWithoutMaterialization(){
+        assertEquals(coapMessage.getObserve(), lazilyDecoded.getObserve());
+        assertEquals(coapMessage.getContentFormat(), lazilyDecoded.getContentFormat());
+        assertEquals(coapMessage.getMaxAge(), lazilyDecoded.getMaxAge());
+        assertEquals(coapMessage.getToken(), lazilyDecoded.getToken());
+
+        if(coapMessage instanceof CoapRequest){
+            CoapRequest expected = (CoapRequest) coapMessage;
+            CoapRequest actual = (CoapRequest) lazilyDecoded;
+
+            assertEquals(expected.getUriPath(), actual.getUriPath());
+            assertEquals(expected.getUriQuery(), actual.getUriQuery());
+            assertEquals(expected.getUriHost(), actual.getUriHost());
+            assertEquals(expected.getUriPort(), actual.getUriPort());
+            assertEquals(expected.isObservationRequest(), actual.isObservationRequest());
+        }
+    }
+
+    @Test
+    public void testLazilyDecodedMessageEqualsOriginal(){
+        assertEquals(coapMessage, lazilyDecoded);
+    }
+
+    @Test
+    public void testLazilyDecodedMessageEqualsEagerlyDecoded(){
+        assertEquals(eagerlyDecoded, lazilyDecoded);
+        assertEquals(eagerlyDecoded.getAllOptions(), lazilyDecoded.getAllOptions());
+    }
+}
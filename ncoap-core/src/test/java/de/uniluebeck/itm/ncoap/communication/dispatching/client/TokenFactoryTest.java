@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package de.uniluebeck.itm.ncoap.communication.dispatching.client;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the allocation of {@link Token}s by {@link TokenFactory} and the primitive representation of {@link Token}s.
+ *
+ * @author Oliver Kleine
+ */
+public class TokenFactoryTest extends AbstractCoapTest{
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do (default level is sufficient)
+    }
+
+    @Test
+    public void testAllTokensAreAllocatedOnce(){
+        TokenFactory tokenFactory = new TokenFactory(1);
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("localhost", 5683);
+
+        Set<Token> allocated = new HashSet<>();
+        for(int i = 0; i < 256; i++){
+            Token token = tokenFactory.getNextToken(remoteEndpoint);
+            assertNotNull("No token allocated!", token);
+            assertTrue("Token " + token + " was allocated twice!", allocated.add(token));
+        }
+
+        assertNull("Token allocated for exhausted remote endpoint!", tokenFactory.getNextToken(remoteEndpoint));
+    }
+
+    @Test
+    public void testShorterTokensAreAllocatedFirst(){
+        TokenFactory tokenFactory = new TokenFactory(2);
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("localhost", 5683);
+
+        assertEquals("Wrong first token!", new Token(new byte[1]), tokenFactory.getNextToken(remoteEndpoint));
+
+        for(int i = 1; i < 256; i++){
+            tokenFactory.getNextToken(remoteEndpoint);
+        }
+
+        assertEquals("Wrong token after all tokens of length 1!", new Token(new byte[2]),
+                tokenFactory.getNextToken(remoteEndpoint));
+    }
+
+    @Test
+    public void testPassedBackTokenIsAvailableAgain(){
+        TokenFactory tokenFactory = new TokenFactory(1);
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("localhost", 5683);
+
+        Token token = null;
+        for(int i = 0; i < 256; i++){
+            token = tokenFactory.getNextToken(remoteEndpoint);
+        }
+
+        assertTrue("Token was not passed back!", tokenFactory.passBackToken(remoteEndpoint, token));
+        assertFalse("Token was passed back twice!", tokenFactory.passBackToken(remoteEndpoint, token));
+        assertEquals("Wrong token after pass back!", token, tokenFactory.getNextToken(remoteEndpoint));
+    }
+
+    @Test
+    public void testTokensAreAllocatedPerRemoteEndpoint(){
+        TokenFactory tokenFactory = new TokenFactory(8);
+        InetSocketAddress remoteEndpoint1 = new InetSocketAddress("localhost", 5683);
+        InetSocketAddress remoteEndpoint2 = new InetSocketAddress("localhost", 5684);
+
+        assertEquals("Tokens for different remote endpoints differ!", tokenFactory.getNextToken(remoteEndpoint1),
+                tokenFactory.getNextToken(remoteEndpoint2));
+    }
+
+    @Test
+    public void testPrimitiveTokenEqualsByteArrayToken(){
+        Token token1 = new Token(new byte[]{1, 2, 3, (byte) 0xFF});
+        Token token2 = new Token(0x010203FFL, 4);
+
+        assertEquals("Tokens are not equal!", token1, token2);
+        assertEquals("Hash codes are not equal!", token1.hashCode(), token2.hashCode());
+        assertArrayEquals("Byte arrays are not equal!", token1.getBytes(), token2.getBytes());
+        assertEquals("Wrong string representation!", "0x010203FF", token2.toString());
+    }
+
+    @Test
+    public void testTokensWithZeroBytesOfDifferentLengthDiffer(){
+        assertFalse("Empty token equals token with one zero byte!", new Token(0, 0).equals(new Token(0, 1)));
+        assertFalse("Tokens with one and two zero bytes are equal!", new Token(0, 1).equals(new Token(0, 2)));
+        assertTrue("Wrong order of tokens!", new Token(0xFF, 1).compareTo(new Token(0, 2)) < 0);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.observe;
+
+import de.uniluebeck.itm.ncoap.application.client.CoapClientApplication;
+import de.uniluebeck.itm.ncoap.application.server.CoapServerApplication;
+import de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice;
+import de.uniluebeck.itm.ncoap.communication.AbstractCoapCommunicationTest;
+import de.uniluebeck.itm.ncoap.communication.dispatching.client.Token;
+import de.uniluebeck.itm.ncoap.endpoints.client.ClientTestCallback;
+import de.uniluebeck.itm.ncoap.endpoints.server.ObservableTestWebservice;
+import de.uniluebeck.itm.ncoap.message.*;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+* Tests if a status update is sent to more observers than notified by a single thread (see
+* {@link ObservableWebservice#MIN_PARTITION_SIZE}) and if all observers receive the same update notification.
+*
+* @author Oliver Kleine
+*/
+public class ServerNotifiesManyObserversTest extends AbstractCoapCommunicationTest{
+
+    private static final String PATH_TO_SERVICE = "/observable";
+
+    private static final int NUMBER_OF_OBSERVERS = ObservableWebservice.MIN_PARTITION_SIZE + 44;
+
+    private static CoapClientApplication client;
+    private static List<ClientTestCallback> callbacks;
+
+    private static CoapServerApplication server;
+    private static ObservableTestWebservice service;
+
+
+    @Override
+    public void setupLogging() throws Exception {
+        Logger.getLogger("de.uniluebeck.itm.ncoap.application.server.webservice.ObservableWebservice")
+                .setLevel(Level.DEBUG);
+    }
+
+    @Override
+    public void setupComponents() throws Exception {
+        server = new CoapServerApplication();
+        service = new NonConfirmableTestWebservice(PATH_TO_SERVICE, 1, server.getExecutor());
+        server.registerService(service);
+
+        client = new CoapClientApplication();
+        callbacks = new ArrayList<>(NUMBER_OF_OBSERVERS);
+    }
+
+    @Override
+    public void shutdownComponents() throws Exception {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Override
+    public void createTestScenario() throws Exception {
+        URI targetUri = new URI("coap://localhost:" + server.getPort() + PATH_TO_SERVICE);
+        InetSocketAddress serverSocket = new InetSocketAddress("localhost", server.getPort());
+
+        for(int i = 0; i < NUMBER_OF_OBSERVERS; i++){
+            CoapRequest request = new CoapRequest(MessageType.Name.CON, MessageCode.Name.GET, targetUri);
+            request.setObserve(0);
+
+            ClientTestCallback callback = new ObservationCallback();
+            callbacks.add(callback);
+            client.sendCoapRequest(request, callback, serverSocket);
+        }
+
+        Thread.sleep(3000);
+        service.setResourceStatus(2, 120);
+        Thread.sleep(3000);
+    }
+
+
+    @Test
+    public void testEveryObserverReceivedTwoMessages(){
+        for(ClientTestCallback callback : callbacks){
+            assertEquals("Wrong number of messages", 2, callback.getCoapResponses().size());
+        }
+    }
+
+    @Test
+    public void testEveryObserverReceivedSameUpdateNotification(){
+        byte[] etag = null;
+
+        for(ClientTestCallback callback : callbacks){
+            CoapResponse notification = callback.getCoapResponses().get(callback.getCoapResponses().lastKey());
+
+            assertEquals("Wrong message type", MessageType.Name.NON, notification.getMessageTypeName());
+            assertEquals("Wrong message code", MessageCode.Name.CONTENT_205, notification.getMessageCodeName());
+            assertEquals("Wrong content", "Status #2", notification.getContent().toString(CoapMessage.CHARSET));
+            assertTrue("No observe option", notification.isUpdateNotification());
+
+            if(etag == null)
+                etag = notification.getEtag();
+            else
+                assertTrue("Different ETAGs", Arrays.equals(etag, notification.getEtag()));
+        }
+    }
+
+
+    private static class NonConfirmableTestWebservice extends ObservableTestWebservice{
+
+        public NonConfirmableTestWebservice(String path, int initialStatus, ScheduledExecutorService executor){
+            super(path, initialStatus, 0, executor);
+        }
+
+        @Override
+        public boolean isUpdateNotificationConfirmable(InetSocketAddress remoteEndpoint, Token token) {
+            return false;
+        }
+    }
+
+
+    private static class ObservationCallback extends ClientTestCallback{
+
+        @Override
+        public boolean continueObservation(){
+            return true;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.jboss.netty.util.Timeout;
+import org.jboss.netty.util.TimerTask;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the scheduling and cancellation of tasks with a
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.HashedWheelReliabilityTimer}.
+ *
+ * @author Oliver Kleine
+ */
+public class HashedWheelReliabilityTimerTest extends AbstractCoapTest{
+
+    private static ScheduledExecutorService executor;
+    private static HashedWheelReliabilityTimer timer;
+
+    @BeforeClass
+    public static void createTimer(){
+        ThreadFactory executorThreadFactory = new ThreadFactoryBuilder().setNameFormat("Executor#%d").build();
+        executor = Executors.newScheduledThreadPool(2, executorThreadFactory);
+
+        ThreadFactory timerThreadFactory = new ThreadFactoryBuilder().setNameFormat("Timer").build();
+        timer = new HashedWheelReliabilityTimer(timerThreadFactory, executor);
+    }
+
+    @AfterClass
+    public static void stopTimer(){
+        timer.stop();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do (default level is sufficient)
+    }
+
+    @Test
+    public void testTaskIsExecutedByExecutorAfterDelay() throws Exception{
+        final CountDownLatch latch = new CountDownLatch(1);
+        final String[] threadName = new String[1];
+        final long[] executionTime = new long[1];
+
+        long startTime = System.currentTimeMillis();
+        timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                threadName[0] = Thread.currentThread().getName();
+                executionTime[0] = System.currentTimeMillis();
+                latch.countDown();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        assertTrue("Task was not executed.", latch.await(2, TimeUnit.SECONDS));
+        assertTrue("Task was executed too early.", executionTime[0] - startTime >= 200);
+        assertTrue("Task was not executed by executor (" + threadName[0] + ")", threadName[0].startsWith("Executor#"));
+    }
+
+    @Test
+    public void testCancelledTaskIsNotExecuted() throws Exception{
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        Timeout timeout = timer.newTimeout(new TimerTask() {
+            @Override
+            public void run(Timeout timeout) throws Exception {
+                latch.countDown();
+            }
+        }, 200, TimeUnit.MILLISECONDS);
+
+        timeout.cancel();
+
+        assertTrue("Timeout was not cancelled.", timeout.isCancelled());
+        assertFalse("Cancelled task was executed.", latch.await(500, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import de.uniluebeck.itm.ncoap.message.CoapMessage;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.BitSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the allocation of message IDs by {@link de.uniluebeck.itm.ncoap.communication.reliability.MessageIDFactory}.
+ *
+ * @author Oliver Kleine
+ */
+public class MessageIDFactoryTest extends AbstractCoapTest{
+
+    private static ScheduledExecutorService executor;
+    private static ScheduledExecutorTimer timer;
+
+    @BeforeClass
+    public static void createTimer(){
+        executor = Executors.newSingleThreadScheduledExecutor();
+        timer = new ScheduledExecutorTimer(executor);
+    }
+
+    @AfterClass
+    public static void stopTimer(){
+        timer.stop();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do (default level is sufficient)
+    }
+
+    @Test
+    public void testAllMessageIDsAreAllocatedOnce(){
+        MessageIDFactory messageIDFactory = new MessageIDFactory(timer);
+        InetSocketAddress remoteEndpoint = new InetSocketAddress("localhost", 5683);
+
+        BitSet allocated = new BitSet(MessageIDFactory.MODULUS);
+        for(int i = 0; i < MessageIDFactory.MODULUS; i++){
+            int messageID = messageIDFactory.getNextMessageID(remoteEndpoint);
+            assertFalse("Message ID " + messageID + " was allocated twice!", allocated.get(messageID));
+            allocated.set(messageID);
+        }
+
+        assertEquals("Wrong message ID for exhausted remote endpoint!", CoapMessage.UNDEFINED_MESSAGE_ID,
+                messageIDFactory.getNextMessageID(remoteEndpoint));
+
+        messageIDFactory.shutdown();
+    }
+
+    @Test
+    public void testMessageIDsAreAllocatedPerRemoteEndpoint(){
+        MessageIDFactory messageIDFactory = new MessageIDFactory(timer);
+        InetSocketAddress remoteEndpoint1 = new InetSocketAddress("localhost", 5683);
+        InetSocketAddress remoteEndpoint2 = new InetSocketAddress("localhost", 5684);
+
+        for(int i = 0; i < MessageIDFactory.MODULUS; i++){
+            messageIDFactory.getNextMessageID(remoteEndpoint1);
+        }
+
+        assertNotEquals("No message ID for other remote endpoint!", CoapMessage.UNDEFINED_MESSAGE_ID,
+                messageIDFactory.getNextMessageID(remoteEndpoint2));
+
+        messageIDFactory.shutdown();
+    }
+}
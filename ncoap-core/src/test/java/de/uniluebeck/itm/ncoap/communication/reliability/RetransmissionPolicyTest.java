@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2012, Oliver Kleine, Institute of Telematics, University of Luebeck
+ * All rights reserved
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are permitted provided that the
+ * following conditions are met:
+ *
+ *  - Redistributions of source messageCode must retain the above copyright notice, this list of conditions and the following
+ *    disclaimer.
+ *
+ *  - Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the
+ *    following disclaimer in the documentation and/or other materials provided with the distribution.
+ *
+ *  - Neither the name of the University of Luebeck nor the names of its contributors may be used to endorse or promote
+ *    products derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ * INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package de.uniluebeck.itm.ncoap.communication.reliability;
+
+import de.uniluebeck.itm.ncoap.AbstractCoapTest;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the calculation of retransmission delays by the
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.RetransmissionPolicy} according to RFC 7252 and the
+ * {@link de.uniluebeck.itm.ncoap.communication.reliability.AdaptiveRetransmissionPolicy}.
+ *
+ * @author Oliver Kleine
+ */
+public class RetransmissionPolicyTest extends AbstractCoapTest{
+
+    private static final InetSocketAddress REMOTE_ENDPOINT = new InetSocketAddress("localhost", 5683);
+
+    @Override
+    public void setupLogging() throws Exception {
+        //nothing to do (default level is sufficient)
+    }
+
+    @Test
+    public void testDefaultPolicyUsesStaticTimeout(){
+        RetransmissionPolicy policy = RetransmissionPolicy.getDefault();
+        policy.updateRoundTripTime(REMOTE_ENDPOINT, 5, 0);
+
+        long delay = policy.getInitialRetransmissionDelay(REMOTE_ENDPOINT);
+        assertTrue("Initial delay too short (" + delay + ")", delay >= 2000);
+        assertTrue("Initial delay too long (" + delay + ")", delay <= 3000);
+        assertEquals("Wrong delay of 4th retransmission", 8 * delay, policy.getRetransmissionDelay(delay, 4));
+    }
+
+    @Test
+    public void testDefaultPolicyMatchesProtocolConstants(){
+        RetransmissionPolicy policy = RetransmissionPolicy.getDefault();
+
+        assertEquals("Wrong MAX_TRANSMIT_SPAN", OutboundReliableMessageTransfer.MAX_TRANSMIT_SPAN_MILLIS,
+                policy.getMaxTransmitSpan(REMOTE_ENDPOINT));
+        assertEquals("Wrong MAX_TRANSMIT_WAIT", OutboundReliableMessageTransfer.MAX_TRANSMIT_WAIT_MILLIS,
+                policy.getMaxTransmitWait(REMOTE_ENDPOINT));
+    }
+
+    @Test
+    public void testAdaptivePolicyConvergesToSmallRoundTripTimes(){
+        RetransmissionPolicy policy = new AdaptiveRetransmissionPolicy();
+        for(int i = 0; i < 20; i++){
+            policy.updateRoundTripTime(REMOTE_ENDPOINT, 5, 0);
+        }
+
+        long timeout = policy.getRetransmissionTimeout(REMOTE_ENDPOINT);
+        assertTrue("Retransmission timeout too long (" + timeout + ")", timeout < 50);
+        assertEquals("Wrong timeout for unknown endpoint", OutboundReliableMessageTransfer.ACK_TIMEOUT_MILLIS,
+                policy.getRetransmissionTimeout(new InetSocketAddress("localhost", 5684)));
+    }
+
+    @Test
+    public void testAdaptivePolicyIgnoresAmbiguousRoundTripTimes(){
+        RetransmissionPolicy policy = new AdaptiveRetransmissionPolicy();
+        policy.updateRoundTripTime(REMOTE_ENDPOINT, 20000, 3);
+
+        assertEquals("Wrong retransmission timeout", OutboundReliableMessageTransfer.ACK_TIMEOUT_MILLIS,
+                policy.getRetransmissionTimeout(REMOTE_ENDPOINT));
+    }
+
+    @Test
+    public void testAdaptivePolicyUsesVariableBackOff(){
+        RetransmissionPolicy policy = new AdaptiveRetransmissionPolicy();
+
+        assertEquals("Wrong delay for small timeout", 900, policy.getRetransmissionDelay(100, 3));
+        assertEquals("Wrong delay for medium timeout", 8000, policy.getRetransmissionDelay(2000, 3));
+        assertEquals("Wrong delay for large timeout", 9000, policy.getRetransmissionDelay(4000, 3));
+        assertEquals("Wrong maximum delay", RetransmissionPolicy.MAX_RETRANSMISSION_DELAY_MILLIS,
+                policy.getRetransmissionDelay(40000, 4));
+    }
+
+    @Test
+    public void testAdaptivePolicyDerivesBackOffFromRetransmissionTimeout(){
+        RetransmissionPolicy policy = new AdaptiveRetransmissionPolicy();
+
+        //a randomized initial delay of 1300 ms derived from an RTO of 900 ms still backs off with factor 3
+        assertEquals("Wrong delay of 2nd retransmission", 3900, policy.getRetransmissionDelay(900, 1300, 2));
+    }
+
+    @Test
+    public void testAdaptivePolicyLimitsRetransmissionTimeout(){
+        RetransmissionPolicy policy = new AdaptiveRetransmissionPolicy();
+        for(int i = 0; i < 20; i++){
+            policy.updateRoundTripTime(REMOTE_ENDPOINT, 200000, 0);
+        }
+
+        assertEquals("Wrong retransmission timeout", RetransmissionPolicy.MAX_RETRANSMISSION_DELAY_MILLIS,
+                policy.getRetransmissionTimeout(REMOTE_ENDPOINT));
+        assertTrue("Initial delay too long", policy.getInitialRetransmissionDelay(REMOTE_ENDPOINT) <=
+                RetransmissionPolicy.MAX_RETRANSMISSION_DELAY_MILLIS);
+    }
+}
@@ -121,7 +121,14 @@ public class DummyEndpoint extends SimpleChannelHandler {
         }
 
         if((e.getMessage() instanceof CoapMessage)) {
-            receivedCoapMessages.put(System.currentTimeMillis(), (CoapMessage) e.getMessage());
+            synchronized (receivedCoapMessages){
+                //messages received within the same millisecond must not replace each other
+                long receptionTime = System.currentTimeMillis();
+                while(receivedCoapMessages.containsKey(receptionTime)){
+                    receptionTime++;
+                }
+                receivedCoapMessages.put(receptionTime, (CoapMessage) e.getMessage());
+            }
             log.info("Received #{} (from {}): {}.",
                     new Object[]{getReceivedCoapMessages().size(), e.getRemoteAddress(), e.getMessage()});
         }
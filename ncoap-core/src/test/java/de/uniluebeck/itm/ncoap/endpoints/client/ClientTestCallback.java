@@ -45,6 +45,7 @@ public class ClientTestCallback extends ClientCallback {
     private Set<Long> emptyRSTs;
     private Set<Long> transmissions;
     private Set<Long> transmissionTimeouts;
+    private Set<Long> miscellaneousErrors;
 
 
     public ClientTestCallback(){
@@ -55,6 +56,7 @@ public class ClientTestCallback extends ClientCallback {
         this.emptyRSTs = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
         this.transmissions = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
         this.transmissionTimeouts = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
+        this.miscellaneousErrors = Collections.synchronizedSet(new TreeSet<Long>((Ordering.natural())));
     }
 
 
@@ -99,6 +101,15 @@ public class ClientTestCallback extends ClientCallback {
         log.info("Received RST!");
     }
 
+    @Override
+    public void processMiscellaneousError(String description) {
+
+        long actualTime = System.currentTimeMillis();
+        miscellaneousErrors.add(actualTime);
+
+        log.info("Miscellaneous error: {}", description);
+    }
+
     /**
      * Returns a {@link SortedMap} containing all received {@link CoapResponse} instances as values and their reception
      * timestamps as key.
@@ -129,4 +140,9 @@ public class ClientTestCallback extends ClientCallback {
     public Set<Long> getTransmissionTimeouts(){
         return this.transmissionTimeouts;
     }
+
+
+    public Set<Long> getMiscellaneousErrors(){
+        return this.miscellaneousErrors;
+    }
 }